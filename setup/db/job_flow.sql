@@ -1,16 +1,38 @@
-DROP TABLE JOB_FLOW;
+-- JdbcJobStore schema (jobstore.type=jdbc) for Oracle; the same as src/main/resources/db/job_flow.sql, which the
+-- application creates itself when jobstore.jdbc.schema.create=true. For a new database; job_flow_migration.sql
+-- migrates the JOB_FLOW table of earlier versions, keeping its rows
 
-CREATE TABLE JOB_FLOW 
+CREATE TABLE JOB_FLOW
 (
-	ID  VARCHAR2(64 BYTE)  DEFAULT SYS_GUID() NOT NULL,
-	APP_ID VARCHAR2(64 BYTE),
-	JOB_ID VARCHAR2(64 BYTE),
+	ID VARCHAR2(24 BYTE) NOT NULL,
+	APP_ID VARCHAR2(64 BYTE) NOT NULL,
+	JOB_ID VARCHAR2(64 BYTE) NOT NULL,
 	DESCRIPTION VARCHAR2(1024 BYTE),
-	JOB_CREATED_TIMESTAMP TIMESTAMP (6), 
+	JOB_CREATED_TIMESTAMP TIMESTAMP (6) NOT NULL,
+	STATUS VARCHAR2(32 BYTE) NOT NULL,
+	NEXT_TASK_NAME VARCHAR2(64 BYTE),
+	TRANSITION_TOKEN VARCHAR2(64 BYTE),
+	LEASE_EXPIRES_TIMESTAMP TIMESTAMP (6),
+	TASK_COUNT NUMBER(10,0) DEFAULT 0 NOT NULL,
+	CONSTRAINT JOB_FLOW_PK PRIMARY KEY (ID),
+	CONSTRAINT JOB_FLOW_APP_ID_JOB_ID_UK UNIQUE (APP_ID, JOB_ID)
+);
+
+CREATE INDEX JOB_FLOW_CLAIM_IX ON JOB_FLOW (APP_ID, NEXT_TASK_NAME, STATUS, JOB_CREATED_TIMESTAMP);
+CREATE INDEX JOB_FLOW_APP_ID_STATUS_IX ON JOB_FLOW (APP_ID, STATUS, ID);
+CREATE INDEX JOB_FLOW_LEASE_IX ON JOB_FLOW (STATUS, LEASE_EXPIRES_TIMESTAMP);
+
+CREATE TABLE JOB_FLOW_TASK
+(
+	JOB_FLOW_ID VARCHAR2(24 BYTE) NOT NULL,
+	SEQ NUMBER(10,0) NOT NULL,
+	NAME VARCHAR2(64 BYTE) NOT NULL,
+	DESCRIPTION VARCHAR2(1024 BYTE),
+	START_TIMESTAMP TIMESTAMP (6),
+	END_TIMESTAMP TIMESTAMP (6),
 	STATUS VARCHAR2(32 BYTE),
-	START_TIMESTAMP TIMESTAMP (6), 
-	END_TIMESTAMP TIMESTAMP (6), 
-	MULTI_INSTANCE_CTRL NUMBER(4,0) DEFAULT 0, 
-	ERROR_COUNT NUMBER(4,0) DEFAULT 0, 
-	ERROR_REASON VARCHAR2(1024 BYTE)
+	ERROR_REASON VARCHAR2(4000 BYTE),
+	ARCHIVED NUMBER(1,0) DEFAULT 0 NOT NULL,
+	CONSTRAINT JOB_FLOW_TASK_PK PRIMARY KEY (JOB_FLOW_ID, SEQ),
+	CONSTRAINT JOB_FLOW_TASK_JOB_FLOW_FK FOREIGN KEY (JOB_FLOW_ID) REFERENCES JOB_FLOW (ID) ON DELETE CASCADE
 );
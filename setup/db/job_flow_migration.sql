@@ -0,0 +1,63 @@
+-- Migrates the JOB_FLOW table of earlier versions to the JdbcJobStore schema (job_flow.sql) for Oracle, keeping its
+-- rows. JdbcJobStore refuses to start on the earlier table. Run it with the application stopped.
+--
+-- STATUS must hold JobState names (READY, PROCESSING, COMPLETED, ERROR) before it is run. Migrated jobs have no
+-- NEXT_TASK_NAME, so they aren't claimed until they are reset for a task. IDs stay SYS_GUIDs, so findJobsAfter and
+-- streamJobs page them in ID order rather than creation order.
+
+-- the job columns
+ALTER TABLE JOB_FLOW ADD
+(
+	NEXT_TASK_NAME VARCHAR2(64 BYTE),
+	TRANSITION_TOKEN VARCHAR2(64 BYTE),
+	LEASE_EXPIRES_TIMESTAMP TIMESTAMP (6),
+	TASK_COUNT NUMBER(10,0) DEFAULT 0 NOT NULL
+);
+
+UPDATE JOB_FLOW SET JOB_CREATED_TIMESTAMP = NVL(START_TIMESTAMP, SYSTIMESTAMP) WHERE JOB_CREATED_TIMESTAMP IS NULL;
+
+ALTER TABLE JOB_FLOW MODIFY
+(
+	APP_ID NOT NULL,
+	JOB_ID NOT NULL,
+	JOB_CREATED_TIMESTAMP NOT NULL,
+	STATUS NOT NULL
+);
+
+ALTER TABLE JOB_FLOW ADD CONSTRAINT JOB_FLOW_PK PRIMARY KEY (ID);
+ALTER TABLE JOB_FLOW ADD CONSTRAINT JOB_FLOW_APP_ID_JOB_ID_UK UNIQUE (APP_ID, JOB_ID);
+
+CREATE INDEX JOB_FLOW_CLAIM_IX ON JOB_FLOW (APP_ID, NEXT_TASK_NAME, STATUS, JOB_CREATED_TIMESTAMP);
+CREATE INDEX JOB_FLOW_APP_ID_STATUS_IX ON JOB_FLOW (APP_ID, STATUS, ID);
+CREATE INDEX JOB_FLOW_LEASE_IX ON JOB_FLOW (STATUS, LEASE_EXPIRES_TIMESTAMP);
+
+-- JOB_FLOW_ID as wide as the SYS_GUID IDs
+CREATE TABLE JOB_FLOW_TASK
+(
+	JOB_FLOW_ID VARCHAR2(64 BYTE) NOT NULL,
+	SEQ NUMBER(10,0) NOT NULL,
+	NAME VARCHAR2(64 BYTE) NOT NULL,
+	DESCRIPTION VARCHAR2(1024 BYTE),
+	START_TIMESTAMP TIMESTAMP (6),
+	END_TIMESTAMP TIMESTAMP (6),
+	STATUS VARCHAR2(32 BYTE),
+	ERROR_REASON VARCHAR2(4000 BYTE),
+	ARCHIVED NUMBER(1,0) DEFAULT 0 NOT NULL,
+	CONSTRAINT JOB_FLOW_TASK_PK PRIMARY KEY (JOB_FLOW_ID, SEQ),
+	CONSTRAINT JOB_FLOW_TASK_JOB_FLOW_FK FOREIGN KEY (JOB_FLOW_ID) REFERENCES JOB_FLOW (ID) ON DELETE CASCADE
+);
+
+-- the task columns of a started job become its only task, named LEGACY as the earlier table has no task name; its
+-- ERROR_COUNT becomes at most one error, counted while the task is unarchived
+INSERT INTO JOB_FLOW_TASK (JOB_FLOW_ID, SEQ, NAME, START_TIMESTAMP, END_TIMESTAMP, STATUS, ERROR_REASON, ARCHIVED)
+	SELECT ID, 1, 'LEGACY', START_TIMESTAMP, END_TIMESTAMP,
+		CASE WHEN ERROR_COUNT > 0 OR ERROR_REASON IS NOT NULL THEN 'ERROR'
+			WHEN END_TIMESTAMP IS NOT NULL THEN 'COMPLETED' ELSE 'PROCESSING' END,
+		ERROR_REASON, 0
+	FROM JOB_FLOW WHERE START_TIMESTAMP IS NOT NULL;
+
+UPDATE JOB_FLOW SET TASK_COUNT = 1 WHERE START_TIMESTAMP IS NOT NULL;
+
+ALTER TABLE JOB_FLOW DROP (START_TIMESTAMP, END_TIMESTAMP, MULTI_INSTANCE_CTRL, ERROR_COUNT, ERROR_REASON);
+
+COMMIT;
@@ -0,0 +1,48 @@
+package gov.nyc.doitt.jobstatemanager.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Parsing the sort params of GET /jobs in each of their forms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortParamMapperBenchmark {
+
+	private SortParamMapper sortParamMapper = new SortParamMapper();
+
+	private String[] propertyDirection = { "createdTimestamp", "asc" };
+
+	private String[] propertyDirectionPairs = { "state,asc", "nextTaskName,desc", "createdTimestamp,desc" };
+
+	@Benchmark
+	public Sort getSortDefault() {
+		return sortParamMapper.getSort(null, "createdTimestamp", Sort.Direction.DESC);
+	}
+
+	@Benchmark
+	public Sort getSortPropertyDirection() {
+		return sortParamMapper.getSort(propertyDirection, "createdTimestamp", Sort.Direction.DESC);
+	}
+
+	@Benchmark
+	public Sort getSortPropertyDirectionPairs() {
+		return sortParamMapper.getSort(propertyDirectionPairs, "createdTimestamp", Sort.Direction.DESC);
+	}
+
+}
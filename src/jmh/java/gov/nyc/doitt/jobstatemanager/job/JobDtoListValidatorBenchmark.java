@@ -0,0 +1,67 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+/**
+ * Validating a 99 element JobDto list as JobController.createJobs does, valid or all missing their jobId
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobDtoListValidatorBenchmark {
+
+	private static final int JOB_DTOS = 99;
+
+	@Param({ "true", "false" })
+	private boolean valid;
+
+	private JobDtoListValidator jobDtoListValidator;
+
+	private ArrayList<JobDto> jobDtos;
+
+	@Setup
+	public void setUp() {
+
+		jobDtoListValidator = new JobDtoListValidator();
+		Field field = ReflectionUtils.findField(JobDtoListValidator.class, "jobDtoValidator");
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, jobDtoListValidator, new JobDtoValidator());
+
+		jobDtos = new ArrayList<>();
+		for (int i = 0; i < JOB_DTOS; i++) {
+			JobDto jobDto = new JobDto();
+			jobDto.setJobId(valid ? "jobId" + i : null);
+			jobDto.setDescription("description" + i);
+			jobDtos.add(jobDto);
+		}
+	}
+
+	@Benchmark
+	public Errors validate() {
+
+		Errors errors = new BeanPropertyBindingResult(jobDtos, "jobDtoList");
+		jobDtoListValidator.validate(jobDtos, errors);
+		return errors;
+	}
+
+}
@@ -0,0 +1,197 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.modelmapper.ModelMapper;
+import org.modelmapper.PropertyMap;
+import org.modelmapper.config.Configuration.AccessLevel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskDto;
+import gov.nyc.doitt.jobstatemanager.task.TaskDtoMapper;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * Mapping a Job to a JobDto with JobDtoMapper, against the ModelMapper configuration it replaced
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobDtoMapperBenchmark {
+
+	private static final int JOBS = 1000;
+
+	private JobDtoMapper jobDtoMapper;
+
+	private ModelMapperJobDtoMapper modelMapperJobDtoMapper;
+
+	private List<Job> jobs;
+
+	private List<JobDto> jobDtos;
+
+	@Setup
+	public void setUp() throws Exception {
+
+		jobDtoMapper = new JobDtoMapper();
+		Field field = ReflectionUtils.findField(JobDtoMapper.class, "taskDtoMapper");
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, jobDtoMapper, new TaskDtoMapper());
+
+		modelMapperJobDtoMapper = new ModelMapperJobDtoMapper();
+
+		jobs = new ArrayList<>();
+		for (int i = 0; i < JOBS; i++) {
+			Job job = new Job();
+			job.setJobName("benchmarkJob");
+			job.setJobId("jobId" + i);
+			job.setDescription("description" + i);
+			job.setNextTaskName("task1");
+			for (int j = 0; j < 3; j++) {
+				Task task = new Task(j < 2 ? "task0" : "task1");
+				task.setArchived(false);
+				if (j < 2) {
+					task.endWithError("error" + j);
+				}
+				job.startTask(task);
+			}
+			jobs.add(job);
+		}
+		jobDtos = jobDtoMapper.toDto(jobs);
+
+		// both must produce the same JSON, or the comparison means nothing
+		ObjectMapper objectMapper = new ObjectMapper();
+		String expected = objectMapper.writeValueAsString(modelMapperJobDtoMapper.toDto(jobs));
+		if (!expected.equals(objectMapper.writeValueAsString(jobDtoMapper.toDto(jobs)))) {
+			throw new IllegalStateException("JobDtoMapper.toDto differs from ModelMapper");
+		}
+		for (JobDto jobDto : jobDtos) {
+			Job expectedJob = modelMapperJobDtoMapper.fromDto("benchmarkJob", jobDto);
+			Job job = jobDtoMapper.fromDto("benchmarkJob", jobDto);
+			// createdTimestamp is set when the Job is constructed, so compare the mapped fields only
+			if (!expectedJob.getJobName().equals(job.getJobName()) || !expectedJob.getJobId().equals(job.getJobId())
+					|| !expectedJob.getDescription().equals(job.getDescription())
+					|| !expectedJob.getNextTaskName().equals(job.getNextTaskName())
+					|| expectedJob.getState() != job.getState() || expectedJob.getTasks().size() != job.getTasks().size()) {
+				throw new IllegalStateException("JobDtoMapper.fromDto differs from ModelMapper");
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public List<JobDto> toDtoHandWritten() {
+		return jobDtoMapper.toDto(jobs);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public List<JobDto> toDtoModelMapper() {
+		return modelMapperJobDtoMapper.toDto(jobs);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public List<Job> fromDtoHandWritten() {
+
+		List<Job> result = new ArrayList<>(jobDtos.size());
+		for (JobDto jobDto : jobDtos) {
+			result.add(jobDtoMapper.fromDto("benchmarkJob", jobDto));
+		}
+		return result;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public List<Job> fromDtoModelMapper() {
+
+		List<Job> result = new ArrayList<>(jobDtos.size());
+		for (JobDto jobDto : jobDtos) {
+			result.add(modelMapperJobDtoMapper.fromDto("benchmarkJob", jobDto));
+		}
+		return result;
+	}
+
+	/**
+	 * The ModelMapper based JobDtoMapper and TaskDtoMapper mappings, as they were
+	 */
+	static class ModelMapperJobDtoMapper {
+
+		private ModelMapper jobModelMapper = new ModelMapper();
+
+		private ModelMapper taskModelMapper = new ModelMapper();
+
+		ModelMapperJobDtoMapper() {
+
+			jobModelMapper.getConfiguration().setFieldMatchingEnabled(true).setFieldAccessLevel(AccessLevel.PRIVATE);
+			jobModelMapper.addMappings(new PropertyMap<JobDto, Job>() {
+
+				protected void configure() {
+					skip(destination.get_id());
+					skip(destination.getJobName());
+					skip(destination.getCreatedTimestamp());
+					skip(destination.getState());
+					skip(destination.getTasks());
+				}
+			});
+
+			taskModelMapper.getConfiguration().setFieldMatchingEnabled(true).setFieldAccessLevel(AccessLevel.PRIVATE);
+			taskModelMapper.addMappings(new PropertyMap<TaskDto, Task>() {
+
+				protected void configure() {
+					skip(destination.getState());
+					skip(destination.getStartTimestamp());
+					skip(destination.getEndTimestamp());
+				}
+			});
+		}
+
+		Job fromDto(String jobName, JobDto jobDto) {
+
+			Job job = jobModelMapper.map(jobDto, Job.class);
+			job.setJobName(jobName);
+			return job;
+		}
+
+		List<JobDto> toDto(List<Job> jobs) {
+
+			List<JobDto> jobDtos = new ArrayList<>();
+			for (Job job : jobs) {
+				JobDto jobDto = jobModelMapper.map(job, JobDto.class);
+				ArrayList<TaskDto> taskDtos = new ArrayList<>();
+				for (Task task : job.getTasks()) {
+					TaskDto taskDto = taskModelMapper.map(task, TaskDto.class);
+					taskDto.setJobId(job.getJobId());
+					taskDto.setErrorCount(job.getAttemptCountForTask(task.getName()));
+					if (task.getState() == TaskState.PROCESSING) {
+						taskDto.setLeaseExpiresTimestamp(job.getLeaseExpiresTimestamp());
+					}
+					taskDtos.add(taskDto);
+				}
+				jobDto.setTaskDtos(taskDtos);
+				jobDtos.add(jobDto);
+			}
+			return jobDtos;
+		}
+	}
+
+}
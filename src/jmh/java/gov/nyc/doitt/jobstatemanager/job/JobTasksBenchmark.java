@@ -0,0 +1,90 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskDto;
+import gov.nyc.doitt.jobstatemanager.task.TaskDtoMapper;
+
+/**
+ * The per-job work of claim/complete and job reads (DTO mapping, task error counts) on 1, 50 or 500 task histories
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JobTasksBenchmark {
+
+	@Param({ "1", "50", "500" })
+	private int tasks;
+
+	private JobDtoMapper jobDtoMapper;
+
+	private TaskDtoMapper taskDtoMapper;
+
+	private Job job;
+
+	@Setup
+	public void setUp() {
+
+		taskDtoMapper = new TaskDtoMapper();
+		jobDtoMapper = new JobDtoMapper();
+		Field field = ReflectionUtils.findField(JobDtoMapper.class, "taskDtoMapper");
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, jobDtoMapper, taskDtoMapper);
+
+		// retries of task0 and task1 that failed, ending with a task0 being processed
+		job = new Job();
+		job.setJobName("benchmarkJob");
+		job.setJobId("jobId");
+		job.setDescription("description");
+		job.setNextTaskName("task0");
+		for (int i = 0; i < tasks; i++) {
+			Task task = new Task("task" + i % 2);
+			task.setArchived(false);
+			job.startTask(task);
+			if (i < tasks - 1) {
+				job.endTaskWithError(task, "error" + i);
+			}
+		}
+	}
+
+	@Benchmark
+	public JobDto jobDtoMapperToDto() {
+		return jobDtoMapper.toDto(job);
+	}
+
+	@Benchmark
+	public TaskDto taskDtoMapperToDto() {
+		return taskDtoMapper.toDto(job, job.getLastTask());
+	}
+
+	@Benchmark
+	public long getTotalErrorCountForTask() {
+		return job.getTotalErrorCountForTask("task1");
+	}
+
+	// what getTotalErrorCountForTask costs the first time for a job created in memory
+	@Benchmark
+	public Map<String, Integer> countTaskErrors() {
+		return Job.countTaskErrors(job.getTasks());
+	}
+
+}
@@ -0,0 +1,114 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Sustained claim/complete throughput of WalJobStore, with and without fsync, by 4 threads on jobs that go back to
+ * READY when completed; an operation claims batchSize jobs and completes them, so it is 2 * batchSize transitions, each
+ * written to the write-ahead log before it returns. A job's task history is deleted every MAX_TASK_HISTORY tasks, so
+ * the jobs stay the same size however long the benchmark runs
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class WalJobStoreBenchmark {
+
+	private static final String JOB_NAME = "benchmarkJob";
+	private static final String TASK_NAME = "task0";
+	private static final int MAX_TASK_HISTORY = 64;
+
+	@Param({ "1", "100" })
+	private int batchSize;
+
+	@Param({ "true", "false" })
+	private boolean fsync;
+
+	private Path dir;
+
+	private WalJobStore jobStore;
+
+	private AtomicLong jobIds = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		dir = Files.createTempDirectory("walJobStoreBenchmark");
+		jobStore = openWalJobStore(dir, fsync);
+		// enough READY jobs for every thread to claim a batch
+		for (int i = 0; i < batchSize * 8; i++) {
+			jobStore.insert(createJob(JOB_NAME, "jobId" + jobIds.incrementAndGet(), TASK_NAME));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+
+		jobStore.close();
+		FileSystemUtils.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public int claimAndComplete() {
+
+		List<Job> jobs = jobStore.claimJobs(JOB_NAME, TASK_NAME, batchSize, null);
+		for (Job job : jobs) {
+			job.getLastTask().endWithSuccess();
+			job.setState(JobState.READY);
+		}
+		int failedCount = jobStore.saveTaskResults(TASK_NAME, jobs, null).size();
+		for (Job job : jobs) {
+			if (job.getTaskCount() % MAX_TASK_HISTORY == 0) {
+				jobStore.deleteTaskHistory(JOB_NAME, job.getJobId());
+			}
+		}
+		return failedCount;
+	}
+
+	static WalJobStore openWalJobStore(Path dir, boolean fsync) throws IOException {
+
+		WalJobStore walJobStore = new WalJobStore();
+		ReflectionTestUtils.setField(walJobStore, "dir", dir.toString());
+		ReflectionTestUtils.setField(walJobStore, "fsync", fsync);
+		walJobStore.open();
+		return walJobStore;
+	}
+
+	static Job createJob(String jobName, String jobId, String nextTaskName) {
+
+		Job job = new Job();
+		job.setJobName(jobName);
+		job.setJobId(jobId);
+		job.setDescription("description");
+		job.setNextTaskName(nextTaskName);
+		job.setCreatedTimestamp(new Timestamp(System.currentTimeMillis()));
+		return job;
+	}
+
+}
@@ -0,0 +1,88 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Recovery time of WalJobStore on restart, for 10,000 or 100,000 jobs that were each claimed and completed once,
+ * from the write-ahead log only or from a snapshot of them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WalJobStoreRecoveryBenchmark {
+
+	private static final String JOB_NAME = "benchmarkJob";
+	private static final String TASK_NAME = "task0";
+
+	@Param({ "10000", "100000" })
+	private int jobs;
+
+	@Param({ "true", "false" })
+	private boolean snapshot;
+
+	private Path dir;
+
+	private WalJobStore jobStore;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		dir = Files.createTempDirectory("walJobStoreRecoveryBenchmark");
+		WalJobStore walJobStore = WalJobStoreBenchmark.openWalJobStore(dir, false);
+		for (int i = 0; i < jobs; i++) {
+			walJobStore.insert(WalJobStoreBenchmark.createJob(JOB_NAME, "jobId" + i, TASK_NAME));
+		}
+		List<Job> claimedJobs;
+		while (!(claimedJobs = walJobStore.claimJobs(JOB_NAME, TASK_NAME, 1000, null)).isEmpty()) {
+			for (Job job : claimedJobs) {
+				job.getLastTask().endWithSuccess();
+				job.setState(JobState.COMPLETED);
+			}
+			walJobStore.saveTaskResults(TASK_NAME, claimedJobs, null);
+		}
+		if (snapshot) {
+			walJobStore.snapshot();
+		}
+		walJobStore.close();
+	}
+
+	@TearDown(Level.Invocation)
+	public void closeJobStore() throws IOException {
+		jobStore.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileSystemUtils.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public int open() throws IOException {
+
+		jobStore = WalJobStoreBenchmark.openWalJobStore(dir, false);
+		return jobStore.storedJobs().size();
+	}
+
+}
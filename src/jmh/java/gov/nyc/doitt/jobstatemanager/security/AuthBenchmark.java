@@ -0,0 +1,86 @@
+package gov.nyc.doitt.jobstatemanager.security;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.Authentication;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * The authentication done on every request: extracting the bearer token and getting the role of a token
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthBenchmark {
+
+	private static final String ADMIN_AUTH_TOKEN = "G0Ts6!yeH^uJuLIaa`J2=W#+t~p-faEgw=~Fyp0qXY778IyJAUs+^PU)=OZBiayn";
+
+	private static final String NON_ADMIN_AUTH_TOKEN = "RV9do3MRUY3gw1aclo-J#cAi6xQCJzqE-B9#LhCL)U+)jE%`eMek)4m9FSuG~y+w";
+
+	private AuthParamsExtractor authParamsExtractor;
+
+	private RoleRegistry roleRegistry;
+
+	private MockHttpServletRequest request;
+
+	@Setup
+	public void setUp() {
+
+		authParamsExtractor = new AuthParamsExtractor();
+		request = new MockHttpServletRequest("POST", "/jobStateManager/tasks");
+		request.addHeader(AuthParamsExtractor.ACCESS_TOKEN, "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		// as configured by ResourceServerConfig
+		StandardPBEStringEncryptor standardPBEStringEncryptor = new StandardPBEStringEncryptor();
+		standardPBEStringEncryptor.setPassword("jasypt");
+		Encryptor encryptor = new Encryptor();
+		setField(Encryptor.class, encryptor, "standardPBEStringEncryptor", standardPBEStringEncryptor);
+
+		roleRegistry = new RoleRegistry();
+		setField(RoleRegistry.class, roleRegistry, "encryptor", encryptor);
+		setField(RoleRegistry.class, roleRegistry, "adminAuthToken", encryptor.encrypt(ADMIN_AUTH_TOKEN));
+		// decrypts the admin token, once, so the benchmarks only look it up
+		if (roleRegistry.getRole(ADMIN_AUTH_TOKEN) != Role.ROLE_ADMIN) {
+			throw new IllegalStateException("Admin token not recognized");
+		}
+	}
+
+	@Benchmark
+	public Authentication extract() {
+		return authParamsExtractor.extract(request);
+	}
+
+	@Benchmark
+	public Role getRoleAdmin() {
+		return roleRegistry.getRole(ADMIN_AUTH_TOKEN);
+	}
+
+	@Benchmark
+	public Role getRoleNonAdmin() {
+		return roleRegistry.getRole(NON_ADMIN_AUTH_TOKEN);
+	}
+
+	private void setField(Class<?> clazz, Object target, String name, Object value) {
+
+		Field field = ReflectionUtils.findField(clazz, name);
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, target, value);
+	}
+
+}
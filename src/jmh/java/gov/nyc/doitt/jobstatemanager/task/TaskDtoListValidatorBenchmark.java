@@ -0,0 +1,67 @@
+package gov.nyc.doitt.jobstatemanager.task;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+
+/**
+ * Validating a 99 element TaskDto list as TaskController.endTasks does, valid or all missing their jobId and state
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskDtoListValidatorBenchmark {
+
+	private static final int TASK_DTOS = 99;
+
+	@Param({ "true", "false" })
+	private boolean valid;
+
+	private TaskDtoListValidator taskDtoListValidator;
+
+	private ArrayList<TaskDto> taskDtos;
+
+	@Setup
+	public void setUp() {
+
+		taskDtoListValidator = new TaskDtoListValidator();
+		Field field = ReflectionUtils.findField(TaskDtoListValidator.class, "taskDtoValidator");
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, taskDtoListValidator, new TaskDtoValidator());
+
+		taskDtos = new ArrayList<>();
+		for (int i = 0; i < TASK_DTOS; i++) {
+			TaskDto taskDto = new TaskDto();
+			taskDto.setJobId(valid ? "jobId" + i : null);
+			taskDto.setState(valid ? TaskState.COMPLETED.name() : null);
+			taskDtos.add(taskDto);
+		}
+	}
+
+	@Benchmark
+	public Errors validate() {
+
+		Errors errors = new BeanPropertyBindingResult(taskDtos, "taskDtoList");
+		taskDtoListValidator.validate(taskDtos, errors);
+		return errors;
+	}
+
+}
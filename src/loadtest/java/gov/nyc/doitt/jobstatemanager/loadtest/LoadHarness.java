@@ -0,0 +1,319 @@
+package gov.nyc.doitt.jobstatemanager.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import gov.nyc.doitt.jobstatemanager.JobStateManagerSpringBootApplication;
+import gov.nyc.doitt.jobstatemanager.job.JobDto;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigDto;
+import gov.nyc.doitt.jobstatemanager.jobconfig.TaskConfigDto;
+import gov.nyc.doitt.jobstatemanager.task.TaskDto;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * Drives the claim/complete cycle: producers create jobs of a JobConfig with several tasks while workers loop on POST
+ * /tasks and PUT /tasks for them, until all jobs completed their last task. Reports completed jobs/sec, claims, backlog
+ * per task and duplicate claims every report.interval.ms, then latency percentiles per endpoint.
+ *
+ * Arguments are key=value: url (default: start the application in this JVM, on a random port), adminToken, jobs,
+ * tasks, producers, workers, batchSize, produceBatchSize, waitMs (long-poll claims), workMs (time a worker spends on a
+ * claimed batch), idleSleepMs (after an empty or failed claim), timeoutSec, reportIntervalMs. All arguments are also
+ * passed to the started application, so it can be configured with spring.data.mongodb.host=..., jobstore.type=memory
+ * or wal and the like
+ */
+public class LoadHarness {
+
+	private static final ParameterizedTypeReference<List<TaskDto>> TASK_DTO_LIST = new ParameterizedTypeReference<List<TaskDto>>() {
+	};
+
+	private static final ParameterizedTypeReference<List<JobDto>> JOB_DTO_LIST = new ParameterizedTypeReference<List<JobDto>>() {
+	};
+
+	private static final ParameterizedTypeReference<List<Map<String, Object>>> JOB_STATS_LIST = new ParameterizedTypeReference<List<Map<String, Object>>>() {
+	};
+
+	private Map<String, String> params = new HashMap<>();
+
+	private String url;
+	private String adminToken;
+	private int jobs;
+	private int tasks;
+	private int producers;
+	private int workers;
+	private int batchSize;
+	private int produceBatchSize;
+	private long waitMs;
+	private long workMs;
+	private long idleSleepMs;
+	private long timeoutSec;
+	private long reportIntervalMs;
+
+	private String jobName = "loadTest" + System.currentTimeMillis();
+	private String authToken = UUID.randomUUID().toString();
+
+	private RestTemplate restTemplate = new RestTemplate();
+
+	private LoadStats stats = new LoadStats();
+
+	private volatile boolean stopping;
+
+	public static void main(String[] args) throws Exception {
+
+		LoadHarness loadHarness = new LoadHarness();
+		List<String> appArgs = new ArrayList<>();
+		for (String arg : args) {
+			String[] keyValue = arg.split("=", 2);
+			if (keyValue.length != 2) {
+				throw new IllegalArgumentException("Expected key=value, got: " + arg);
+			}
+			loadHarness.params.put(keyValue[0], keyValue[1]);
+			appArgs.add("--" + arg);
+		}
+
+		ConfigurableApplicationContext applicationContext = null;
+		if (!loadHarness.params.containsKey("url")) {
+			appArgs.add("--server.port=0");
+			applicationContext = SpringApplication.run(JobStateManagerSpringBootApplication.class,
+					appArgs.toArray(new String[0]));
+			loadHarness.params.put("url", "http://localhost:" + applicationContext.getEnvironment().getProperty("local.server.port")
+					+ applicationContext.getEnvironment().getProperty("server.servlet.context-path", ""));
+		}
+		try {
+			loadHarness.run();
+		} finally {
+			if (applicationContext != null) {
+				applicationContext.close();
+			}
+		}
+	}
+
+	private void run() throws Exception {
+
+		url = params.get("url");
+		adminToken = params.getOrDefault("adminToken",
+				"G0Ts6!yeH^uJuLIaa`J2=W#+t~p-faEgw=~Fyp0qXY778IyJAUs+^PU)=OZBiayn");
+		jobs = getInt("jobs", 20000);
+		tasks = getInt("tasks", 3);
+		producers = getInt("producers", 2);
+		workers = getInt("workers", 16);
+		batchSize = getInt("batchSize", 10);
+		produceBatchSize = getInt("produceBatchSize", 100);
+		waitMs = getInt("waitMs", 0);
+		workMs = getInt("workMs", 0);
+		idleSleepMs = getInt("idleSleepMs", 10);
+		timeoutSec = getInt("timeoutSec", 600);
+		reportIntervalMs = getInt("reportIntervalMs", 1000);
+
+		System.out.printf("url=%s jobName=%s jobs=%d tasks=%d producers=%d workers=%d batchSize=%d waitMs=%d%n", url,
+				jobName, jobs, tasks, producers, workers, batchSize, waitMs);
+		createJobConfig();
+
+		long startNanos = System.nanoTime();
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		long[] lastCompleted = { 0 };
+		reporter.scheduleAtFixedRate(() -> {
+			long completed = stats.completedJobs.sum();
+			System.out.printf("t=%.1fs produced=%d completed=%d completed/s=%.0f claims=%d emptyClaims=%d duplicateClaims=%d backlog=%s%n",
+					(System.nanoTime() - startNanos) / 1e9, Math.min(stats.producedJobs.get(), jobs), completed,
+					(completed - lastCompleted[0]) * 1000.0 / reportIntervalMs, stats.claimedTasks.sum(), stats.emptyClaims.sum(),
+					stats.duplicateClaims.sum(), getBacklog());
+			lastCompleted[0] = completed;
+		}, reportIntervalMs, reportIntervalMs, TimeUnit.MILLISECONDS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(producers + workers);
+		for (int i = 0; i < producers; i++) {
+			executor.submit(this::produce);
+		}
+		for (int i = 0; i < workers; i++) {
+			// every task has workers
+			String taskName = "task" + i % tasks;
+			executor.submit(() -> work(taskName));
+		}
+
+		long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(timeoutSec);
+		while (stats.completedJobs.sum() < jobs && System.nanoTime() < deadlineNanos) {
+			Thread.sleep(100);
+		}
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		stopping = true;
+		executor.shutdown();
+		executor.awaitTermination(waitMs + 30000, TimeUnit.MILLISECONDS);
+		reporter.shutdownNow();
+
+		long completed = stats.completedJobs.sum();
+		System.out.printf("%n%s: %d of %d jobs completed in %.1fs, %.0f jobs/s, %d duplicate claims, %d rejected results%n",
+				completed < jobs ? "TIMED OUT" : "DONE", completed, jobs, seconds, completed / seconds,
+				stats.duplicateClaims.sum(), stats.rejectedResults.sum());
+		System.out.print(stats.getLatencySummary());
+
+		deleteJobConfig();
+	}
+
+	private void produce() {
+
+		while (!stopping) {
+			long first = stats.producedJobs.getAndAdd(produceBatchSize);
+			if (first >= jobs) {
+				return;
+			}
+			List<JobDto> jobDtos = new ArrayList<>();
+			for (long i = first; i < Math.min(first + produceBatchSize, jobs); i++) {
+				JobDto jobDto = new JobDto();
+				jobDto.setJobId("jobId" + i);
+				jobDto.setDescription("load test job " + i);
+				jobDtos.add(jobDto);
+			}
+			long startNanos = System.nanoTime();
+			try {
+				restTemplate.exchange(url + "/jobs/batch?jobName=" + jobName, HttpMethod.POST,
+						new HttpEntity<>(jobDtos, headers(authToken)), JOB_DTO_LIST);
+				stats.recordLatency(LoadStats.CREATE_JOBS, startNanos);
+			} catch (RestClientException e) {
+				stats.recordError(LoadStats.CREATE_JOBS);
+			}
+		}
+	}
+
+	private void work(String taskName) {
+
+		boolean lastTask = taskName.equals("task" + (tasks - 1));
+		while (!stopping) {
+			List<TaskDto> taskDtos;
+			long startNanos = System.nanoTime();
+			try {
+				taskDtos = restTemplate.exchange(url + "/tasks?jobName=" + jobName + "&taskName=" + taskName
+						+ (waitMs > 0 ? "&waitMs=" + waitMs : ""), HttpMethod.POST, new HttpEntity<>(headers(authToken)),
+						TASK_DTO_LIST).getBody();
+				stats.recordLatency(LoadStats.START_TASKS, startNanos);
+			} catch (RestClientException e) {
+				stats.recordError(LoadStats.START_TASKS);
+				// backs off as after an empty claim, so a failing server isn't polled in a tight loop
+				sleep(idleSleepMs);
+				continue;
+			}
+			if (taskDtos == null || taskDtos.isEmpty()) {
+				stats.emptyClaims.increment();
+				sleep(idleSleepMs);
+				continue;
+			}
+			stats.claimedTasks.add(taskDtos.size());
+			taskDtos.forEach(p -> stats.hold(p.getJobId(), taskName));
+
+			List<TaskDto> results = new ArrayList<>();
+			for (TaskDto taskDto : taskDtos) {
+				TaskDto result = new TaskDto();
+				result.setJobId(taskDto.getJobId());
+				result.setState(TaskState.COMPLETED.name());
+				results.add(result);
+			}
+			sleep(workMs);
+			startNanos = System.nanoTime();
+			try {
+				List<TaskDto> resultTaskDtos = restTemplate.exchange(url + "/tasks?jobName=" + jobName + "&taskName=" + taskName,
+						HttpMethod.PUT, new HttpEntity<>(results, headers(authToken)), TASK_DTO_LIST).getBody();
+				stats.recordLatency(LoadStats.END_TASKS, startNanos);
+				for (TaskDto resultTaskDto : resultTaskDtos) {
+					if (resultTaskDto.getResultError() != null) {
+						stats.rejectedResults.increment();
+					} else if (lastTask) {
+						stats.completedJobs.increment();
+					}
+				}
+			} catch (RestClientException e) {
+				stats.recordError(LoadStats.END_TASKS);
+			}
+			taskDtos.forEach(p -> stats.release(p.getJobId(), taskName));
+		}
+	}
+
+	private void createJobConfig() {
+
+		JobConfigDto jobConfigDto = new JobConfigDto();
+		jobConfigDto.setJobName(jobName);
+		jobConfigDto.setDescription("load test");
+		jobConfigDto.setAuthToken(authToken);
+		ArrayList<TaskConfigDto> taskConfigDtos = new ArrayList<>();
+		for (int i = 0; i < tasks; i++) {
+			TaskConfigDto taskConfigDto = new TaskConfigDto();
+			taskConfigDto.setName("task" + i);
+			taskConfigDto.setMaxBatchSize(batchSize);
+			taskConfigDto.setMaxRetriesForError(0);
+			taskConfigDto.setLeaseSeconds(300);
+			taskConfigDtos.add(taskConfigDto);
+		}
+		jobConfigDto.setTaskConfigDtos(taskConfigDtos);
+		restTemplate.exchange(url + "/jobConfigs", HttpMethod.POST, new HttpEntity<>(jobConfigDto, headers(adminToken)),
+				JobConfigDto.class);
+	}
+
+	private void deleteJobConfig() {
+
+		try {
+			restTemplate.exchange(url + "/jobConfigs/" + jobName, HttpMethod.DELETE, new HttpEntity<>(headers(adminToken)),
+					String.class);
+		} catch (RestClientException e) {
+			System.out.println("Can't delete JobConfig " + jobName + ": " + e.getMessage());
+		}
+	}
+
+	// READY jobs per task, from the stats endpoint
+	private Map<String, Long> getBacklog() {
+
+		Map<String, Long> backlog = new TreeMap<>();
+		try {
+			List<Map<String, Object>> jobStats = restTemplate.exchange(url + "/jobs/stats?jobName=" + jobName, HttpMethod.GET,
+					new HttpEntity<>(headers(authToken)), JOB_STATS_LIST).getBody();
+			jobStats.stream().filter(p -> "READY".equals(p.get("state"))).forEach(
+					p -> backlog.put(String.valueOf(p.get("nextTaskName")), ((Number) p.get("count")).longValue()));
+		} catch (RestClientException e) {
+			// reported as an empty backlog
+		}
+		return backlog;
+	}
+
+	private HttpHeaders headers(String token) {
+
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+		httpHeaders.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
+		httpHeaders.add("Authorization", "Bearer " + token);
+		return httpHeaders;
+	}
+
+	private int getInt(String key, int defaultValue) {
+		return params.containsKey(key) ? Integer.parseInt(params.get(key)) : defaultValue;
+	}
+
+	private void sleep(long ms) {
+
+		if (ms <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stopping = true;
+		}
+	}
+
+}
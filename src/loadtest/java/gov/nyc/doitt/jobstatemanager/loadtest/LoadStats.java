@@ -0,0 +1,78 @@
+package gov.nyc.doitt.jobstatemanager.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Counts and latencies of a load run, shared by producers, workers and the reporter
+ */
+class LoadStats {
+
+	static final String CREATE_JOBS = "POST /jobs/batch";
+	static final String START_TASKS = "POST /tasks";
+	static final String END_TASKS = "PUT /tasks";
+
+	final AtomicLong producedJobs = new AtomicLong();
+	final LongAdder completedJobs = new LongAdder();
+	final LongAdder claimedTasks = new LongAdder();
+	final LongAdder emptyClaims = new LongAdder();
+	final LongAdder rejectedResults = new LongAdder();
+	// a task claimed while another worker still holds it
+	final LongAdder duplicateClaims = new LongAdder();
+
+	private Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+	private Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+	// jobId/taskName of the tasks held by workers
+	private Map<String, Boolean> heldTasks = new ConcurrentHashMap<>();
+
+	void recordLatency(String endpoint, long startNanos) {
+
+		// microseconds, auto resizing to any latency
+		latencies.computeIfAbsent(endpoint, p -> new ConcurrentHistogram(3))
+				.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+	}
+
+	void recordError(String endpoint) {
+		errors.computeIfAbsent(endpoint, p -> new LongAdder()).increment();
+	}
+
+	void hold(String jobId, String taskName) {
+		if (heldTasks.putIfAbsent(jobId + "/" + taskName, Boolean.TRUE) != null) {
+			duplicateClaims.increment();
+		}
+	}
+
+	void release(String jobId, String taskName) {
+		heldTasks.remove(jobId + "/" + taskName);
+	}
+
+	/**
+	 * Latency percentiles and errors per endpoint, in milliseconds
+	 */
+	String getLatencySummary() {
+
+		StringBuilder sb = new StringBuilder();
+		for (String endpoint : new String[] { CREATE_JOBS, START_TASKS, END_TASKS }) {
+			Histogram histogram = latencies.get(endpoint);
+			LongAdder endpointErrors = errors.get(endpoint);
+			sb.append(String.format("%-17s", endpoint));
+			if (histogram == null) {
+				sb.append(" no requests\n");
+				continue;
+			}
+			sb.append(String.format(" requests=%d errors=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms%n",
+					histogram.getTotalCount(), endpointErrors == null ? 0 : endpointErrors.sum(),
+					histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+					histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0));
+		}
+		return sb.toString();
+	}
+
+}
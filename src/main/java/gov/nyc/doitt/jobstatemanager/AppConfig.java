@@ -16,12 +16,18 @@ import org.springframework.data.mongodb.core.convert.CustomConversions;
 import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
 import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
 import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
+import com.mongodb.MongoClientOptions;
+
+import gov.nyc.doitt.jobstatemanager.common.MongoCommandMetrics;
+
 @Configuration
 @EnableAutoConfiguration
 @ComponentScan
 @EnableTransactionManagement
+@EnableScheduling
 @EnableJpaRepositories(basePackages = { "gov.nyc.doitt.jobstatemanager" })
 public class AppConfig {
 
@@ -34,6 +40,12 @@ public class AppConfig {
 		return mongoTemplate;
 	}
 
+	// picked up by MongoAutoConfiguration for the MongoClient
+	@Bean
+	public MongoClientOptions mongoClientOptions(MongoCommandMetrics mongoCommandMetrics) {
+		return MongoClientOptions.builder().addCommandListener(mongoCommandMetrics).build();
+	}
+
 	@Bean
 	public MappingMongoConverter getDefaultMongoConverter() throws Exception {
 		MappingMongoConverter converter = new MappingMongoConverter(new DefaultDbRefResolver(mongoDbFactory),
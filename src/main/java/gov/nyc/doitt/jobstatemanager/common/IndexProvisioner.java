@@ -0,0 +1,142 @@
+package gov.nyc.doitt.jobstatemanager.common;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.stereotype.Component;
+
+import gov.nyc.doitt.jobstatemanager.job.Job;
+import gov.nyc.doitt.jobstatemanager.job.JobImportError;
+import gov.nyc.doitt.jobstatemanager.job.JobState;
+import gov.nyc.doitt.jobstatemanager.job.JobStats;
+import gov.nyc.doitt.jobstatemanager.job.TaskHistory;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+
+/**
+ * Creates the indexes the repository queries rely on and logs indexes that are not declared here; not used with
+ * jobstore.type=wal, which doesn't use MongoDB
+ */
+@Component
+@ConditionalOnExpression("'${jobstore.type:mongo}' != 'wal'")
+public class IndexProvisioner {
+
+	private Logger logger = LoggerFactory.getLogger(IndexProvisioner.class);
+
+	private static final String ID_INDEX_NAME = "_id_";
+
+	@Value("${mongo.indexes.provision:true}")
+	private boolean provision;
+
+	@Value("${import.errors.ttl.days:30}")
+	private long importErrorsTtlDays;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	/**
+	 * Indexes declared for each entity class
+	 * 
+	 * @return
+	 */
+	public Map<Class<?>, List<Index>> getIndexes() {
+
+		Map<Class<?>, List<Index>> indexes = new LinkedHashMap<>();
+		indexes.put(Job.class, Arrays.asList(
+				// existsByJobNameAndJobId, findByJobNameAndJobId(In), deleteByJobNameAndJobId, findByJobName; createJob and
+				// insertJobs rely on it to reject a job that already exists
+				new Index().on("jobName", Direction.ASC).on("jobId", Direction.ASC).unique().named("jobName_jobId"),
+				// findByJobNameAndState, findByJobNameAndStateInAndNextTaskName
+				new Index().on("jobName", Direction.ASC).on("state", Direction.ASC).on("nextTaskName", Direction.ASC)
+						.on("createdTimestamp", Direction.ASC).named("jobName_state_nextTaskName_createdTimestamp"),
+				// claimJobs; only READY jobs are claimed so the index stays small as jobs finish
+				new Index().on("jobName", Direction.ASC).on("nextTaskName", Direction.ASC).on("createdTimestamp", Direction.ASC)
+						.partial(PartialIndexFilter.of(where("state").is(JobState.READY.name())))
+						.named("ready_jobName_nextTaskName_createdTimestamp"),
+				// findJobsAfter, streamJobs
+				new Index().on("jobName", Direction.ASC).on("_id", Direction.ASC).named("jobName__id"),
+				new Index().on("jobName", Direction.ASC).on("state", Direction.ASC).on("_id", Direction.ASC)
+						.named("jobName_state__id"),
+				// findByStateAndLeaseExpiresTimestampLessThan; only jobs holding a lease have the field
+				new Index().on("leaseExpiresTimestamp", Direction.ASC).sparse().named("leaseExpiresTimestamp"),
+				// TaskHistoryMigration; only jobs with tasks embedded by an earlier version, so it is empty once they are
+				// migrated. Not on _id alone, which a second index can't have before MongoDB 4.4
+				new Index().on("_id", Direction.ASC).on("jobName", Direction.ASC)
+						.partial(PartialIndexFilter.of(where("tasks").exists(true))).named("unmigrated__id_jobName")));
+		indexes.put(TaskHistory.class, Arrays.asList(
+				// loadTaskHistory, deleteTaskHistory; the task history of a job in order, and one entry per task
+				new Index().on("jobName", Direction.ASC).on("jobId", Direction.ASC).on("seq", Direction.ASC).unique()
+						.named("jobName_jobId_seq")));
+		indexes.put(JobImportError.class, Arrays.asList(
+				// streamJobImportErrors; the error file of an import in line order
+				new Index().on("importId", Direction.ASC).on("line", Direction.ASC).named("importId_line"),
+				// error files are kept for import.errors.ttl.days; an existing index keeps the TTL it was created with
+				new Index().on("createdTimestamp", Direction.ASC).expire(importErrorsTtlDays, TimeUnit.DAYS)
+						.named("createdTimestamp_ttl")));
+		indexes.put(JobStats.class, Arrays.asList(
+				// JobStatsService flush and reconcile; concurrent upserts of a count must not create a second one
+				new Index().on("jobName", Direction.ASC).on("nextTaskName", Direction.ASC).on("state", Direction.ASC)
+						.unique().named("jobName_nextTaskName_state")));
+		indexes.put(JobConfig.class,
+				Arrays.asList(new Index().on("jobName", Direction.ASC).unique().named("jobName")));
+		return indexes;
+	}
+
+	@PostConstruct
+	public void provisionIndexes() {
+
+		if (!provision) {
+			logger.info("provisionIndexes: disabled");
+			return;
+		}
+
+		getIndexes().forEach((entityClass, indexes) -> {
+
+			IndexOperations indexOperations = mongoTemplate.indexOps(entityClass);
+			Map<String, IndexInfo> existingIndexes = indexOperations.getIndexInfo().stream()
+					.collect(Collectors.toMap(IndexInfo::getName, p -> p));
+
+			// create missing indexes
+			for (Index index : indexes) {
+				String name = (String) index.getIndexOptions().get("name");
+				if (existingIndexes.containsKey(name)) {
+					continue;
+				}
+				logger.info("provisionIndexes: creating missing index {} on {}: {}", name, entityClass.getSimpleName(),
+						index.getIndexKeys());
+				try {
+					indexOperations.ensureIndex(index);
+				} catch (RuntimeException e) {
+					logger.error("provisionIndexes: can't create index {} on {}", name, entityClass.getSimpleName(), e);
+				}
+			}
+
+			// report indexes nobody declared; they cost a write on every insert and update
+			Set<String> names = indexes.stream().map(p -> (String) p.getIndexOptions().get("name"))
+					.collect(Collectors.toSet());
+			existingIndexes.values().stream().filter(p -> !ID_INDEX_NAME.equals(p.getName()) && !names.contains(p.getName()))
+					.forEach(p -> logger.warn("provisionIndexes: redundant index {} on {}: {}", p.getName(),
+							entityClass.getSimpleName(), p.getIndexFields()));
+		});
+	}
+
+}
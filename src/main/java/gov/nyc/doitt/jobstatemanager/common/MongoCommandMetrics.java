@@ -0,0 +1,69 @@
+package gov.nyc.doitt.jobstatemanager.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times the commands sent to Mongo by command and collection. The collection is only in the started event, so it is kept
+ * by requestId until the command ends
+ */
+@Component
+public class MongoCommandMetrics implements CommandListener {
+
+	private static final String NO_COLLECTION = "none";
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private Map<Integer, String> collections = new ConcurrentHashMap<>();
+
+	@Override
+	public void commandStarted(CommandStartedEvent event) {
+		collections.put(event.getRequestId(), getCollection(event.getCommandName(), event.getCommand()));
+	}
+
+	@Override
+	public void commandSucceeded(CommandSucceededEvent event) {
+		record(event.getRequestId(), event.getCommandName(), "success", event.getElapsedTime(TimeUnit.NANOSECONDS));
+	}
+
+	@Override
+	public void commandFailed(CommandFailedEvent event) {
+		record(event.getRequestId(), event.getCommandName(), "failure", event.getElapsedTime(TimeUnit.NANOSECONDS));
+	}
+
+	private void record(int requestId, String commandName, String outcome, long elapsedNanos) {
+
+		String collection = collections.remove(requestId);
+		Timer.builder("jsm.mongo.commands").description("Mongo commands by command and collection")
+				.tag("command", commandName).tag("collection", collection != null ? collection : NO_COLLECTION)
+				.tag("outcome", outcome).publishPercentileHistogram().register(meterRegistry)
+				.record(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	// find, insert, update, delete, aggregate, findAndModify, count... name the collection; getMore has it apart
+	private String getCollection(String commandName, BsonDocument command) {
+
+		BsonValue value = command.get(commandName);
+		if (value != null && value.isString()) {
+			return value.asString().getValue();
+		}
+		value = command.get("collection");
+		return value != null && value.isString() ? value.asString().getValue() : NO_COLLECTION;
+	}
+
+}
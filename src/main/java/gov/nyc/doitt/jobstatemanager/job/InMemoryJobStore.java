@@ -0,0 +1,686 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+
+/**
+ * JobStore in the memory of a single instance; jobs are lost on restart, unless logged by WalJobStore. Jobs are kept
+ * in _id order, which is creation order, and indexed by jobName and jobId, by jobName, nextTaskName and state in
+ * creation order, so a claim takes the oldest READY jobs without a scan, and by lease expiry. Stored jobs are never
+ * changed: a change replaces the job with a changed copy, under a lock per jobName, and readers get copies
+ */
+@Component
+@ConditionalOnProperty(name = "jobstore.type", havingValue = "memory")
+class InMemoryJobStore implements JobStore {
+
+	private Logger logger = LoggerFactory.getLogger(InMemoryJobStore.class);
+
+	private static final Map<String, Function<Job, Comparable<?>>> SORT_PROPERTIES = new HashMap<>();
+	static {
+		SORT_PROPERTIES.put("_id", Job::get_id);
+		SORT_PROPERTIES.put("jobName", Job::getJobName);
+		SORT_PROPERTIES.put("jobId", Job::getJobId);
+		SORT_PROPERTIES.put("description", Job::getDescription);
+		SORT_PROPERTIES.put("createdTimestamp", Job::getCreatedTimestamp);
+		// stored as its name
+		SORT_PROPERTIES.put("state", p -> p.getState().name());
+		SORT_PROPERTIES.put("nextTaskName", Job::getNextTaskName);
+		SORT_PROPERTIES.put("leaseExpiresTimestamp", Job::getLeaseExpiresTimestamp);
+		SORT_PROPERTIES.put("taskCount", Job::getTaskCount);
+	}
+
+	private AtomicLong lastId = new AtomicLong();
+
+	private ConcurrentNavigableMap<String, Job> jobs = new ConcurrentSkipListMap<>();
+
+	private Map<Pair<String, String>, String> jobIdIndex = new ConcurrentHashMap<>();
+
+	private Map<Triple<String, String, JobState>, ConcurrentSkipListSet<IndexKey>> stateIndex = new ConcurrentHashMap<>();
+
+	private ConcurrentSkipListSet<IndexKey> leaseIndex = new ConcurrentSkipListSet<>();
+
+	// per jobName and jobId, the tasks by seq, so a task is added without copying the ones before it; tasks are
+	// replaced, not changed
+	private Map<Pair<String, String>, ConcurrentNavigableMap<Integer, Task>> taskHistories = new ConcurrentHashMap<>();
+
+	private Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	@Override
+	public Job insert(Job job) {
+
+		checkOpen();
+		insertJob(job);
+		commit();
+		return job;
+	}
+
+	@Override
+	public Map<String, String> insertJobs(List<Job> jobs) {
+
+		checkOpen();
+		Map<String, String> failedJobIds = new HashMap<>();
+		for (Job job : jobs) {
+			try {
+				insertJob(job);
+			} catch (DuplicateKeyException e) {
+				failedJobIds.put(job.getJobId(), "already exists");
+			}
+		}
+		commit();
+		logger.debug("insertJobs: jobs={}, failed={}", jobs.size(), failedJobIds.size());
+		return failedJobIds;
+	}
+
+	private void insertJob(Job job) {
+
+		synchronized (lock(job.getJobName())) {
+			if (jobIdIndex.containsKey(Pair.of(job.getJobName(), job.getJobId()))) {
+				throw new DuplicateKeyException(
+						String.format("Job for jobName=%s, jobId=%s already exists", job.getJobName(), job.getJobId()));
+			}
+			if (job.get_id() == null) {
+				// fixed width, so ids sort as they are generated
+				job.set_id(String.format("%024x", lastId.incrementAndGet()));
+			}
+			Job storedJob = new Job(job);
+			jobIdIndex.put(Pair.of(job.getJobName(), job.getJobId()), job.get_id());
+			store(null, storedJob);
+		}
+	}
+
+	@Override
+	public Set<String> findExistingJobIds(String jobName, Collection<String> jobIds) {
+
+		checkOpen();
+		return jobIds.stream().filter(p -> jobIdIndex.containsKey(Pair.of(jobName, p))).collect(Collectors.toSet());
+	}
+
+	@Override
+	public Job findByJobNameAndJobId(String jobName, String jobId) {
+
+		checkOpen();
+		Job job = getStoredJob(jobName, jobId);
+		return job == null ? null : new Job(job);
+	}
+
+	@Override
+	public List<Job> findByJobName(String jobName, Sort sort) {
+		return findJobs(jobName, null, sort, null);
+	}
+
+	@Override
+	public List<Job> findByJobNameAndState(String jobName, String state, Sort sort) {
+		return findJobs(jobName, JobState.valueOf(state), sort, null);
+	}
+
+	@Override
+	public List<Job> findAll(Sort sort) {
+		return findJobs(null, null, sort, null);
+	}
+
+	@Override
+	public List<Job> findJobs(String jobName, JobState state, Sort sort, Collection<String> fields) {
+
+		checkOpen();
+		// jobs are copied whole, so fields are not needed
+		return jobs.values().stream().filter(jobsFilter(jobName, state)).sorted(comparator(sort)).map(Job::new)
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public List<Job> findJobsAfter(String jobName, JobState state, String afterId, Sort.Direction direction, int limit,
+			Collection<String> fields) {
+
+		checkOpen();
+		return jobsAfter(afterId, direction).filter(jobsFilter(jobName, state)).limit(limit).map(Job::new)
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public CloseableIterator<Job> streamJobs(String jobName, JobState state, Sort.Direction direction,
+			Collection<String> fields) {
+
+		checkOpen();
+		// the jobs map iterates concurrently with changes, like a cursor
+		Iterator<Job> iterator = jobsAfter(null, direction).filter(jobsFilter(jobName, state)).map(Job::new).iterator();
+		return new CloseableIterator<Job>() {
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Job next() {
+				return iterator.next();
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public List<Job> findByJobNameAndJobIdInAndStateInAndNextTaskName(String jobName, List<String> jobIds,
+			List<JobState> states, String taskName) {
+
+		checkOpen();
+		return jobIds.stream().distinct().map(p -> getStoredJob(jobName, p))
+				.filter(p -> p != null && states.contains(p.getState()) && taskName.equals(p.getNextTaskName()))
+				.map(Job::new).collect(Collectors.toList());
+	}
+
+	@Override
+	public List<Job> findByStateAndLeaseExpiresTimestampLessThan(JobState state, Timestamp timestamp, Pageable pageable) {
+
+		checkOpen();
+		return leaseIndex.headSet(new IndexKey(timestamp.getTime(), "")).stream().map(p -> jobs.get(p.getId()))
+				.filter(p -> p != null && p.getState() == state && p.getLeaseExpiresTimestamp() != null
+						&& p.getLeaseExpiresTimestamp().before(timestamp))
+				.skip(pageable.getOffset()).limit(pageable.getPageSize()).map(Job::new).collect(Collectors.toList());
+	}
+
+	@Override
+	public Timestamp findOldestReadyCreatedTimestamp(String jobName, String nextTaskName) {
+
+		checkOpen();
+		ConcurrentSkipListSet<IndexKey> keys = stateIndex.get(Triple.of(jobName, nextTaskName, JobState.READY));
+		IndexKey key = keys == null ? null : keys.ceiling(IndexKey.FIRST);
+		return key == null ? null : new Timestamp(key.getTime());
+	}
+
+	@Override
+	public List<JobStats> countJobs() {
+
+		checkOpen();
+		List<JobStats> jobStats = new ArrayList<>();
+		stateIndex.forEach((key, keys) -> {
+			int count = keys.size();
+			if (count > 0) {
+				jobStats.add(new JobStats(key.getLeft(), key.getMiddle(), key.getRight(), count));
+			}
+		});
+		return jobStats;
+	}
+
+	@Override
+	public Job deleteByJobNameAndJobId(String jobName, String jobId) {
+
+		checkOpen();
+		Job job;
+		synchronized (lock(jobName)) {
+			job = getStoredJob(jobName, jobId);
+			if (job == null) {
+				return null;
+			}
+			remove(job);
+			logJobDeleted(job);
+		}
+		commit();
+		return new Job(job);
+	}
+
+	@Override
+	public void deleteTaskHistory(String jobName, String jobId) {
+
+		checkOpen();
+		synchronized (lock(jobName)) {
+			if (taskHistories.remove(Pair.of(jobName, jobId)) == null) {
+				return;
+			}
+			logTaskHistoryDeleted(jobName, jobId);
+		}
+		commit();
+	}
+
+	@Override
+	public List<Job> claimJobs(String jobName, String taskName, int maxBatchSize, Timestamp leaseExpiresTimestamp) {
+
+		checkOpen();
+		ConcurrentSkipListSet<IndexKey> keys = stateIndex.get(Triple.of(jobName, taskName, JobState.READY));
+		if (keys == null) {
+			return Collections.emptyList();
+		}
+
+		String transitionToken = UUID.randomUUID().toString();
+		List<Job> claimedJobs = new ArrayList<>();
+		synchronized (lock(jobName)) {
+			// oldest first; claimed jobs leave the index as they are stored
+			for (IndexKey key = keys.ceiling(IndexKey.FIRST); key != null && claimedJobs.size() < maxBatchSize; key = keys
+					.higher(key)) {
+				Job job = jobs.get(key.getId());
+				Job claimedJob = new Job(job);
+				claimedJob.startTask(new Task(taskName));
+				claimedJob.setTasks(new ArrayList<>());
+				claimedJob.setTransitionToken(transitionToken);
+				claimedJob.setLeaseExpiresTimestamp(leaseExpiresTimestamp);
+				store(job, claimedJob);
+				saveTaskHistory(claimedJob);
+				claimedJobs.add(new Job(claimedJob));
+			}
+		}
+		commit();
+		logger.debug("claimJobs: jobName={}, taskName={}, claimed={}", jobName, taskName, claimedJobs.size());
+		return claimedJobs;
+	}
+
+	@Override
+	public Set<String> saveTaskResults(String taskName, List<Job> jobs, Timestamp leaseExpiredBefore) {
+
+		checkOpen();
+		String transitionToken = UUID.randomUUID().toString();
+		Set<String> failedJobIds = new HashSet<>();
+		for (Job job : jobs) {
+			synchronized (lock(job.getJobName())) {
+				Job storedJob = this.jobs.get(job.get_id());
+				// only under the claim that returned job
+				if (storedJob == null || storedJob.getState() != JobState.PROCESSING
+						|| !taskName.equals(storedJob.getNextTaskName())
+						|| !storedJob.getTransitionToken().equals(job.getTransitionToken())
+						|| leaseExpiredBefore != null && (storedJob.getLeaseExpiresTimestamp() == null
+								|| !storedJob.getLeaseExpiresTimestamp().before(leaseExpiredBefore))) {
+					failedJobIds.add(job.getJobId());
+					continue;
+				}
+
+				Job endedJob = new Job(storedJob);
+				endedJob.setState(job.getState());
+				endedJob.setNextTaskName(job.getNextTaskName());
+				endedJob.setTransitionToken(transitionToken);
+				endedJob.setLeaseExpiresTimestamp(null);
+				Task task = job.getLastTask();
+				Task endedTask = endedJob.getLastTask();
+				endedTask.setState(task.getState());
+				endedTask.setEndTimestamp(task.getEndTimestamp());
+				endedTask.setErrorReason(task.getErrorReason());
+				if (task.getArchived()) {
+					endedTask.setArchived(true);
+				}
+				endedJob.setTaskErrorCounts(new HashMap<>(job.getTaskErrorCounts()));
+				store(storedJob, endedJob);
+				saveTaskHistory(endedJob);
+			}
+		}
+		commit();
+		logger.debug("saveTaskResults: taskName={}, jobs={}, failed={}", taskName, jobs.size(), failedJobIds.size());
+		return failedJobIds;
+	}
+
+	@Override
+	public Set<String> extendLeases(String jobName, String taskName, List<String> jobIds, Timestamp leaseExpiresTimestamp) {
+
+		checkOpen();
+		Set<String> extendedJobIds = new HashSet<>();
+		synchronized (lock(jobName)) {
+			for (String jobId : new HashSet<>(jobIds)) {
+				Job job = getStoredJob(jobName, jobId);
+				if (job != null && job.getState() == JobState.PROCESSING && taskName.equals(job.getNextTaskName())) {
+					Job extendedJob = new Job(job);
+					extendedJob.setLeaseExpiresTimestamp(leaseExpiresTimestamp);
+					store(job, extendedJob);
+					extendedJobIds.add(jobId);
+				}
+			}
+		}
+		commit();
+		return extendedJobIds;
+	}
+
+	@Override
+	public Job updateState(String jobName, String jobId, JobState state) {
+
+		checkOpen();
+		Job job;
+		synchronized (lock(jobName)) {
+			job = getStoredJob(jobName, jobId);
+			if (job == null) {
+				return null;
+			}
+			Job updatedJob = new Job(job);
+			updatedJob.setState(state);
+			updatedJob.setTransitionToken(UUID.randomUUID().toString());
+			updatedJob.setLeaseExpiresTimestamp(null);
+			store(job, updatedJob);
+		}
+		commit();
+		return new Job(job);
+	}
+
+	@Override
+	public List<Job> findJobsToReset(JobReset jobReset, String afterId, int limit) {
+
+		checkOpen();
+		return jobsAfter(afterId, Sort.Direction.ASC).filter(resetFilter(jobReset)).limit(limit).map(Job::new)
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public Set<String> resetJobs(JobReset jobReset, List<Job> jobs) {
+
+		checkOpen();
+		String transitionToken = UUID.randomUUID().toString();
+		List<String> taskNames = jobReset.getTaskNames();
+		Predicate<Task> archive = p -> taskNames == null || taskNames.contains(p.getName());
+
+		Set<String> resetJobIds = new HashSet<>();
+		synchronized (lock(jobReset.getJobName())) {
+			for (Job job : jobs) {
+				// a job changed since it was found is only reset if it still matches
+				Job storedJob = this.jobs.get(job.get_id());
+				if (storedJob == null || !resetFilter(jobReset).test(storedJob)) {
+					continue;
+				}
+
+				Job resetJob = new Job(storedJob);
+				resetJob.setState(JobState.READY);
+				resetJob.setNextTaskName(jobReset.getResetTaskName());
+				resetJob.setTransitionToken(transitionToken);
+				resetJob.setLeaseExpiresTimestamp(null);
+				if (resetJob.getTaskCount() > 0 && archive.test(resetJob.getLastTask())) {
+					resetJob.getLastTask().setArchived(true);
+				}
+				if (taskNames == null) {
+					resetJob.getTaskErrorCounts().clear();
+				} else {
+					resetJob.getTaskErrorCounts().keySet().removeAll(taskNames);
+				}
+				store(storedJob, resetJob);
+
+				NavigableMap<Integer, Task> taskHistory = taskHistories
+						.get(Pair.of(resetJob.getJobName(), resetJob.getJobId()));
+				if (taskHistory != null) {
+					taskHistory.forEach((seq, task) -> {
+						if (!task.getArchived() && archive.test(task)) {
+							Task archivedTask = new Task(task);
+							archivedTask.setArchived(true);
+							taskHistory.put(seq, archivedTask);
+							logTask(resetJob.getJobName(), resetJob.getJobId(), seq, archivedTask);
+						}
+					});
+				}
+				resetJobIds.add(resetJob.getJobId());
+			}
+		}
+		commit();
+		logger.debug("resetJobs: jobName={}, jobs={}, reset={}", jobReset.getJobName(), jobs.size(), resetJobIds.size());
+		return resetJobIds;
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs) {
+		loadTaskHistory(jobs, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs, int lastTasks) {
+
+		checkOpen();
+		for (Job job : jobs) {
+			job.setTasks(new ArrayList<>());
+			NavigableMap<Integer, Task> taskHistory = taskHistories.get(Pair.of(job.getJobName(), job.getJobId()));
+			// the job has the last task, the task history the ones before it
+			int firstSeq = Math.max(1, job.getTaskCount() - lastTasks + 1);
+			int lastSeq = job.getTaskCount() - 1;
+			if (taskHistory != null && firstSeq <= lastSeq) {
+				taskHistory.subMap(firstSeq, true, lastSeq, true).values().forEach(p -> job.getTasks().add(new Task(p)));
+			}
+			if (lastTasks > 0 && job.getTaskCount() > 0) {
+				job.getTasks().add(job.getLastTask());
+			}
+		}
+	}
+
+	/**
+	 * Store job as it was logged, replacing the job with the same _id; used to recover jobs, so it isn't logged
+	 * 
+	 * @param job
+	 */
+	void restoreJob(Job job) {
+
+		// a jobId deleted and inserted again has a new _id, which the later records are for
+		jobIdIndex.put(Pair.of(job.getJobName(), job.getJobId()), job.get_id());
+		put(jobs.get(job.get_id()), job);
+		lastId.accumulateAndGet(Long.parseLong(job.get_id(), 16), Math::max);
+	}
+
+	void restoreJobDeleted(String _id) {
+
+		Job job = jobs.get(_id);
+		if (job != null) {
+			remove(job);
+		}
+	}
+
+	void restoreTask(String jobName, String jobId, int seq, Task task) {
+		putTask(Pair.of(jobName, jobId), seq, task);
+	}
+
+	void restoreTaskHistory(String jobName, String jobId, ConcurrentNavigableMap<Integer, Task> taskHistory) {
+		taskHistories.put(Pair.of(jobName, jobId), taskHistory);
+	}
+
+	void restoreTaskHistoryDeleted(String jobName, String jobId) {
+		taskHistories.remove(Pair.of(jobName, jobId));
+	}
+
+	/**
+	 * The stored jobs, in _id order; they iterate concurrently with changes, and are not to be changed
+	 * 
+	 * @return
+	 */
+	Collection<Job> storedJobs() {
+		return Collections.unmodifiableCollection(jobs.values());
+	}
+
+	/**
+	 * The stored task histories by jobName and jobId; they iterate concurrently with changes, and are not to be changed
+	 * 
+	 * @return
+	 */
+	Map<Pair<String, String>, ConcurrentNavigableMap<Integer, Task>> storedTaskHistories() {
+		return Collections.unmodifiableMap(taskHistories);
+	}
+
+	// changes are kept in memory only; a durable store logs them with these, under the lock of their jobName, and makes
+	// them durable in commit, before they are returned to the caller
+	void logJob(Job job) {
+	}
+
+	void logJobDeleted(Job job) {
+	}
+
+	void logTask(String jobName, String jobId, int seq, Task task) {
+	}
+
+	void logTaskHistoryDeleted(String jobName, String jobId) {
+	}
+
+	void commit() {
+	}
+
+	// a durable store fails every operation, reads included, once a change may not have been made durable, as the jobs
+	// in memory may then have changes that aren't
+	void checkOpen() {
+	}
+
+	private Object lock(String jobName) {
+		return locks.computeIfAbsent(jobName, p -> new Object());
+	}
+
+	private Job getStoredJob(String jobName, String jobId) {
+
+		String id = jobIdIndex.get(Pair.of(jobName, jobId));
+		return id == null ? null : jobs.get(id);
+	}
+
+	// replace storedJob, null for a new job, with job
+	private void store(Job storedJob, Job job) {
+
+		put(storedJob, job);
+		logJob(job);
+	}
+
+	private void put(Job storedJob, Job job) {
+
+		if (storedJob != null) {
+			unindex(storedJob);
+		}
+		jobs.put(job.get_id(), job);
+		stateIndex.computeIfAbsent(Triple.of(job.getJobName(), job.getNextTaskName(), job.getState()),
+				p -> new ConcurrentSkipListSet<>()).add(new IndexKey(job.getCreatedTimestamp().getTime(), job.get_id()));
+		if (job.getLeaseExpiresTimestamp() != null) {
+			leaseIndex.add(new IndexKey(job.getLeaseExpiresTimestamp().getTime(), job.get_id()));
+		}
+	}
+
+	private void remove(Job job) {
+
+		unindex(job);
+		jobs.remove(job.get_id());
+		jobIdIndex.remove(Pair.of(job.getJobName(), job.getJobId()), job.get_id());
+	}
+
+	private void unindex(Job job) {
+
+		ConcurrentSkipListSet<IndexKey> keys = stateIndex
+				.get(Triple.of(job.getJobName(), job.getNextTaskName(), job.getState()));
+		if (keys != null) {
+			keys.remove(new IndexKey(job.getCreatedTimestamp().getTime(), job.get_id()));
+		}
+		if (job.getLeaseExpiresTimestamp() != null) {
+			leaseIndex.remove(new IndexKey(job.getLeaseExpiresTimestamp().getTime(), job.get_id()));
+		}
+	}
+
+	// write job's last task at its seq
+	private void saveTaskHistory(Job job) {
+
+		Task task = new Task(job.getLastTask());
+		putTask(Pair.of(job.getJobName(), job.getJobId()), job.getTaskCount(), task);
+		logTask(job.getJobName(), job.getJobId(), job.getTaskCount(), task);
+	}
+
+	private void putTask(Pair<String, String> key, int seq, Task task) {
+		taskHistories.computeIfAbsent(key, p -> new ConcurrentSkipListMap<>()).put(seq, task);
+	}
+
+	private Stream<Job> jobsAfter(String afterId, Sort.Direction direction) {
+
+		NavigableMap<String, Job> jobsAfter = jobs;
+		if (afterId != null) {
+			jobsAfter = direction == Sort.Direction.ASC ? jobs.tailMap(afterId, false) : jobs.headMap(afterId, false);
+		}
+		return (direction == Sort.Direction.ASC ? jobsAfter : jobsAfter.descendingMap()).values().stream();
+	}
+
+	private Predicate<Job> jobsFilter(String jobName, JobState state) {
+		return p -> (jobName == null || jobName.equals(p.getJobName())) && (state == null || state == p.getState());
+	}
+
+	private Predicate<Job> resetFilter(JobReset jobReset) {
+
+		return p -> jobReset.getJobName().equals(p.getJobName())
+				&& (jobReset.getState() == null || jobReset.getState() == p.getState())
+				&& (jobReset.getNextTaskName() == null || jobReset.getNextTaskName().equals(p.getNextTaskName()))
+				&& (jobReset.getCreatedFrom() == null || !p.getCreatedTimestamp().before(jobReset.getCreatedFrom()))
+				&& (jobReset.getCreatedTo() == null || p.getCreatedTimestamp().before(jobReset.getCreatedTo()));
+	}
+
+	// properties that aren't job properties are ignored, as they would be by a query; nulls sort first
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Comparator<Job> comparator(Sort sort) {
+
+		Comparator<Job> comparator = (p, q) -> 0;
+		for (Sort.Order order : sort) {
+			Function<Job, Comparable<?>> property = SORT_PROPERTIES.get(order.getProperty());
+			if (property == null) {
+				continue;
+			}
+			Comparator<Job> orderComparator = (p, q) -> {
+				Comparable value = property.apply(p);
+				Comparable otherValue = property.apply(q);
+				if (value == null || otherValue == null) {
+					return value == otherValue ? 0 : value == null ? -1 : 1;
+				}
+				return value.compareTo(otherValue);
+			};
+			comparator = comparator.thenComparing(order.isAscending() ? orderComparator : orderComparator.reversed());
+		}
+		return comparator;
+	}
+
+	// orders jobs by a time, then by _id
+	private static class IndexKey implements Comparable<IndexKey> {
+
+		static final IndexKey FIRST = new IndexKey(Long.MIN_VALUE, "");
+
+		private long time;
+		private String id;
+
+		IndexKey(long time, String id) {
+			this.time = time;
+			this.id = id;
+		}
+
+		long getTime() {
+			return time;
+		}
+
+		String getId() {
+			return id;
+		}
+
+		@Override
+		public int compareTo(IndexKey other) {
+
+			int result = Long.compare(time, other.time);
+			return result != 0 ? result : id.compareTo(other.id);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IndexKey && compareTo((IndexKey) obj) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(time) * 31 + id.hashCode();
+		}
+
+	}
+
+}
@@ -0,0 +1,892 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SqlParameterValue;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * JobStore on the JOB_FLOW and JOB_FLOW_TASK tables (db/job_flow.sql) of the spring.datasource database. A job is a
+ * JOB_FLOW row, its tasks are JOB_FLOW_TASK rows by seq, the last one included, and its error counts are counted from
+ * its unarchived ERROR tasks. Claims lock the oldest READY rows with SELECT ... FOR UPDATE SKIP LOCKED, so concurrent
+ * claimers take different rows without waiting on each other, or, on databases without SKIP LOCKED such as H2, flip
+ * candidates with conditional updates as MongoJobStore does. Task results are written with batched updates
+ */
+@Component
+@ConditionalOnProperty(name = "jobstore.type", havingValue = "jdbc")
+class JdbcJobStore implements JobStore {
+
+	private Logger logger = LoggerFactory.getLogger(JdbcJobStore.class);
+
+	// bounds the round trips of a claim by conditional updates when competing claimers take some of the candidates
+	private static final int MAX_CLAIM_ATTEMPTS = 3;
+
+	// Oracle allows up to 1000 expressions in an IN list
+	private static final int MAX_IN_SIZE = 1000;
+
+	// jobs per loadTaskHistory query, each with a seq range of its own
+	private static final int TASK_HISTORY_CHUNK_SIZE = 100;
+
+	private static final int STREAM_PAGE_SIZE = 1000;
+
+	// sizes of the DESCRIPTION and ERROR_REASON columns, in bytes as Oracle counts them
+	private static final int MAX_DESCRIPTION_BYTES = 1024;
+
+	private static final int MAX_ERROR_REASON_BYTES = 4000;
+
+	private static final String TASK_COLUMNS = "T.NAME AS TASK_NAME, T.DESCRIPTION AS TASK_DESCRIPTION, "
+			+ "T.START_TIMESTAMP AS TASK_START_TIMESTAMP, T.END_TIMESTAMP AS TASK_END_TIMESTAMP, T.STATUS AS TASK_STATUS, "
+			+ "T.ERROR_REASON AS TASK_ERROR_REASON, T.ARCHIVED AS TASK_ARCHIVED";
+
+	// jobs with their last task
+	private static final String SELECT_JOBS = "SELECT J.ID, J.APP_ID, J.JOB_ID, J.DESCRIPTION, J.JOB_CREATED_TIMESTAMP, "
+			+ "J.STATUS, J.NEXT_TASK_NAME, J.TRANSITION_TOKEN, J.LEASE_EXPIRES_TIMESTAMP, J.TASK_COUNT, " + TASK_COLUMNS
+			+ " FROM JOB_FLOW J LEFT JOIN JOB_FLOW_TASK T ON T.JOB_FLOW_ID = J.ID AND T.SEQ = J.TASK_COUNT";
+
+	private static final String INSERT_JOB = "INSERT INTO JOB_FLOW (ID, APP_ID, JOB_ID, DESCRIPTION, JOB_CREATED_TIMESTAMP, "
+			+ "STATUS, NEXT_TASK_NAME, TRANSITION_TOKEN, LEASE_EXPIRES_TIMESTAMP, TASK_COUNT) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String INSERT_TASK = "INSERT INTO JOB_FLOW_TASK (JOB_FLOW_ID, SEQ, NAME, DESCRIPTION, "
+			+ "START_TIMESTAMP, END_TIMESTAMP, STATUS, ERROR_REASON, ARCHIVED) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	// the oldest READY jobs of a jobName for a task, as claimJobs takes them
+	private static final String SELECT_READY_IDS = "SELECT ID FROM JOB_FLOW WHERE APP_ID = ? AND NEXT_TASK_NAME = ? "
+			+ "AND STATUS = ? ORDER BY JOB_CREATED_TIMESTAMP";
+
+	private static final Map<String, String> SORT_COLUMNS = new HashMap<>();
+	static {
+		SORT_COLUMNS.put("_id", "J.ID");
+		SORT_COLUMNS.put("jobName", "J.APP_ID");
+		SORT_COLUMNS.put("jobId", "J.JOB_ID");
+		SORT_COLUMNS.put("description", "J.DESCRIPTION");
+		SORT_COLUMNS.put("createdTimestamp", "J.JOB_CREATED_TIMESTAMP");
+		SORT_COLUMNS.put("state", "J.STATUS");
+		SORT_COLUMNS.put("nextTaskName", "J.NEXT_TASK_NAME");
+		SORT_COLUMNS.put("leaseExpiresTimestamp", "J.LEASE_EXPIRES_TIMESTAMP");
+		SORT_COLUMNS.put("taskCount", "J.TASK_COUNT");
+	}
+
+	// auto: skipLocked, except on H2; skipLocked; update
+	@Value("${jobstore.jdbc.claim.mode:auto}")
+	private String claimMode;
+
+	@Value("${jobstore.jdbc.schema.create:true}")
+	private boolean createSchema;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private TransactionTemplate transactionTemplate;
+
+	private boolean skipLocked;
+
+	@PostConstruct
+	void init() {
+
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+		if (!queryable("SELECT COUNT(*) FROM JOB_FLOW WHERE 1 = 0")) {
+			if (createSchema) {
+				logger.info("init: creating the JOB_FLOW tables");
+				new ResourceDatabasePopulator(new ClassPathResource("db/job_flow.sql")).execute(dataSource);
+			}
+		} else if (!queryable("SELECT COUNT(*) FROM JOB_FLOW_TASK WHERE 1 = 0") || !queryable(
+				"SELECT COUNT(NEXT_TASK_NAME), COUNT(TRANSITION_TOKEN), COUNT(LEASE_EXPIRES_TIMESTAMP), COUNT(TASK_COUNT) "
+						+ "FROM JOB_FLOW WHERE 1 = 0")) {
+			// the JOB_FLOW table of earlier versions, which is neither replaced nor written to with its rows in it
+			throw new JobStateManagerException(
+					"JOB_FLOW is the table of an earlier version; migrate it with setup/db/job_flow_migration.sql");
+		}
+
+		String databaseProductName = jdbcTemplate
+				.execute((ConnectionCallback<String>) p -> p.getMetaData().getDatabaseProductName());
+		skipLocked = "skipLocked".equals(claimMode) || "auto".equals(claimMode) && !"H2".equals(databaseProductName);
+		logger.info("init: database={}, claims by {}", databaseProductName,
+				skipLocked ? "SELECT FOR UPDATE SKIP LOCKED" : "conditional updates");
+	}
+
+	@Override
+	public Job insert(Job job) {
+
+		if (job.get_id() == null) {
+			job.set_id(new ObjectId().toHexString());
+		}
+		transactionTemplate.execute(status -> {
+			jdbcTemplate.update(INSERT_JOB, jobArgs(job));
+			if (job.getTaskCount() > 0 && job.findLastTask() != null) {
+				jdbcTemplate.update(INSERT_TASK, taskArgs(job.get_id(), job.getTaskCount(), job.findLastTask()));
+			}
+			return null;
+		});
+		return job;
+	}
+
+	@Override
+	public Map<String, String> insertJobs(List<Job> jobs) {
+
+		Map<String, String> failedJobIds = new HashMap<>();
+		if (jobs.isEmpty()) {
+			return failedJobIds;
+		}
+
+		jobs.stream().filter(p -> p.get_id() == null).forEach(p -> p.set_id(new ObjectId().toHexString()));
+		try {
+			transactionTemplate.execute(status -> {
+				jdbcTemplate.batchUpdate(INSERT_JOB, jobs.stream().map(this::jobArgs).collect(Collectors.toList()));
+				jdbcTemplate.batchUpdate(INSERT_TASK,
+						jobs.stream().filter(p -> p.getTaskCount() > 0 && p.findLastTask() != null)
+								.map(p -> taskArgs(p.get_id(), p.getTaskCount(), p.findLastTask()))
+								.collect(Collectors.toList()));
+				return null;
+			});
+		} catch (DataIntegrityViolationException e) {
+			// jobs created by another request since they were checked fail on the unique APP_ID, JOB_ID constraint and roll
+			// back the batch, as does a job a constraint rejects, so the jobs are inserted one at a time to tell them apart
+			for (Job job : jobs) {
+				try {
+					insert(job);
+				} catch (DuplicateKeyException f) {
+					failedJobIds.put(job.getJobId(), "already exists");
+				} catch (DataIntegrityViolationException f) {
+					failedJobIds.put(job.getJobId(), "was not created: " + f.getMostSpecificCause().getMessage());
+				}
+			}
+		}
+		logger.debug("insertJobs: jobs={}, failed={}", jobs.size(), failedJobIds.size());
+		return failedJobIds;
+	}
+
+	@Override
+	public Set<String> findExistingJobIds(String jobName, Collection<String> jobIds) {
+
+		Set<String> existingJobIds = new HashSet<>();
+		for (List<String> chunk : chunks(new HashSet<>(jobIds), MAX_IN_SIZE)) {
+			existingJobIds.addAll(jdbcTemplate.queryForList(
+					"SELECT JOB_ID FROM JOB_FLOW WHERE APP_ID = ? AND JOB_ID IN (" + inList(chunk.size()) + ")",
+					String.class, args(jobName, chunk)));
+		}
+		return existingJobIds;
+	}
+
+	@Override
+	public Job findByJobNameAndJobId(String jobName, String jobId) {
+
+		List<Job> jobs = queryJobs(" WHERE J.APP_ID = ? AND J.JOB_ID = ?", 0, jobName, jobId);
+		return jobs.isEmpty() ? null : jobs.get(0);
+	}
+
+	@Override
+	public List<Job> findByJobName(String jobName, Sort sort) {
+		return findJobs(jobName, null, sort, null);
+	}
+
+	@Override
+	public List<Job> findByJobNameAndState(String jobName, String state, Sort sort) {
+		return findJobs(jobName, JobState.valueOf(state), sort, null);
+	}
+
+	@Override
+	public List<Job> findAll(Sort sort) {
+		return findJobs(null, null, sort, null);
+	}
+
+	@Override
+	public List<Job> findJobs(String jobName, JobState state, Sort sort, Collection<String> fields) {
+
+		// rows are read whole, so fields are not needed
+		List<Object> args = new ArrayList<>();
+		return queryJobs(jobsWhere(jobName, state, args) + orderBy(sort), 0, args.toArray());
+	}
+
+	@Override
+	public List<Job> findJobsAfter(String jobName, JobState state, String afterId, Sort.Direction direction, int limit,
+			Collection<String> fields) {
+
+		// IDs are ObjectIds, which start with their creation time, so they give a creation order that is unique and
+		// indexed
+		List<Object> args = new ArrayList<>();
+		StringBuilder where = new StringBuilder(jobsWhere(jobName, state, args));
+		if (afterId != null) {
+			where.append(direction == Sort.Direction.ASC ? " AND J.ID > ?" : " AND J.ID < ?");
+			args.add(afterId);
+		}
+		where.append(" ORDER BY J.ID ").append(direction.name());
+		return queryJobs(where.toString(), limit, args.toArray());
+	}
+
+	@Override
+	public CloseableIterator<Job> streamJobs(String jobName, JobState state, Sort.Direction direction,
+			Collection<String> fields) {
+
+		// a page at a time, so no connection is held between reads
+		return new CloseableIterator<Job>() {
+
+			private Iterator<Job> page = Collections.emptyIterator();
+			private String afterId;
+			private boolean lastPage;
+
+			@Override
+			public boolean hasNext() {
+
+				if (!page.hasNext() && !lastPage) {
+					List<Job> jobs = findJobsAfter(jobName, state, afterId, direction, STREAM_PAGE_SIZE, fields);
+					lastPage = jobs.size() < STREAM_PAGE_SIZE;
+					if (!jobs.isEmpty()) {
+						afterId = jobs.get(jobs.size() - 1).get_id();
+					}
+					page = jobs.iterator();
+				}
+				return page.hasNext();
+			}
+
+			@Override
+			public Job next() {
+
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return page.next();
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	@Override
+	public List<Job> findByJobNameAndJobIdInAndStateInAndNextTaskName(String jobName, List<String> jobIds,
+			List<JobState> states, String taskName) {
+
+		List<Job> jobs = new ArrayList<>();
+		if (states.isEmpty()) {
+			return jobs;
+		}
+		List<String> stateNames = states.stream().map(JobState::name).collect(Collectors.toList());
+		for (List<String> chunk : chunks(new HashSet<>(jobIds), MAX_IN_SIZE)) {
+			jobs.addAll(queryJobs(" WHERE J.APP_ID = ? AND J.JOB_ID IN (" + inList(chunk.size()) + ") AND J.STATUS IN ("
+					+ inList(stateNames.size()) + ") AND J.NEXT_TASK_NAME = ?", 0, args(jobName, chunk, stateNames, taskName)));
+		}
+		return jobs;
+	}
+
+	@Override
+	public List<Job> findByStateAndLeaseExpiresTimestampLessThan(JobState state, Timestamp timestamp, Pageable pageable) {
+
+		List<Job> jobs = queryJobs(" WHERE J.STATUS = ? AND J.LEASE_EXPIRES_TIMESTAMP < ? ORDER BY J.LEASE_EXPIRES_TIMESTAMP",
+				(int) pageable.getOffset() + pageable.getPageSize(), state.name(), timestamp);
+		return jobs.subList(Math.min((int) pageable.getOffset(), jobs.size()), jobs.size());
+	}
+
+	@Override
+	public Timestamp findOldestReadyCreatedTimestamp(String jobName, String nextTaskName) {
+
+		// the job claimJobs would claim first
+		return jdbcTemplate.queryForObject("SELECT MIN(JOB_CREATED_TIMESTAMP) FROM JOB_FLOW WHERE APP_ID = ? "
+				+ "AND NEXT_TASK_NAME = ? AND STATUS = ?", Timestamp.class, jobName, nextTaskName, JobState.READY.name());
+	}
+
+	@Override
+	public List<JobStats> countJobs() {
+
+		return jdbcTemplate.query(
+				"SELECT APP_ID, NEXT_TASK_NAME, STATUS, COUNT(*) FROM JOB_FLOW GROUP BY APP_ID, NEXT_TASK_NAME, STATUS",
+				(rs, rowNum) -> new JobStats(rs.getString(1), rs.getString(2), JobState.valueOf(rs.getString(3)),
+						rs.getLong(4)));
+	}
+
+	@Override
+	public Job deleteByJobNameAndJobId(String jobName, String jobId) {
+
+		// its tasks go with it, on the cascading foreign key
+		return transactionTemplate.execute(status -> {
+			Job job = findForUpdate(jobName, jobId);
+			if (job != null) {
+				jdbcTemplate.update("DELETE FROM JOB_FLOW WHERE ID = ?", job.get_id());
+			}
+			return job;
+		});
+	}
+
+	@Override
+	public void deleteTaskHistory(String jobName, String jobId) {
+
+		// the tasks before the last one, if the job wasn't deleted with them
+		jdbcTemplate.update("DELETE FROM JOB_FLOW_TASK WHERE EXISTS (SELECT 1 FROM JOB_FLOW J WHERE "
+				+ "J.ID = JOB_FLOW_TASK.JOB_FLOW_ID AND J.APP_ID = ? AND J.JOB_ID = ? AND JOB_FLOW_TASK.SEQ < J.TASK_COUNT)",
+				jobName, jobId);
+	}
+
+	@Override
+	public List<Job> claimJobs(String jobName, String taskName, int maxBatchSize, Timestamp leaseExpiresTimestamp) {
+
+		String transitionToken = UUID.randomUUID().toString();
+		Task task = new Task(taskName);
+
+		List<Job> claimedJobs = transactionTemplate.execute(status -> {
+
+			List<String> candidateIds = skipLocked
+					? claimSkipLocked(jobName, taskName, maxBatchSize, leaseExpiresTimestamp, transitionToken)
+					: claimByUpdate(jobName, taskName, maxBatchSize, leaseExpiresTimestamp, transitionToken);
+			if (candidateIds.isEmpty()) {
+				return Collections.<Job>emptyList();
+			}
+
+			// the candidates this claim updated, each with its started task at its new TASK_COUNT
+			List<Job> jobs = findJobsByIds(candidateIds, transitionToken);
+			jobs.forEach(p -> p.setLastTask(new Task(task)));
+			jdbcTemplate.batchUpdate(INSERT_TASK,
+					jobs.stream().map(p -> taskArgs(p.get_id(), p.getTaskCount(), task)).collect(Collectors.toList()));
+			return jobs;
+		});
+
+		logger.debug("claimJobs: jobName={}, taskName={}, claimed={}", jobName, taskName, claimedJobs.size());
+		return claimedJobs;
+	}
+
+	@Override
+	public Set<String> saveTaskResults(String taskName, List<Job> jobs, Timestamp leaseExpiredBefore) {
+
+		Set<String> failedJobIds = new HashSet<>();
+		if (jobs.isEmpty()) {
+			return failedJobIds;
+		}
+
+		String transitionToken = UUID.randomUUID().toString();
+		String sql = "UPDATE JOB_FLOW SET STATUS = ?, NEXT_TASK_NAME = ?, TRANSITION_TOKEN = ?, LEASE_EXPIRES_TIMESTAMP = NULL "
+				+ "WHERE ID = ? AND STATUS = ? AND NEXT_TASK_NAME = ? AND TRANSITION_TOKEN = ?";
+		if (leaseExpiredBefore != null) {
+			// a heartbeat since the lease expired keeps the job with its worker
+			sql += " AND LEASE_EXPIRES_TIMESTAMP < ?";
+		}
+		String jobSql = sql;
+
+		transactionTemplate.execute(status -> {
+
+			int[] counts = jdbcTemplate.batchUpdate(jobSql, jobs.stream().map(p -> {
+				List<Object> args = new ArrayList<>(Arrays.asList(p.getState().name(), string(p.getNextTaskName()), transitionToken,
+						p.get_id(), JobState.PROCESSING.name(), taskName, p.getTransitionToken()));
+				if (leaseExpiredBefore != null) {
+					args.add(leaseExpiredBefore);
+				}
+				return args.toArray();
+			}).collect(Collectors.toList()));
+
+			Set<String> savedIds = countsKnown(counts)
+					? updatedItems(jobs, counts).stream().map(Job::get_id).collect(Collectors.toSet())
+					: findIdsByTransitionToken(jobs.stream().map(Job::get_id).collect(Collectors.toList()), transitionToken);
+			List<Job> savedJobs = new ArrayList<>();
+			for (Job job : jobs) {
+				if (savedIds.contains(job.get_id())) {
+					savedJobs.add(job);
+				} else {
+					failedJobIds.add(job.getJobId());
+				}
+			}
+
+			jdbcTemplate.batchUpdate("UPDATE JOB_FLOW_TASK SET STATUS = ?, END_TIMESTAMP = ?, ERROR_REASON = ?, "
+					+ "ARCHIVED = ? WHERE JOB_FLOW_ID = ? AND SEQ = ?", savedJobs.stream().map(p -> {
+						Task task = p.getLastTask();
+						return new Object[] { task.getState().name(), timestamp(task.getEndTimestamp()),
+								string(task.getErrorReason(), MAX_ERROR_REASON_BYTES), task.getArchived() ? 1 : 0, p.get_id(),
+								p.getTaskCount() };
+					}).collect(Collectors.toList()));
+			return null;
+		});
+
+		logger.debug("saveTaskResults: taskName={}, jobs={}, failed={}", taskName, jobs.size(), failedJobIds.size());
+		return failedJobIds;
+	}
+
+	@Override
+	public Set<String> extendLeases(String jobName, String taskName, List<String> jobIds, Timestamp leaseExpiresTimestamp) {
+
+		List<String> uniqueJobIds = new ArrayList<>(new HashSet<>(jobIds));
+		if (uniqueJobIds.isEmpty()) {
+			return new HashSet<>();
+		}
+
+		Set<String> extendedJobIds = transactionTemplate.execute(status -> {
+			int[] counts = jdbcTemplate.batchUpdate("UPDATE JOB_FLOW SET LEASE_EXPIRES_TIMESTAMP = ? WHERE APP_ID = ? "
+					+ "AND JOB_ID = ? AND STATUS = ? AND NEXT_TASK_NAME = ?",
+					uniqueJobIds.stream().map(
+							p -> new Object[] { leaseExpiresTimestamp, jobName, p, JobState.PROCESSING.name(), taskName })
+							.collect(Collectors.toList()));
+			if (countsKnown(counts)) {
+				return new HashSet<>(updatedItems(uniqueJobIds, counts));
+			}
+
+			// find out which leases were extended
+			Set<String> jobIdsWithLease = new HashSet<>();
+			for (List<String> chunk : chunks(uniqueJobIds, MAX_IN_SIZE)) {
+				jobIdsWithLease.addAll(jdbcTemplate.queryForList("SELECT JOB_ID FROM JOB_FLOW WHERE APP_ID = ? AND JOB_ID IN ("
+						+ inList(chunk.size()) + ") AND STATUS = ? AND LEASE_EXPIRES_TIMESTAMP = ?", String.class,
+						args(jobName, chunk, JobState.PROCESSING.name(), leaseExpiresTimestamp)));
+			}
+			return jobIdsWithLease;
+		});
+
+		logger.debug("extendLeases: taskName={}, jobIds={}, extended={}", taskName, uniqueJobIds.size(),
+				extendedJobIds.size());
+		return extendedJobIds;
+	}
+
+	@Override
+	public Job updateState(String jobName, String jobId, JobState state) {
+
+		// the job as it was before the update, as MongoJobStore returns it
+		return transactionTemplate.execute(status -> {
+			Job job = findForUpdate(jobName, jobId);
+			if (job != null) {
+				jdbcTemplate.update("UPDATE JOB_FLOW SET STATUS = ?, TRANSITION_TOKEN = ?, LEASE_EXPIRES_TIMESTAMP = NULL "
+						+ "WHERE ID = ?", state.name(), UUID.randomUUID().toString(), job.get_id());
+			}
+			return job;
+		});
+	}
+
+	@Override
+	public List<Job> findJobsToReset(JobReset jobReset, String afterId, int limit) {
+
+		List<Object> args = new ArrayList<>();
+		StringBuilder where = new StringBuilder(" WHERE ").append(resetConditions(jobReset, "J.", args));
+		if (afterId != null) {
+			where.append(" AND J.ID > ?");
+			args.add(afterId);
+		}
+		where.append(" ORDER BY J.ID");
+		return queryJobs(where.toString(), limit, args.toArray());
+	}
+
+	@Override
+	public Set<String> resetJobs(JobReset jobReset, List<Job> jobs) {
+
+		if (jobs.isEmpty()) {
+			return new HashSet<>();
+		}
+
+		String transitionToken = UUID.randomUUID().toString();
+		List<String> taskNames = jobReset.getTaskNames();
+		List<String> ids = jobs.stream().map(Job::get_id).collect(Collectors.toList());
+
+		Set<String> resetJobIds = transactionTemplate.execute(status -> {
+
+			// jobs are selected again, so a job changed since it was found is only reset if it still matches
+			for (List<String> chunk : chunks(ids, MAX_IN_SIZE)) {
+				List<Object> args = new ArrayList<>(Arrays.asList(JobState.READY.name(), jobReset.getResetTaskName(),
+						transitionToken));
+				String conditions = resetConditions(jobReset, "", args);
+				args.addAll(chunk);
+				jdbcTemplate.update("UPDATE JOB_FLOW SET STATUS = ?, NEXT_TASK_NAME = ?, TRANSITION_TOKEN = ?, "
+						+ "LEASE_EXPIRES_TIMESTAMP = NULL WHERE " + conditions + " AND ID IN (" + inList(chunk.size()) + ")",
+						args.toArray());
+			}
+
+			// archiving their tasks, the last one included, clears their error counts for the tasks
+			List<String> resetIds = new ArrayList<>(findIdsByTransitionToken(ids, transitionToken));
+			for (List<String> chunk : chunks(resetIds, MAX_IN_SIZE)) {
+				String sql = "UPDATE JOB_FLOW_TASK SET ARCHIVED = 1 WHERE JOB_FLOW_ID IN (" + inList(chunk.size()) + ")";
+				if (taskNames != null) {
+					sql += " AND NAME IN (" + inList(taskNames.size()) + ")";
+				}
+				jdbcTemplate.update(sql, args(chunk, taskNames == null ? Collections.emptyList() : taskNames));
+			}
+			return jobs.stream().filter(p -> resetIds.contains(p.get_id())).map(Job::getJobId).collect(Collectors.toSet());
+		});
+
+		logger.debug("resetJobs: jobName={}, jobs={}, reset={}", jobReset.getJobName(), jobs.size(), resetJobIds.size());
+		return resetJobIds;
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs) {
+		loadTaskHistory(jobs, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs, int lastTasks) {
+
+		Map<String, Job> idJobMap = jobs.stream().collect(Collectors.toMap(Job::get_id, p -> p, (p, q) -> p));
+		idJobMap.values().forEach(p -> p.setTasks(new ArrayList<>()));
+
+		// the job row has the last task, the rows before it are the ones each job needs
+		List<Job> jobsWithHistory = idJobMap.values().stream().filter(p -> lastTasks > 1 && p.getTaskCount() > 1)
+				.collect(Collectors.toList());
+		for (List<Job> chunk : chunks(jobsWithHistory, TASK_HISTORY_CHUNK_SIZE)) {
+			List<Object> args = new ArrayList<>();
+			String criteria = chunk.stream().map(p -> {
+				args.add(p.get_id());
+				args.add(p.getTaskCount() - lastTasks);
+				args.add(p.getTaskCount());
+				return "(T.JOB_FLOW_ID = ? AND T.SEQ > ? AND T.SEQ < ?)";
+			}).collect(Collectors.joining(" OR "));
+			jdbcTemplate.query("SELECT T.JOB_FLOW_ID, " + TASK_COLUMNS + " FROM JOB_FLOW_TASK T WHERE " + criteria
+					+ " ORDER BY T.JOB_FLOW_ID, T.SEQ",
+					(RowCallbackHandler) rs -> idJobMap.get(rs.getString("JOB_FLOW_ID")).getTasks().add(mapTask(rs)),
+					args.toArray());
+		}
+		if (lastTasks > 0) {
+			idJobMap.values().stream().filter(p -> p.findLastTask() != null).forEach(p -> p.getTasks().add(p.findLastTask()));
+		}
+	}
+
+	// lock the oldest READY rows that no other claim has locked; a claim locks at most maxBatchSize of them as the
+	// databases lock SKIP LOCKED rows as they are fetched
+	private List<String> claimSkipLocked(String jobName, String taskName, int maxBatchSize,
+			Timestamp leaseExpiresTimestamp, String transitionToken) {
+
+		List<String> ids = query(SELECT_READY_IDS + " FOR UPDATE SKIP LOCKED", maxBatchSize, (rs, rowNum) -> rs.getString(1),
+				jobName, taskName, JobState.READY.name());
+		updateClaimed(ids, jobName, taskName, leaseExpiresTimestamp, transitionToken);
+		return ids;
+	}
+
+	// flip candidates still READY for taskName; each row is updated atomically so only one claimer wins it
+	private List<String> claimByUpdate(String jobName, String taskName, int maxBatchSize,
+			Timestamp leaseExpiresTimestamp, String transitionToken) {
+
+		List<String> candidateIds = new ArrayList<>();
+		int claimedCount = 0;
+		for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS && claimedCount < maxBatchSize; attempt++) {
+
+			List<String> ids = query(SELECT_READY_IDS, maxBatchSize - claimedCount, (rs, rowNum) -> rs.getString(1),
+					jobName, taskName, JobState.READY.name());
+			if (ids.isEmpty()) {
+				break;
+			}
+			candidateIds.addAll(ids);
+
+			int[] counts = updateClaimed(ids, jobName, taskName, leaseExpiresTimestamp, transitionToken);
+			if (!countsKnown(counts)) {
+				break;
+			}
+			int updatedCount = updatedItems(ids, counts).size();
+			claimedCount += updatedCount;
+			logger.debug("claimByUpdate: attempt={}, candidates={}, claimed={}", attempt, ids.size(), updatedCount);
+
+			// either got every candidate or there are no more to get
+			if (updatedCount == ids.size()) {
+				break;
+			}
+		}
+		return candidateIds;
+	}
+
+	private int[] updateClaimed(List<String> ids, String jobName, String taskName, Timestamp leaseExpiresTimestamp,
+			String transitionToken) {
+
+		return jdbcTemplate.batchUpdate("UPDATE JOB_FLOW SET STATUS = ?, TRANSITION_TOKEN = ?, LEASE_EXPIRES_TIMESTAMP = ?, "
+				+ "TASK_COUNT = TASK_COUNT + 1 WHERE ID = ? AND APP_ID = ? AND NEXT_TASK_NAME = ? AND STATUS = ?",
+				ids.stream()
+						.map(p -> new Object[] { JobState.PROCESSING.name(), transitionToken, timestamp(leaseExpiresTimestamp),
+								p, jobName, taskName, JobState.READY.name() })
+						.collect(Collectors.toList()));
+	}
+
+	// the job, locked until the transaction ends so it can't change between being read and written; the row is locked
+	// on its own as the outer join of SELECT_JOBS can't be locked on every database
+	private Job findForUpdate(String jobName, String jobId) {
+
+		if (jdbcTemplate.queryForList("SELECT ID FROM JOB_FLOW WHERE APP_ID = ? AND JOB_ID = ? FOR UPDATE", String.class,
+				jobName, jobId).isEmpty()) {
+			return null;
+		}
+		return findByJobNameAndJobId(jobName, jobId);
+	}
+
+	// the jobs of ids last written with transitionToken, oldest first
+	private List<Job> findJobsByIds(List<String> ids, String transitionToken) {
+
+		List<Job> jobs = new ArrayList<>();
+		for (List<String> chunk : chunks(ids, MAX_IN_SIZE)) {
+			jobs.addAll(queryJobs(" WHERE J.ID IN (" + inList(chunk.size()) + ") AND J.TRANSITION_TOKEN = ?", 0,
+					args(chunk, transitionToken)));
+		}
+		jobs.sort(Comparator.comparing(Job::getCreatedTimestamp).thenComparing(Job::get_id));
+		return jobs;
+	}
+
+	private Set<String> findIdsByTransitionToken(List<String> ids, String transitionToken) {
+
+		Set<String> foundIds = new HashSet<>();
+		for (List<String> chunk : chunks(ids, MAX_IN_SIZE)) {
+			foundIds.addAll(jdbcTemplate.queryForList("SELECT ID FROM JOB_FLOW WHERE ID IN (" + inList(chunk.size())
+					+ ") AND TRANSITION_TOKEN = ?", String.class, args(chunk, transitionToken)));
+		}
+		return foundIds;
+	}
+
+	// jobs with their last task and error counts; maxRows 0 for all
+	private List<Job> queryJobs(String where, int maxRows, Object... args) {
+
+		List<Job> jobs = query(SELECT_JOBS + where, maxRows, this::mapJob, args);
+		loadTaskErrorCounts(jobs);
+		return jobs;
+	}
+
+	private <T> List<T> query(String sql, int maxRows, RowMapper<T> rowMapper, Object... args) {
+
+		return jdbcTemplate.query(p -> {
+			PreparedStatement preparedStatement = p.prepareStatement(sql);
+			preparedStatement.setMaxRows(maxRows);
+			return preparedStatement;
+		}, new ArgumentPreparedStatementSetter(args), new RowMapperResultSetExtractor<>(rowMapper));
+	}
+
+	private void loadTaskErrorCounts(List<Job> jobs) {
+
+		jobs.forEach(p -> p.setTaskErrorCounts(new HashMap<>()));
+		Map<String, Job> idJobMap = jobs.stream().filter(p -> p.getTaskCount() > 0)
+				.collect(Collectors.toMap(Job::get_id, p -> p, (p, q) -> p));
+		for (List<String> chunk : chunks(idJobMap.keySet(), MAX_IN_SIZE)) {
+			jdbcTemplate.query("SELECT JOB_FLOW_ID, NAME, COUNT(*) FROM JOB_FLOW_TASK WHERE JOB_FLOW_ID IN ("
+					+ inList(chunk.size()) + ") AND STATUS = ? AND ARCHIVED = 0 GROUP BY JOB_FLOW_ID, NAME",
+					(RowCallbackHandler) rs -> idJobMap.get(rs.getString(1)).getTaskErrorCounts().put(rs.getString(2),
+							rs.getInt(3)),
+					args(chunk, TaskState.ERROR.name()));
+		}
+	}
+
+	private Job mapJob(ResultSet rs, int rowNum) throws SQLException {
+
+		Job job = new Job();
+		job.set_id(rs.getString("ID"));
+		job.setJobName(rs.getString("APP_ID"));
+		job.setJobId(rs.getString("JOB_ID"));
+		job.setDescription(rs.getString("DESCRIPTION"));
+		job.setCreatedTimestamp(rs.getTimestamp("JOB_CREATED_TIMESTAMP"));
+		job.setState(JobState.valueOf(rs.getString("STATUS")));
+		job.setNextTaskName(rs.getString("NEXT_TASK_NAME"));
+		job.setTransitionToken(rs.getString("TRANSITION_TOKEN"));
+		job.setLeaseExpiresTimestamp(rs.getTimestamp("LEASE_EXPIRES_TIMESTAMP"));
+		job.setTaskCount(rs.getInt("TASK_COUNT"));
+		if (rs.getString("TASK_NAME") != null) {
+			job.setLastTask(mapTask(rs));
+		}
+		return job;
+	}
+
+	private Task mapTask(ResultSet rs) throws SQLException {
+
+		Task task = new Task();
+		task.setName(rs.getString("TASK_NAME"));
+		task.setDescription(rs.getString("TASK_DESCRIPTION"));
+		task.setStartTimestamp(rs.getTimestamp("TASK_START_TIMESTAMP"));
+		task.setEndTimestamp(rs.getTimestamp("TASK_END_TIMESTAMP"));
+		String state = rs.getString("TASK_STATUS");
+		task.setState(state == null ? null : TaskState.valueOf(state));
+		task.setErrorReason(rs.getString("TASK_ERROR_REASON"));
+		// as read from MongoDB, where only archived tasks have the field
+		task.setArchived(rs.getInt("TASK_ARCHIVED") == 1 ? true : null);
+		return task;
+	}
+
+	private Object[] jobArgs(Job job) {
+
+		return new Object[] { job.get_id(), job.getJobName(), job.getJobId(), string(job.getDescription(), MAX_DESCRIPTION_BYTES),
+				job.getCreatedTimestamp(), job.getState().name(), string(job.getNextTaskName()),
+				string(job.getTransitionToken()), timestamp(job.getLeaseExpiresTimestamp()), job.getTaskCount() };
+	}
+
+	private Object[] taskArgs(String id, int seq, Task task) {
+
+		return new Object[] { id, seq, task.getName(), string(task.getDescription(), MAX_DESCRIPTION_BYTES),
+				timestamp(task.getStartTimestamp()), timestamp(task.getEndTimestamp()),
+				string(task.getState() == null ? null : task.getState().name()),
+				string(task.getErrorReason(), MAX_ERROR_REASON_BYTES), task.getArchived() ? 1 : 0 };
+	}
+
+	private String jobsWhere(String jobName, JobState state, List<Object> args) {
+
+		List<String> conditions = new ArrayList<>();
+		if (jobName != null) {
+			conditions.add("J.APP_ID = ?");
+			args.add(jobName);
+		}
+		if (state != null) {
+			conditions.add("J.STATUS = ?");
+			args.add(state.name());
+		}
+		return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+	}
+
+	// columns prefixed with alias
+	private String resetConditions(JobReset jobReset, String alias, List<Object> args) {
+
+		List<String> conditions = new ArrayList<>();
+		conditions.add(alias + "APP_ID = ?");
+		args.add(jobReset.getJobName());
+		if (jobReset.getState() != null) {
+			conditions.add(alias + "STATUS = ?");
+			args.add(jobReset.getState().name());
+		}
+		if (jobReset.getNextTaskName() != null) {
+			conditions.add(alias + "NEXT_TASK_NAME = ?");
+			args.add(jobReset.getNextTaskName());
+		}
+		if (jobReset.getCreatedFrom() != null) {
+			conditions.add(alias + "JOB_CREATED_TIMESTAMP >= ?");
+			args.add(jobReset.getCreatedFrom());
+		}
+		if (jobReset.getCreatedTo() != null) {
+			conditions.add(alias + "JOB_CREATED_TIMESTAMP < ?");
+			args.add(jobReset.getCreatedTo());
+		}
+		return String.join(" AND ", conditions);
+	}
+
+	// properties that aren't job properties are ignored, as they would be by a query
+	private String orderBy(Sort sort) {
+
+		List<String> orders = new ArrayList<>();
+		for (Sort.Order order : sort) {
+			String column = SORT_COLUMNS.get(order.getProperty());
+			if (column != null) {
+				orders.add(column + (order.isAscending() ? " ASC" : " DESC"));
+			}
+		}
+		return orders.isEmpty() ? "" : " ORDER BY " + String.join(", ", orders);
+	}
+
+	// whether the tables and columns sql reads exist
+	private boolean queryable(String sql) {
+
+		try {
+			jdbcTemplate.queryForList(sql);
+			return true;
+		} catch (BadSqlGrammarException e) {
+			return false;
+		}
+	}
+
+	// drivers may report a batched statement's count as SUCCESS_NO_INFO, as ojdbc6 does
+	private static boolean countsKnown(int[] counts) {
+		return Arrays.stream(counts).noneMatch(p -> p == Statement.SUCCESS_NO_INFO);
+	}
+
+	// the items whose batched statements updated a row
+	private static <T> List<T> updatedItems(List<T> items, int[] counts) {
+
+		List<T> updatedItems = new ArrayList<>();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				updatedItems.add(items.get(i));
+			}
+		}
+		return updatedItems;
+	}
+
+	private static <T> List<List<T>> chunks(Collection<T> values, int size) {
+
+		List<List<T>> chunks = new ArrayList<>();
+		List<T> chunk = new ArrayList<>(Math.min(size, values.size()));
+		for (T value : values) {
+			chunk.add(value);
+			if (chunk.size() == size) {
+				chunks.add(chunk);
+				chunk = new ArrayList<>(size);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	private static String inList(int size) {
+		return String.join(", ", Collections.nCopies(size, "?"));
+	}
+
+	// flattens collections into their elements
+	private static Object[] args(Object... values) {
+
+		List<Object> args = new ArrayList<>();
+		for (Object value : values) {
+			if (value instanceof Collection) {
+				args.addAll((Collection<?>) value);
+			} else {
+				args.add(value);
+			}
+		}
+		return args.toArray();
+	}
+
+	// typed, so a null is bound the same way by every driver
+	private static SqlParameterValue timestamp(Timestamp value) {
+		return new SqlParameterValue(Types.TIMESTAMP, value);
+	}
+
+	private static SqlParameterValue string(String value) {
+		return new SqlParameterValue(Types.VARCHAR, value);
+	}
+
+	// free text cut to the UTF-8 bytes its column holds, on a character boundary
+	private static SqlParameterValue string(String value, int maxBytes) {
+
+		if (value == null || value.length() * 3 <= maxBytes) {
+			return string(value);
+		}
+		int bytes = 0;
+		for (int i = 0; i < value.length();) {
+			int codePoint = value.codePointAt(i);
+			bytes += codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+			if (bytes > maxBytes) {
+				return string(value.substring(0, i));
+			}
+			i += Character.charCount(codePoint);
+		}
+		return string(value);
+	}
+
+}
@@ -2,7 +2,9 @@ package gov.nyc.doitt.jobstatemanager.job;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
@@ -10,11 +12,12 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
 import org.hibernate.annotations.GenericGenerator;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
-import org.springframework.util.CollectionUtils;
 
 import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
 import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
 
 @Document
 public class Job {
@@ -31,18 +34,50 @@ public class Job {
 	@Enumerated(EnumType.STRING)
 	private JobState state;
 	private String nextTaskName;
-
+	// identifies the claim or result write that last changed this job
+	private String transitionToken;
+	// set while PROCESSING a task with a lease
+	private Timestamp leaseExpiresTimestamp;
+
+	// the most recent task; all tasks are kept in the task history
+	private Task lastTask;
+	// number of tasks started, which is also the seq of lastTask in the task history
+	private int taskCount;
+	// task history, only filled by JobRepositoryCustom.loadTaskHistory and by startTask
+	@Transient
 	private ArrayList<Task> tasks = new ArrayList<>();
+	// unarchived error count per task name; null until computed from tasks for jobs created in memory
+	private Map<String, Integer> taskErrorCounts;
 
 	public Job() {
 		createdTimestamp = new Timestamp(System.currentTimeMillis());
 		state = JobState.READY;
 	}
 
+	// copy of the persisted fields of job, without its task history
+	Job(Job job) {
+		_id = job._id;
+		jobName = job.jobName;
+		jobId = job.jobId;
+		description = job.description;
+		createdTimestamp = job.createdTimestamp;
+		state = job.state;
+		nextTaskName = job.nextTaskName;
+		transitionToken = job.transitionToken;
+		leaseExpiresTimestamp = job.leaseExpiresTimestamp;
+		lastTask = job.lastTask == null ? null : new Task(job.lastTask);
+		taskCount = job.taskCount;
+		taskErrorCounts = job.taskErrorCounts == null ? null : new HashMap<>(job.taskErrorCounts);
+	}
+
 	public String get_id() {
 		return _id;
 	}
 
+	void set_id(String _id) {
+		this._id = _id;
+	}
+
 	public String getJobName() {
 		return jobName;
 	}
@@ -71,6 +106,10 @@ public class Job {
 		return createdTimestamp;
 	}
 
+	void setCreatedTimestamp(Timestamp createdTimestamp) {
+		this.createdTimestamp = createdTimestamp;
+	}
+
 	public JobState getState() {
 		return state;
 	}
@@ -89,9 +128,28 @@ public class Job {
 
 	public void startTask(Task task) {
 		tasks.add(task);
+		lastTask = task;
+		taskCount++;
 		state = JobState.PROCESSING;
 	}
 
+	public int getTaskCount() {
+		return taskCount;
+	}
+
+	void setTaskCount(int taskCount) {
+		this.taskCount = taskCount;
+	}
+
+	// the last task as stored, null if no task was started
+	Task findLastTask() {
+		return lastTask;
+	}
+
+	void setLastTask(Task lastTask) {
+		this.lastTask = lastTask;
+	}
+
 	public String getNextTaskName() {
 		return nextTaskName;
 	}
@@ -100,18 +158,97 @@ public class Job {
 		this.nextTaskName = nextTaskName;
 	}
 
+	public String getTransitionToken() {
+		return transitionToken;
+	}
+
+	void setTransitionToken(String transitionToken) {
+		this.transitionToken = transitionToken;
+	}
+
+	public Timestamp getLeaseExpiresTimestamp() {
+		return leaseExpiresTimestamp;
+	}
+
+	void setLeaseExpiresTimestamp(Timestamp leaseExpiresTimestamp) {
+		this.leaseExpiresTimestamp = leaseExpiresTimestamp;
+	}
+
+	public Map<String, Integer> getTaskErrorCounts() {
+
+		if (taskErrorCounts == null) {
+			taskErrorCounts = countTaskErrors(tasks);
+		}
+		return taskErrorCounts;
+	}
+
+	// the error counts as stored, null if never computed
+	Map<String, Integer> findTaskErrorCounts() {
+		return taskErrorCounts;
+	}
+
+	void setTaskErrorCounts(Map<String, Integer> taskErrorCounts) {
+		this.taskErrorCounts = taskErrorCounts;
+	}
+
 	public long getTotalErrorCountForTask(String taskName) {
-		return tasks.stream().filter(p -> !p.getArchived() && p.getName().equals(taskName)).count();
+		return getTaskErrorCounts().getOrDefault(taskName, 0);
 	}
 
-	public Task getLastTask(String taskName) {
+	/**
+	 * Counts unarchived attempts of a task: its unarchived errors, and the last task if it is an unarchived attempt of
+	 * the task that didn't end with an error. A task only starts again after an error or a reset, which archives, so
+	 * its earlier unarchived attempts are errors
+	 * 
+	 * @param taskName
+	 * @return
+	 */
+	public long getAttemptCountForTask(String taskName) {
+
+		long attemptCount = getTotalErrorCountForTask(taskName);
+		if (lastTask != null && lastTask.getName().equals(taskName) && !lastTask.getArchived()
+				&& lastTask.getState() != TaskState.ERROR) {
+			attemptCount++;
+		}
+		return attemptCount;
+	}
 
-		if (CollectionUtils.isEmpty(tasks)) {
-			throw new JobStateManagerException("tasks for " + jobId + " is empty");
+	/**
+	 * Ends task with error and counts it against its task name
+	 * 
+	 * @param task
+	 * @param errorReason
+	 */
+	public void endTaskWithError(Task task, String errorReason) {
+
+		// counted before the task ends, or counts computed from tasks would already include it
+		Map<String, Integer> taskErrorCounts = getTaskErrorCounts();
+		task.endWithError(errorReason);
+		if (!task.getArchived()) {
+			taskErrorCounts.merge(task.getName(), 1, Integer::sum);
 		}
+	}
+
+	/**
+	 * Counts unarchived errors per task name
+	 * 
+	 * @param tasks
+	 * @return
+	 */
+	static Map<String, Integer> countTaskErrors(List<Task> tasks) {
+
+		Map<String, Integer> taskErrorCounts = new HashMap<>();
+		for (Task task : tasks) {
+			if (!task.getArchived() && task.getState() == TaskState.ERROR) {
+				taskErrorCounts.merge(task.getName(), 1, Integer::sum);
+			}
+		}
+		return taskErrorCounts;
+	}
 
-		// get last task
-		Task task = tasks.get(tasks.size() - 1);
+	public Task getLastTask(String taskName) {
+
+		Task task = getLastTask();
 		if (!task.getName().equals(taskName)) {
 			throw new JobStateManagerException(
 					String.format("Given task name '%s' != Task's name '%s': ", taskName, task.getName()));
@@ -121,10 +258,10 @@ public class Job {
 
 	public Task getLastTask() {
 
-		if (CollectionUtils.isEmpty(tasks)) {
+		if (lastTask == null) {
 			throw new JobStateManagerException("tasks for " + jobId + " is empty");
 		}
-		return tasks.get(tasks.size() - 1);
+		return lastTask;
 	}
 
 	public void resetTask(String taskName) {
@@ -135,12 +272,20 @@ public class Job {
 				p.setArchived(true);
 			}
 		});
+		if (lastTask != null && lastTask.getName().equals(taskName)) {
+			lastTask.setArchived(true);
+		}
+		getTaskErrorCounts().remove(taskName);
 	}
 
 	public void resetAllTasks(String firstTaskName) {
 		state = JobState.READY;
 		nextTaskName = firstTaskName;
 		tasks.forEach(p -> p.setArchived(true));
+		if (lastTask != null) {
+			lastTask.setArchived(true);
+		}
+		getTaskErrorCounts().clear();
 	}
 
 	public void reset(List<String> taskNames) {
@@ -151,7 +296,10 @@ public class Job {
 				p.setArchived(true);
 			}
 		});
-
+		if (lastTask != null && taskNames.contains(lastTask.getName())) {
+			lastTask.setArchived(true);
+		}
+		getTaskErrorCounts().keySet().removeAll(taskNames);
 	}
 
 	@Override
@@ -188,8 +336,9 @@ public class Job {
 	@Override
 	public String toString() {
 		return "Job [_id=" + _id + ", jobName=" + jobName + ", jobId=" + jobId + ", description=" + description
-				+ ", createdTimestamp=" + createdTimestamp + ", state=" + state + ", nextTaskName=" + nextTaskName + ", tasks="
-				+ tasks + "]";
+				+ ", createdTimestamp=" + createdTimestamp + ", state=" + state + ", nextTaskName=" + nextTaskName
+				+ ", transitionToken=" + transitionToken + ", leaseExpiresTimestamp=" + leaseExpiresTimestamp + ", taskErrorCounts=" + taskErrorCounts
+				+ ", lastTask=" + lastTask + ", taskCount=" + taskCount + ", tasks=" + tasks + "]";
 	}
 
 }
@@ -1,7 +1,12 @@
 package gov.nyc.doitt.jobstatemanager.job;
 
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
 import org.apache.commons.lang3.StringUtils;
@@ -9,6 +14,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.WebDataBinder;
@@ -22,6 +29,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
 import gov.nyc.doitt.jobstatemanager.common.SortParamMapper;
 import gov.nyc.doitt.jobstatemanager.common.ValidationException;
@@ -32,9 +41,19 @@ public class JobController {
 
 	private Logger logger = LoggerFactory.getLogger(JobController.class);
 
+	static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+	// cursor for the next page of a paginated getJobs; absent on the last page
+	static final String NEXT_AFTER_HEADER = "X-Next-After";
+
+	private static final String CREATED_TIMESTAMP = "createdTimestamp";
+
 	@Autowired
 	private JobService jobService;
 
+	@Autowired
+	private JobStatsService jobStatsService;
+
 	@Autowired
 	private JobDtoValidator jobDtoValidator;
 
@@ -44,6 +63,9 @@ public class JobController {
 	@Autowired
 	private SortParamMapper sortParamMapper;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	@InitBinder("jobDto")
 	private void initBinder_jobDto(WebDataBinder binder) {
 		binder.addValidators(jobDtoValidator);
@@ -55,41 +77,124 @@ public class JobController {
 	}
 
 	@PostMapping(params = { "jobName" })
-	public JobDto createJob(@RequestParam String jobName, @RequestBody JobDto jobDto, BindingResult result)
-			throws JobStateManagerException {
+	public JobDto createJob(@RequestParam String jobName, @RequestParam(defaultValue = "false") boolean idempotent,
+			@RequestBody JobDto jobDto, BindingResult result) throws JobStateManagerException {
 
-		logger.debug("createJob: entering: jobName={}, jobDto={}", jobName, jobDto);
+		logger.debug("createJob: entering: jobName={}, idempotent={}, jobDto={}", jobName, idempotent, jobDto);
 
 		jobDtoValidator.validate(jobDto, result);
 		if (result.hasErrors()) {
 			throw new ValidationException(result.getFieldErrors());
 		}
 
-		return jobService.createJob(jobName, jobDto);
+		return jobService.createJob(jobName, jobDto, idempotent);
+	}
+
+	@PostMapping(path = "batch", params = { "jobName" })
+	public List<JobDto> createJobs(@RequestParam String jobName, @RequestBody List<JobDto> jobDtoList,
+			BindingResult result) throws JobStateManagerException {
+
+		logger.debug("createJobs: entering: jobName={}, number of jobs: {}", jobName, jobDtoList.size());
+
+		jobDtoListValidator.validate(jobDtoList, result);
+		if (result.hasErrors()) {
+			throw new ValidationException(result.getFieldErrors());
+		}
+
+		return jobService.createJobs(jobName, jobDtoList);
 	}
 
 	@GetMapping(params = { "jobName" })
 	public List<JobDto> getJobs(@RequestParam String jobName, @RequestParam(required = false) String state,
-			@RequestParam(name = "sort", required = false) String[] sortParams) {
+			@RequestParam(name = "sort", required = false) String[] sortParams, @RequestParam(required = false) String view,
+			@RequestParam(required = false) String[] fields, @RequestParam(required = false) Integer tasks) {
 
-		logger.debug("getJob: entering: jobName={}, state={}, sortParams={}", jobName, state, sortParams);
+		logger.debug("getJob: entering: jobName={}, state={}, sortParams={}, view={}, fields={}, tasks={}", jobName, state,
+				sortParams, view, fields, tasks);
 
 		Sort sort = sortParamMapper.getSort(sortParams, "createdTimeStamp", Sort.Direction.DESC);
+		JobView jobView = JobView.of(view, fields, tasks);
 		if (!StringUtils.isBlank(state)) {
-			return jobService.getJobs(jobName, JobState.valueOf(state), sort);
+			return jobService.getJobs(jobName, JobState.valueOf(state), sort, jobView);
 		}
-		return jobService.getJobs(jobName, sort);
+		return jobService.getJobs(jobName, sort, jobView);
 	}
 
 	@PreAuthorize("hasRole('ROLE_ADMIN')")
 	@GetMapping
-	public List<JobDto> getJobs(@RequestParam(name = "sort", required = false) String[] sortParams) {
+	public List<JobDto> getJobs(@RequestParam(name = "sort", required = false) String[] sortParams,
+			@RequestParam(required = false) String view,
+			@RequestParam(required = false) String[] fields, @RequestParam(required = false) Integer tasks) {
 
-		logger.debug("getJob: entering: sortParams={}", (Object[]) sortParams);
+		logger.debug("getJob: entering: sortParams={}, view={}, fields={}, tasks={}", sortParams, view, fields, tasks);
 
 		Sort sort = sortParamMapper.getSort(sortParams, "createdTimeStamp", Sort.Direction.DESC);
 
-		return jobService.getJobs(sort);
+		return jobService.getJobs(sort, JobView.of(view, fields, tasks));
+	}
+
+	@GetMapping(params = { "jobName", "limit" })
+	public List<JobDto> getJobs(@RequestParam String jobName, @RequestParam(required = false) String state,
+			@RequestParam(name = "sort", required = false) String[] sortParams, @RequestParam int limit,
+			@RequestParam(required = false) String after, @RequestParam(required = false) String view,
+			@RequestParam(required = false) String[] fields, @RequestParam(required = false) Integer tasks,
+			HttpServletResponse response) {
+
+		logger.debug("getJobs: entering: jobName={}, state={}, sortParams={}, limit={}, after={}, view={}, fields={}, tasks={}",
+				jobName, state, sortParams, limit, after, view, fields, tasks);
+
+		JobPage jobPage = jobService.getJobPage(jobName, getState(state), getCreationOrder(sortParams), after, limit,
+				JobView.of(view, fields, tasks));
+		return getJobDtos(jobPage, response);
+	}
+
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@GetMapping(params = { "limit" })
+	public List<JobDto> getJobs(@RequestParam(name = "sort", required = false) String[] sortParams,
+			@RequestParam int limit, @RequestParam(required = false) String after, @RequestParam(required = false) String view,
+			@RequestParam(required = false) String[] fields, @RequestParam(required = false) Integer tasks,
+			HttpServletResponse response) {
+
+		logger.debug("getJobs: entering: sortParams={}, limit={}, after={}, view={}, fields={}, tasks={}", sortParams, limit,
+				after, view, fields, tasks);
+
+		JobPage jobPage = jobService.getJobPage(null, null, getCreationOrder(sortParams), after, limit,
+				JobView.of(view, fields, tasks));
+		return getJobDtos(jobPage, response);
+	}
+
+	@GetMapping(params = { "jobName" }, produces = APPLICATION_NDJSON_VALUE)
+	public void streamJobs(@RequestParam String jobName, @RequestParam(required = false) String state,
+			@RequestParam(name = "sort", required = false) String[] sortParams, @RequestParam(required = false) String view,
+			@RequestParam(required = false) String[] fields, @RequestParam(required = false) Integer tasks,
+			HttpServletResponse response) throws IOException {
+
+		logger.debug("streamJobs: entering: jobName={}, state={}, sortParams={}, view={}, fields={}, tasks={}", jobName,
+				state, sortParams, view, fields, tasks);
+
+		JobState jobState = getState(state);
+		Sort.Direction direction = getCreationOrder(sortParams);
+		JobView jobView = JobView.of(view, fields, tasks);
+		// one JobDto per line, written as it comes so nothing is held for the whole response
+		try (NdjsonWriter jobWriter = new NdjsonWriter(objectMapper, response, false)) {
+			jobService.streamJobs(jobName, jobState, direction, jobView, jobWriter::write);
+		}
+	}
+
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@GetMapping(produces = APPLICATION_NDJSON_VALUE)
+	public void streamJobs(@RequestParam(name = "sort", required = false) String[] sortParams,
+			@RequestParam(required = false) String view,
+			@RequestParam(required = false) String[] fields, @RequestParam(required = false) Integer tasks, HttpServletResponse response)
+			throws IOException {
+
+		logger.debug("streamJobs: entering: sortParams={}, view={}, fields={}, tasks={}", sortParams, view, fields, tasks);
+
+		Sort.Direction direction = getCreationOrder(sortParams);
+		JobView jobView = JobView.of(view, fields, tasks);
+		try (NdjsonWriter jobWriter = new NdjsonWriter(objectMapper, response, false)) {
+			jobService.streamJobs(null, null, direction, jobView, jobWriter::write);
+		}
 	}
 
 	@GetMapping(params = { "jobName", "jobId" })
@@ -115,6 +220,33 @@ public class JobController {
 		return jobService.patchJob(jobName, jobId, jobDto);
 	}
 
+	/**
+	 * Reset the jobs of jobName selected by state, nextTaskName and creation time; the response is the progress of the
+	 * reset as NDJSON, one JobReset per batch of jobs
+	 */
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@PatchMapping(params = { "jobName", "patchOp", "!jobId" })
+	public void patchJobs(@RequestParam String jobName, @RequestParam JobPatchOp patchOp,
+			@RequestParam(required = false) String state, @RequestParam(required = false) String nextTaskName,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date createdFrom,
+			@RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE_TIME) Date createdTo,
+			@RequestParam(required = false) List<String> taskNames, HttpServletResponse response) throws IOException {
+
+		logger.debug("patchJobs: entering: jobName={}, patchOp={}, state={}, nextTaskName={}, createdFrom={}, createdTo={}, taskNames={}",
+				jobName, patchOp, state, nextTaskName, createdFrom, createdTo, taskNames);
+
+		if (patchOp != JobPatchOp.RESET) {
+			throw new ValidationException("Unsupported patchOp=" + patchOp + " for patching jobs");
+		}
+		JobReset jobReset = new JobReset(jobName, getState(state), nextTaskName,
+				createdFrom == null ? null : new Timestamp(createdFrom.getTime()),
+				createdTo == null ? null : new Timestamp(createdTo.getTime()), taskNames);
+
+		try (NdjsonWriter progressWriter = new NdjsonWriter(objectMapper, response, true)) {
+			jobService.resetJobs(jobReset, progressWriter::write);
+		}
+	}
+
 	@PreAuthorize("hasRole('ROLE_ADMIN')")
 	@DeleteMapping(params = { "jobName", "jobId" })
 	public String deleteJob(@RequestParam String jobName, @RequestParam String jobId) {
@@ -124,4 +256,48 @@ public class JobController {
 		return jobService.deleteJob(jobName, jobId);
 	}
 
+	/**
+	 * Get the number of jobs of jobName in each state for their next task, from counts kept in memory
+	 */
+	@GetMapping(path = "stats", params = { "jobName" })
+	public List<JobStats> getStats(@RequestParam String jobName) {
+
+		logger.debug("getStats: entering: jobName={}", jobName);
+
+		return jobStatsService.getStats(jobName);
+	}
+
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@GetMapping(path = "stats")
+	public List<JobStats> getStats() {
+
+		logger.debug("getStats: entering");
+
+		return jobStatsService.getStats(null);
+	}
+
+	private JobState getState(String state) {
+		return StringUtils.isBlank(state) ? null : JobState.valueOf(state);
+	}
+
+	// pages and streams of jobs are in creation order, sort only chooses its direction
+	private Sort.Direction getCreationOrder(String[] sortParams) {
+
+		List<Sort.Order> orders = sortParamMapper.getSort(sortParams, CREATED_TIMESTAMP, Sort.Direction.DESC).stream()
+				.collect(Collectors.toList());
+		if (orders.size() != 1 || !CREATED_TIMESTAMP.equalsIgnoreCase(orders.get(0).getProperty())) {
+			throw new ValidationException("Jobs with limit or as " + APPLICATION_NDJSON_VALUE + " can only be sorted by "
+					+ CREATED_TIMESTAMP);
+		}
+		return orders.get(0).getDirection();
+	}
+
+	private List<JobDto> getJobDtos(JobPage jobPage, HttpServletResponse response) {
+
+		if (jobPage.getNextAfter() != null) {
+			response.setHeader(NEXT_AFTER_HEADER, jobPage.getNextAfter());
+		}
+		return jobPage.getJobDtos();
+	}
+
 }
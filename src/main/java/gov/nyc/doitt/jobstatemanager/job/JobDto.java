@@ -17,6 +17,7 @@ public class JobDto {
 	private Timestamp createdTimestamp;
 	private String state;
 	private String nextTaskName;
+	private String resultError;
 
 	private ArrayList<TaskDto> taskDtos = new ArrayList<>();
 
@@ -68,6 +69,14 @@ public class JobDto {
 		this.nextTaskName = nextTaskName;
 	}
 
+	public String getResultError() {
+		return resultError;
+	}
+
+	public void setResultError(String resultError) {
+		this.resultError = resultError;
+	}
+
 	public ArrayList<TaskDto> getTaskDtos() {
 		return taskDtos;
 	}
@@ -79,7 +88,8 @@ public class JobDto {
 	@Override
 	public String toString() {
 		return "JobDto [jobName=" + jobName + ", jobId=" + jobId + ", description=" + description + ", createdTimestamp="
-				+ createdTimestamp + ", state=" + state + ", nextTaskName=" + nextTaskName + ", taskDtos=" + taskDtos + "]";
+				+ createdTimestamp + ", state=" + state + ", nextTaskName=" + nextTaskName + ", resultError=" + resultError
+				+ ", taskDtos=" + taskDtos + "]";
 	}
 
 }
@@ -2,16 +2,11 @@ package gov.nyc.doitt.jobstatemanager.job;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import org.modelmapper.ModelMapper;
-import org.modelmapper.PropertyMap;
-import org.modelmapper.config.Configuration.AccessLevel;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
-import gov.nyc.doitt.jobstatemanager.task.TaskDto;
 import gov.nyc.doitt.jobstatemanager.task.TaskDtoMapper;
 
 /**
@@ -24,35 +19,19 @@ class JobDtoMapper {
 	@Autowired
 	private TaskDtoMapper taskDtoMapper;
 
-	private ModelMapper modelMapper = new ModelMapper();
-
-	private PropertyMap<JobDto, Job> jobDtoPropertyMap = new PropertyMap<JobDto, Job>() {
-
-		protected void configure() {
-			skip(destination.get_id());
-			skip(destination.getJobName());
-			skip(destination.getCreatedTimestamp());
-			skip(destination.getState());
-			skip(destination.getTasks());
-		}
-	};
-
-	public JobDtoMapper() {
-
-		modelMapper.getConfiguration().setFieldMatchingEnabled(true).setFieldAccessLevel(AccessLevel.PRIVATE);
-		modelMapper.addMappings(jobDtoPropertyMap);
-	}
-
 	public Job fromDto(String jobName, JobDto jobDto) {
 
-		Job job = modelMapper.map(jobDto, Job.class);
+		Job job = fromDto(jobDto, new Job());
 		job.setJobName(jobName);
 		return job;
 	}
 
 	public Job fromDto(JobDto jobDto, Job job) {
 
-		modelMapper.map(jobDto, job);
+		// _id, jobName, createdTimestamp, state and tasks are not taken from JobDto
+		job.setJobId(jobDto.getJobId());
+		job.setDescription(jobDto.getDescription());
+		job.setNextTaskName(jobDto.getNextTaskName());
 		return job;
 	}
 
@@ -60,18 +39,61 @@ class JobDtoMapper {
 
 		if (CollectionUtils.isEmpty(jobs))
 			return new ArrayList<JobDto>();
-		return jobs.stream().map(p -> toDto(p)).collect(Collectors.toList());
+
+		List<JobDto> jobDtos = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			jobDtos.add(toDto(job));
+		}
+		return jobDtos;
 	}
 
-	public JobDto toDto(Job job) {
+	public List<JobDto> toDto(List<Job> jobs, JobView jobView) {
 
-		JobDto jobDto = modelMapper.map(job, JobDto.class);
+		if (CollectionUtils.isEmpty(jobs))
+			return new ArrayList<JobDto>();
+
+		List<JobDto> jobDtos = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			jobDtos.add(toDto(job, jobView));
+		}
+		return jobDtos;
+	}
+
+	public JobDto toDto(Job job, JobView jobView) {
 
-		ArrayList<TaskDto> taskDtos = taskDtoMapper.toDto(job, job.getTasks());
-		jobDto.setTaskDtos(taskDtos);
+		if (jobView.isFull()) {
+			return toDto(job);
+		}
 
+		// properties not in the view stay null and are not serialized
+		JobDto jobDto = new JobDto();
+		if (jobView.includes("jobName"))
+			jobDto.setJobName(job.getJobName());
+		if (jobView.includes("jobId"))
+			jobDto.setJobId(job.getJobId());
+		if (jobView.includes("description"))
+			jobDto.setDescription(job.getDescription());
+		if (jobView.includes("createdTimestamp"))
+			jobDto.setCreatedTimestamp(job.getCreatedTimestamp());
+		if (jobView.includes("state"))
+			jobDto.setState(job.getState() == null ? null : job.getState().name());
+		if (jobView.includes("nextTaskName"))
+			jobDto.setNextTaskName(job.getNextTaskName());
+		jobDto.setTaskDtos(jobView.includes(JobView.TASK_DTOS) ? taskDtoMapper.toDto(job, job.getTasks()) : null);
 		return jobDto;
+	}
 
+	public JobDto toDto(Job job) {
+
+		JobDto jobDto = new JobDto();
+		jobDto.setJobName(job.getJobName());
+		jobDto.setJobId(job.getJobId());
+		jobDto.setDescription(job.getDescription());
+		jobDto.setCreatedTimestamp(job.getCreatedTimestamp());
+		jobDto.setState(job.getState() == null ? null : job.getState().name());
+		jobDto.setNextTaskName(job.getNextTaskName());
+		jobDto.setTaskDtos(taskDtoMapper.toDto(job, job.getTasks()));
+		return jobDto;
 	}
 
 }
@@ -1,6 +1,9 @@
 package gov.nyc.doitt.jobstatemanager.job;
 
+import java.nio.charset.StandardCharsets;
+
 import org.apache.commons.lang3.ArrayUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Errors;
 import org.springframework.validation.SmartValidator;
@@ -13,6 +16,12 @@ import org.springframework.validation.ValidationUtils;
 @Component
 class JobDtoValidator implements SmartValidator {
 
+	// JdbcJobStore keeps jobIds in JOB_FLOW.JOB_ID, of 64 bytes
+	private static final int MAX_JDBC_JOB_ID_BYTES = 64;
+
+	@Value("#{'${jobstore.type:mongo}' == 'jdbc'}")
+	private boolean jdbc;
+
 	@Override
 	public boolean supports(Class<?> clazz) {
 		return JobDto.class.isAssignableFrom(clazz);
@@ -30,6 +39,10 @@ class JobDtoValidator implements SmartValidator {
 		JobDto jobDto = (JobDto) target;
 		String prefix = getErrorMessagePrefix(validationHints);
 		ValidationUtils.rejectIfEmptyOrWhitespace(errors, "jobId", prefix + "jobId must be specified");
+		if (jdbc && jobDto.getJobId() != null
+				&& jobDto.getJobId().getBytes(StandardCharsets.UTF_8).length > MAX_JDBC_JOB_ID_BYTES) {
+			errors.rejectValue("jobId", prefix + "jobId must be at most " + MAX_JDBC_JOB_ID_BYTES + " bytes");
+		}
 	}
 
 	private String getErrorMessagePrefix(Object[] validationHints) {
@@ -0,0 +1,105 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Progress of an import of jobs; lines that were not imported are kept as JobImportErrors
+ */
+@Document
+@JsonInclude(Include.NON_NULL)
+public class JobImport {
+
+	public enum State {
+		RUNNING, COMPLETED, FAILED
+	}
+
+	@Id
+	private String importId;
+
+	private String jobName;
+	private State state;
+	private Timestamp startTimestamp;
+	private Timestamp endTimestamp;
+	// lines read so far, including blank lines and lines still being written
+	private long lineCount;
+	private long createdCount;
+	private long errorCount;
+	// why a FAILED import stopped before the end of its input
+	private String errorReason;
+
+	public JobImport() {
+	}
+
+	public JobImport(String jobName) {
+		this.importId = UUID.randomUUID().toString();
+		this.jobName = jobName;
+		this.state = State.RUNNING;
+		this.startTimestamp = new Timestamp(System.currentTimeMillis());
+	}
+
+	public String getImportId() {
+		return importId;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public Timestamp getStartTimestamp() {
+		return startTimestamp;
+	}
+
+	public Timestamp getEndTimestamp() {
+		return endTimestamp;
+	}
+
+	public long getLineCount() {
+		return lineCount;
+	}
+
+	public void setLineCount(long lineCount) {
+		this.lineCount = lineCount;
+	}
+
+	public long getCreatedCount() {
+		return createdCount;
+	}
+
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	public String getErrorReason() {
+		return errorReason;
+	}
+
+	void addCounts(long createdCount, long errorCount) {
+		this.createdCount += createdCount;
+		this.errorCount += errorCount;
+	}
+
+	void end(String errorReason) {
+		this.state = errorReason == null ? State.COMPLETED : State.FAILED;
+		this.errorReason = errorReason;
+		this.endTimestamp = new Timestamp(System.currentTimeMillis());
+	}
+
+	@Override
+	public String toString() {
+		return "JobImport [importId=" + importId + ", jobName=" + jobName + ", state=" + state + ", startTimestamp="
+				+ startTimestamp + ", endTimestamp=" + endTimestamp + ", lineCount=" + lineCount + ", createdCount="
+				+ createdCount + ", errorCount=" + errorCount + ", errorReason=" + errorReason + "]";
+	}
+
+}
@@ -0,0 +1,87 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Imports of jobs for backfills too large for one request body in memory. The body is read as it arrives and the
+ * response is the import's progress as NDJSON, one JobImport per written chunk
+ */
+@RestController
+@ConditionalOnExpression("'${jobstore.type:mongo}' != 'wal'")
+@RequestMapping("jobs/import")
+public class JobImportController {
+
+	private Logger logger = LoggerFactory.getLogger(JobImportController.class);
+
+	static final String TEXT_CSV_VALUE = "text/csv";
+
+	@Autowired
+	private JobImportService jobImportService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@PostMapping(params = { "jobName" }, consumes = JobController.APPLICATION_NDJSON_VALUE)
+	public void importNdjson(@RequestParam String jobName, InputStream inputStream, HttpServletResponse response)
+			throws IOException {
+
+		logger.debug("importNdjson: entering: jobName={}", jobName);
+
+		try (NdjsonWriter progressWriter = new NdjsonWriter(objectMapper, response, true)) {
+			jobImportService.importNdjson(jobName, inputStream, progressWriter::write);
+		}
+	}
+
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@PostMapping(params = { "jobName" }, consumes = TEXT_CSV_VALUE)
+	public void importCsv(@RequestParam String jobName, InputStream inputStream, HttpServletResponse response)
+			throws IOException {
+
+		logger.debug("importCsv: entering: jobName={}", jobName);
+
+		try (NdjsonWriter progressWriter = new NdjsonWriter(objectMapper, response, true)) {
+			jobImportService.importCsv(jobName, inputStream, progressWriter::write);
+		}
+	}
+
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@GetMapping(params = { "importId" })
+	public JobImport getJobImport(@RequestParam String importId) {
+
+		logger.debug("getJobImport: entering: importId={}", importId);
+
+		return jobImportService.getJobImport(importId);
+	}
+
+	/**
+	 * The error file of an import: the lines that were not imported as NDJSON, in line order
+	 */
+	@PreAuthorize("hasRole('ROLE_ADMIN')")
+	@GetMapping(path = "errors", params = { "importId" }, produces = JobController.APPLICATION_NDJSON_VALUE)
+	public void streamJobImportErrors(@RequestParam String importId, HttpServletResponse response) throws IOException {
+
+		logger.debug("streamJobImportErrors: entering: importId={}", importId);
+
+		try (NdjsonWriter errorWriter = new NdjsonWriter(objectMapper, response, false)) {
+			jobImportService.streamJobImportErrors(importId, errorWriter::write);
+		}
+	}
+
+}
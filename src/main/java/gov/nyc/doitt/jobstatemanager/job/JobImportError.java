@@ -0,0 +1,68 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A line of an import that was not imported; the JobImportErrors of an import in line order are its error file. They
+ * are removed by MongoDB once import.errors.ttl.days have passed since they were created
+ */
+@Document
+public class JobImportError {
+
+	@Id
+	@GenericGenerator(name = "db-uuid", strategy = "guid")
+	@GeneratedValue(generator = "db-uuid")
+	private String _id;
+
+	private String importId;
+	// line number in the imported input, starting at 1
+	private long line;
+	// null if the line could not be parsed
+	private String jobId;
+	private String error;
+	private Timestamp createdTimestamp;
+
+	public JobImportError() {
+	}
+
+	public JobImportError(String importId, long line, String jobId, String error) {
+		this.importId = importId;
+		this.line = line;
+		this.jobId = jobId;
+		this.error = error;
+		createdTimestamp = new Timestamp(System.currentTimeMillis());
+	}
+
+	public String getImportId() {
+		return importId;
+	}
+
+	public long getLine() {
+		return line;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public Timestamp getCreatedTimestamp() {
+		return createdTimestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "JobImportError [_id=" + _id + ", importId=" + importId + ", line=" + line + ", jobId=" + jobId + ", error="
+				+ error + ", createdTimestamp=" + createdTimestamp + "]";
+	}
+
+}
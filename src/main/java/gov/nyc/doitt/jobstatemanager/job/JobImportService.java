@@ -0,0 +1,334 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.ValidationUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import gov.nyc.doitt.jobstatemanager.common.EntityNotFoundException;
+import gov.nyc.doitt.jobstatemanager.common.ValidationException;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
+
+/**
+ * Imports jobs from a stream of NDJSON or CSV lines. Lines are parsed and validated as they are read, and created in
+ * chunks that are written in the background while the next chunks are read, with a bounded number of chunks in flight.
+ * Imports and their errors are kept in MongoDB, so there are none with jobstore.type=wal
+ */
+@Component
+@ConditionalOnExpression("'${jobstore.type:mongo}' != 'wal'")
+class JobImportService {
+
+	private Logger logger = LoggerFactory.getLogger(JobImportService.class);
+
+	// JobDto properties a CSV header may name
+	private static final List<String> CSV_COLUMNS = Arrays.asList("jobId", "description");
+
+	@Autowired
+	private JobService jobService;
+
+	@Autowired
+	private JobConfigService jobConfigService;
+
+	@Autowired
+	private JobDtoValidator jobDtoValidator;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${import.chunk.size:1000}")
+	private int chunkSize;
+
+	@Value("${import.max.inflight.chunks:4}")
+	private int maxInFlightChunks;
+
+	@Value("${import.threads:4}")
+	private int threads;
+
+	private ExecutorService executorService;
+
+	private CsvMapper csvMapper = new CsvMapper();
+
+	@PostConstruct
+	private void init() {
+		executorService = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("jobImport-"));
+	}
+
+	@PreDestroy
+	private void destroy() {
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * Import jobs from NDJSON, one JobDto per line
+	 *
+	 * @param jobName
+	 * @param inputStream
+	 * @param progressConsumer receives the JobImport when it starts, after each chunk, and when it ends
+	 * @return
+	 */
+	JobImport importNdjson(String jobName, InputStream inputStream, Consumer<JobImport> progressConsumer) {
+
+		jobConfigService.getJobConfigPlan(jobName);
+		BufferedReader reader = createReader(inputStream);
+		return importJobs(jobName, reader, 0, objectMapper.readerFor(JobDto.class), progressConsumer);
+	}
+
+	/**
+	 * Import jobs from CSV with a header line naming the JobDto properties of its columns, one JobDto per line
+	 *
+	 * @param jobName
+	 * @param inputStream
+	 * @param progressConsumer receives the JobImport when it starts, after each chunk, and when it ends
+	 * @return
+	 */
+	JobImport importCsv(String jobName, InputStream inputStream, Consumer<JobImport> progressConsumer) {
+
+		jobConfigService.getJobConfigPlan(jobName);
+		BufferedReader reader = createReader(inputStream);
+		String header;
+		try {
+			header = reader.readLine();
+		} catch (IOException e) {
+			throw new ValidationException("Can't read CSV header: " + e.getMessage(), e);
+		}
+		if (StringUtils.isBlank(header)) {
+			throw new ValidationException("CSV header is missing");
+		}
+
+		List<String> columns = Arrays.stream(header.split(",")).map(String::trim).collect(Collectors.toList());
+		if (!columns.contains("jobId") || !CSV_COLUMNS.containsAll(columns)) {
+			throw new ValidationException(
+					String.format("CSV header must have column jobId and may have columns %s: %s", CSV_COLUMNS, header));
+		}
+		CsvSchema csvSchema = CsvSchema.builder().addColumns(columns, CsvSchema.ColumnType.STRING).build();
+		return importJobs(jobName, reader, 1, csvMapper.readerFor(JobDto.class).with(csvSchema), progressConsumer);
+	}
+
+	/**
+	 * Get the progress of the import specified by importId
+	 *
+	 * @param importId
+	 * @return
+	 */
+	JobImport getJobImport(String importId) {
+
+		JobImport jobImport = mongoTemplate.findById(importId, JobImport.class);
+		if (jobImport == null) {
+			throw new EntityNotFoundException(String.format("Can't find JobImport for importId=%s", importId));
+		}
+		return jobImport;
+	}
+
+	/**
+	 * Pass the lines of the import specified by importId that were not imported to errorConsumer, in line order
+	 *
+	 * @param importId
+	 * @param errorConsumer
+	 * @return number of errors
+	 */
+	long streamJobImportErrors(String importId, Consumer<JobImportError> errorConsumer) {
+
+		getJobImport(importId);
+		long count = 0;
+		try (CloseableIterator<JobImportError> errorIterator = mongoTemplate
+				.stream(query(where("importId").is(importId)).with(Sort.by("line")), JobImportError.class)) {
+			while (errorIterator.hasNext()) {
+				errorConsumer.accept(errorIterator.next());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private BufferedReader createReader(InputStream inputStream) {
+		return new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	}
+
+	private JobImport importJobs(String jobName, BufferedReader reader, long headerLines, ObjectReader lineReader,
+			Consumer<JobImport> progressConsumer) {
+
+		JobImport jobImport = new JobImport(jobName);
+		mongoTemplate.insert(jobImport);
+		logger.info("importJobs: starting: {}", jobImport);
+		progressConsumer.accept(jobImport);
+
+		Deque<Future<Chunk>> inFlightChunks = new ArrayDeque<>();
+		String errorReason = null;
+		try {
+			Chunk chunk = new Chunk(jobImport.getImportId());
+			long lineNumber = headerLines;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (!StringUtils.isBlank(line)) {
+					chunk.add(lineNumber, line, lineReader);
+				}
+				if (chunk.size() == chunkSize) {
+					submit(jobName, chunk, inFlightChunks);
+					chunk = new Chunk(jobImport.getImportId());
+					// reading waits for the oldest chunk while too many are being written
+					if (inFlightChunks.size() >= maxInFlightChunks) {
+						endChunk(jobImport, inFlightChunks.removeFirst(), progressConsumer);
+					}
+				}
+				jobImport.setLineCount(lineNumber);
+			}
+			if (chunk.size() > 0) {
+				submit(jobName, chunk, inFlightChunks);
+			}
+			while (!inFlightChunks.isEmpty()) {
+				endChunk(jobImport, inFlightChunks.removeFirst(), progressConsumer);
+			}
+
+		} catch (IOException | ExecutionException | RuntimeException e) {
+			errorReason = e instanceof ExecutionException ? e.getCause().getMessage() : e.getMessage();
+			logger.error("importJobs: importId={} failed", jobImport.getImportId(), e);
+			// chunks already written still count
+			for (Future<Chunk> future : inFlightChunks) {
+				try {
+					addCounts(jobImport, future.get());
+				} catch (ExecutionException | RuntimeException e1) {
+					logger.error("importJobs: importId={} chunk failed", jobImport.getImportId(), e1);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			errorReason = "Interrupted";
+		}
+
+		jobImport.end(errorReason);
+		mongoTemplate.save(jobImport);
+		logger.info("importJobs: ended: {}", jobImport);
+		progressConsumer.accept(jobImport);
+		return jobImport;
+	}
+
+	private void submit(String jobName, Chunk chunk, Deque<Future<Chunk>> inFlightChunks) {
+		inFlightChunks.addLast(executorService.submit(() -> chunk.create(jobName)));
+	}
+
+	private void endChunk(JobImport jobImport, Future<Chunk> future, Consumer<JobImport> progressConsumer)
+			throws InterruptedException, ExecutionException {
+
+		addCounts(jobImport, future.get());
+		mongoTemplate.save(jobImport);
+		progressConsumer.accept(jobImport);
+	}
+
+	private void addCounts(JobImport jobImport, Chunk chunk) {
+		jobImport.addCounts(chunk.createdCount, chunk.errors.size());
+	}
+
+	/**
+	 * Lines of an import that are created together
+	 */
+	private class Chunk {
+
+		private String importId;
+		private List<Long> lineNumbers = new ArrayList<>(chunkSize);
+		private List<JobDto> jobDtos = new ArrayList<>(chunkSize);
+		private List<JobImportError> errors = new ArrayList<>();
+		private int createdCount;
+
+		private Chunk(String importId) {
+			this.importId = importId;
+		}
+
+		private int size() {
+			return lineNumbers.size() + errors.size();
+		}
+
+		// parse and validate a line; a line that isn't a valid JobDto is an error, not a failure of the import
+		private void add(long lineNumber, String line, ObjectReader lineReader) {
+
+			JobDto jobDto;
+			try {
+				jobDto = lineReader.readValue(line);
+			} catch (JsonProcessingException e) {
+				errors.add(new JobImportError(importId, lineNumber, null, e.getOriginalMessage()));
+				return;
+			} catch (IOException e) {
+				errors.add(new JobImportError(importId, lineNumber, null, e.getMessage()));
+				return;
+			}
+
+			// JobDtoValidator rejects with its messages as error codes
+			Errors validationErrors = new BeanPropertyBindingResult(jobDto, "jobDto");
+			ValidationUtils.invokeValidator(jobDtoValidator, jobDto, validationErrors);
+			if (validationErrors.hasErrors()) {
+				errors.add(new JobImportError(importId, lineNumber, jobDto.getJobId(), "line " + lineNumber + ": "
+						+ validationErrors.getFieldErrors().stream().map(p -> p.getCode())
+								.collect(Collectors.joining(", "))));
+				return;
+			}
+			lineNumbers.add(lineNumber);
+			jobDtos.add(jobDto);
+		}
+
+		// create the jobs of the chunk and write the chunk's lines that were not imported to the error file
+		private Chunk create(String jobName) {
+
+			if (!jobDtos.isEmpty()) {
+				List<JobDto> resultJobDtos = jobService.createJobs(jobName, jobDtos);
+				for (int i = 0; i < resultJobDtos.size(); i++) {
+					JobDto resultJobDto = resultJobDtos.get(i);
+					if (resultJobDto.getResultError() == null) {
+						createdCount++;
+					} else {
+						errors.add(new JobImportError(importId, lineNumbers.get(i), resultJobDto.getJobId(),
+								resultJobDto.getResultError()));
+					}
+				}
+			}
+			if (!errors.isEmpty()) {
+				mongoTemplate.insert(errors, JobImportError.class);
+			}
+			return this;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.commons.lang3.tuple.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Gauges of the queues of jobs: the number of jobs per jobName, nextTaskName and state, from JobStatsService, and the
+ * age of the oldest READY job per jobName and nextTaskName. Values are refreshed periodically rather than on each scrape,
+ * and a gauge is registered the first time its jobName and taskName are seen
+ */
+@Component
+class JobMetrics {
+
+	private Logger logger = LoggerFactory.getLogger(JobMetrics.class);
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private JobStatsService jobStatsService;
+
+	@Autowired
+	private JobStore jobStore;
+
+	private volatile Map<Triple<String, String, JobState>, Long> counts = Collections.emptyMap();
+
+	private volatile Map<Pair<String, String>, Double> oldestReadyAges = Collections.emptyMap();
+
+	private Set<Object> registeredKeys = ConcurrentHashMap.newKeySet();
+
+	@Scheduled(fixedDelayString = "${metrics.gauges.refresh.interval.ms:15000}")
+	public void refresh() {
+
+		Map<Triple<String, String, JobState>, Long> newCounts = new HashMap<>();
+		jobStatsService.getStats(null).forEach(
+				p -> newCounts.put(Triple.of(p.getJobName(), p.getNextTaskName(), p.getState()), p.getCount()));
+		counts = newCounts;
+		newCounts.keySet().forEach(this::registerCountGauge);
+
+		long now = System.currentTimeMillis();
+		Map<Pair<String, String>, Double> newOldestReadyAges = new HashMap<>();
+		newCounts.forEach((key, count) -> {
+			if (key.getRight() == JobState.READY && count > 0) {
+				try {
+					Timestamp oldest = jobStore.findOldestReadyCreatedTimestamp(key.getLeft(), key.getMiddle());
+					if (oldest != null) {
+						newOldestReadyAges.put(Pair.of(key.getLeft(), key.getMiddle()), (now - oldest.getTime()) / 1000.0);
+					}
+				} catch (DataAccessException e) {
+					logger.error("refresh: can't find oldest READY job for jobName={}, taskName={}", key.getLeft(),
+							key.getMiddle(), e);
+				}
+			}
+		});
+		oldestReadyAges = newOldestReadyAges;
+		newOldestReadyAges.keySet().forEach(this::registerOldestReadyAgeGauge);
+	}
+
+	private void registerCountGauge(Triple<String, String, JobState> key) {
+
+		if (registeredKeys.add(key)) {
+			Gauge.builder("jsm.jobs", this, p -> p.counts.getOrDefault(key, 0L))
+					.description("Jobs per jobName, next task and state").tag("jobName", key.getLeft())
+					.tag("taskName", String.valueOf(key.getMiddle())).tag("state", key.getRight().name())
+					.register(meterRegistry);
+		}
+	}
+
+	private void registerOldestReadyAgeGauge(Pair<String, String> key) {
+
+		if (registeredKeys.add(key)) {
+			Gauge.builder("jsm.jobs.ready.oldest.age", this, p -> p.oldestReadyAges.getOrDefault(key, 0.0))
+					.description("Age of the oldest job READY for its next task").baseUnit("seconds")
+					.tag("jobName", key.getLeft()).tag("taskName", key.getRight()).register(meterRegistry);
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.util.List;
+
+/**
+ * A page of jobs in creation order and the cursor for the next page
+ */
+public class JobPage {
+
+	private final List<JobDto> jobDtos;
+	// null on the last page
+	private final String nextAfter;
+
+	public JobPage(List<JobDto> jobDtos, String nextAfter) {
+		this.jobDtos = jobDtos;
+		this.nextAfter = nextAfter;
+	}
+
+	public List<JobDto> getJobDtos() {
+		return jobDtos;
+	}
+
+	public String getNextAfter() {
+		return nextAfter;
+	}
+
+	@Override
+	public String toString() {
+		return "JobPage [jobDtos=" + jobDtos + ", nextAfter=" + nextAfter + "]";
+	}
+
+}
@@ -0,0 +1,29 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+/**
+ * Published when jobs become READY for taskName
+ */
+public class JobReadyEvent {
+
+	private final String jobName;
+	private final String taskName;
+
+	public JobReadyEvent(String jobName, String taskName) {
+		this.jobName = jobName;
+		this.taskName = taskName;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public String getTaskName() {
+		return taskName;
+	}
+
+	@Override
+	public String toString() {
+		return "JobReadyEvent [jobName=" + jobName + ", taskName=" + taskName + "]";
+	}
+
+}
@@ -1,5 +1,6 @@
 package gov.nyc.doitt.jobstatemanager.job;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 import org.springframework.data.domain.Pageable;
@@ -8,7 +9,7 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface JobRepository extends MongoRepository<Job, String> {
+public interface JobRepository extends MongoRepository<Job, String>, JobRepositoryCustom {
 
 	List<Job> findByJobNameAndStateInAndNextTaskName(String jobName, List<JobState> states, String taskName, Pageable pageable);
 
@@ -17,7 +18,7 @@ public interface JobRepository extends MongoRepository<Job, String> {
 
 	boolean existsByJobNameAndJobId(String jobName, String jobId);
 
-	String deleteByJobNameAndJobId(String jobName, String jobId);
+	Job deleteByJobNameAndJobId(String jobName, String jobId);
 
 	Job findByJobNameAndJobId(String jobName, String jobId);
 
@@ -29,4 +30,6 @@ public interface JobRepository extends MongoRepository<Job, String> {
 
 	List<Job> findAll(Sort sort);
 
+	List<Job> findByStateAndLeaseExpiresTimestampLessThan(JobState state, Timestamp timestamp, Pageable pageable);
+
 }
@@ -0,0 +1,178 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+
+/**
+ * Job persistence operations that can't be expressed as derived queries. State transitions of existing jobs are targeted
+ * updates, so their size doesn't depend on the size of the job
+ */
+public interface JobRepositoryCustom {
+
+	/**
+	 * Atomically move up to maxBatchSize READY jobs waiting for taskName to PROCESSING and start a new taskName task on
+	 * each; a job is claimed by at most one caller
+	 * 
+	 * @param jobName
+	 * @param taskName
+	 * @param maxBatchSize
+	 * @param leaseExpiresTimestamp when the claim expires; null for no lease
+	 * @return claimed jobs, oldest first
+	 */
+	List<Job> claimJobs(String jobName, String taskName, int maxBatchSize, Timestamp leaseExpiresTimestamp);
+
+	/**
+	 * Write the results already applied in memory to jobs' last taskName task, in one unordered batch; each write only
+	 * applies if its job is still PROCESSING taskName under the same claim
+	 * 
+	 * @param taskName
+	 * @param jobs
+	 * @param leaseExpiredBefore if not null, writes also only apply if the job's lease expired before this time
+	 * @return jobIds of jobs whose result could not be written
+	 */
+	Set<String> saveTaskResults(String taskName, List<Job> jobs, Timestamp leaseExpiredBefore);
+
+	/**
+	 * Move the lease of jobs still PROCESSING taskName to leaseExpiresTimestamp
+	 * 
+	 * @param jobName
+	 * @param taskName
+	 * @param jobIds
+	 * @param leaseExpiresTimestamp
+	 * @return jobIds of jobs whose lease was extended
+	 */
+	Set<String> extendLeases(String jobName, String taskName, List<String> jobIds, Timestamp leaseExpiresTimestamp);
+
+	/**
+	 * Insert new jobs in one unordered batch; a job whose jobName and jobId already exist, or that fails to be written,
+	 * is not inserted, the others still are
+	 * 
+	 * @param jobs
+	 * @return why each job not inserted wasn't, by jobId
+	 */
+	Map<String, String> insertJobs(List<Job> jobs);
+
+	/**
+	 * Find which of jobIds already have a job for jobName, reading only jobId
+	 * 
+	 * @param jobName
+	 * @param jobIds
+	 * @return
+	 */
+	Set<String> findExistingJobIds(String jobName, Collection<String> jobIds);
+
+	/**
+	 * Set the state of the job specified by jobName and jobId; ends any claim on it, so results of the claim are no longer
+	 * written
+	 * 
+	 * @param jobName
+	 * @param jobId
+	 * @param state
+	 * @return the job as it was before the update, or null if not found
+	 */
+	Job updateState(String jobName, String jobId, JobState state);
+
+	/**
+	 * Find up to limit jobs selected by jobReset in _id order, starting after the job with _id afterId, reading only _id,
+	 * jobId, state and nextTaskName
+	 * 
+	 * @param jobReset
+	 * @param afterId null to start with the first job
+	 * @param limit
+	 * @return
+	 */
+	List<Job> findJobsToReset(JobReset jobReset, String afterId, int limit);
+
+	/**
+	 * Reset jobs still selected by jobReset with server side updates: set them READY for jobReset's resetTaskName,
+	 * archive their tasks in jobReset's taskNames, in the job and in the task history, and clear their error counts.
+	 * Ends any claim on them
+	 * 
+	 * @param jobReset
+	 * @param jobs jobs found by findJobsToReset
+	 * @return jobIds of the jobs that were reset
+	 */
+	Set<String> resetJobs(JobReset jobReset, List<Job> jobs);
+
+	/**
+	 * Find the creation time of the oldest READY job of jobName for nextTaskName, reading only createdTimestamp
+	 * 
+	 * @param jobName
+	 * @param nextTaskName
+	 * @return null if there are no READY jobs
+	 */
+	Timestamp findOldestReadyCreatedTimestamp(String jobName, String nextTaskName);
+
+	/**
+	 * Count jobs per jobName, nextTaskName and state with an aggregation
+	 * 
+	 * @return
+	 */
+	List<JobStats> countJobs();
+
+	/**
+	 * Find jobs reading only the given fields
+	 * 
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param sort
+	 * @param fields null for all fields
+	 * @return
+	 */
+	List<Job> findJobs(String jobName, JobState state, Sort sort, Collection<String> fields);
+
+	/**
+	 * Find up to limit jobs in creation order, starting after the job with _id afterId
+	 * 
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param afterId null to start with the first job
+	 * @param direction
+	 * @param limit
+	 * @param fields null for all fields
+	 * @return
+	 */
+	List<Job> findJobsAfter(String jobName, JobState state, String afterId, Sort.Direction direction, int limit,
+			Collection<String> fields);
+
+	/**
+	 * Stream jobs in creation order from a cursor; the caller must close it
+	 * 
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param direction
+	 * @param fields null for all fields
+	 * @return
+	 */
+	CloseableIterator<Job> streamJobs(String jobName, JobState state, Sort.Direction direction, Collection<String> fields);
+
+	/**
+	 * Fill the tasks of jobs with their task history, oldest first, ending with each job's last task
+	 * 
+	 * @param jobs
+	 */
+	void loadTaskHistory(List<Job> jobs);
+
+	/**
+	 * Fill the tasks of jobs with their last tasks from the task history, oldest first, ending with each job's last task
+	 * 
+	 * @param jobs
+	 * @param lastTasks maximum number of tasks for each job
+	 */
+	void loadTaskHistory(List<Job> jobs, int lastTasks);
+
+	/**
+	 * Delete the task history of the job specified by jobName and jobId
+	 * 
+	 * @param jobName
+	 * @param jobId
+	 */
+	void deleteTaskHistory(String jobName, String jobId);
+
+}
@@ -0,0 +1,472 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import com.mongodb.BulkWriteError;
+import com.mongodb.client.result.UpdateResult;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * MongoTemplate based implementation of JobRepositoryCustom
+ */
+class JobRepositoryCustomImpl implements JobRepositoryCustom {
+
+	private Logger logger = LoggerFactory.getLogger(JobRepositoryCustomImpl.class);
+
+	// bounds the round trips of a claim when competing claimers take some of the candidates
+	private static final int MAX_CLAIM_ATTEMPTS = 3;
+
+	private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Override
+	public List<Job> claimJobs(String jobName, String taskName, int maxBatchSize, Timestamp leaseExpiresTimestamp) {
+
+		String transitionToken = UUID.randomUUID().toString();
+		List<String> candidateIds = new ArrayList<>();
+		// the candidates' last tasks, which the claim replaces
+		Map<String, Task> previousLastTasks = new HashMap<>();
+		long claimedCount = 0;
+
+		for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS && claimedCount < maxBatchSize; attempt++) {
+
+			// find oldest candidates, ids only
+			Query candidateQuery = readyQuery(jobName, taskName).with(Sort.by(Sort.Direction.ASC, "createdTimestamp"))
+					.limit((int) (maxBatchSize - claimedCount));
+			candidateQuery.fields().include("_id").include("lastTask");
+			List<Job> candidates = mongoTemplate.find(candidateQuery, Job.class);
+			if (candidates.isEmpty()) {
+				break;
+			}
+			List<String> ids = candidates.stream().map(Job::get_id).collect(Collectors.toList());
+			candidateIds.addAll(ids);
+			candidates.stream().filter(p -> p.findLastTask() != null)
+					.forEach(p -> previousLastTasks.put(p.get_id(), p.findLastTask()));
+
+			// flip candidates still READY for taskName; each document is updated atomically so only one claimer wins it
+			Query claimQuery = readyQuery(jobName, taskName).addCriteria(where("_id").in(ids));
+			Update update = new Update().set("state", JobState.PROCESSING).set("transitionToken", transitionToken)
+					.set("lastTask", new Task(taskName)).inc("taskCount", 1);
+			if (leaseExpiresTimestamp != null) {
+				update.set("leaseExpiresTimestamp", leaseExpiresTimestamp);
+			} else {
+				update.unset("leaseExpiresTimestamp");
+			}
+			UpdateResult updateResult = mongoTemplate.updateMulti(claimQuery, update, Job.class);
+			claimedCount += updateResult.getModifiedCount();
+
+			logger.debug("claimJobs: attempt={}, candidates={}, claimed={}", attempt, ids.size(), updateResult.getModifiedCount());
+
+			// either got every candidate or there are no more to get
+			if (updateResult.getModifiedCount() == ids.size()) {
+				break;
+			}
+		}
+
+		if (claimedCount == 0) {
+			return Collections.emptyList();
+		}
+
+		Query claimedQuery = query(where("_id").in(candidateIds).and("transitionToken").is(transitionToken))
+				.with(Sort.by(Sort.Direction.ASC, "createdTimestamp"));
+		List<Job> claimedJobs = mongoTemplate.find(claimedQuery, Job.class);
+		saveTaskHistory(claimedJobs, previousLastTasks);
+		return claimedJobs;
+	}
+
+	@Override
+	public Set<String> saveTaskResults(String taskName, List<Job> jobs, Timestamp leaseExpiredBefore) {
+
+		Set<String> failedJobIds = new HashSet<>();
+		if (jobs.isEmpty()) {
+			return failedJobIds;
+		}
+
+		String transitionToken = UUID.randomUUID().toString();
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, Job.class);
+		for (Job job : jobs) {
+
+			Task task = job.getLastTask();
+			String taskPath = "lastTask.";
+
+			Query query = query(where("_id").is(job.get_id()).and("state").is(JobState.PROCESSING).and("nextTaskName")
+					.is(taskName).and("transitionToken").is(job.getTransitionToken()));
+			if (leaseExpiredBefore != null) {
+				// a heartbeat since the lease expired keeps the job with its worker
+				query.addCriteria(where("leaseExpiresTimestamp").lt(leaseExpiredBefore));
+			}
+			Update update = new Update().set("state", job.getState()).set("nextTaskName", job.getNextTaskName())
+					.set("transitionToken", transitionToken).unset("leaseExpiresTimestamp")
+					.set(taskPath + "state", task.getState().name()).set(taskPath + "endTimestamp", task.getEndTimestamp())
+					.set(taskPath + "errorReason", task.getErrorReason()).set("taskErrorCounts", job.getTaskErrorCounts());
+			if (task.getArchived()) {
+				update.set(taskPath + "archived", true);
+			}
+			bulkOperations.updateOne(query, update);
+		}
+
+		int matchedCount;
+		try {
+			matchedCount = bulkOperations.execute().getMatchedCount();
+		} catch (BulkOperationException e) {
+			logger.error("saveTaskResults: bulk write errors: {}", e.getErrors());
+			matchedCount = e.getResult().getMatchedCount();
+		}
+		logger.debug("saveTaskResults: taskName={}, jobs={}, matched={}", taskName, jobs.size(), matchedCount);
+
+		if (matchedCount < jobs.size()) {
+			// find out which writes were applied
+			List<String> ids = jobs.stream().map(Job::get_id).collect(Collectors.toList());
+			Query appliedQuery = query(where("_id").in(ids).and("transitionToken").is(transitionToken));
+			appliedQuery.fields().include("jobId");
+			Set<String> appliedJobIds = mongoTemplate.find(appliedQuery, Job.class).stream().map(Job::getJobId)
+					.collect(Collectors.toSet());
+			jobs.stream().map(Job::getJobId).filter(p -> !appliedJobIds.contains(p)).forEach(failedJobIds::add);
+		}
+
+		saveTaskHistory(jobs.stream().filter(p -> !failedJobIds.contains(p.getJobId())).collect(Collectors.toList()),
+				Collections.emptyMap());
+		return failedJobIds;
+	}
+
+	@Override
+	public Set<String> extendLeases(String jobName, String taskName, List<String> jobIds, Timestamp leaseExpiresTimestamp) {
+
+		Set<String> uniqueJobIds = new HashSet<>(jobIds);
+		Query query = query(where("jobName").is(jobName).and("jobId").in(uniqueJobIds).and("state").is(JobState.PROCESSING)
+				.and("nextTaskName").is(taskName));
+		UpdateResult updateResult = mongoTemplate.updateMulti(query,
+				new Update().set("leaseExpiresTimestamp", leaseExpiresTimestamp), Job.class);
+		logger.debug("extendLeases: taskName={}, jobIds={}, matched={}", taskName, uniqueJobIds.size(),
+				updateResult.getMatchedCount());
+
+		if (updateResult.getMatchedCount() == uniqueJobIds.size()) {
+			return uniqueJobIds;
+		}
+
+		// find out which leases were extended
+		Query extendedQuery = query(where("jobName").is(jobName).and("jobId").in(uniqueJobIds).and("state")
+				.is(JobState.PROCESSING).and("leaseExpiresTimestamp").is(leaseExpiresTimestamp));
+		extendedQuery.fields().include("jobId");
+		return mongoTemplate.find(extendedQuery, Job.class).stream().map(Job::getJobId).collect(Collectors.toSet());
+	}
+
+	@Override
+	public Map<String, String> insertJobs(List<Job> jobs) {
+
+		Map<String, String> failedJobIds = new HashMap<>();
+		if (jobs.isEmpty()) {
+			return failedJobIds;
+		}
+
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, Job.class);
+		bulkOperations.insert(jobs);
+		try {
+			bulkOperations.execute();
+		} catch (BulkOperationException e) {
+			// jobs created by another request since they were checked fail on the unique jobName_jobId index; the batch
+			// is unordered, so the others were inserted
+			if (e.getErrors().isEmpty()) {
+				throw e;
+			}
+			for (BulkWriteError error : e.getErrors()) {
+				failedJobIds.put(jobs.get(error.getIndex()).getJobId(),
+						error.getCode() == DUPLICATE_KEY_ERROR_CODE ? "already exists" : "was not created: " + error.getMessage());
+			}
+		}
+		logger.debug("insertJobs: jobs={}, failed={}", jobs.size(), failedJobIds.size());
+		return failedJobIds;
+	}
+
+	@Override
+	public Set<String> findExistingJobIds(String jobName, Collection<String> jobIds) {
+
+		Query query = query(where("jobName").is(jobName).and("jobId").in(jobIds));
+		query.fields().include("jobId").exclude("_id");
+		return mongoTemplate.find(query, Job.class).stream().map(Job::getJobId).collect(Collectors.toSet());
+	}
+
+	@Override
+	public Job updateState(String jobName, String jobId, JobState state) {
+
+		Update update = new Update().set("state", state).set("transitionToken", UUID.randomUUID().toString())
+				.unset("leaseExpiresTimestamp");
+		return mongoTemplate.findAndModify(query(where("jobName").is(jobName).and("jobId").is(jobId)), update,
+				FindAndModifyOptions.options().returnNew(false), Job.class);
+	}
+
+	@Override
+	public List<Job> findJobsToReset(JobReset jobReset, String afterId, int limit) {
+
+		Query query = resetQuery(jobReset);
+		if (afterId != null) {
+			query.addCriteria(where("_id").gt(afterId));
+		}
+		query.with(Sort.by(Sort.Direction.ASC, "_id")).limit(limit);
+		query.fields().include("jobId").include("state").include("nextTaskName");
+		return mongoTemplate.find(query, Job.class);
+	}
+
+	@Override
+	public Timestamp findOldestReadyCreatedTimestamp(String jobName, String nextTaskName) {
+
+		// the job claimJobs would claim first
+		Query query = readyQuery(jobName, nextTaskName).with(Sort.by(Sort.Direction.ASC, "createdTimestamp"));
+		query.fields().include("createdTimestamp");
+		Job job = mongoTemplate.findOne(query, Job.class);
+		return job == null ? null : job.getCreatedTimestamp();
+	}
+
+	@Override
+	public List<JobStats> countJobs() {
+
+		List<JobStats> jobStats = new ArrayList<>();
+		for (Document document : mongoTemplate
+				.aggregate(newAggregation(group("jobName", "nextTaskName", "state").count().as("count")), Job.class,
+						Document.class)
+				.getMappedResults()) {
+			Document id = (Document) document.get("_id");
+			jobStats.add(new JobStats(id.getString("jobName"), id.getString("nextTaskName"),
+					JobState.valueOf(id.getString("state")), ((Number) document.get("count")).longValue()));
+		}
+		return jobStats;
+	}
+
+	@Override
+	public Set<String> resetJobs(JobReset jobReset, List<Job> jobs) {
+
+		if (jobs.isEmpty()) {
+			return new HashSet<>();
+		}
+
+		// jobs are selected again, so a job changed since it was found is only reset if it still matches
+		List<String> ids = jobs.stream().map(Job::get_id).collect(Collectors.toList());
+		String transitionToken = UUID.randomUUID().toString();
+		List<String> taskNames = jobReset.getTaskNames();
+
+		// the last task is only archived if it is one of taskNames, which takes an update of its own
+		Criteria archiveLastTask = taskNames == null ? where("lastTask.name").exists(true)
+				: where("lastTask.name").in(taskNames);
+		Criteria keepLastTask = taskNames == null ? where("lastTask.name").exists(false)
+				: where("lastTask.name").nin(taskNames);
+		mongoTemplate.updateMulti(resetQuery(jobReset).addCriteria(where("_id").in(ids)).addCriteria(archiveLastTask),
+				resetUpdate(jobReset, transitionToken).set("lastTask.archived", true), Job.class);
+		mongoTemplate.updateMulti(resetQuery(jobReset).addCriteria(where("_id").in(ids)).addCriteria(keepLastTask),
+				resetUpdate(jobReset, transitionToken), Job.class);
+
+		Query resetQuery = query(where("_id").in(ids).and("transitionToken").is(transitionToken));
+		resetQuery.fields().include("jobId");
+		Set<String> resetJobIds = mongoTemplate.find(resetQuery, Job.class).stream().map(Job::getJobId)
+				.collect(Collectors.toSet());
+
+		if (!resetJobIds.isEmpty()) {
+			Query taskHistoryQuery = query(where("jobName").is(jobReset.getJobName()).and("jobId").in(resetJobIds));
+			if (taskNames != null) {
+				taskHistoryQuery.addCriteria(where("task.name").in(taskNames));
+			}
+			mongoTemplate.updateMulti(taskHistoryQuery, new Update().set("task.archived", true), TaskHistory.class);
+		}
+		logger.debug("resetJobs: jobName={}, jobs={}, reset={}", jobReset.getJobName(), jobs.size(), resetJobIds.size());
+		return resetJobIds;
+	}
+
+	@Override
+	public List<Job> findJobs(String jobName, JobState state, Sort sort, Collection<String> fields) {
+		return mongoTemplate.find(jobsQuery(jobName, state, fields).with(sort), Job.class);
+	}
+
+	@Override
+	public List<Job> findJobsAfter(String jobName, JobState state, String afterId, Sort.Direction direction, int limit,
+			Collection<String> fields) {
+
+		Query query = jobsQuery(jobName, state, fields).with(Sort.by(direction, "_id")).limit(limit);
+		if (afterId != null) {
+			query.addCriteria(direction == Sort.Direction.ASC ? where("_id").gt(afterId) : where("_id").lt(afterId));
+		}
+		return mongoTemplate.find(query, Job.class);
+	}
+
+	@Override
+	public CloseableIterator<Job> streamJobs(String jobName, JobState state, Sort.Direction direction,
+			Collection<String> fields) {
+		return mongoTemplate.stream(jobsQuery(jobName, state, fields).with(Sort.by(direction, "_id")), Job.class);
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs) {
+		loadTaskHistory(jobs, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs, int lastTasks) {
+
+		Map<String, List<Job>> jobNameJobsMap = jobs.stream().collect(Collectors.groupingBy(Job::getJobName));
+		for (Map.Entry<String, List<Job>> entry : jobNameJobsMap.entrySet()) {
+
+			Map<String, Job> jobIdJobMap = entry.getValue().stream()
+					.collect(Collectors.toMap(Job::getJobId, p -> p, (p, q) -> p));
+			jobIdJobMap.values().forEach(p -> p.setTasks(new ArrayList<>()));
+
+			// the job document has the last task, the task history has the ones before it
+			Query query = query(where("jobName").is(entry.getKey()));
+			if (lastTasks == Integer.MAX_VALUE) {
+				query.addCriteria(where("jobId").in(jobIdJobMap.keySet()));
+			} else {
+				// only the entries needed, each job its own index range
+				Criteria[] jobCriterias = jobIdJobMap.values().stream()
+						.filter(p -> lastTasks > 1 && p.getTaskCount() > 1)
+						.map(p -> where("jobId").is(p.getJobId()).and("seq").gt(p.getTaskCount() - lastTasks).lt(p.getTaskCount()))
+						.toArray(Criteria[]::new);
+				if (jobCriterias.length > 0) {
+					query.addCriteria(new Criteria().orOperator(jobCriterias));
+				} else {
+					query = null;
+				}
+			}
+
+			if (query != null) {
+				for (TaskHistory taskHistory : mongoTemplate.find(query.with(Sort.by(Sort.Direction.ASC, "seq")),
+						TaskHistory.class)) {
+					Job job = jobIdJobMap.get(taskHistory.getJobId());
+					if (taskHistory.getSeq() < job.getTaskCount()) {
+						job.getTasks().add(taskHistory.getTask());
+					}
+				}
+			}
+			if (lastTasks > 0) {
+				jobIdJobMap.values().stream().filter(p -> p.getTaskCount() > 0)
+						.forEach(p -> p.getTasks().add(p.getLastTask()));
+			}
+		}
+	}
+
+	@Override
+	public void deleteTaskHistory(String jobName, String jobId) {
+		mongoTemplate.remove(query(where("jobName").is(jobName).and("jobId").is(jobId)), TaskHistory.class);
+	}
+
+	// write jobs' last task to the task history, as an insert when claimed and as an update when ended; claimed jobs
+	// also rewrite the entry of their previous task, by _id in previousLastTasks, if it is still PROCESSING there as the
+	// write of its end failed
+	private void saveTaskHistory(Collection<Job> jobs, Map<String, Task> previousLastTasks) {
+
+		if (jobs.isEmpty()) {
+			return;
+		}
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, TaskHistory.class);
+		for (Job job : jobs) {
+			Task previousLastTask = previousLastTasks.get(job.get_id());
+			if (previousLastTask != null && previousLastTask.getState() != TaskState.PROCESSING) {
+				// not if archived by a reset since, which left the job READY for the claim
+				bulkOperations.updateOne(query(where("jobName").is(job.getJobName()).and("jobId").is(job.getJobId())
+						.and("seq").is(job.getTaskCount() - 1).and("task.state").is(TaskState.PROCESSING.name())
+						.and("task.archived").ne(true)), new Update().set("task", previousLastTask));
+			}
+			Query query = query(where("jobName").is(job.getJobName()).and("jobId").is(job.getJobId()).and("seq")
+					.is(job.getTaskCount()));
+			bulkOperations.upsert(query, new Update().set("task", job.getLastTask()));
+		}
+		try {
+			bulkOperations.execute();
+		} catch (DataAccessException e) {
+			// the job document still has its last task, which reads of the job take from it; an ended task's entry is
+			// rewritten when the job is claimed again
+			logger.error("saveTaskHistory: can't write task history for {} jobs", jobs.size(), e);
+		}
+	}
+
+	// findJobsAfter and streamJobs sort on _id: generated _ids start with their creation time, so they give a creation
+	// order that is unique and indexed
+	private Query jobsQuery(String jobName, JobState state, Collection<String> fields) {
+
+		Query query = new Query();
+		if (jobName != null) {
+			query.addCriteria(where("jobName").is(jobName));
+		}
+		if (state != null) {
+			query.addCriteria(where("state").is(state));
+		}
+		if (fields != null) {
+			fields.forEach(p -> query.fields().include(p));
+		}
+		return query;
+	}
+
+	private Query resetQuery(JobReset jobReset) {
+
+		Query query = query(where("jobName").is(jobReset.getJobName()));
+		if (jobReset.getState() != null) {
+			query.addCriteria(where("state").is(jobReset.getState()));
+		}
+		if (jobReset.getNextTaskName() != null) {
+			query.addCriteria(where("nextTaskName").is(jobReset.getNextTaskName()));
+		}
+		if (jobReset.getCreatedFrom() != null || jobReset.getCreatedTo() != null) {
+			Criteria createdTimestamp = where("createdTimestamp");
+			if (jobReset.getCreatedFrom() != null) {
+				createdTimestamp.gte(jobReset.getCreatedFrom());
+			}
+			if (jobReset.getCreatedTo() != null) {
+				createdTimestamp.lt(jobReset.getCreatedTo());
+			}
+			query.addCriteria(createdTimestamp);
+		}
+		return query;
+	}
+
+	// as Job.reset and Job.resetAllTasks, except for the last task
+	private Update resetUpdate(JobReset jobReset, String transitionToken) {
+
+		Update update = new Update().set("state", JobState.READY).set("nextTaskName", jobReset.getResetTaskName())
+				.set("transitionToken", transitionToken).unset("leaseExpiresTimestamp");
+		if (jobReset.getTaskNames() == null) {
+			update.set("taskErrorCounts", new HashMap<String, Integer>());
+		} else {
+			// task names can't contain "." or start with "$", so they are safe as field names
+			jobReset.getTaskNames().forEach(p -> update.unset("taskErrorCounts." + p));
+		}
+		return update;
+	}
+
+	// jobs with tasks embedded by an earlier version are claimed once TaskHistoryMigration has moved them
+	private Query readyQuery(String jobName, String taskName) {
+		return query(where("jobName").is(jobName).and("state").is(JobState.READY).and("nextTaskName").is(taskName)
+				.and("tasks").exists(false));
+	}
+
+}
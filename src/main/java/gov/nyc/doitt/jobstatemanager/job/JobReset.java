@@ -0,0 +1,105 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * A bulk reset of the jobs of a jobName selected by state, nextTaskName and creation time, and its progress. Jobs are
+ * reset as Job.reset does, or as Job.resetAllTasks does if no taskNames are given
+ */
+@JsonInclude(Include.NON_NULL)
+public class JobReset {
+
+	private String jobName;
+	// selection, null for any
+	private JobState state;
+	private String nextTaskName;
+	private Timestamp createdFrom;
+	private Timestamp createdTo;
+	// tasks to archive, null for all tasks
+	private List<String> taskNames;
+
+	// nextTaskName of reset jobs
+	private String resetTaskName;
+	private long selectedCount;
+	private long resetCount;
+	private boolean done;
+
+	public JobReset() {
+	}
+
+	public JobReset(String jobName, JobState state, String nextTaskName, Timestamp createdFrom, Timestamp createdTo,
+			List<String> taskNames) {
+		this.jobName = jobName;
+		this.state = state;
+		this.nextTaskName = nextTaskName;
+		this.createdFrom = createdFrom;
+		this.createdTo = createdTo;
+		this.taskNames = taskNames;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public JobState getState() {
+		return state;
+	}
+
+	public String getNextTaskName() {
+		return nextTaskName;
+	}
+
+	public Timestamp getCreatedFrom() {
+		return createdFrom;
+	}
+
+	public Timestamp getCreatedTo() {
+		return createdTo;
+	}
+
+	public List<String> getTaskNames() {
+		return taskNames;
+	}
+
+	public String getResetTaskName() {
+		return resetTaskName;
+	}
+
+	void setResetTaskName(String resetTaskName) {
+		this.resetTaskName = resetTaskName;
+	}
+
+	// jobs selected so far; jobs changed by another request after they were selected are not reset
+	public long getSelectedCount() {
+		return selectedCount;
+	}
+
+	public long getResetCount() {
+		return resetCount;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	void addCounts(long selectedCount, long resetCount) {
+		this.selectedCount += selectedCount;
+		this.resetCount += resetCount;
+	}
+
+	void end() {
+		this.done = true;
+	}
+
+	@Override
+	public String toString() {
+		return "JobReset [jobName=" + jobName + ", state=" + state + ", nextTaskName=" + nextTaskName + ", createdFrom="
+				+ createdFrom + ", createdTo=" + createdTo + ", taskNames=" + taskNames + ", resetTaskName=" + resetTaskName
+				+ ", selectedCount=" + selectedCount + ", resetCount=" + resetCount + ", done=" + done + "]";
+	}
+
+}
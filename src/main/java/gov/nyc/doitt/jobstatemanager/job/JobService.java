@@ -1,11 +1,26 @@
 package gov.nyc.doitt.jobstatemanager.job;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
@@ -13,7 +28,7 @@ import gov.nyc.doitt.jobstatemanager.common.ConflictException;
 import gov.nyc.doitt.jobstatemanager.common.EntityNotFoundException;
 import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
 import gov.nyc.doitt.jobstatemanager.common.ValidationException;
-import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigPlan;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
 import gov.nyc.doitt.jobstatemanager.jobconfig.TaskConfig;
 
@@ -26,57 +41,200 @@ public class JobService {
 	private JobConfigService jobConfigService;
 
 	@Autowired
-	private JobRepository jobRepository;
+	private JobStore jobStore;
 
 	@Autowired
 	private JobDtoMapper jobDtoMapper;
 
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	@Autowired
+	private JobStatsService jobStatsService;
+
+	@Value("${jobs.page.max.limit:1000}")
+	private int maxPageLimit;
+
+	@Value("${jobs.stream.batch.size:100}")
+	private int streamBatchSize;
+
+	@Value("${jobs.create.batch.size:1000}")
+	private int createBatchSize;
+
+	@Value("${jobs.reset.batch.size:1000}")
+	private int resetBatchSize;
+
 	/**
-	 * Create job from jobDto
+	 * Create job from jobDto in one insert; the JobStore rejects a job that already exists, also when it is created
+	 * concurrently
 	 * 
+	 * @param jobName
 	 * @param jobDto
+	 * @param idempotent if true, an existing job is returned as it is instead of failing, so a retried create is safe
 	 * @return
 	 */
-	public JobDto createJob(String jobName, JobDto jobDto) {
+	public JobDto createJob(String jobName, JobDto jobDto, boolean idempotent) {
 
-		if (!jobConfigService.existsJobConfig(jobName)) {
-			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
-		}
+		TaskConfig taskConfig = jobConfigService.getJobConfigPlan(jobName).getFirstTaskConfig();
 		String jobId = jobDto.getJobId();
-		if (jobRepository.existsByJobNameAndJobId(jobName, jobId)) {
-			throw new ConflictException(String.format("Job for jobName=%s, jobId=%s already exists", jobName, jobId));
-		}
 
 		Job job = jobDtoMapper.fromDto(jobName, jobDto);
-
-		JobConfig jobConfig = jobConfigService.getJobConfigDomain(jobName);
-		TaskConfig taskConfig = jobConfig.getTaskConfigs().stream().findFirst()
-				.orElseThrow(() -> new JobStateManagerException("JobConfig for jobName=" + jobName + " has no TaskConfigs"));
 		job.setNextTaskName(taskConfig.getName());
-		jobRepository.save(job);
+		try {
+			jobStore.insert(job);
+		} catch (DuplicateKeyException e) {
+			if (idempotent) {
+				logger.debug("createJob: returning existing job for jobName={}, jobId={}", jobName, jobId);
+				return getJob(jobName, jobId);
+			}
+			throw new ConflictException(String.format("Job for jobName=%s, jobId=%s already exists", jobName, jobId), e);
+		}
+		jobStatsService.add(jobName, job.getNextTaskName(), job.getState(), 1);
+		applicationEventPublisher.publishEvent(new JobReadyEvent(jobName, job.getNextTaskName()));
 		return jobDtoMapper.toDto(job);
 	}
 
+	/**
+	 * Create jobs from jobDtos, resolving the job config once and checking and inserting jobDtos a batch at a time.
+	 * Reported per item: a JobDto with resultError set was not created
+	 * 
+	 * @param jobName
+	 * @param jobDtos
+	 * @return
+	 */
+	public List<JobDto> createJobs(String jobName, List<JobDto> jobDtos) {
+
+		TaskConfig taskConfig = jobConfigService.getJobConfigPlan(jobName).getFirstTaskConfig();
+
+		JobDto[] resultJobDtos = new JobDto[jobDtos.size()];
+		Set<String> requestedJobIds = new HashSet<>();
+		int createdCount = 0;
+		for (int start = 0; start < jobDtos.size(); start += createBatchSize) {
+			int end = Math.min(start + createBatchSize, jobDtos.size());
+
+			// one query for the jobIds of the batch that already exist
+			List<String> jobIds = jobDtos.subList(start, end).stream().map(JobDto::getJobId).collect(Collectors.toList());
+			Set<String> existingJobIds = jobStore.findExistingJobIds(jobName, jobIds);
+
+			Map<Integer, Job> newJobs = new LinkedHashMap<>();
+			for (int i = start; i < end; i++) {
+				JobDto jobDto = jobDtos.get(i);
+				// a jobId given twice is only created once
+				if (!requestedJobIds.add(jobDto.getJobId()) || existingJobIds.contains(jobDto.getJobId())) {
+					resultJobDtos[i] = createResultError(jobName, jobDto.getJobId(), "already exists");
+					continue;
+				}
+				Job job = jobDtoMapper.fromDto(jobName, jobDto);
+				job.setNextTaskName(taskConfig.getName());
+				newJobs.put(i, job);
+			}
+
+			Map<String, String> failedJobIds = jobStore.insertJobs(new ArrayList<>(newJobs.values()));
+			newJobs.forEach((i, job) -> {
+				String reason = failedJobIds.get(job.getJobId());
+				resultJobDtos[i] = reason != null ? createResultError(jobName, job.getJobId(), reason) : jobDtoMapper.toDto(job);
+			});
+			jobStatsService.add(jobName, taskConfig.getName(), JobState.READY, newJobs.size() - failedJobIds.size());
+			createdCount += newJobs.size() - failedJobIds.size();
+		}
+		logger.info("createJobs: jobName={}, number of jobs created: {} of {}", jobName, createdCount, jobDtos.size());
+
+		if (createdCount > 0) {
+			applicationEventPublisher.publishEvent(new JobReadyEvent(jobName, taskConfig.getName()));
+		}
+		return Arrays.asList(resultJobDtos);
+	}
+
 	/**
 	 * Get jobs for jobName
 	 * 
 	 * @param jobName
+	 * @param sort
+	 * @param jobView
 	 * @return
 	 */
-	List<JobDto> getJobs(String jobName, Sort sort) {
+	List<JobDto> getJobs(String jobName, Sort sort, JobView jobView) {
 
-		return jobDtoMapper.toDto(jobRepository.findByJobName(jobName, sort));
+		if (jobView.isFull()) {
+			return toDtoWithTaskHistory(jobStore.findByJobName(jobName, sort));
+		}
+		return toDto(jobStore.findJobs(jobName, null, sort, jobView.getDocumentFields()), jobView);
 	}
 
 	/**
 	 * Get jobs for jobName and state
 	 * 
 	 * @param jobName
+	 * @param state
+	 * @param sort
+	 * @param jobView
 	 * @return
 	 */
-	List<JobDto> getJobs(String jobName, JobState state, Sort sort) {
+	List<JobDto> getJobs(String jobName, JobState state, Sort sort, JobView jobView) {
 
-		return jobDtoMapper.toDto(jobRepository.findByJobNameAndState(jobName, state.name(), sort));
+		if (jobView.isFull()) {
+			return toDtoWithTaskHistory(jobStore.findByJobNameAndState(jobName, state.name(), sort));
+		}
+		return toDto(jobStore.findJobs(jobName, state, sort, jobView.getDocumentFields()), jobView);
+	}
+
+	/**
+	 * Get a page of jobs in creation order
+	 * 
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param direction
+	 * @param after nextAfter of the previous page, null for the first page
+	 * @param limit
+	 * @param jobView
+	 * @return
+	 */
+	JobPage getJobPage(String jobName, JobState state, Sort.Direction direction, String after, int limit,
+			JobView jobView) {
+
+		if (limit < 1 || limit > maxPageLimit) {
+			throw new ValidationException(String.format("limit must be >= 1 and <= %d", maxPageLimit));
+		}
+
+		// one more than asked for tells whether there is a next page
+		List<Job> jobs = jobStore.findJobsAfter(jobName, state, decodeAfter(after), direction, limit + 1,
+				jobView.getDocumentFields());
+		String nextAfter = null;
+		if (jobs.size() > limit) {
+			jobs = new ArrayList<>(jobs.subList(0, limit));
+			nextAfter = encodeAfter(jobs.get(limit - 1).get_id());
+		}
+		return new JobPage(toDto(jobs, jobView), nextAfter);
+	}
+
+	/**
+	 * Pass jobs in creation order to jobDtoConsumer as they are read from a cursor, loading task history a batch of jobs
+	 * at a time
+	 * 
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param direction
+	 * @param jobView
+	 * @param jobDtoConsumer
+	 * @return number of jobs
+	 */
+	int streamJobs(String jobName, JobState state, Sort.Direction direction, JobView jobView,
+			Consumer<JobDto> jobDtoConsumer) {
+
+		int count = 0;
+		try (CloseableIterator<Job> jobIterator = jobStore.streamJobs(jobName, state, direction,
+				jobView.getDocumentFields())) {
+			List<Job> jobs = new ArrayList<>(streamBatchSize);
+			while (jobIterator.hasNext()) {
+				jobs.add(jobIterator.next());
+				if (jobs.size() == streamBatchSize || !jobIterator.hasNext()) {
+					toDto(jobs, jobView).forEach(jobDtoConsumer);
+					count += jobs.size();
+					jobs.clear();
+				}
+			}
+		}
+		return count;
 	}
 
 	/**
@@ -88,21 +246,28 @@ public class JobService {
 	 */
 	public String deleteJob(String jobName, String jobId) {
 
-		if (!jobRepository.existsByJobNameAndJobId(jobName, jobId)) {
+		Job job = jobStore.deleteByJobNameAndJobId(jobName, jobId);
+		if (job == null) {
 			throw new EntityNotFoundException(String.format("Can't find Job for jobName=%s, jobId=%s", jobName, jobId));
 		}
-		jobRepository.deleteByJobNameAndJobId(jobName, jobId);
+		jobStatsService.add(jobName, job.getNextTaskName(), job.getState(), -1);
+		jobStore.deleteTaskHistory(jobName, jobId);
 		return jobName + "/" + jobId;
 	}
 
 	/**
 	 * Get all jobs
 	 * 
+	 * @param sort
+	 * @param jobView
 	 * @return
 	 */
-	public List<JobDto> getJobs(Sort sort) {
+	public List<JobDto> getJobs(Sort sort, JobView jobView) {
 
-		return jobDtoMapper.toDto(jobRepository.findAll(sort));
+		if (jobView.isFull()) {
+			return toDtoWithTaskHistory(jobStore.findAll(sort));
+		}
+		return toDto(jobStore.findJobs(null, null, sort, jobView.getDocumentFields()), jobView);
 	}
 
 	/**
@@ -114,7 +279,7 @@ public class JobService {
 	 */
 	public JobDto getJob(String jobName, String jobId) {
 
-		return jobDtoMapper.toDto(getJobDomain(jobName, jobId));
+		return toDtoWithTaskHistory(getJobDomain(jobName, jobId));
 	}
 
 	/**
@@ -126,17 +291,23 @@ public class JobService {
 	 */
 	public Job getJobDomain(String jobName, String jobId) {
 
-		Job job = jobRepository.findByJobNameAndJobId(jobName, jobId);
+		Job job = jobStore.findByJobNameAndJobId(jobName, jobId);
 		if (job == null) {
 			throw new EntityNotFoundException(String.format("Can't find Job for jobName=%s, jobId=%s", jobName, jobId));
 		}
 		return job;
 	}
 
+	/**
+	 * Set the state of the job specified by jobName and jobId to the state in jobDto
+	 * 
+	 * @param jobName
+	 * @param jobId
+	 * @param jobDto
+	 * @return
+	 */
 	public JobDto patchJob(String jobName, String jobId, JobDto jobDto) {
 
-		Job job = getJobDomain(jobName, jobId);
-
 		JobState jobState;
 		try {
 			jobState = JobState.valueOf(jobDto.getState());
@@ -144,8 +315,110 @@ public class JobService {
 			throw new ValidationException(
 					String.format("Unsupported JobState=%s for patching jobName=%s, jobId=%s", jobDto.getState(), jobName, jobId));
 		}
+		Job job = jobStore.updateState(jobName, jobId, jobState);
+		if (job == null) {
+			throw new EntityNotFoundException(String.format("Can't find Job for jobName=%s, jobId=%s", jobName, jobId));
+		}
+		jobStatsService.move(jobName, job.getNextTaskName(), job.getState(), job.getNextTaskName(), jobState, 1);
 		job.setState(jobState);
-		jobRepository.save(job);
+		return toDtoWithTaskHistory(job);
+	}
+
+	/**
+	 * Reset the jobs selected by jobReset a batch at a time, without reading more of them than their _id, jobId, state
+	 * and nextTaskName
+	 * 
+	 * @param jobReset
+	 * @param progressConsumer receives jobReset after each batch and when it is done
+	 * @return
+	 */
+	JobReset resetJobs(JobReset jobReset, Consumer<JobReset> progressConsumer) {
+
+		String jobName = jobReset.getJobName();
+		JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+		if (jobReset.getTaskNames() == null) {
+			jobReset.setResetTaskName(jobConfigPlan.getFirstTaskConfig().getName());
+		} else {
+			if (jobReset.getTaskNames().isEmpty()) {
+				throw new ValidationException("taskNames must not be empty");
+			}
+			for (String taskName : jobReset.getTaskNames()) {
+				try {
+					jobConfigPlan.getTaskConfig(taskName);
+				} catch (JobStateManagerException e) {
+					throw new ValidationException(e.getMessage(), e);
+				}
+			}
+			jobReset.setResetTaskName(jobReset.getTaskNames().get(0));
+		}
+		logger.info("resetJobs: starting: {}", jobReset);
+
+		String afterId = null;
+		List<Job> jobs;
+		while (!(jobs = jobStore.findJobsToReset(jobReset, afterId, resetBatchSize)).isEmpty()) {
+			afterId = jobs.get(jobs.size() - 1).get_id();
+			Set<String> resetJobIds = jobStore.resetJobs(jobReset, jobs);
+			jobs.stream().filter(p -> resetJobIds.contains(p.getJobId()))
+					.forEach(p -> jobStatsService.move(jobName, p.getNextTaskName(), p.getState(),
+							jobReset.getResetTaskName(), JobState.READY, 1));
+			jobReset.addCounts(jobs.size(), resetJobIds.size());
+			if (!resetJobIds.isEmpty()) {
+				applicationEventPublisher.publishEvent(new JobReadyEvent(jobName, jobReset.getResetTaskName()));
+			}
+			progressConsumer.accept(jobReset);
+		}
+
+		jobReset.end();
+		logger.info("resetJobs: ended: {}", jobReset);
+		progressConsumer.accept(jobReset);
+		return jobReset;
+	}
+
+	private JobDto createResultError(String jobName, String jobId, String reason) {
+
+		String resultError = String.format("Job for jobName=%s, jobId=%s %s", jobName, jobId, reason);
+		logger.error("createJobs: {}", resultError);
+		JobDto resultJobDto = new JobDto();
+		resultJobDto.setJobName(jobName);
+		resultJobDto.setJobId(jobId);
+		resultJobDto.setResultError(resultError);
+		return resultJobDto;
+	}
+
+	private String encodeAfter(String id) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String decodeAfter(String after) {
+
+		if (after == null) {
+			return null;
+		}
+		try {
+			return new String(Base64.getUrlDecoder().decode(after), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			throw new ValidationException("Invalid after: " + after, e);
+		}
+	}
+
+	// jobs were read with jobView's document fields; only the task history in the view is read
+	private List<JobDto> toDto(List<Job> jobs, JobView jobView) {
+
+		if (jobView.includes(JobView.TASK_DTOS)) {
+			jobStore.loadTaskHistory(jobs, jobView.getLastTasks());
+		}
+		return jobDtoMapper.toDto(jobs, jobView);
+	}
+
+	private List<JobDto> toDtoWithTaskHistory(List<Job> jobs) {
+
+		jobStore.loadTaskHistory(jobs);
+		return jobDtoMapper.toDto(jobs);
+	}
+
+	private JobDto toDtoWithTaskHistory(Job job) {
+
+		jobStore.loadTaskHistory(Collections.singletonList(job));
 		return jobDtoMapper.toDto(job);
 	}
 
@@ -0,0 +1,57 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Number of jobs of a jobName in a state for their next task, maintained by JobStatsService
+ */
+@Document
+public class JobStats {
+
+	@Id
+	@GenericGenerator(name = "db-uuid", strategy = "guid")
+	@GeneratedValue(generator = "db-uuid")
+	private String _id;
+
+	private String jobName;
+	private String nextTaskName;
+	private JobState state;
+	private long count;
+
+	public JobStats() {
+	}
+
+	public JobStats(String jobName, String nextTaskName, JobState state, long count) {
+		this.jobName = jobName;
+		this.nextTaskName = nextTaskName;
+		this.state = state;
+		this.count = count;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public String getNextTaskName() {
+		return nextTaskName;
+	}
+
+	public JobState getState() {
+		return state;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "JobStats [_id=" + _id + ", jobName=" + jobName + ", nextTaskName=" + nextTaskName + ", state=" + state
+				+ ", count=" + count + "]";
+	}
+
+}
@@ -0,0 +1,402 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang3.tuple.Triple;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts of jobs per jobName, nextTaskName and state. Transitions are counted in memory and flushed to the jobStats
+ * collection as increments, so instances share the counts; the counts are periodically reconciled with an aggregation
+ * of the jobs from the JobStore, which corrects any drift. One instance at a time reconciles, holding a lock document
+ * in jobStatsLock that expires if it stops, and aggregates once the instances have flushed the transitions they
+ * counted before it started. Flushes and reconciles run on threads of their own, so a reconcile waiting for the flushes
+ * of the instances doesn't hold up their flushes, nor do other scheduled tasks. With jobstore.type=wal, which runs a
+ * single instance without MongoDB, the counts are kept in memory only, starting from an aggregation of the jobs
+ */
+@Component
+public class JobStatsService {
+
+	private Logger logger = LoggerFactory.getLogger(JobStatsService.class);
+
+	private static final String LOCK_COLLECTION = "jobStatsLock";
+
+	private static final String LOCK_ID = "reconcile";
+
+	// how long a reconcile waits for the other instances to flush, and how long since its last flush an instance is
+	// waited for, in flush intervals
+	private static final int BARRIER_FLUSH_INTERVALS = 5;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private JobStore jobStore;
+
+	@Value("#{'${jobstore.type:mongo}' == 'wal'}")
+	private boolean local;
+
+	@Value("${stats.flush.interval.ms:1000}")
+	private long flushIntervalMs;
+
+	@Value("${stats.reconcile.interval.ms:300000}")
+	private long reconcileIntervalMs;
+
+	// this instance in the lock document
+	private String instanceId = UUID.randomUUID().toString();
+
+	// the barrier of the reconcile this instance last flushed for
+	private String flushedBarrier;
+
+	// counted by this instance since the last flush
+	private Map<Triple<String, String, JobState>, AtomicLong> pendingDeltas = new ConcurrentHashMap<>();
+
+	// read from the jobStats collection at the last flush
+	private volatile Map<Triple<String, String, JobState>, Long> flushedCounts = Collections.emptyMap();
+
+	// one reconcile at a time; flushes go on while it runs
+	private final Object reconcileMonitor = new Object();
+
+	private ScheduledExecutorService flushExecutorService;
+
+	private ScheduledExecutorService reconcileExecutorService;
+
+	@PostConstruct
+	private void init() {
+
+		if (local) {
+			reconcile();
+		} else {
+			try {
+				// counts start from an aggregation of the jobs the first time only
+				if (mongoTemplate.count(new Query(), JobStats.class) == 0 && lock()) {
+					reconcile();
+				} else {
+					loadFlushedCounts();
+				}
+			} catch (DataAccessException e) {
+				logger.error("init: can't read job stats", e);
+			}
+		}
+
+		flushExecutorService = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("jobStatsFlush-"));
+		flushExecutorService.scheduleWithFixedDelay(() -> run("flush", this::flush), flushIntervalMs, flushIntervalMs,
+				TimeUnit.MILLISECONDS);
+		reconcileExecutorService = Executors
+				.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("jobStatsReconcile-"));
+		reconcileExecutorService.scheduleWithFixedDelay(() -> run("reconcile", this::reconcile), reconcileIntervalMs,
+				reconcileIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	private void destroy() {
+
+		reconcileExecutorService.shutdownNow();
+		flushExecutorService.shutdownNow();
+	}
+
+	// a failure mustn't end the schedule, which a scheduled executor does on an exception
+	private void run(String name, Runnable runnable) {
+
+		try {
+			runnable.run();
+		} catch (RuntimeException e) {
+			logger.error("{}: failed", name, e);
+		}
+	}
+
+	/**
+	 * Count jobs of jobName entering (positive delta) or leaving (negative delta) state for nextTaskName
+	 *
+	 * @param jobName
+	 * @param nextTaskName
+	 * @param state
+	 * @param delta
+	 */
+	public void add(String jobName, String nextTaskName, JobState state, long delta) {
+
+		if (delta != 0) {
+			pendingDeltas.computeIfAbsent(Triple.of(jobName, nextTaskName, state), p -> new AtomicLong()).addAndGet(delta);
+		}
+	}
+
+	/**
+	 * Count count jobs of jobName moving from fromState for fromTaskName to toState for toTaskName
+	 *
+	 * @param jobName
+	 * @param fromTaskName
+	 * @param fromState
+	 * @param toTaskName
+	 * @param toState
+	 * @param count
+	 */
+	public void move(String jobName, String fromTaskName, JobState fromState, String toTaskName, JobState toState,
+			long count) {
+
+		add(jobName, fromTaskName, fromState, -count);
+		add(jobName, toTaskName, toState, count);
+	}
+
+	/**
+	 * Get the job counts, from memory only
+	 *
+	 * @param jobName null for all jobNames
+	 * @return
+	 */
+	public List<JobStats> getStats(String jobName) {
+
+		Map<Triple<String, String, JobState>, Long> counts = new HashMap<>(flushedCounts);
+		pendingDeltas.forEach((key, delta) -> counts.merge(key, delta.get(), Long::sum));
+
+		List<JobStats> jobStats = new ArrayList<>();
+		counts.forEach((key, count) -> {
+			if ((jobName == null || jobName.equals(key.getLeft())) && count != 0) {
+				jobStats.add(new JobStats(key.getLeft(), key.getMiddle(), key.getRight(), count));
+			}
+		});
+		return jobStats;
+	}
+
+	/**
+	 * Add the counts of this instance since the last flush to the jobStats collection and read the counts of all
+	 * instances back; every stats.flush.interval.ms
+	 */
+	public synchronized void flush() {
+
+		// read before the deltas are taken, so they include every transition counted before the barrier was seen
+		String barrier = local ? null : heartbeat();
+
+		Map<Triple<String, String, JobState>, Long> deltas = new HashMap<>();
+		pendingDeltas.forEach((key, delta) -> {
+			long value = delta.getAndSet(0);
+			if (value != 0) {
+				deltas.put(key, value);
+			}
+		});
+
+		if (local) {
+			Map<Triple<String, String, JobState>, Long> counts = new HashMap<>(flushedCounts);
+			deltas.forEach((key, delta) -> counts.merge(key, delta, Long::sum));
+			flushedCounts = counts;
+			return;
+		}
+
+		if (!deltas.isEmpty()) {
+			BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, JobStats.class);
+			deltas.forEach((key, delta) -> bulkOperations.upsert(statsQuery(key), new Update().inc("count", delta)));
+			try {
+				bulkOperations.execute();
+			} catch (DataAccessException e) {
+				// keep them for the next flush
+				deltas.forEach((key, delta) -> add(key.getLeft(), key.getMiddle(), key.getRight(), delta));
+				logger.error("flush: can't write job stats", e);
+				return;
+			}
+		}
+
+		try {
+			if (barrier != null && !barrier.equals(flushedBarrier)) {
+				mongoTemplate.updateFirst(query(where("_id").is(LOCK_ID).and("barrier").is(barrier)),
+						new Update().set("flushed." + instanceId, barrier), LOCK_COLLECTION);
+				flushedBarrier = barrier;
+			}
+			loadFlushedCounts();
+		} catch (DataAccessException e) {
+			logger.error("flush: can't read job stats", e);
+		}
+	}
+
+	/**
+	 * Replace the counts in the jobStats collection with counts aggregated from the jobs, if this instance holds the
+	 * reconcile lock. The aggregation waits for the instances to flush at a barrier, so transitions they counted before
+	 * it aren't counted again; only transitions counted while the jobs are aggregated may be off until the next
+	 * reconcile. Every stats.reconcile.interval.ms
+	 */
+	public void reconcile() {
+
+		if (local) {
+			// no sleeping here, so under the flush monitor: no flush merges into the counts being replaced
+			synchronized (this) {
+				flush();
+				flushedCounts = aggregateCounts();
+			}
+			return;
+		}
+
+		synchronized (reconcileMonitor) {
+			if (!lock()) {
+				logger.debug("reconcile: another instance holds the lock");
+				return;
+			}
+
+			String barrier = new ObjectId().toHexString();
+			mongoTemplate.updateFirst(query(where("_id").is(LOCK_ID)), new Update().set("barrier", barrier).unset("flushed"),
+					LOCK_COLLECTION);
+			try {
+				flush();
+				awaitFlushes(barrier);
+				// the counts the aggregation is compared with, those flushed at the barrier included; read once, as
+				// flushes go on
+				Map<Triple<String, String, JobState>, Long> storedCounts = readCounts();
+				correctCounts(aggregateCounts(), storedCounts);
+			} finally {
+				mongoTemplate.updateFirst(query(where("_id").is(LOCK_ID)), new Update().unset("barrier").unset("flushed"),
+						LOCK_COLLECTION);
+			}
+			loadFlushedCounts();
+		}
+	}
+
+	private Map<Triple<String, String, JobState>, Long> aggregateCounts() {
+
+		Map<Triple<String, String, JobState>, Long> counts = new HashMap<>();
+		jobStore.countJobs()
+				.forEach(p -> counts.put(Triple.of(p.getJobName(), p.getNextTaskName(), p.getState()), p.getCount()));
+		return counts;
+	}
+
+	private void correctCounts(Map<Triple<String, String, JobState>, Long> counts,
+			Map<Triple<String, String, JobState>, Long> storedCounts) {
+
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, JobStats.class);
+		int correctedCount = 0;
+		for (Entry<Triple<String, String, JobState>, Long> entry : counts.entrySet()) {
+			if (!entry.getValue().equals(storedCounts.get(entry.getKey()))) {
+				bulkOperations.upsert(statsQuery(entry.getKey()), new Update().set("count", entry.getValue()));
+				correctedCount++;
+			}
+		}
+		for (Triple<String, String, JobState> key : storedCounts.keySet()) {
+			if (!counts.containsKey(key)) {
+				bulkOperations.remove(statsQuery(key));
+				correctedCount++;
+			}
+		}
+		if (correctedCount > 0) {
+			logger.info("reconcile: corrected {} job counts", correctedCount);
+			bulkOperations.execute();
+		}
+	}
+
+	// taken by an instance that finds it expired, and kept by renewing it; an instance that stops loses it when it
+	// expires
+	private boolean lock() {
+
+		Date now = new Date();
+		Query query = query(where("_id").is(LOCK_ID).orOperator(where("lockedUntil").not().gte(now),
+				where("owner").is(instanceId)));
+		try {
+			mongoTemplate.upsert(query,
+					new Update().set("owner", instanceId).set("lockedUntil", new Date(now.getTime() + reconcileIntervalMs)),
+					LOCK_COLLECTION);
+			return true;
+		} catch (DuplicateKeyException e) {
+			return false;
+		}
+	}
+
+	// records when this instance last flushed and returns the barrier of a reconcile in progress
+	private String heartbeat() {
+
+		try {
+			Document lock = mongoTemplate.findAndModify(query(where("_id").is(LOCK_ID)),
+					new Update().set("instances." + instanceId, new Date()),
+					FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, LOCK_COLLECTION);
+			return lock.getString("barrier");
+		} catch (DataAccessException e) {
+			logger.error("flush: can't read the reconcile lock", e);
+			return null;
+		}
+	}
+
+	// until the instances that flushed lately have flushed since barrier was set, for a few flush intervals at most;
+	// instances that haven't flushed for longer are forgotten
+	private void awaitFlushes(String barrier) {
+
+		long deadline = System.currentTimeMillis() + BARRIER_FLUSH_INTERVALS * flushIntervalMs;
+		while (true) {
+			Document lock = mongoTemplate.findById(LOCK_ID, Document.class, LOCK_COLLECTION);
+			Document instances = lock.get("instances", new Document());
+			Document flushed = lock.get("flushed", new Document());
+			long liveSince = System.currentTimeMillis() - BARRIER_FLUSH_INTERVALS * flushIntervalMs;
+
+			List<String> waitedInstanceIds = new ArrayList<>();
+			Update update = new Update();
+			instances.forEach((id, flushedAt) -> {
+				if (((Date) flushedAt).getTime() < liveSince) {
+					update.unset("instances." + id);
+				} else if (!barrier.equals(flushed.getString(id))) {
+					waitedInstanceIds.add(id);
+				}
+			});
+			if (!update.getUpdateObject().isEmpty()) {
+				mongoTemplate.updateFirst(query(where("_id").is(LOCK_ID)), update, LOCK_COLLECTION);
+			}
+
+			if (waitedInstanceIds.isEmpty()) {
+				return;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				logger.warn("awaitFlushes: instances not flushed: {}", waitedInstanceIds);
+				return;
+			}
+			try {
+				Thread.sleep(flushIntervalMs / 4);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void loadFlushedCounts() {
+		flushedCounts = readCounts();
+	}
+
+	private Map<Triple<String, String, JobState>, Long> readCounts() {
+
+		Map<Triple<String, String, JobState>, Long> counts = new HashMap<>();
+		mongoTemplate.findAll(JobStats.class)
+				.forEach(p -> counts.put(Triple.of(p.getJobName(), p.getNextTaskName(), p.getState()), p.getCount()));
+		return counts;
+	}
+
+	private Query statsQuery(Triple<String, String, JobState> key) {
+		return query(where("jobName").is(key.getLeft()).and("nextTaskName").is(key.getMiddle()).and("state")
+				.is(key.getRight()));
+	}
+
+}
@@ -0,0 +1,254 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+
+/**
+ * Storage of jobs and their task history, as used by JobService and TaskService. The implementation is selected with
+ * jobstore.type: mongo (default), memory, wal or jdbc. Implementations keep jobName and jobId unique, change a job only
+ * while it is in the state a transition expects and give every transition a new transitionToken, so concurrent claims
+ * and result writes are safe
+ */
+public interface JobStore {
+
+	/**
+	 * Create job, setting its _id
+	 *
+	 * @param job
+	 * @return
+	 * @throws org.springframework.dao.DuplicateKeyException if a job with the same jobName and jobId exists
+	 */
+	Job insert(Job job);
+
+	/**
+	 * Create jobs; a job whose jobName and jobId already exist, or that can't be stored, is not created, the others
+	 * still are
+	 *
+	 * @param jobs
+	 * @return why each job not created wasn't, such as "already exists", by jobId
+	 */
+	Map<String, String> insertJobs(List<Job> jobs);
+
+	/**
+	 * Find which of jobIds already have a job for jobName
+	 *
+	 * @param jobName
+	 * @param jobIds
+	 * @return
+	 */
+	Set<String> findExistingJobIds(String jobName, Collection<String> jobIds);
+
+	/**
+	 * Get a job without its task history
+	 *
+	 * @param jobName
+	 * @param jobId
+	 * @return null if not found
+	 */
+	Job findByJobNameAndJobId(String jobName, String jobId);
+
+	/**
+	 * List jobs of jobName without their task history
+	 *
+	 * @param jobName
+	 * @param sort
+	 * @return
+	 */
+	List<Job> findByJobName(String jobName, Sort sort);
+
+	/**
+	 * List jobs of jobName in state without their task history
+	 *
+	 * @param jobName
+	 * @param state a JobState name
+	 * @param sort
+	 * @return
+	 */
+	List<Job> findByJobNameAndState(String jobName, String state, Sort sort);
+
+	/**
+	 * List jobs of all jobNames without their task history
+	 *
+	 * @param sort
+	 * @return
+	 */
+	List<Job> findAll(Sort sort);
+
+	/**
+	 * List jobs; fields is a hint, an implementation may return more fields than asked for
+	 *
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param sort
+	 * @param fields null for all fields
+	 * @return
+	 */
+	List<Job> findJobs(String jobName, JobState state, Sort sort, Collection<String> fields);
+
+	/**
+	 * List up to limit jobs in creation order, starting after the job with _id afterId
+	 *
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param afterId null to start with the first job
+	 * @param direction
+	 * @param limit
+	 * @param fields null for all fields
+	 * @return
+	 */
+	List<Job> findJobsAfter(String jobName, JobState state, String afterId, Sort.Direction direction, int limit,
+			Collection<String> fields);
+
+	/**
+	 * Iterate over jobs in creation order; the caller must close the iterator
+	 *
+	 * @param jobName null for jobs of all jobNames
+	 * @param state null for jobs in any state
+	 * @param direction
+	 * @param fields null for all fields
+	 * @return
+	 */
+	CloseableIterator<Job> streamJobs(String jobName, JobState state, Sort.Direction direction, Collection<String> fields);
+
+	/**
+	 * Get the jobs of jobName with one of jobIds that are in one of states for taskName
+	 *
+	 * @param jobName
+	 * @param jobIds
+	 * @param states
+	 * @param taskName
+	 * @return
+	 */
+	List<Job> findByJobNameAndJobIdInAndStateInAndNextTaskName(String jobName, List<String> jobIds, List<JobState> states,
+			String taskName);
+
+	/**
+	 * List jobs in state whose lease expired before timestamp
+	 *
+	 * @param state
+	 * @param timestamp
+	 * @param pageable
+	 * @return
+	 */
+	List<Job> findByStateAndLeaseExpiresTimestampLessThan(JobState state, Timestamp timestamp, Pageable pageable);
+
+	/**
+	 * Get the creation time of the job claimJobs would claim first
+	 *
+	 * @param jobName
+	 * @param nextTaskName
+	 * @return null if there are no READY jobs
+	 */
+	Timestamp findOldestReadyCreatedTimestamp(String jobName, String nextTaskName);
+
+	/**
+	 * Count jobs per jobName, nextTaskName and state
+	 *
+	 * @return
+	 */
+	List<JobStats> countJobs();
+
+	/**
+	 * Delete a job; its task history is deleted with deleteTaskHistory
+	 *
+	 * @param jobName
+	 * @param jobId
+	 * @return the deleted job, or null if not found
+	 */
+	Job deleteByJobNameAndJobId(String jobName, String jobId);
+
+	/**
+	 * Delete the task history of a job
+	 *
+	 * @param jobName
+	 * @param jobId
+	 */
+	void deleteTaskHistory(String jobName, String jobId);
+
+	/**
+	 * Claim up to maxBatchSize of the oldest READY jobs waiting for taskName: each is moved to PROCESSING with a new
+	 * taskName task, and is claimed by one caller only
+	 *
+	 * @param jobName
+	 * @param taskName
+	 * @param maxBatchSize
+	 * @param leaseExpiresTimestamp null for no lease
+	 * @return claimed jobs, oldest first
+	 */
+	List<Job> claimJobs(String jobName, String taskName, int maxBatchSize, Timestamp leaseExpiresTimestamp);
+
+	/**
+	 * Complete claims: write state, nextTaskName, taskErrorCounts and the last task's result of jobs, each only if the
+	 * job is still PROCESSING taskName under the claim that returned it
+	 *
+	 * @param taskName
+	 * @param jobs
+	 * @param leaseExpiredBefore if not null, a job is also only written if its lease expired before this time
+	 * @return jobIds of jobs not written
+	 */
+	Set<String> saveTaskResults(String taskName, List<Job> jobs, Timestamp leaseExpiredBefore);
+
+	/**
+	 * Set the lease of jobs still PROCESSING taskName
+	 *
+	 * @param jobName
+	 * @param taskName
+	 * @param jobIds
+	 * @param leaseExpiresTimestamp
+	 * @return jobIds of jobs whose lease was set
+	 */
+	Set<String> extendLeases(String jobName, String taskName, List<String> jobIds, Timestamp leaseExpiresTimestamp);
+
+	/**
+	 * Set the state of a job, ending any claim on it
+	 *
+	 * @param jobName
+	 * @param jobId
+	 * @param state
+	 * @return the job as it was before, or null if not found
+	 */
+	Job updateState(String jobName, String jobId, JobState state);
+
+	/**
+	 * List up to limit jobs selected by jobReset in _id order, starting after the job with _id afterId; only _id, jobId,
+	 * state and nextTaskName are needed
+	 *
+	 * @param jobReset
+	 * @param afterId null to start with the first job
+	 * @param limit
+	 * @return
+	 */
+	List<Job> findJobsToReset(JobReset jobReset, String afterId, int limit);
+
+	/**
+	 * Reset those of jobs still selected by jobReset, ending any claim on them
+	 *
+	 * @param jobReset
+	 * @param jobs jobs found by findJobsToReset
+	 * @return jobIds of the jobs that were reset
+	 */
+	Set<String> resetJobs(JobReset jobReset, List<Job> jobs);
+
+	/**
+	 * Fill the tasks of jobs with their task history, oldest first, ending with each job's last task
+	 *
+	 * @param jobs
+	 */
+	void loadTaskHistory(List<Job> jobs);
+
+	/**
+	 * Fill the tasks of jobs with their last lastTasks tasks, oldest first
+	 *
+	 * @param jobs
+	 * @param lastTasks
+	 */
+	void loadTaskHistory(List<Job> jobs, int lastTasks);
+
+}
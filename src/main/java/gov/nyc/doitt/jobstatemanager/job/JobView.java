@@ -0,0 +1,127 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import gov.nyc.doitt.jobstatemanager.common.ValidationException;
+
+/**
+ * The part of each job a listing returns: a subset of the JobDto properties and how many of its last tasks. What is not
+ * part of the view is not read from the database, mapped or serialized
+ */
+public class JobView {
+
+	static final String TASK_DTOS = "taskDtos";
+
+	static final int ALL_TASKS = Integer.MAX_VALUE;
+
+	// Job document fields read for each JobDto property
+	private static final Map<String, List<String>> PROPERTY_FIELDS = new LinkedHashMap<>();
+	static {
+		PROPERTY_FIELDS.put("jobName", Arrays.asList("jobName"));
+		PROPERTY_FIELDS.put("jobId", Arrays.asList("jobId"));
+		PROPERTY_FIELDS.put("description", Arrays.asList("description"));
+		PROPERTY_FIELDS.put("createdTimestamp", Arrays.asList("createdTimestamp"));
+		PROPERTY_FIELDS.put("state", Arrays.asList("state"));
+		PROPERTY_FIELDS.put("nextTaskName", Arrays.asList("nextTaskName"));
+		PROPERTY_FIELDS.put(TASK_DTOS,
+				Arrays.asList("jobName", "jobId", "lastTask", "taskCount", "taskErrorCounts", "leaseExpiresTimestamp"));
+	}
+
+	private static final List<String> SUMMARY_PROPERTIES = Arrays.asList("jobName", "jobId", "createdTimestamp", "state",
+			"nextTaskName");
+
+	public static final JobView FULL = new JobView(PROPERTY_FIELDS.keySet(), ALL_TASKS);
+
+	private final Set<String> properties;
+	private final int lastTasks;
+
+	private JobView(Set<String> properties, int lastTasks) {
+		this.properties = Collections.unmodifiableSet(new LinkedHashSet<>(properties));
+		this.lastTasks = lastTasks;
+	}
+
+	/**
+	 * Get the view for the request parameters of a listing
+	 * 
+	 * @param view summary or full; null for full
+	 * @param fields JobDto properties; can't be given with view
+	 * @param tasks number of last tasks; includes taskDtos when given, null for all tasks
+	 * @return
+	 */
+	public static JobView of(String view, String[] fields, Integer tasks) {
+
+		if (view != null && fields != null) {
+			throw new ValidationException("view and fields can't both be specified");
+		}
+		if (tasks != null && tasks < 0) {
+			throw new ValidationException("tasks must be >= 0");
+		}
+
+		Set<String> properties = new LinkedHashSet<>();
+		if (fields != null) {
+			for (String field : fields) {
+				if (!PROPERTY_FIELDS.containsKey(field)) {
+					throw new ValidationException(
+							String.format("Unsupported field=%s, must be one of %s", field, PROPERTY_FIELDS.keySet()));
+				}
+				properties.add(field);
+			}
+		} else if (view == null || "full".equals(view)) {
+			properties.addAll(PROPERTY_FIELDS.keySet());
+		} else if ("summary".equals(view)) {
+			properties.addAll(SUMMARY_PROPERTIES);
+		} else {
+			throw new ValidationException(String.format("Unsupported view=%s, must be summary or full", view));
+		}
+
+		if (tasks == null) {
+			return new JobView(properties, ALL_TASKS);
+		}
+		properties.add(TASK_DTOS);
+		return new JobView(properties, tasks);
+	}
+
+	public boolean isFull() {
+		return properties.size() == PROPERTY_FIELDS.size() && lastTasks == ALL_TASKS;
+	}
+
+	public boolean includes(String property) {
+		return properties.contains(property);
+	}
+
+	/**
+	 * Number of last tasks to read for each job; 0 when taskDtos is not part of the view
+	 * 
+	 * @return
+	 */
+	public int getLastTasks() {
+		return includes(TASK_DTOS) ? lastTasks : 0;
+	}
+
+	/**
+	 * Job document fields to read
+	 * 
+	 * @return null for all fields
+	 */
+	public Set<String> getDocumentFields() {
+
+		if (properties.size() == PROPERTY_FIELDS.size()) {
+			return null;
+		}
+		Set<String> documentFields = new LinkedHashSet<>();
+		properties.forEach(p -> documentFields.addAll(PROPERTY_FIELDS.get(p)));
+		return documentFields;
+	}
+
+	@Override
+	public String toString() {
+		return "JobView [properties=" + properties + ", lastTasks=" + lastTasks + "]";
+	}
+
+}
@@ -0,0 +1,149 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+/**
+ * JobStore on the jobs and taskHistory collections of MongoDB, through JobRepository
+ */
+@Component
+@ConditionalOnProperty(name = "jobstore.type", havingValue = "mongo", matchIfMissing = true)
+class MongoJobStore implements JobStore {
+
+	@Autowired
+	private JobRepository jobRepository;
+
+	@Override
+	public Job insert(Job job) {
+		return jobRepository.insert(job);
+	}
+
+	@Override
+	public Map<String, String> insertJobs(List<Job> jobs) {
+		return jobRepository.insertJobs(jobs);
+	}
+
+	@Override
+	public Set<String> findExistingJobIds(String jobName, Collection<String> jobIds) {
+		return jobRepository.findExistingJobIds(jobName, jobIds);
+	}
+
+	@Override
+	public Job findByJobNameAndJobId(String jobName, String jobId) {
+		return jobRepository.findByJobNameAndJobId(jobName, jobId);
+	}
+
+	@Override
+	public List<Job> findByJobName(String jobName, Sort sort) {
+		return jobRepository.findByJobName(jobName, sort);
+	}
+
+	@Override
+	public List<Job> findByJobNameAndState(String jobName, String state, Sort sort) {
+		return jobRepository.findByJobNameAndState(jobName, state, sort);
+	}
+
+	@Override
+	public List<Job> findAll(Sort sort) {
+		return jobRepository.findAll(sort);
+	}
+
+	@Override
+	public List<Job> findJobs(String jobName, JobState state, Sort sort, Collection<String> fields) {
+		return jobRepository.findJobs(jobName, state, sort, fields);
+	}
+
+	@Override
+	public List<Job> findJobsAfter(String jobName, JobState state, String afterId, Sort.Direction direction, int limit,
+			Collection<String> fields) {
+		return jobRepository.findJobsAfter(jobName, state, afterId, direction, limit, fields);
+	}
+
+	@Override
+	public CloseableIterator<Job> streamJobs(String jobName, JobState state, Sort.Direction direction,
+			Collection<String> fields) {
+		return jobRepository.streamJobs(jobName, state, direction, fields);
+	}
+
+	@Override
+	public List<Job> findByJobNameAndJobIdInAndStateInAndNextTaskName(String jobName, List<String> jobIds,
+			List<JobState> states, String taskName) {
+		return jobRepository.findByJobNameAndJobIdInAndStateInAndNextTaskName(jobName, jobIds, states, taskName);
+	}
+
+	@Override
+	public List<Job> findByStateAndLeaseExpiresTimestampLessThan(JobState state, Timestamp timestamp, Pageable pageable) {
+		return jobRepository.findByStateAndLeaseExpiresTimestampLessThan(state, timestamp, pageable);
+	}
+
+	@Override
+	public Timestamp findOldestReadyCreatedTimestamp(String jobName, String nextTaskName) {
+		return jobRepository.findOldestReadyCreatedTimestamp(jobName, nextTaskName);
+	}
+
+	@Override
+	public List<JobStats> countJobs() {
+		return jobRepository.countJobs();
+	}
+
+	@Override
+	public Job deleteByJobNameAndJobId(String jobName, String jobId) {
+		return jobRepository.deleteByJobNameAndJobId(jobName, jobId);
+	}
+
+	@Override
+	public void deleteTaskHistory(String jobName, String jobId) {
+		jobRepository.deleteTaskHistory(jobName, jobId);
+	}
+
+	@Override
+	public List<Job> claimJobs(String jobName, String taskName, int maxBatchSize, Timestamp leaseExpiresTimestamp) {
+		return jobRepository.claimJobs(jobName, taskName, maxBatchSize, leaseExpiresTimestamp);
+	}
+
+	@Override
+	public Set<String> saveTaskResults(String taskName, List<Job> jobs, Timestamp leaseExpiredBefore) {
+		return jobRepository.saveTaskResults(taskName, jobs, leaseExpiredBefore);
+	}
+
+	@Override
+	public Set<String> extendLeases(String jobName, String taskName, List<String> jobIds, Timestamp leaseExpiresTimestamp) {
+		return jobRepository.extendLeases(jobName, taskName, jobIds, leaseExpiresTimestamp);
+	}
+
+	@Override
+	public Job updateState(String jobName, String jobId, JobState state) {
+		return jobRepository.updateState(jobName, jobId, state);
+	}
+
+	@Override
+	public List<Job> findJobsToReset(JobReset jobReset, String afterId, int limit) {
+		return jobRepository.findJobsToReset(jobReset, afterId, limit);
+	}
+
+	@Override
+	public Set<String> resetJobs(JobReset jobReset, List<Job> jobs) {
+		return jobRepository.resetJobs(jobReset, jobs);
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs) {
+		jobRepository.loadTaskHistory(jobs);
+	}
+
+	@Override
+	public void loadTaskHistory(List<Job> jobs, int lastTasks) {
+		jobRepository.loadTaskHistory(jobs, lastTasks);
+	}
+
+}
@@ -0,0 +1,55 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes objects to a response as NDJSON lines. The response is only started by the first write, so errors raised
+ * before it are still reported with their status
+ */
+class NdjsonWriter implements AutoCloseable {
+
+	private ObjectMapper objectMapper;
+	private HttpServletResponse response;
+	private JsonGenerator jsonGenerator;
+	// flush each line so the client sees progress as it happens
+	private boolean flush;
+
+	NdjsonWriter(ObjectMapper objectMapper, HttpServletResponse response, boolean flush) {
+		this.objectMapper = objectMapper;
+		this.response = response;
+		this.flush = flush;
+	}
+
+	void write(Object value) {
+
+		try {
+			if (jsonGenerator == null) {
+				response.setContentType(JobController.APPLICATION_NDJSON_VALUE);
+				response.setCharacterEncoding("UTF-8");
+				jsonGenerator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+				jsonGenerator.setRootValueSeparator(null);
+			}
+			jsonGenerator.writeObject(value);
+			jsonGenerator.writeRaw('\n');
+			if (flush) {
+				jsonGenerator.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (jsonGenerator != null) {
+			jsonGenerator.close();
+		}
+	}
+
+}
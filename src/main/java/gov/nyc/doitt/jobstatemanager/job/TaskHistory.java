@@ -0,0 +1,64 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+
+/**
+ * A task of a job in the task history; the Job document itself only embeds its last task
+ */
+@Document
+public class TaskHistory {
+
+	@Id
+	@GenericGenerator(name = "db-uuid", strategy = "guid")
+	@GeneratedValue(generator = "db-uuid")
+	private String _id;
+
+	private String jobName;
+	private String jobId;
+	// position of the task in its job's history, starting at 1
+	private int seq;
+	private Task task;
+
+	public TaskHistory() {
+	}
+
+	public TaskHistory(String jobName, String jobId, int seq, Task task) {
+		this.jobName = jobName;
+		this.jobId = jobId;
+		this.seq = seq;
+		this.task = task;
+	}
+
+	public String get_id() {
+		return _id;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public int getSeq() {
+		return seq;
+	}
+
+	public Task getTask() {
+		return task;
+	}
+
+	@Override
+	public String toString() {
+		return "TaskHistory [_id=" + _id + ", jobName=" + jobName + ", jobId=" + jobId + ", seq=" + seq + ", task=" + task
+				+ "]";
+	}
+
+}
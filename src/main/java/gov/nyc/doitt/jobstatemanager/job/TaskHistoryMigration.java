@@ -0,0 +1,145 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+
+/**
+ * Moves the tasks embedded in Job documents by earlier versions to the task history, keeping the last one as lastTask,
+ * and backfills taskErrorCounts. Runs before requests are served and then periodically, for jobs written by earlier
+ * versions still running during an upgrade; claims skip jobs until they are moved. Finds them by the partial
+ * unmigrated__id_jobName index, so runs without jobs to move don't scan the collection.
+ */
+@Component
+@DependsOn("indexProvisioner")
+@ConditionalOnProperty(name = "jobstore.type", havingValue = "mongo", matchIfMissing = true)
+class TaskHistoryMigration {
+
+	private Logger logger = LoggerFactory.getLogger(TaskHistoryMigration.class);
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${migration.taskHistory.enabled:true}")
+	private boolean enabled;
+
+	@Value("${migration.taskHistory.batch.size:500}")
+	private int batchSize;
+
+	@PostConstruct
+	public void migrateOnStartup() {
+
+		if (!enabled) {
+			logger.info("migrateOnStartup: disabled");
+			return;
+		}
+		logger.info("migrateOnStartup: number of jobs with tasks moved to the task history: {}", migrate());
+	}
+
+	@Scheduled(initialDelayString = "${migration.taskHistory.interval.ms:60000}", fixedDelayString = "${migration.taskHistory.interval.ms:60000}")
+	public void migratePeriodically() {
+
+		if (!enabled) {
+			return;
+		}
+		int migratedCount = migrate();
+		if (migratedCount > 0) {
+			logger.info("migratePeriodically: number of jobs with tasks moved to the task history: {}", migratedCount);
+		}
+	}
+
+	/**
+	 * Moves embedded tasks in batches
+	 * 
+	 * @return number of jobs migrated
+	 */
+	int migrate() {
+
+		MongoConverter mongoConverter = mongoTemplate.getConverter();
+		String collectionName = mongoTemplate.getCollectionName(Job.class);
+
+		int migratedCount = 0;
+		Object lastId = null;
+		while (true) {
+
+			Query query = query(where("tasks").exists(true)).with(Sort.by(Sort.Direction.ASC, "_id")).limit(batchSize);
+			if (lastId != null) {
+				query.addCriteria(where("_id").gt(lastId));
+			}
+			query.fields().include("jobName").include("jobId").include("transitionToken").include("taskCount")
+					.include("taskErrorCounts").include("tasks");
+			List<Document> documents = mongoTemplate.find(query, Document.class, collectionName);
+			if (documents.isEmpty()) {
+				break;
+			}
+
+			BulkOperations taskHistoryOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, TaskHistory.class);
+			BulkOperations jobOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, Job.class);
+			boolean hasTaskHistory = false;
+			for (Document document : documents) {
+
+				List<Task> tasks = new ArrayList<>();
+				for (Object task : (List<?>) document.get("tasks")) {
+					tasks.add(mongoConverter.read(Task.class, (Document) task));
+				}
+				// tasks embedded by an earlier version after a previous migration follow the moved ones
+				int taskCount = document.getInteger("taskCount", 0);
+				for (int i = 0; i < tasks.size(); i++) {
+					Query taskHistoryQuery = query(where("jobName").is(document.getString("jobName")).and("jobId")
+							.is(document.getString("jobId")).and("seq").is(taskCount + i + 1));
+					taskHistoryOperations.upsert(taskHistoryQuery, new Update().set("task", tasks.get(i)));
+					hasTaskHistory = true;
+				}
+
+				Map<String, Integer> taskErrorCounts = Job.countTaskErrors(tasks);
+				Document existingTaskErrorCounts = (Document) document.get("taskErrorCounts");
+				if (taskCount > 0 && existingTaskErrorCounts != null) {
+					existingTaskErrorCounts.forEach((k, v) -> taskErrorCounts.merge(k, (Integer) v, Integer::sum));
+				}
+
+				// skip jobs written since they were read; the next migration picks them up
+				Query jobQuery = query(where("_id").is(document.get("_id")).and("transitionToken")
+						.is(document.get("transitionToken")).and("tasks").size(tasks.size()));
+				Update update = new Update().unset("tasks").set("taskCount", taskCount + tasks.size()).set("taskErrorCounts",
+						taskErrorCounts);
+				if (!tasks.isEmpty()) {
+					update.set("lastTask", tasks.get(tasks.size() - 1));
+				}
+				jobOperations.updateOne(jobQuery, update);
+			}
+
+			// task history first, so a job never loses tasks that aren't in the task history yet
+			if (hasTaskHistory) {
+				taskHistoryOperations.execute();
+			}
+			migratedCount += jobOperations.execute().getModifiedCount();
+			lastId = documents.get(documents.size() - 1).get("_id");
+		}
+		return migratedCount;
+	}
+
+}
@@ -0,0 +1,235 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigStore;
+import gov.nyc.doitt.jobstatemanager.task.Task;
+
+/**
+ * InMemoryJobStore that keeps jobs across restarts, in a directory of its own: each change is appended to a
+ * write-ahead log, and written, with the changes of concurrent callers, before it is returned. The jobs are
+ * snapshotted periodically, so a restart reads the snapshot and only the log written since it was started. Once a
+ * write of the log fails, every operation fails until a restart recovers the jobs from the log. The JobConfigs are
+ * kept in the same log, so the instance doesn't need MongoDB
+ */
+@Component
+@ConditionalOnProperty(name = "jobstore.type", havingValue = "wal")
+class WalJobStore extends InMemoryJobStore implements JobConfigStore {
+
+	private Logger logger = LoggerFactory.getLogger(WalJobStore.class);
+
+	@Value("${jobstore.wal.dir:jobstore}")
+	private String dir;
+
+	@Value("${jobstore.wal.fsync:true}")
+	private boolean fsync;
+
+	private WriteAheadLog writeAheadLog;
+
+	// records logged since the last snapshot
+	private AtomicLong loggedCount = new AtomicLong();
+
+	// by jobName; stored JobConfigs are never changed, readers get copies
+	private Map<String, JobConfig> jobConfigs = new ConcurrentHashMap<>();
+
+	/**
+	 * Recover the jobs from the snapshot and the write-ahead log, and open the log for appending
+	 *
+	 * @throws IOException
+	 */
+	@PostConstruct
+	void open() throws IOException {
+
+		long startMillis = System.currentTimeMillis();
+		Path path = Paths.get(dir);
+		Files.createDirectories(path);
+
+		long snapshotPosition = WalSnapshot.read(path, p -> WalRecords.apply(p, this));
+		long endPosition = WriteAheadLog.replay(path, Math.max(0, snapshotPosition), p -> {
+			WalRecords.apply(p, this);
+			loggedCount.incrementAndGet();
+		});
+		writeAheadLog = new WriteAheadLog(path, endPosition, fsync);
+
+		logger.info("open: dir={}, jobs={}, jobConfigs={}, snapshot={}, replayed={}, ms={}", path.toAbsolutePath(),
+				storedJobs().size(), jobConfigs.size(), snapshotPosition >= 0, loggedCount.get(),
+				System.currentTimeMillis() - startMillis);
+	}
+
+	@PreDestroy
+	void close() throws IOException {
+		writeAheadLog.close();
+	}
+
+	/**
+	 * Snapshot the jobs, if they changed since the last snapshot, and delete the write-ahead log before it. Changes go on
+	 * while the snapshot is written; the ones it misses are replayed from the log
+	 */
+	@Scheduled(initialDelayString = "${jobstore.snapshot.interval.ms:300000}", fixedDelayString = "${jobstore.snapshot.interval.ms:300000}")
+	public synchronized void snapshot() {
+
+		long count = loggedCount.getAndSet(0);
+		if (count == 0) {
+			return;
+		}
+
+		long startMillis = System.currentTimeMillis();
+		try {
+			Path path = Paths.get(dir);
+			long position = writeAheadLog.rotate();
+			Stream<byte[]> records = Stream.of(jobConfigs.values().stream().map(WalRecords::jobConfig),
+					storedJobs().stream().map(WalRecords::job), storedTaskHistories().entrySet().stream().map(
+							p -> WalRecords.taskHistory(p.getKey().getLeft(), p.getKey().getRight(), p.getValue())))
+					.flatMap(Function.identity());
+			long recordCount = WalSnapshot.write(path, position, records.iterator());
+			writeAheadLog.deleteSegmentsBefore(position);
+			logger.info("snapshot: records={}, logged since last={}, ms={}", recordCount, count,
+					System.currentTimeMillis() - startMillis);
+		} catch (IOException | JobStateManagerException e) {
+			// the log is kept, so nothing is lost; the next snapshot tries again, unless the log failed
+			loggedCount.addAndGet(count);
+			logger.error("snapshot: failed", e);
+		}
+	}
+
+	@Override
+	public List<JobConfig> findAllByOrderByJobNameAsc() {
+
+		checkOpen();
+		return jobConfigs.values().stream().sorted(Comparator.comparing(JobConfig::getJobName)).map(JobConfig::new)
+				.collect(Collectors.toList());
+	}
+
+	@Override
+	public JobConfig findByJobName(String jobName) {
+
+		checkOpen();
+		JobConfig jobConfig = jobConfigs.get(jobName);
+		return jobConfig == null ? null : new JobConfig(jobConfig);
+	}
+
+	@Override
+	public boolean existsByJobName(String jobName) {
+
+		checkOpen();
+		return jobConfigs.containsKey(jobName);
+	}
+
+	@Override
+	public JobConfig save(JobConfig jobConfig) {
+
+		checkOpen();
+		if (jobConfig.get_id() == null) {
+			jobConfig.set_id(UUID.randomUUID().toString());
+		}
+		JobConfig storedJobConfig = new JobConfig(jobConfig);
+		// logged in the order they are stored
+		synchronized (jobConfigs) {
+			jobConfigs.put(storedJobConfig.getJobName(), storedJobConfig);
+			append(WalRecords.jobConfig(storedJobConfig));
+		}
+		commit();
+		return jobConfig;
+	}
+
+	@Override
+	public boolean updateAuthTokenDigest(String jobName, String authToken, String authTokenDigest) {
+
+		checkOpen();
+		synchronized (jobConfigs) {
+			JobConfig jobConfig = jobConfigs.get(jobName);
+			if (jobConfig == null || !Objects.equals(jobConfig.getAuthToken(), authToken)) {
+				return false;
+			}
+			JobConfig storedJobConfig = new JobConfig(jobConfig);
+			storedJobConfig.setAuthTokenDigest(authTokenDigest);
+			jobConfigs.put(jobName, storedJobConfig);
+			append(WalRecords.jobConfig(storedJobConfig));
+		}
+		commit();
+		return true;
+	}
+
+	@Override
+	public void deleteByJobName(String jobName) {
+
+		checkOpen();
+		synchronized (jobConfigs) {
+			if (jobConfigs.remove(jobName) == null) {
+				return;
+			}
+			append(WalRecords.jobConfigDeleted(jobName));
+		}
+		commit();
+	}
+
+	void restoreJobConfig(JobConfig jobConfig) {
+		jobConfigs.put(jobConfig.getJobName(), jobConfig);
+	}
+
+	void restoreJobConfigDeleted(String jobName) {
+		jobConfigs.remove(jobName);
+	}
+
+	@Override
+	void logJob(Job job) {
+		append(WalRecords.job(job));
+	}
+
+	@Override
+	void logJobDeleted(Job job) {
+		append(WalRecords.jobDeleted(job));
+	}
+
+	@Override
+	void logTask(String jobName, String jobId, int seq, Task task) {
+		append(WalRecords.task(jobName, jobId, seq, task));
+	}
+
+	@Override
+	void logTaskHistoryDeleted(String jobName, String jobId) {
+		append(WalRecords.taskHistoryDeleted(jobName, jobId));
+	}
+
+	@Override
+	void commit() {
+		writeAheadLog.awaitCommitted();
+	}
+
+	@Override
+	void checkOpen() {
+		writeAheadLog.checkWritable();
+	}
+
+	private void append(byte[] record) {
+
+		writeAheadLog.append(record);
+		loggedCount.incrementAndGet();
+	}
+
+}
@@ -0,0 +1,345 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.TaskConfig;
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * Records of WalJobStore's write-ahead log and snapshots. Records are after-images, of a job, of task history
+ * entries or of a JobConfig, so applying the records logged since a snapshot was started over the snapshot gives the same jobs whether
+ * or not the snapshot already had their changes. A record is framed as its length, the CRC32 of its bytes and its
+ * bytes, the first of which is its type
+ */
+final class WalRecords {
+
+	static final byte JOB = 1;
+	static final byte JOB_DELETED = 2;
+	static final byte TASK = 3;
+	static final byte TASK_HISTORY = 4;
+	static final byte TASK_HISTORY_DELETED = 5;
+	static final byte JOB_CONFIG = 6;
+	static final byte JOB_CONFIG_DELETED = 7;
+
+	// length and CRC32
+	static final int FRAME_HEADER_SIZE = 8;
+
+	// larger lengths are taken for a torn or corrupt frame
+	static final int MAX_RECORD_SIZE = 16 << 20;
+
+	private WalRecords() {
+	}
+
+	static byte[] job(Job job) {
+
+		return encode(JOB, out -> {
+			writeString(out, job.get_id());
+			writeString(out, job.getJobName());
+			writeString(out, job.getJobId());
+			writeString(out, job.getDescription());
+			writeTimestamp(out, job.getCreatedTimestamp());
+			writeString(out, job.getState().name());
+			writeString(out, job.getNextTaskName());
+			writeString(out, job.getTransitionToken());
+			writeTimestamp(out, job.getLeaseExpiresTimestamp());
+			out.writeInt(job.getTaskCount());
+			writeTask(out, job.findLastTask());
+			Map<String, Integer> taskErrorCounts = job.findTaskErrorCounts();
+			out.writeInt(taskErrorCounts == null ? -1 : taskErrorCounts.size());
+			if (taskErrorCounts != null) {
+				for (Map.Entry<String, Integer> entry : taskErrorCounts.entrySet()) {
+					writeString(out, entry.getKey());
+					out.writeInt(entry.getValue());
+				}
+			}
+		});
+	}
+
+	static byte[] jobDeleted(Job job) {
+		return encode(JOB_DELETED, out -> writeString(out, job.get_id()));
+	}
+
+	static byte[] task(String jobName, String jobId, int seq, Task task) {
+
+		return encode(TASK, out -> {
+			writeString(out, jobName);
+			writeString(out, jobId);
+			out.writeInt(seq);
+			writeTask(out, task);
+		});
+	}
+
+	static byte[] taskHistory(String jobName, String jobId, NavigableMap<Integer, Task> taskHistory) {
+
+		// copied first, as the map may change while it is written
+		List<Map.Entry<Integer, Task>> entries = new ArrayList<>(taskHistory.entrySet());
+		return encode(TASK_HISTORY, out -> {
+			writeString(out, jobName);
+			writeString(out, jobId);
+			out.writeInt(entries.size());
+			for (Map.Entry<Integer, Task> entry : entries) {
+				out.writeInt(entry.getKey());
+				writeTask(out, entry.getValue());
+			}
+		});
+	}
+
+	static byte[] taskHistoryDeleted(String jobName, String jobId) {
+
+		return encode(TASK_HISTORY_DELETED, out -> {
+			writeString(out, jobName);
+			writeString(out, jobId);
+		});
+	}
+
+	static byte[] jobConfig(JobConfig jobConfig) {
+
+		return encode(JOB_CONFIG, out -> {
+			writeString(out, jobConfig.get_id());
+			writeString(out, jobConfig.getJobName());
+			writeString(out, jobConfig.getDescription());
+			writeTimestamp(out, jobConfig.getCreatedTimestamp());
+			writeString(out, jobConfig.getNotifyEmail());
+			writeString(out, jobConfig.getAuthToken());
+			writeString(out, jobConfig.getAuthTokenDigest());
+			List<TaskConfig> taskConfigs = jobConfig.getTaskConfigs();
+			out.writeInt(taskConfigs == null ? -1 : taskConfigs.size());
+			if (taskConfigs != null) {
+				for (TaskConfig taskConfig : taskConfigs) {
+					writeString(out, taskConfig.getName());
+					writeString(out, taskConfig.getDescription());
+					out.writeInt(taskConfig.getMaxBatchSize());
+					out.writeInt(taskConfig.getMaxRetriesForError());
+					out.writeInt(taskConfig.getLeaseSeconds());
+				}
+			}
+		});
+	}
+
+	static byte[] jobConfigDeleted(String jobName) {
+		return encode(JOB_CONFIG_DELETED, out -> writeString(out, jobName));
+	}
+
+	/**
+	 * Apply record to jobStore
+	 *
+	 * @param record
+	 * @param jobStore
+	 * @throws IOException if record can't be decoded
+	 */
+	static void apply(byte[] record, WalJobStore jobStore) throws IOException {
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+		switch (record[0]) {
+		case JOB:
+			jobStore.restoreJob(readJob(in));
+			break;
+		case JOB_DELETED:
+			jobStore.restoreJobDeleted(readString(in));
+			break;
+		case TASK:
+			jobStore.restoreTask(readString(in), readString(in), in.readInt(), readTask(in));
+			break;
+		case TASK_HISTORY:
+			String jobName = readString(in);
+			String jobId = readString(in);
+			int size = in.readInt();
+			ConcurrentNavigableMap<Integer, Task> taskHistory = new ConcurrentSkipListMap<>();
+			for (int i = 0; i < size; i++) {
+				taskHistory.put(in.readInt(), readTask(in));
+			}
+			jobStore.restoreTaskHistory(jobName, jobId, taskHistory);
+			break;
+		case TASK_HISTORY_DELETED:
+			jobStore.restoreTaskHistoryDeleted(readString(in), readString(in));
+			break;
+		case JOB_CONFIG:
+			jobStore.restoreJobConfig(readJobConfig(in));
+			break;
+		case JOB_CONFIG_DELETED:
+			jobStore.restoreJobConfigDeleted(readString(in));
+			break;
+		default:
+			throw new IOException("Unknown record type " + record[0]);
+		}
+	}
+
+	/**
+	 * Frame record for writing
+	 *
+	 * @param record
+	 * @return
+	 */
+	static byte[] frame(byte[] record) {
+
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + record.length);
+		frame.putInt(record.length).putInt(crc(record)).put(record);
+		return frame.array();
+	}
+
+	static int crc(byte[] record) {
+
+		CRC32 crc32 = new CRC32();
+		crc32.update(record, 0, record.length);
+		return (int) crc32.getValue();
+	}
+
+	private static Job readJob(DataInputStream in) throws IOException {
+
+		Job job = new Job();
+		job.set_id(readString(in));
+		job.setJobName(readString(in));
+		job.setJobId(readString(in));
+		job.setDescription(readString(in));
+		job.setCreatedTimestamp(readTimestamp(in));
+		job.setState(JobState.valueOf(readString(in)));
+		job.setNextTaskName(readString(in));
+		job.setTransitionToken(readString(in));
+		job.setLeaseExpiresTimestamp(readTimestamp(in));
+		job.setTaskCount(in.readInt());
+		job.setLastTask(readTask(in));
+		int size = in.readInt();
+		if (size >= 0) {
+			Map<String, Integer> taskErrorCounts = new HashMap<>();
+			for (int i = 0; i < size; i++) {
+				taskErrorCounts.put(readString(in), in.readInt());
+			}
+			job.setTaskErrorCounts(taskErrorCounts);
+		}
+		return job;
+	}
+
+	private static JobConfig readJobConfig(DataInputStream in) throws IOException {
+
+		JobConfig jobConfig = new JobConfig();
+		jobConfig.set_id(readString(in));
+		jobConfig.setJobName(readString(in));
+		jobConfig.setDescription(readString(in));
+		jobConfig.setCreatedTimestamp(readTimestamp(in));
+		jobConfig.setNotifyEmail(readString(in));
+		jobConfig.setAuthToken(readString(in));
+		jobConfig.setAuthTokenDigest(readString(in));
+		int size = in.readInt();
+		if (size >= 0) {
+			ArrayList<TaskConfig> taskConfigs = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				TaskConfig taskConfig = new TaskConfig();
+				taskConfig.setName(readString(in));
+				taskConfig.setDescription(readString(in));
+				taskConfig.setMaxBatchSize(in.readInt());
+				taskConfig.setMaxRetriesForError(in.readInt());
+				taskConfig.setLeaseSeconds(in.readInt());
+				taskConfigs.add(taskConfig);
+			}
+			jobConfig.setTaskConfigs(taskConfigs);
+		}
+		return jobConfig;
+	}
+
+	private static void writeTask(DataOutputStream out, Task task) throws IOException {
+
+		out.writeBoolean(task != null);
+		if (task == null) {
+			return;
+		}
+		writeString(out, task.getName());
+		writeString(out, task.getDescription());
+		writeTimestamp(out, task.getStartTimestamp());
+		writeTimestamp(out, task.getEndTimestamp());
+		writeString(out, task.getState() == null ? null : task.getState().name());
+		writeString(out, task.getErrorReason());
+		out.writeBoolean(task.getArchived());
+	}
+
+	private static Task readTask(DataInputStream in) throws IOException {
+
+		if (!in.readBoolean()) {
+			return null;
+		}
+		Task task = new Task();
+		task.setName(readString(in));
+		task.setDescription(readString(in));
+		task.setStartTimestamp(readTimestamp(in));
+		task.setEndTimestamp(readTimestamp(in));
+		String state = readString(in);
+		task.setState(state == null ? null : TaskState.valueOf(state));
+		task.setErrorReason(readString(in));
+		// as read from MongoDB, where only archived tasks have the field
+		task.setArchived(in.readBoolean() ? true : null);
+		return task;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+
+		// writeUTF is limited to 64K, which descriptions and error reasons may exceed
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeTimestamp(DataOutputStream out, Timestamp timestamp) throws IOException {
+
+		out.writeBoolean(timestamp != null);
+		if (timestamp != null) {
+			out.writeLong(timestamp.getTime());
+		}
+	}
+
+	private static Timestamp readTimestamp(DataInputStream in) throws IOException {
+		return in.readBoolean() ? new Timestamp(in.readLong()) : null;
+	}
+
+	private static byte[] encode(byte type, RecordEncoder encoder) {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(type);
+			encoder.encode(out);
+		} catch (IOException e) {
+			// not thrown by a ByteArrayOutputStream
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private interface RecordEncoder {
+
+		void encode(DataOutputStream out) throws IOException;
+
+	}
+
+}
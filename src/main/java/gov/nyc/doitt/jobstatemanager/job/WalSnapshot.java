@@ -0,0 +1,143 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+/**
+ * Snapshot of WalJobStore: a header with the write-ahead log position its records were taken at, then the records,
+ * framed as in the log. It is written and read through memory-mapped windows of the file, so a restart reads it at the
+ * speed of the page cache
+ */
+final class WalSnapshot {
+
+	static final String FILE_NAME = "snapshot.dat";
+
+	private static final int MAGIC = 0x4a534d53;
+	private static final int VERSION = 1;
+
+	// magic, version, write-ahead log position and record count
+	private static final int HEADER_SIZE = 24;
+
+	private static final int WINDOW_SIZE = 64 << 20;
+
+	private WalSnapshot() {
+	}
+
+	/**
+	 * Replace the snapshot in dir with records, atomically
+	 *
+	 * @param dir
+	 * @param walPosition the write-ahead log position to replay from after reading the snapshot
+	 * @param records
+	 * @return the number of records written
+	 * @throws IOException
+	 */
+	static long write(Path dir, long walPosition, Iterator<byte[]> records) throws IOException {
+
+		Path tempFile = dir.resolve(FILE_NAME + ".tmp");
+		long recordCount = 0;
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long windowPosition = HEADER_SIZE;
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, windowPosition, WINDOW_SIZE);
+			while (records.hasNext()) {
+				byte[] frame = WalRecords.frame(records.next());
+				if (frame.length > window.remaining()) {
+					window.force();
+					windowPosition += window.position();
+					window = channel.map(FileChannel.MapMode.READ_WRITE, windowPosition,
+							Math.max(WINDOW_SIZE, frame.length));
+				}
+				window.put(frame);
+				recordCount++;
+			}
+			window.force();
+
+			// the last window extends past the records; the header's count tells a reader where they end
+			channel.truncate(windowPosition + window.position());
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(walPosition).putLong(recordCount).flip();
+			while (header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+			channel.force(true);
+		}
+		Files.move(tempFile, dir.resolve(FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		WriteAheadLog.forceDirectory(dir);
+		return recordCount;
+	}
+
+	/**
+	 * Read the records of the snapshot in dir, if any
+	 *
+	 * @param dir
+	 * @param recordHandler
+	 * @return the write-ahead log position to replay from, or -1 if there is no snapshot
+	 * @throws IOException if the snapshot is corrupt, or a record can't be applied
+	 */
+	static long read(Path dir, WriteAheadLog.RecordHandler recordHandler) throws IOException {
+
+		Path file = dir.resolve(FILE_NAME);
+		if (!Files.exists(file)) {
+			return -1;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					throw new IOException("Snapshot " + file + " has no header");
+				}
+			}
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Snapshot " + file + " is not a version " + VERSION + " snapshot");
+			}
+			long walPosition = header.getLong();
+			long recordCount = header.getLong();
+
+			long windowPosition = HEADER_SIZE;
+			MappedByteBuffer window = mapForRead(channel, windowPosition, 0);
+			for (long i = 0; i < recordCount; i++) {
+				if (window.remaining() < WalRecords.FRAME_HEADER_SIZE) {
+					windowPosition += window.position();
+					window = mapForRead(channel, windowPosition, WalRecords.FRAME_HEADER_SIZE);
+				}
+				int length = window.getInt(window.position());
+				int crc = window.getInt(window.position() + 4);
+				if (length <= 0 || length > WalRecords.MAX_RECORD_SIZE) {
+					throw new IOException("Corrupt record " + i + " in snapshot " + file);
+				}
+				if (window.remaining() < WalRecords.FRAME_HEADER_SIZE + length) {
+					windowPosition += window.position();
+					window = mapForRead(channel, windowPosition, WalRecords.FRAME_HEADER_SIZE + length);
+				}
+				window.position(window.position() + WalRecords.FRAME_HEADER_SIZE);
+				byte[] record = new byte[length];
+				window.get(record);
+				if (WalRecords.crc(record) != crc) {
+					throw new IOException("Corrupt record " + i + " in snapshot " + file);
+				}
+				recordHandler.handle(record);
+			}
+			return walPosition;
+		}
+	}
+
+	private static MappedByteBuffer mapForRead(FileChannel channel, long position, int minSize) throws IOException {
+
+		long size = Math.min(Math.max(WINDOW_SIZE, minSize), channel.size() - position);
+		if (size < minSize) {
+			throw new IOException("Snapshot is shorter than its records");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+	}
+
+}
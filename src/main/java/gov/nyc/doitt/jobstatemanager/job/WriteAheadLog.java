@@ -0,0 +1,372 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+
+/**
+ * Append-only log of records, in segment files named after the log position, in bytes, they start at. Appended records
+ * are buffered and written by a committer thread: the records appended while a write and its fsync are in progress
+ * are written together by the next one, so concurrent transitions share fsyncs (group commit)
+ */
+class WriteAheadLog implements Closeable {
+
+	private Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	private Path dir;
+	private boolean fsync;
+
+	// lock order is writeLock, then appendLock or commitLock
+	private final Object appendLock = new Object();
+	private final Object writeLock = new Object();
+	private final Object commitLock = new Object();
+
+	// guarded by appendLock
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long appendedPosition;
+
+	// guarded by writeLock
+	private FileChannel channel;
+
+	private volatile long committedPosition;
+	private volatile IOException failure;
+	private volatile boolean closed;
+
+	private ThreadLocal<Long> lastAppendedPosition = ThreadLocal.withInitial(() -> 0L);
+
+	private Thread committer;
+
+	/**
+	 * Open the log for appending in a new segment at position
+	 *
+	 * @param dir
+	 * @param position the position after the last record, as returned by replay
+	 * @param fsync if false, records are written without fsync, so they survive a crash of the JVM but not of the host
+	 * @throws IOException
+	 */
+	WriteAheadLog(Path dir, long position, boolean fsync) throws IOException {
+
+		this.dir = dir;
+		this.fsync = fsync;
+		appendedPosition = position;
+		committedPosition = position;
+		openSegment(position);
+
+		committer = new CustomizableThreadFactory("walCommitter-").newThread(this::commitLoop);
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Append record; it is durable once awaitCommitted returns in the same thread
+	 *
+	 * @param record
+	 */
+	void append(byte[] record) {
+
+		byte[] frame = WalRecords.frame(record);
+		synchronized (appendLock) {
+			checkWritable();
+			pending.write(frame, 0, frame.length);
+			appendedPosition += frame.length;
+			lastAppendedPosition.set(appendedPosition);
+			appendLock.notify();
+		}
+	}
+
+	/**
+	 * Fail if the log is closed, or a write failed: the records appended after a failed write can't be written, since
+	 * a replay would apply them without the failed ones
+	 */
+	void checkWritable() {
+
+		if (closed || failure != null) {
+			throw new JobStateManagerException("Write-ahead log is not writable", failure);
+		}
+	}
+
+	/**
+	 * Wait until the records appended by this thread are written, and fsynced if fsync
+	 */
+	void awaitCommitted() {
+
+		long position = lastAppendedPosition.get();
+		if (committedPosition >= position) {
+			return;
+		}
+		synchronized (commitLock) {
+			while (committedPosition < position) {
+				if (failure != null) {
+					throw new JobStateManagerException("Write-ahead log write failed", failure);
+				}
+				try {
+					commitLock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new JobStateManagerException("Interrupted waiting for write-ahead log write", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write pending records and continue the log in a new segment, so the segments before it can be deleted once a
+	 * snapshot includes their records
+	 *
+	 * @return the position the new segment starts at
+	 * @throws IOException
+	 */
+	long rotate() throws IOException {
+
+		synchronized (writeLock) {
+			checkWritable();
+			flush();
+			channel.close();
+			openSegment(committedPosition);
+			return committedPosition;
+		}
+	}
+
+	/**
+	 * Delete the segments that end before position
+	 *
+	 * @param position a position returned by rotate
+	 * @throws IOException
+	 */
+	void deleteSegmentsBefore(long position) throws IOException {
+
+		for (long segmentPosition : listSegments(dir)) {
+			if (segmentPosition < position) {
+				Files.delete(segmentPath(dir, segmentPosition));
+			}
+		}
+	}
+
+	/**
+	 * Stop appending, after writing pending records unless a write failed
+	 */
+	@Override
+	public void close() throws IOException {
+
+		synchronized (appendLock) {
+			closed = true;
+			appendLock.notify();
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (writeLock) {
+			if (failure == null) {
+				flush();
+			}
+			channel.close();
+		}
+	}
+
+	/**
+	 * Read the records of the segments from position on, in order. A frame cut short at the end of the last segment is
+	 * a write a crash interrupted, which was never acknowledged, so it is truncated
+	 *
+	 * @param dir
+	 * @param position where to start, 0 or a position returned by rotate
+	 * @param recordHandler
+	 * @return the position after the last record
+	 * @throws IOException if a record can't be read or applied
+	 */
+	static long replay(Path dir, long position, RecordHandler recordHandler) throws IOException {
+
+		List<Long> segmentPositions = listSegments(dir);
+		long endPosition = position;
+		for (int i = 0; i < segmentPositions.size(); i++) {
+			long segmentPosition = segmentPositions.get(i);
+			if (segmentPosition < position) {
+				continue;
+			}
+			if (segmentPosition != endPosition) {
+				throw new IOException(String.format("Write-ahead log segment at %d expected, found %d", endPosition,
+						segmentPosition));
+			}
+			Path segmentPath = segmentPath(dir, segmentPosition);
+			long length = replaySegment(segmentPath, recordHandler);
+			if (length < Files.size(segmentPath)) {
+				if (i < segmentPositions.size() - 1) {
+					throw new IOException("Corrupt record in write-ahead log segment " + segmentPath + " at " + length);
+				}
+				truncate(segmentPath, length);
+			}
+			endPosition = segmentPosition + length;
+		}
+		return endPosition;
+	}
+
+	interface RecordHandler {
+
+		void handle(byte[] record) throws IOException;
+
+	}
+
+	private void commitLoop() {
+
+		while (true) {
+			synchronized (appendLock) {
+				while (pending.size() == 0 && !closed) {
+					try {
+						appendLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (pending.size() == 0) {
+					return;
+				}
+			}
+			try {
+				flush();
+			} catch (IOException e) {
+				logger.error("commitLoop: can't write write-ahead log", e);
+				return;
+			}
+		}
+	}
+
+	// write the pending records, and notify the threads waiting for them; a failure fails the log, as the records
+	// taken from pending are lost
+	private void flush() throws IOException {
+
+		synchronized (writeLock) {
+			if (failure != null) {
+				throw new IOException("Write-ahead log failed earlier", failure);
+			}
+			byte[] batch;
+			long batchPosition;
+			synchronized (appendLock) {
+				batch = pending.toByteArray();
+				pending.reset();
+				batchPosition = appendedPosition;
+			}
+			if (batch.length == 0) {
+				return;
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(batch);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				if (fsync) {
+					channel.force(false);
+				}
+			} catch (IOException e) {
+				synchronized (commitLock) {
+					failure = e;
+					commitLock.notifyAll();
+				}
+				throw e;
+			}
+			synchronized (commitLock) {
+				committedPosition = batchPosition;
+				commitLock.notifyAll();
+			}
+		}
+	}
+
+	private void openSegment(long position) throws IOException {
+
+		channel = FileChannel.open(segmentPath(dir, position), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (fsync) {
+			forceDirectory(dir);
+		}
+	}
+
+	// the length of the valid frames at the start of the segment
+	private static long replaySegment(Path segmentPath, RecordHandler recordHandler) throws IOException {
+
+		long length = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentPath), 1 << 16))) {
+			while (true) {
+				byte[] record;
+				try {
+					int recordLength = in.readInt();
+					int crc = in.readInt();
+					if (recordLength <= 0 || recordLength > WalRecords.MAX_RECORD_SIZE) {
+						return length;
+					}
+					record = new byte[recordLength];
+					in.readFully(record);
+					if (WalRecords.crc(record) != crc) {
+						return length;
+					}
+				} catch (EOFException e) {
+					return length;
+				}
+				recordHandler.handle(record);
+				length += WalRecords.FRAME_HEADER_SIZE + record.length;
+			}
+		}
+	}
+
+	private static void truncate(Path segmentPath, long length) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.WRITE)) {
+			channel.truncate(length);
+			channel.force(true);
+		}
+	}
+
+	private static List<Long> listSegments(Path dir) throws IOException {
+
+		List<Long> segmentPositions = new ArrayList<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : paths) {
+				String fileName = path.getFileName().toString();
+				segmentPositions.add(Long.parseLong(
+						fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(segmentPositions);
+		return segmentPositions;
+	}
+
+	private static Path segmentPath(Path dir, long position) {
+		return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, position, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Make the creation or renaming of files in dir durable, where the file system supports it
+	 *
+	 * @param dir
+	 */
+	static void forceDirectory(Path dir) {
+
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// not supported on some platforms, such as Windows
+		}
+	}
+
+}
@@ -26,6 +26,8 @@ public class JobConfig {
 	private Timestamp createdTimestamp;
 	private String notifyEmail;
 	private String authToken;
+	// keyed digest of the plain authToken
+	private String authTokenDigest;
 
 	private ArrayList<TaskConfig> taskConfigs;
 
@@ -33,6 +35,21 @@ public class JobConfig {
 		createdTimestamp = new Timestamp(System.currentTimeMillis());
 	}
 
+	// copy for a JobConfigStore that keeps JobConfigs in memory
+	public JobConfig(JobConfig jobConfig) {
+		_id = jobConfig._id;
+		jobName = jobConfig.jobName;
+		description = jobConfig.description;
+		createdTimestamp = jobConfig.createdTimestamp;
+		notifyEmail = jobConfig.notifyEmail;
+		authToken = jobConfig.authToken;
+		authTokenDigest = jobConfig.authTokenDigest;
+		if (jobConfig.taskConfigs != null) {
+			taskConfigs = new ArrayList<>();
+			jobConfig.taskConfigs.forEach(p -> taskConfigs.add(new TaskConfig(p)));
+		}
+	}
+
 	public String getJobName() {
 		return jobName;
 	}
@@ -41,6 +58,10 @@ public class JobConfig {
 		return _id;
 	}
 
+	public void set_id(String _id) {
+		this._id = _id;
+	}
+
 	public void setJobName(String jobName) {
 		this.jobName = jobName;
 	}
@@ -77,6 +98,14 @@ public class JobConfig {
 		this.authToken = authToken;
 	}
 
+	public String getAuthTokenDigest() {
+		return authTokenDigest;
+	}
+
+	public void setAuthTokenDigest(String authTokenDigest) {
+		this.authTokenDigest = authTokenDigest;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
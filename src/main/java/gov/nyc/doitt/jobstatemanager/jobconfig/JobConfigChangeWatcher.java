@@ -0,0 +1,173 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+/**
+ * Tells this instance about JobConfig writes made by any instance, by publishing JobConfigChangedEvents. Tails a change
+ * stream on the JobConfig collection; where change streams aren't available (not a replica set) polls a version counter
+ * that every JobConfig write increments. Either way caches are evicted within about jobconfig.invalidation.poll.interval.ms.
+ * Not used with jobstore.type=wal, which runs a single instance
+ */
+@Component
+@ConditionalOnExpression("'${jobstore.type:mongo}' != 'wal'")
+class JobConfigChangeWatcher {
+
+	private Logger logger = LoggerFactory.getLogger(JobConfigChangeWatcher.class);
+
+	static final String VERSION_COLLECTION_NAME = "jobConfigVersion";
+	private static final String VERSION_ID = "jobConfig";
+
+	// auto: change stream, falling back to polling; changeStream; poll; none
+	@Value("${jobconfig.invalidation.mode:auto}")
+	private String mode;
+
+	@Value("${jobconfig.invalidation.poll.interval.ms:5000}")
+	private long pollIntervalMs;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	private volatile boolean running;
+
+	private Thread thread;
+
+	@PostConstruct
+	private void start() {
+
+		if ("none".equals(mode)) {
+			logger.info("start: JobConfig invalidation across instances is disabled");
+			return;
+		}
+		running = true;
+		thread = new CustomizableThreadFactory("jobConfigChangeWatcher-").newThread(this::run);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@PreDestroy
+	private void stop() {
+
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * Record a JobConfig write, for instances that poll
+	 */
+	void incrementVersion() {
+		mongoTemplate.upsert(query(where("_id").is(VERSION_ID)), new Update().inc("version", 1L), VERSION_COLLECTION_NAME);
+	}
+
+	private void run() {
+
+		boolean useChangeStream = !"poll".equals(mode);
+		while (running) {
+			try {
+				if (useChangeStream) {
+					watch();
+				} else {
+					poll();
+				}
+			} catch (MongoCommandException e) {
+				if (useChangeStream && "auto".equals(mode)) {
+					logger.info("run: change streams not available ({}), polling every {} ms", e.getErrorMessage(),
+							pollIntervalMs);
+					useChangeStream = false;
+				} else {
+					retryLater(e);
+				}
+			} catch (RuntimeException e) {
+				retryLater(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void watch() {
+
+		String collectionName = mongoTemplate.getCollectionName(JobConfig.class);
+		try (MongoCursor<ChangeStreamDocument<Document>> cursor = mongoTemplate.getCollection(collectionName).watch()
+				.fullDocument(FullDocument.UPDATE_LOOKUP).maxAwaitTime(1, TimeUnit.SECONDS).iterator()) {
+
+			logger.info("watch: watching {} for changes", collectionName);
+			// changes may have been missed while not watching
+			publish(null);
+
+			while (running) {
+				ChangeStreamDocument<Document> change = cursor.tryNext();
+				if (change == null) {
+					continue;
+				}
+				// deletes don't carry the jobName
+				Document fullDocument = change.getFullDocument();
+				publish(fullDocument == null ? null : fullDocument.getString("jobName"));
+			}
+		}
+	}
+
+	private void poll() throws InterruptedException {
+
+		Long lastVersion = null;
+		while (running) {
+			Document versionDocument = mongoTemplate.findById(VERSION_ID, Document.class, VERSION_COLLECTION_NAME);
+			Long version = versionDocument == null ? 0L : ((Number) versionDocument.get("version")).longValue();
+			if (lastVersion != null && !lastVersion.equals(version)) {
+				publish(null);
+			}
+			lastVersion = version;
+			Thread.sleep(pollIntervalMs);
+		}
+	}
+
+	private void retryLater(RuntimeException e) {
+
+		if (!running) {
+			return;
+		}
+		logger.warn("run: lost track of JobConfig changes, retrying in {} ms", pollIntervalMs, e);
+		publish(null);
+		try {
+			Thread.sleep(pollIntervalMs);
+		} catch (InterruptedException e1) {
+			Thread.currentThread().interrupt();
+			running = false;
+		}
+	}
+
+	private void publish(String jobName) {
+
+		logger.debug("publish: jobName={}", jobName);
+		applicationEventPublisher.publishEvent(new JobConfigChangedEvent(jobName));
+	}
+
+}
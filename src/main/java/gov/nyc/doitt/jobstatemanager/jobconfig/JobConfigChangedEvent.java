@@ -0,0 +1,24 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+/**
+ * Published when the JobConfig for jobName is updated or deleted, here or on another instance. A null jobName means
+ * any JobConfig may have changed
+ */
+public class JobConfigChangedEvent {
+
+	private final String jobName;
+
+	public JobConfigChangedEvent(String jobName) {
+		this.jobName = jobName;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	@Override
+	public String toString() {
+		return "JobConfigChangedEvent [jobName=" + jobName + "]";
+	}
+
+}
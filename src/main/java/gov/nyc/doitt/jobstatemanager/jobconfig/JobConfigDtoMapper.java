@@ -2,13 +2,7 @@ package gov.nyc.doitt.jobstatemanager.jobconfig;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import org.modelmapper.AbstractConverter;
-import org.modelmapper.Converter;
-import org.modelmapper.ModelMapper;
-import org.modelmapper.PropertyMap;
-import org.modelmapper.config.Configuration.AccessLevel;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
@@ -22,49 +16,36 @@ import gov.nyc.doitt.jobstatemanager.security.Encryptor;
 @Component
 class JobConfigDtoMapper {
 
-	private ModelMapper modelMapper = new ModelMapper();
-
 	@Autowired
 	private TaskConfigDtoMapper taskConfigDtoMapper;
 
 	@Autowired
 	private Encryptor encryptor;
 
-	private Converter<String, String> encryptingConverter = new AbstractConverter<String, String>() {
-
-		@Override
-		protected String convert(String source) {
-			return encryptor.encrypt(source);
-		}
-	};
-
-	private PropertyMap<JobConfigDto, JobConfig> jobConfigDtoPropertyMap = new PropertyMap<JobConfigDto, JobConfig>() {
-
-		protected void configure() {
-			skip(destination.get_id());
-			skip(destination.getCreatedTimestamp());
-			using(encryptingConverter).map().setAuthToken(source.getAuthToken());
-		}
-	};
-
-	public JobConfigDtoMapper() {
-
-		modelMapper.getConfiguration().setFieldMatchingEnabled(true).setFieldAccessLevel(AccessLevel.PRIVATE);
-		modelMapper.addMappings(jobConfigDtoPropertyMap);
-	}
-
 	public JobConfig fromDto(JobConfigDto jobConfigDto) {
 
-		JobConfig jobConfig = modelMapper.map(jobConfigDto, JobConfig.class);
+		JobConfig jobConfig = fromDto(jobConfigDto, new JobConfig());
 
 		ArrayList<TaskConfig> taskConfigs = taskConfigDtoMapper.fromDto(jobConfigDto.getTaskConfigDtos());
 		jobConfig.setTaskConfigs(taskConfigs);
 		return jobConfig;
 	}
 
+	/**
+	 * Map jobConfigDto onto existing jobConfig; _id, createdTimestamp and taskConfigs are kept
+	 * 
+	 * @param jobConfigDto
+	 * @param jobConfig
+	 * @return
+	 */
 	public JobConfig fromDto(JobConfigDto jobConfigDto, JobConfig jobConfig) {
 
-		modelMapper.map(jobConfigDto, jobConfig);
+		jobConfig.setJobName(jobConfigDto.getJobName());
+		jobConfig.setDescription(jobConfigDto.getDescription());
+		jobConfig.setNotifyEmail(jobConfigDto.getNotifyEmail());
+		String authToken = jobConfigDto.getAuthToken();
+		jobConfig.setAuthToken(authToken == null ? null : encryptor.encrypt(authToken));
+		jobConfig.setAuthTokenDigest(encryptor.digest(authToken));
 		return jobConfig;
 	}
 
@@ -72,17 +53,25 @@ class JobConfigDtoMapper {
 
 		if (CollectionUtils.isEmpty(jobConfigs))
 			return new ArrayList<JobConfigDto>();
-		return jobConfigs.stream().map(p -> toDto(p)).collect(Collectors.toList());
+
+		List<JobConfigDto> jobConfigDtos = new ArrayList<>(jobConfigs.size());
+		for (JobConfig jobConfig : jobConfigs) {
+			jobConfigDtos.add(toDto(jobConfig));
+		}
+		return jobConfigDtos;
 	}
 
 	public JobConfigDto toDto(JobConfig jobConfig) {
 
-		JobConfigDto jobConfigDto = modelMapper.map(jobConfig, JobConfigDto.class);
-
-		ArrayList<TaskConfigDto> taskConfigDtos = taskConfigDtoMapper.toDto(jobConfig.getTaskConfigs());
-		jobConfigDto.setTaskConfigDtos(taskConfigDtos);
+		JobConfigDto jobConfigDto = new JobConfigDto();
+		jobConfigDto.setJobName(jobConfig.getJobName());
+		jobConfigDto.setDescription(jobConfig.getDescription());
+		jobConfigDto.setCreatedTimestamp(jobConfig.getCreatedTimestamp());
+		jobConfigDto.setNotifyEmail(jobConfig.getNotifyEmail());
+		// stays encrypted
+		jobConfigDto.setAuthToken(jobConfig.getAuthToken());
+		jobConfigDto.setTaskConfigDtos(taskConfigDtoMapper.toDto(jobConfig.getTaskConfigs()));
 		return jobConfigDto;
-
 	}
 
 }
@@ -1,7 +1,9 @@
 package gov.nyc.doitt.jobstatemanager.jobconfig;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Errors;
 import org.springframework.validation.ValidationUtils;
@@ -14,6 +16,12 @@ import org.springframework.validation.Validator;
 @Component
 class JobConfigDtoValidator implements Validator {
 
+	// JdbcJobStore keeps jobNames and task names in columns of 64 bytes
+	private static final int MAX_JDBC_NAME_BYTES = 64;
+
+	@Value("#{'${jobstore.type:mongo}' == 'jdbc'}")
+	private boolean jdbc;
+
 	@Override
 	public boolean supports(Class<?> clazz) {
 		return JobConfigDto.class.isAssignableFrom(clazz);
@@ -24,6 +32,9 @@ class JobConfigDtoValidator implements Validator {
 
 		JobConfigDto jobConfigDto = (JobConfigDto) target;
 		ValidationUtils.rejectIfEmptyOrWhitespace(errors, "jobName", "jobName must be specified");
+		if (tooLong(jobConfigDto.getJobName())) {
+			errors.rejectValue("jobName", "jobName must be at most " + MAX_JDBC_NAME_BYTES + " bytes");
+		}
 
 		List<TaskConfigDto> taskConfigDtos = jobConfigDto.getTaskConfigDtos();
 		ValidationUtils.rejectIfEmpty(errors, "taskConfigDtos", "taskConfigDtos must be specified");
@@ -34,15 +45,30 @@ class JobConfigDtoValidator implements Validator {
 			TaskConfigDto taskConfigDto = taskConfigDtos.get(i);
 			String prefix = getPrefix(i);
 			ValidationUtils.rejectIfEmptyOrWhitespace(errors, prefix + "name", "name must be specified");
+			// task names are keys of Job.taskErrorCounts
+			String name = taskConfigDto.getName();
+			if (name != null && (name.contains(".") || name.startsWith("$"))) {
+				errors.rejectValue(prefix + "name", "name must not contain '.' or start with '$'");
+			}
+			if (tooLong(name)) {
+				errors.rejectValue(prefix + "name", "name must be at most " + MAX_JDBC_NAME_BYTES + " bytes");
+			}
 			if (taskConfigDto.getMaxBatchSize() < 1 || taskConfigDto.getMaxBatchSize() > 99) {
 				errors.rejectValue(prefix + "maxBatchSize", "maxBatchSize must be >= 1 and <= 99");
 			}
 			if (taskConfigDto.getMaxRetriesForError() < 0 || taskConfigDto.getMaxRetriesForError() > 99) {
 				errors.rejectValue(prefix + "maxRetriesForError", "maxRetriesForError must be >= 0 and <= 99");
 			}
+			if (taskConfigDto.getLeaseSeconds() < 0) {
+				errors.rejectValue(prefix + "leaseSeconds", "leaseSeconds must be >= 0");
+			}
 		}
 	}
 
+	private boolean tooLong(String name) {
+		return jdbc && name != null && name.getBytes(StandardCharsets.UTF_8).length > MAX_JDBC_NAME_BYTES;
+	}
+
 	private String getPrefix(int i) {
 		return "taskConfigDtos[" + i + "].";
 
@@ -0,0 +1,106 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+
+/**
+ * Immutable view of a JobConfig compiled for the request paths: tasks are looked up by name and the next task is the
+ * one at the following index
+ */
+public class JobConfigPlan {
+
+	private final String jobName;
+	private final String authToken;
+	private final String authTokenDigest;
+	private final List<TaskConfig> taskConfigs;
+	private final Map<String, Integer> taskIndexes;
+
+	public JobConfigPlan(JobConfig jobConfig) {
+
+		jobName = jobConfig.getJobName();
+		authToken = jobConfig.getAuthToken();
+		authTokenDigest = jobConfig.getAuthTokenDigest();
+
+		List<TaskConfig> taskConfigs = new ArrayList<>();
+		Map<String, Integer> taskIndexes = new HashMap<>();
+		if (jobConfig.getTaskConfigs() != null) {
+			for (TaskConfig taskConfig : jobConfig.getTaskConfigs()) {
+				taskIndexes.putIfAbsent(taskConfig.getName(), taskConfigs.size());
+				taskConfigs.add(copy(taskConfig));
+			}
+		}
+		this.taskConfigs = Collections.unmodifiableList(taskConfigs);
+		this.taskIndexes = Collections.unmodifiableMap(taskIndexes);
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public String getAuthToken() {
+		return authToken;
+	}
+
+	public String getAuthTokenDigest() {
+		return authTokenDigest;
+	}
+
+	public List<TaskConfig> getTaskConfigs() {
+		return taskConfigs;
+	}
+
+	public TaskConfig getFirstTaskConfig() {
+
+		if (taskConfigs.isEmpty()) {
+			throw new JobStateManagerException("JobConfig for jobName=" + jobName + " has no TaskConfigs");
+		}
+		return taskConfigs.get(0);
+	}
+
+	public TaskConfig getTaskConfig(String taskName) {
+		return taskConfigs.get(getTaskIndex(taskName));
+	}
+
+	/**
+	 * Get the TaskConfig that follows taskName
+	 * 
+	 * @param taskName
+	 * @return next TaskConfig, or null if taskName is the last task
+	 */
+	public TaskConfig getNextTaskConfig(String taskName) {
+
+		int nextIndex = getTaskIndex(taskName) + 1;
+		return nextIndex < taskConfigs.size() ? taskConfigs.get(nextIndex) : null;
+	}
+
+	private int getTaskIndex(String taskName) {
+
+		Integer index = taskIndexes.get(taskName);
+		if (index == null) {
+			throw new JobStateManagerException("TaskConfig for taskName=" + taskName + " not found in jobName=" + jobName);
+		}
+		return index;
+	}
+
+	private TaskConfig copy(TaskConfig taskConfig) {
+
+		TaskConfig copy = new TaskConfig();
+		copy.setName(taskConfig.getName());
+		copy.setDescription(taskConfig.getDescription());
+		copy.setMaxBatchSize(taskConfig.getMaxBatchSize());
+		copy.setMaxRetriesForError(taskConfig.getMaxRetriesForError());
+		copy.setLeaseSeconds(taskConfig.getLeaseSeconds());
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "JobConfigPlan [jobName=" + jobName + ", taskConfigs=" + taskConfigs + "]";
+	}
+
+}
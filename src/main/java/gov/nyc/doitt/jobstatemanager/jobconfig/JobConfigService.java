@@ -1,10 +1,14 @@
 package gov.nyc.doitt.jobstatemanager.jobconfig;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 import gov.nyc.doitt.jobstatemanager.common.ConflictException;
@@ -16,11 +20,17 @@ public class JobConfigService {
 	private Logger logger = LoggerFactory.getLogger(JobConfigService.class);
 
 	@Autowired
-	private JobConfigRepository jobConfigRepository;
+	private JobConfigStore jobConfigStore;
 
 	@Autowired
 	private JobConfigDtoMapper jobConfigDtoMapper;
 
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	// compiled plans by jobName; dropped whenever the jobName's JobConfig is written
+	private Map<String, JobConfigPlan> jobConfigPlanMap = new ConcurrentHashMap<>();
+
 	/**
 	 * Create jobConfig from jobConfigDto
 	 * 
@@ -30,12 +40,12 @@ public class JobConfigService {
 	public JobConfigDto createJobConfig(JobConfigDto jobConfigDto) {
 
 		String jobName = jobConfigDto.getJobName();
-		if (jobConfigRepository.existsByJobName(jobName)) {
+		if (jobConfigStore.existsByJobName(jobName)) {
 			throw new ConflictException(String.format("JobConfig for jobName=%s already exists", jobName));
 		}
 
 		JobConfig jobConfig = jobConfigDtoMapper.fromDto(jobConfigDto);
-		jobConfigRepository.save(jobConfig);
+		jobConfigStore.save(jobConfig);
 		return jobConfigDtoMapper.toDto(jobConfig);
 	}
 
@@ -51,14 +61,53 @@ public class JobConfigService {
 	}
 
 	public JobConfig getJobConfigDomain(String jobName) {
-		if (!jobConfigRepository.existsByJobName(jobName)) {
+		if (!jobConfigStore.existsByJobName(jobName)) {
 			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
 		}
-		return jobConfigRepository.findByJobName(jobName);
+		return jobConfigStore.findByJobName(jobName);
+	}
+
+	/**
+	 * Get the compiled plan of the JobConfig for jobName; served from memory after the first call
+	 * 
+	 * @param jobName
+	 * @return
+	 */
+	public JobConfigPlan getJobConfigPlan(String jobName) {
+
+		JobConfigPlan jobConfigPlan = findJobConfigPlan(jobName);
+		if (jobConfigPlan == null) {
+			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
+		}
+		return jobConfigPlan;
 	}
 
 	public boolean existsJobConfig(String jobName) {
-		return jobConfigRepository.existsByJobName(jobName);
+		return findJobConfigPlan(jobName) != null;
+	}
+
+	private JobConfigPlan findJobConfigPlan(String jobName) {
+
+		// a write's eviction of jobName waits for a load in progress, so a stale plan can't outlive the write
+		return jobConfigPlanMap.computeIfAbsent(jobName, p -> {
+			JobConfig jobConfig = jobConfigStore.findByJobName(p);
+			return jobConfig == null ? null : new JobConfigPlan(jobConfig);
+		});
+	}
+
+	private void jobConfigChanged(String jobName) {
+		applicationEventPublisher.publishEvent(new JobConfigChangedEvent(jobName));
+	}
+
+	@EventListener
+	public void onJobConfigChanged(JobConfigChangedEvent jobConfigChangedEvent) {
+
+		logger.debug("onJobConfigChanged: {}", jobConfigChangedEvent);
+		if (jobConfigChangedEvent.getJobName() == null) {
+			jobConfigPlanMap.clear();
+		} else {
+			jobConfigPlanMap.remove(jobConfigChangedEvent.getJobName());
+		}
 	}
 
 	/**
@@ -68,7 +117,7 @@ public class JobConfigService {
 	 */
 	public List<JobConfigDto> getJobConfigs() {
 
-		return jobConfigDtoMapper.toDto(jobConfigRepository.findAllByOrderByJobNameAsc());
+		return jobConfigDtoMapper.toDto(jobConfigStore.findAllByOrderByJobNameAsc());
 	}
 
 	/**
@@ -80,16 +129,32 @@ public class JobConfigService {
 	 */
 	public JobConfigDto updateJobConfig(String jobName, JobConfigDto jobConfigDto) {
 
-		if (!jobConfigRepository.existsByJobName(jobName)) {
+		if (!jobConfigStore.existsByJobName(jobName)) {
 			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
 		}
 
-		JobConfig jobConfig = jobConfigRepository.findByJobName(jobName);
+		JobConfig jobConfig = jobConfigStore.findByJobName(jobName);
 		jobConfigDtoMapper.fromDto(jobConfigDto, jobConfig);
-		jobConfigRepository.save(jobConfig);
+		jobConfigStore.save(jobConfig);
+		jobConfigChanged(jobName);
 		return jobConfigDtoMapper.toDto(jobConfig);
 	}
 
+	/**
+	 * Replace the authTokenDigest of the JobConfig of jobName, unless its authToken was changed in the meantime
+	 * 
+	 * @param jobName
+	 * @param authToken encrypted authToken the digest was made for
+	 * @param authTokenDigest
+	 */
+	public void updateAuthTokenDigest(String jobName, String authToken, String authTokenDigest) {
+
+		if (jobConfigStore.updateAuthTokenDigest(jobName, authToken, authTokenDigest)) {
+			logger.info("updateAuthTokenDigest: jobName={}", jobName);
+			jobConfigChanged(jobName);
+		}
+	}
+
 	/**
 	 * Delete jobConfig specified by jobName
 	 * 
@@ -98,10 +163,11 @@ public class JobConfigService {
 	 */
 	public String deleteJobConfig(String jobName) {
 
-		if (!jobConfigRepository.existsByJobName(jobName)) {
+		if (!jobConfigStore.existsByJobName(jobName)) {
 			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
 		}
-		jobConfigRepository.deleteByJobName(jobName);
+		jobConfigStore.deleteByJobName(jobName);
+		jobConfigChanged(jobName);
 		return jobName;
 	}
 
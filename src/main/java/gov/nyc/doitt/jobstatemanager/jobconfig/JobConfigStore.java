@@ -0,0 +1,48 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+import java.util.List;
+
+/**
+ * Storage of JobConfigs, as used by JobConfigService. JobConfigs are kept in MongoDB, except with jobstore.type=wal,
+ * where WalJobStore keeps them in its write-ahead log with the jobs, so an instance runs without MongoDB
+ */
+public interface JobConfigStore {
+
+	/**
+	 * List all JobConfigs
+	 * 
+	 * @return
+	 */
+	List<JobConfig> findAllByOrderByJobNameAsc();
+
+	/**
+	 * Get the JobConfig of jobName
+	 * 
+	 * @param jobName
+	 * @return null if not found
+	 */
+	JobConfig findByJobName(String jobName);
+
+	boolean existsByJobName(String jobName);
+
+	/**
+	 * Create or replace jobConfig, setting its _id if it has none
+	 * 
+	 * @param jobConfig
+	 * @return
+	 */
+	JobConfig save(JobConfig jobConfig);
+
+	/**
+	 * Set the authTokenDigest of the JobConfig of jobName, if its authToken is still authToken
+	 * 
+	 * @param jobName
+	 * @param authToken encrypted authToken the digest was made for
+	 * @param authTokenDigest
+	 * @return false if there is no such JobConfig, or its authToken was changed
+	 */
+	boolean updateAuthTokenDigest(String jobName, String authToken, String authTokenDigest);
+
+	void deleteByJobName(String jobName);
+
+}
@@ -0,0 +1,73 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * JobConfigStore on the JobConfig collection of MongoDB, through JobConfigRepository; writes are recorded for the
+ * JobConfigChangeWatchers of the other instances
+ */
+@Component
+@ConditionalOnExpression("'${jobstore.type:mongo}' != 'wal'")
+class MongoJobConfigStore implements JobConfigStore {
+
+	@Autowired
+	private JobConfigRepository jobConfigRepository;
+
+	@Autowired
+	private JobConfigChangeWatcher jobConfigChangeWatcher;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Override
+	public List<JobConfig> findAllByOrderByJobNameAsc() {
+		return jobConfigRepository.findAllByOrderByJobNameAsc();
+	}
+
+	@Override
+	public JobConfig findByJobName(String jobName) {
+		return jobConfigRepository.findByJobName(jobName);
+	}
+
+	@Override
+	public boolean existsByJobName(String jobName) {
+		return jobConfigRepository.existsByJobName(jobName);
+	}
+
+	@Override
+	public JobConfig save(JobConfig jobConfig) {
+
+		JobConfig savedJobConfig = jobConfigRepository.save(jobConfig);
+		jobConfigChangeWatcher.incrementVersion();
+		return savedJobConfig;
+	}
+
+	@Override
+	public boolean updateAuthTokenDigest(String jobName, String authToken, String authTokenDigest) {
+
+		// only the digest, so a concurrent save of the JobConfig isn't overwritten
+		if (mongoTemplate.updateFirst(query(where("jobName").is(jobName).and("authToken").is(authToken)),
+				new Update().set("authTokenDigest", authTokenDigest), JobConfig.class).getModifiedCount() == 0) {
+			return false;
+		}
+		jobConfigChangeWatcher.incrementVersion();
+		return true;
+	}
+
+	@Override
+	public void deleteByJobName(String jobName) {
+
+		jobConfigRepository.deleteByJobName(jobName);
+		jobConfigChangeWatcher.incrementVersion();
+	}
+
+}
@@ -6,6 +6,18 @@ public class TaskConfig {
 	private String description;
 	private int maxBatchSize;
 	private int maxRetriesForError;
+	private int leaseSeconds;
+
+	public TaskConfig() {
+	}
+
+	public TaskConfig(TaskConfig taskConfig) {
+		name = taskConfig.name;
+		description = taskConfig.description;
+		maxBatchSize = taskConfig.maxBatchSize;
+		maxRetriesForError = taskConfig.maxRetriesForError;
+		leaseSeconds = taskConfig.leaseSeconds;
+	}
 
 	public String getName() {
 		return name;
@@ -39,10 +51,18 @@ public class TaskConfig {
 		this.maxRetriesForError = maxRetriesForError;
 	}
 
+	public int getLeaseSeconds() {
+		return leaseSeconds;
+	}
+
+	public void setLeaseSeconds(int leaseSeconds) {
+		this.leaseSeconds = leaseSeconds;
+	}
+
 	@Override
 	public String toString() {
 		return "TaskConfig [name=" + name + ", description=" + description + ", maxBatchSize=" + maxBatchSize
-				+ ", maxRetriesForError=" + maxRetriesForError + "]";
+				+ ", maxRetriesForError=" + maxRetriesForError + ", leaseSeconds=" + leaseSeconds + "]";
 	}
 
 }
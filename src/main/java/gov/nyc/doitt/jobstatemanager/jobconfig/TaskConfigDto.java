@@ -10,6 +10,7 @@ public class TaskConfigDto {
 	private String description;
 	private int maxBatchSize;
 	private int maxRetriesForError;
+	private int leaseSeconds;
 
 	public String getName() {
 		return name;
@@ -43,10 +44,18 @@ public class TaskConfigDto {
 		this.maxRetriesForError = maxRetriesForError;
 	}
 
+	public int getLeaseSeconds() {
+		return leaseSeconds;
+	}
+
+	public void setLeaseSeconds(int leaseSeconds) {
+		this.leaseSeconds = leaseSeconds;
+	}
+
 	@Override
 	public String toString() {
 		return "TaskConfigDto [name=" + name + ", description=" + description + ", maxBatchSize=" + maxBatchSize
-				+ ", maxRetriesForError=" + maxRetriesForError + "]";
+				+ ", maxRetriesForError=" + maxRetriesForError + ", leaseSeconds=" + leaseSeconds + "]";
 	}
 
 }
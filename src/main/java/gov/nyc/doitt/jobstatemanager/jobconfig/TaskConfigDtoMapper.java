@@ -2,11 +2,7 @@ package gov.nyc.doitt.jobstatemanager.jobconfig;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import org.modelmapper.ModelMapper;
-import org.modelmapper.PropertyMap;
-import org.modelmapper.config.Configuration.AccessLevel;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
@@ -17,36 +13,30 @@ import org.springframework.util.CollectionUtils;
 @Component
 public class TaskConfigDtoMapper {
 
-	private ModelMapper modelMapper = new ModelMapper();
-
-	private PropertyMap<TaskConfigDto, TaskConfig> taskConfigDtoPropertyMap = new PropertyMap<TaskConfigDto, TaskConfig>() {
-
-		protected void configure() {
-		}
-	};
-
-	public TaskConfigDtoMapper() {
-
-		modelMapper.getConfiguration().setFieldMatchingEnabled(true).setFieldAccessLevel(AccessLevel.PRIVATE);
-		modelMapper.addMappings(taskConfigDtoPropertyMap);
-	}
-
 	public TaskConfig fromDto(TaskConfigDto taskConfigDto) {
 
-		return modelMapper.map(taskConfigDto, TaskConfig.class);
+		return fromDto(taskConfigDto, new TaskConfig());
 	}
 
 	public ArrayList<TaskConfig> fromDto(List<TaskConfigDto> taskConfigDtos) {
 
 		if (CollectionUtils.isEmpty(taskConfigDtos))
 			return new ArrayList<TaskConfig>();
-		return taskConfigDtos.stream().map(p -> fromDto(p)).collect(Collectors.toCollection(ArrayList::new));
 
+		ArrayList<TaskConfig> taskConfigs = new ArrayList<>(taskConfigDtos.size());
+		for (TaskConfigDto taskConfigDto : taskConfigDtos) {
+			taskConfigs.add(fromDto(taskConfigDto));
+		}
+		return taskConfigs;
 	}
 
 	public TaskConfig fromDto(TaskConfigDto taskConfigDto, TaskConfig taskConfig) {
 
-		modelMapper.map(taskConfigDto, taskConfig);
+		taskConfig.setName(taskConfigDto.getName());
+		taskConfig.setDescription(taskConfigDto.getDescription());
+		taskConfig.setMaxBatchSize(taskConfigDto.getMaxBatchSize());
+		taskConfig.setMaxRetriesForError(taskConfigDto.getMaxRetriesForError());
+		taskConfig.setLeaseSeconds(taskConfigDto.getLeaseSeconds());
 		return taskConfig;
 	}
 
@@ -54,12 +44,23 @@ public class TaskConfigDtoMapper {
 
 		if (CollectionUtils.isEmpty(taskConfigs))
 			return new ArrayList<TaskConfigDto>();
-		return taskConfigs.stream().map(p -> toDto(p)).collect(Collectors.toCollection(ArrayList::new)); 
+
+		ArrayList<TaskConfigDto> taskConfigDtos = new ArrayList<>(taskConfigs.size());
+		for (TaskConfig taskConfig : taskConfigs) {
+			taskConfigDtos.add(toDto(taskConfig));
+		}
+		return taskConfigDtos;
 	}
 
 	public TaskConfigDto toDto(TaskConfig taskConfig) {
 
-		return modelMapper.map(taskConfig, TaskConfigDto.class);
+		TaskConfigDto taskConfigDto = new TaskConfigDto();
+		taskConfigDto.setName(taskConfig.getName());
+		taskConfigDto.setDescription(taskConfig.getDescription());
+		taskConfigDto.setMaxBatchSize(taskConfig.getMaxBatchSize());
+		taskConfigDto.setMaxRetriesForError(taskConfig.getMaxRetriesForError());
+		taskConfigDto.setLeaseSeconds(taskConfig.getLeaseSeconds());
+		return taskConfigDto;
 	}
 
 }
@@ -0,0 +1,95 @@
+package gov.nyc.doitt.jobstatemanager.security;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigChangedEvent;
+
+/**
+ * Remembers which tokens were authorized for which jobName, so repeat requests don't reload and verify the JobConfig.
+ * Only grants are cached and tokens are kept as digests; entries for a jobName are dropped when its JobConfig changes
+ */
+@Component
+class AuthorizationCache {
+
+	private Logger logger = LoggerFactory.getLogger(AuthorizationCache.class);
+
+	@Value("${auth.cache.ttl.seconds:300}")
+	private long ttlSeconds;
+
+	@Value("${auth.cache.max.entries:10000}")
+	private int maxEntries;
+
+	@Autowired
+	private Encryptor encryptor;
+
+	// jobName -> token digest -> expiry time in ms
+	private Map<String, Map<String, Long>> jobNameTokenExpiriesMap = new ConcurrentHashMap<>();
+
+	// bumped on every JobConfig change, so a grant checked against a config that changed meanwhile isn't cached
+	private AtomicLong generation = new AtomicLong();
+
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	public boolean isAuthorized(String jobName, String token) {
+
+		Map<String, Long> tokenExpiries = jobNameTokenExpiriesMap.get(jobName);
+		if (tokenExpiries == null) {
+			return false;
+		}
+		String tokenDigest = encryptor.digest(token);
+		Long expiresMs = tokenExpiries.get(tokenDigest);
+		if (expiresMs == null) {
+			return false;
+		}
+		if (expiresMs < System.currentTimeMillis()) {
+			tokenExpiries.remove(tokenDigest, expiresMs);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Cache a grant for token on jobName
+	 * 
+	 * @param jobName
+	 * @param token
+	 * @param checkedGeneration generation read before the grant was checked
+	 */
+	public void putAuthorized(String jobName, String token, long checkedGeneration) {
+
+		Map<String, Long> tokenExpiries = jobNameTokenExpiriesMap.computeIfAbsent(jobName, p -> new ConcurrentHashMap<>());
+		if (tokenExpiries.size() >= maxEntries) {
+			// many distinct tokens for one job is unexpected; start over rather than grow
+			logger.warn("putAuthorized: too many cached tokens for jobName={}, clearing", jobName);
+			tokenExpiries.clear();
+		}
+		tokenExpiries.put(encryptor.digest(token), System.currentTimeMillis() + ttlSeconds * 1000);
+		if (generation.get() != checkedGeneration) {
+			tokenExpiries.remove(encryptor.digest(token));
+		}
+	}
+
+	@EventListener
+	public void onJobConfigChanged(JobConfigChangedEvent jobConfigChangedEvent) {
+
+		logger.debug("onJobConfigChanged: {}", jobConfigChangedEvent);
+		generation.incrementAndGet();
+		if (jobConfigChangedEvent.getJobName() == null) {
+			jobNameTokenExpiriesMap.clear();
+		} else {
+			jobNameTokenExpiriesMap.remove(jobConfigChangedEvent.getJobName());
+		}
+	}
+
+}
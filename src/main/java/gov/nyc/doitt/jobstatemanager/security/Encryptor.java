@@ -1,15 +1,43 @@
 package gov.nyc.doitt.jobstatemanager.security;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.lang3.StringUtils;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class Encryptor {
 
+	private static final String DIGEST_ALGORITHM = "HmacSHA256";
+
 	@Autowired
 	private StandardPBEStringEncryptor standardPBEStringEncryptor;
 
+	@Value("${auth.token.digest.key}")
+	private String digestKey;
+
+	// Mac instances aren't thread safe
+	private ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::createMac);
+
+	@PostConstruct
+	private void init() {
+
+		if (StringUtils.isBlank(digestKey)) {
+			throw new IllegalStateException("auth.token.digest.key is not set: set the AUTH_TOKEN_DIGEST_KEY environment "
+					+ "variable to a secret shared by all instances (see setup/README.md)");
+		}
+	}
+
 	public String encrypt(String s) {
 		return standardPBEStringEncryptor.encrypt(s);
 	}
@@ -18,4 +46,44 @@ public class Encryptor {
 		return standardPBEStringEncryptor.decrypt(s);
 	}
 
+	/**
+	 * Keyed digest of s; cheap to compute, so s can be verified without decrypting
+	 * 
+	 * @param s
+	 * @return Base64 encoded digest, or null if s is null
+	 */
+	public String digest(String s) {
+
+		if (s == null) {
+			return null;
+		}
+		return Base64.getEncoder().encodeToString(macs.get().doFinal(s.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Constant time check that s has the given digest
+	 * 
+	 * @param s
+	 * @param digest
+	 * @return
+	 */
+	public boolean matchesDigest(String s, String digest) {
+
+		if (s == null || digest == null) {
+			return false;
+		}
+		return MessageDigest.isEqual(digest(s).getBytes(StandardCharsets.UTF_8), digest.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Mac createMac() {
+
+		try {
+			Mac mac = Mac.getInstance(DIGEST_ALGORITHM);
+			mac.init(new SecretKeySpec(digestKey.getBytes(StandardCharsets.UTF_8), DIGEST_ALGORITHM));
+			return mac;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Can't create " + DIGEST_ALGORITHM, e);
+		}
+	}
+
 }
@@ -8,7 +8,7 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.access.AccessDeniedException;
 
-import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigPlan;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
 
 /**
@@ -27,6 +27,9 @@ public class JobAuthorizer {
 	@Autowired
 	private JobNameExtractor jobNameExtractor;
 
+	@Autowired
+	private AuthorizationCache authorizationCache;
+
 	public boolean checkRequest(HttpServletRequest request) {
 
 		try {
@@ -58,16 +61,28 @@ public class JobAuthorizer {
 	 */
 	private void checkAuthorization(String jobName) {
 
-		JobConfig jobConfig = jobConfigService.getJobConfigDomain(jobName);
-
 		if (!SecurityContextHelper.hasAuth()) {
 			// auth required but no auth is context
 			throw new AccessDeniedException("No authorization in context for request with jobName=" + jobName);
 		}
 
-		if (!encryptor.decrypt(jobConfig.getAuthToken()).equals(SecurityContextHelper.getToken())) {
-			throw new AccessDeniedException("Not authorized for jobName=" + jobName);
+		String token = SecurityContextHelper.getToken();
+		if (authorizationCache.isAuthorized(jobName, token)) {
+			return;
+		}
+
+		long generation = authorizationCache.getGeneration();
+		JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+
+		if (!encryptor.matchesDigest(token, jobConfigPlan.getAuthTokenDigest())) {
+			// no digest, as saved before digests were kept, or one made under a previous auth.token.digest.key; checked by
+			// decrypting and digested again with the current key, so the next requests are checked by digest
+			if (!token.equals(encryptor.decrypt(jobConfigPlan.getAuthToken()))) {
+				throw new AccessDeniedException("Not authorized for jobName=" + jobName);
+			}
+			jobConfigService.updateAuthTokenDigest(jobName, jobConfigPlan.getAuthToken(), encryptor.digest(token));
 		}
+		authorizationCache.putAuthorized(jobName, token, generation);
 	}
 
 }
\ No newline at end of file
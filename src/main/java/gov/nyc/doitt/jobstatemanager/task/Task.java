@@ -25,6 +25,16 @@ public class Task {
 		state = TaskState.PROCESSING;
 	}
 
+	public Task(Task task) {
+		name = task.name;
+		description = task.description;
+		startTimestamp = task.startTimestamp;
+		endTimestamp = task.endTimestamp;
+		state = task.state;
+		errorReason = task.errorReason;
+		archived = task.archived;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -10,12 +10,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.InitBinder;
+import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import gov.nyc.doitt.jobstatemanager.common.ValidationException;
 
@@ -28,6 +30,9 @@ public class TaskController {
 	@Autowired
 	private TaskService taskService;
 
+	@Autowired
+	private TaskLongPollService taskLongPollService;
+
 	@Autowired
 	private TaskDtoValidator taskDtoValidator;
 
@@ -51,6 +56,14 @@ public class TaskController {
 		return taskService.startTasks(jobName, taskName);
 	}
 
+	@PostMapping(params = { "jobName", "taskName", "waitMs" })
+	public DeferredResult<List<TaskDto>> startTasks(@RequestParam String jobName, @RequestParam String taskName,
+			@RequestParam long waitMs) {
+
+		logger.debug("startTasks: entering: jobName={}, taskName={}, waitMs={}", jobName, taskName, waitMs);
+		return taskLongPollService.startTasks(jobName, taskName, waitMs);
+	}
+
 	@PutMapping(params = { "jobName", "taskName" })
 	public List<TaskDto> endTasks(@RequestParam String jobName, @RequestParam String taskName,
 			@Valid @RequestBody List<TaskDto> taskDtos, BindingResult result) {
@@ -68,4 +81,13 @@ public class TaskController {
 		return taskService.endTasks(jobName, taskName, taskDtos);
 	}
 
+	@PatchMapping(params = { "jobName", "taskName" })
+	public List<TaskDto> extendLeases(@RequestParam String jobName, @RequestParam String taskName,
+			@RequestBody List<TaskDto> taskDtos) {
+
+		logger.debug("extendLeases: entering: jobName={}, taskName={}, number of tasks: {}", jobName, taskName,
+				taskDtos.size());
+		return taskService.extendLeases(jobName, taskName, taskDtos);
+	}
+
 }
@@ -16,7 +16,9 @@ public class TaskDto {
 	private String errorReason;
 	private long errorCount;
 	private Boolean archived;
-	
+	private Timestamp leaseExpiresTimestamp;
+	private String resultError;
+
 	public String getJobId() {
 		return jobId;
 	}
@@ -81,11 +83,27 @@ public class TaskDto {
 		this.archived = archived;
 	}
 
+	public Timestamp getLeaseExpiresTimestamp() {
+		return leaseExpiresTimestamp;
+	}
+
+	public void setLeaseExpiresTimestamp(Timestamp leaseExpiresTimestamp) {
+		this.leaseExpiresTimestamp = leaseExpiresTimestamp;
+	}
+
+	public String getResultError() {
+		return resultError;
+	}
+
+	public void setResultError(String resultError) {
+		this.resultError = resultError;
+	}
+
 	@Override
 	public String toString() {
 		return "TaskDto [jobId=" + jobId + ", name=" + name + ", startTimestamp=" + startTimestamp + ", endTimestamp="
 				+ endTimestamp + ", state=" + state + ", errorReason=" + errorReason + ", errorCount=" + errorCount + ", archived="
-				+ archived + "]";
+				+ archived + ", leaseExpiresTimestamp=" + leaseExpiresTimestamp + ", resultError=" + resultError + "]";
 	}
 
 
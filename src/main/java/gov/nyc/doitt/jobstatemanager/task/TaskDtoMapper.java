@@ -2,11 +2,7 @@ package gov.nyc.doitt.jobstatemanager.task;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import org.modelmapper.ModelMapper;
-import org.modelmapper.PropertyMap;
-import org.modelmapper.config.Configuration.AccessLevel;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
@@ -20,42 +16,33 @@ import gov.nyc.doitt.jobstatemanager.job.Job;
 @Component
 public class TaskDtoMapper {
 
-	private ModelMapper modelMapper = new ModelMapper();
-
-	private PropertyMap<TaskDto, Task> taskDtoPropertyMap = new PropertyMap<TaskDto, Task>() {
-
-		protected void configure() {
-			skip(destination.getState());
-			skip(destination.getStartTimestamp());
-			skip(destination.getEndTimestamp());
-		}
-	};
-
-	public TaskDtoMapper() {
-
-		modelMapper.getConfiguration().setFieldMatchingEnabled(true).setFieldAccessLevel(AccessLevel.PRIVATE);
-		modelMapper.addMappings(taskDtoPropertyMap);
-	}
-
 	public Task fromDto(TaskDto taskDto) {
 
-		return modelMapper.map(taskDto, Task.class);
+		return fromDto(taskDto, new Task());
 	}
 
 	public List<Task> fromDto(List<TaskDto> taskDtos) {
 
 		if (CollectionUtils.isEmpty(taskDtos))
 			return new ArrayList<Task>();
-		return taskDtos.stream().map(p -> fromDto(p)).collect(Collectors.toList());
+
+		List<Task> tasks = new ArrayList<>(taskDtos.size());
+		for (TaskDto taskDto : taskDtos) {
+			tasks.add(fromDto(taskDto));
+		}
+		return tasks;
 	}
 
 	public Task fromDto(TaskDto taskDto, Task task) {
 
-		modelMapper.map(taskDto, task);
+		// state and timestamps are only changed by Task itself
+		task.setName(taskDto.getName());
+		task.setErrorReason(taskDto.getErrorReason());
+		task.setArchived(taskDto.getArchived());
 		return task;
 	}
 
-	public Task fromDtoResult(TaskDto taskDto, Task task) {
+	public Task fromDtoResult(TaskDto taskDto, Job job, Task task) {
 
 		if (task.getState() != TaskState.PROCESSING) {
 			throw new JobStateManagerException("Task is not in correct state for updating with result: " + task);
@@ -63,7 +50,7 @@ public class TaskDtoMapper {
 
 		TaskState state = TaskState.valueOf(taskDto.getState());
 		if (state == TaskState.ERROR) {
-			task.endWithError(taskDto.getErrorReason());
+			job.endTaskWithError(task, taskDto.getErrorReason());
 		} else if (state == TaskState.COMPLETED) {
 			task.endWithSuccess();
 		} else {
@@ -77,7 +64,11 @@ public class TaskDtoMapper {
 		if (CollectionUtils.isEmpty(jobs))
 			return new ArrayList<TaskDto>();
 
-		return jobs.stream().map(p -> toDto(p, p.getLastTask(taskName))).collect(Collectors.toList());
+		List<TaskDto> taskDtos = new ArrayList<>(jobs.size());
+		for (Job job : jobs) {
+			taskDtos.add(toDto(job, job.getLastTask(taskName)));
+		}
+		return taskDtos;
 	}
 
 	public ArrayList<TaskDto> toDto(Job job, List<Task> tasks) {
@@ -85,14 +76,27 @@ public class TaskDtoMapper {
 		if (CollectionUtils.isEmpty(tasks))
 			return new ArrayList<TaskDto>();
 
-		return tasks.stream().map(p -> toDto(job, p)).collect(Collectors.toCollection(ArrayList::new));
+		ArrayList<TaskDto> taskDtos = new ArrayList<>(tasks.size());
+		for (Task task : tasks) {
+			taskDtos.add(toDto(job, task));
+		}
+		return taskDtos;
 	}
 
 	public TaskDto toDto(Job job, Task task) {
 
-		TaskDto taskDto = modelMapper.map(task, TaskDto.class);
+		TaskDto taskDto = new TaskDto();
+		taskDto.setName(task.getName());
+		taskDto.setStartTimestamp(task.getStartTimestamp());
+		taskDto.setEndTimestamp(task.getEndTimestamp());
+		taskDto.setState(task.getState() == null ? null : task.getState().name());
+		taskDto.setErrorReason(task.getErrorReason());
+		taskDto.setArchived(task.getArchived());
 		taskDto.setJobId(job.getJobId());
-		taskDto.setErrorCount(job.getTotalErrorCountForTask(task.getName()));
+		taskDto.setErrorCount(job.getAttemptCountForTask(task.getName()));
+		if (task.getState() == TaskState.PROCESSING) {
+			taskDto.setLeaseExpiresTimestamp(job.getLeaseExpiresTimestamp());
+		}
 		return taskDto;
 	}
 
@@ -0,0 +1,38 @@
+package gov.nyc.doitt.jobstatemanager.task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically ends tasks whose lease expired, so jobs held by dead workers are reclaimed
+ */
+@Component
+class TaskLeaseSweeper {
+
+	private Logger logger = LoggerFactory.getLogger(TaskLeaseSweeper.class);
+
+	@Value("${lease.sweep.batch.size:500}")
+	private int batchSize;
+
+	@Autowired
+	private TaskService taskService;
+
+	@Scheduled(fixedDelayString = "${lease.sweep.interval.ms:10000}")
+	public void sweep() {
+
+		try {
+			// keep going while full batches come back
+			int endedCount;
+			do {
+				endedCount = taskService.endExpiredTasks(batchSize);
+			} while (endedCount >= batchSize);
+		} catch (Exception e) {
+			logger.error("sweep: failed", e);
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package gov.nyc.doitt.jobstatemanager.task;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import gov.nyc.doitt.jobstatemanager.job.Job;
+import gov.nyc.doitt.jobstatemanager.job.JobReadyEvent;
+
+/**
+ * Parks long-poll claims until a job becomes READY for their jobName/taskName, without holding a servlet thread.
+ * Waiters are woken by jobs made READY on this instance; otherwise they are answered with an empty list after waitMs.
+ */
+@Component
+class TaskLongPollService {
+
+	private Logger logger = LoggerFactory.getLogger(TaskLongPollService.class);
+
+	@Autowired
+	private TaskService taskService;
+
+	@Value("${longpoll.max.wait.ms:30000}")
+	private long maxWaitMs;
+
+	@Value("${longpoll.threads:4}")
+	private int threads;
+
+	private ExecutorService executorService;
+
+	private Map<String, Queue<Waiter>> waitersMap = new ConcurrentHashMap<>();
+
+	// counts JobReadyEvents per jobName/taskName so a claim can tell if it raced with one
+	private Map<String, AtomicLong> readyCountMap = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	private void init() {
+		executorService = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("taskLongPoll-"));
+	}
+
+	@PreDestroy
+	private void destroy() {
+		executorService.shutdownNow();
+	}
+
+	/**
+	 * Start taskName tasks for jobName now if any job is ready, else as soon as one becomes ready within waitMs
+	 * 
+	 * @param jobName
+	 * @param taskName
+	 * @param waitMs
+	 * @return
+	 */
+	public DeferredResult<List<TaskDto>> startTasks(String jobName, String taskName, long waitMs) {
+
+		String key = getKey(jobName, taskName);
+		long readyCount = getReadyCount(key).get();
+
+		List<TaskDto> taskDtos = taskService.startTasks(jobName, taskName);
+		if (!taskDtos.isEmpty() || waitMs <= 0) {
+			DeferredResult<List<TaskDto>> deferredResult = new DeferredResult<>();
+			deferredResult.setResult(taskDtos);
+			return deferredResult;
+		}
+
+		DeferredResult<List<TaskDto>> deferredResult = new DeferredResult<>(Math.min(waitMs, maxWaitMs),
+				Collections.emptyList());
+		Waiter waiter = new Waiter(jobName, taskName, deferredResult);
+		Queue<Waiter> waiters = getWaiters(key);
+		waiters.add(waiter);
+		deferredResult.onCompletion(() -> waiters.remove(waiter));
+
+		// a job may have become ready between the claim and parking
+		if (getReadyCount(key).get() != readyCount) {
+			wakeUp(key);
+		}
+		return deferredResult;
+	}
+
+	@EventListener
+	public void onJobReady(JobReadyEvent jobReadyEvent) {
+
+		String key = getKey(jobReadyEvent.getJobName(), jobReadyEvent.getTaskName());
+		getReadyCount(key).incrementAndGet();
+		wakeUp(key);
+	}
+
+	/**
+	 * Hand the oldest live waiter for key to a claim thread
+	 */
+	private void wakeUp(String key) {
+
+		Queue<Waiter> waiters = waitersMap.get(key);
+		if (waiters == null) {
+			return;
+		}
+		Waiter waiter;
+		while ((waiter = waiters.poll()) != null) {
+			if (!waiter.deferredResult.isSetOrExpired()) {
+				Waiter wokenWaiter = waiter;
+				executorService.execute(() -> claim(key, wokenWaiter));
+				return;
+			}
+		}
+	}
+
+	private void claim(String key, Waiter waiter) {
+
+		try {
+			long readyCount = getReadyCount(key).get();
+			List<Job> jobs = taskService.claimJobs(waiter.jobName, waiter.taskName);
+
+			if (jobs.isEmpty()) {
+				// another claimer got there first; park again
+				Queue<Waiter> waiters = getWaiters(key);
+				waiters.add(waiter);
+				if (waiter.deferredResult.isSetOrExpired()) {
+					waiters.remove(waiter);
+				} else if (getReadyCount(key).get() != readyCount) {
+					wakeUp(key);
+				}
+				return;
+			}
+
+			List<TaskDto> taskDtos = taskService.toTaskDtos(jobs);
+			if (!waiter.deferredResult.setResult(taskDtos) && !handOver(key, taskDtos)) {
+				// nobody would process them until their lease expires, if they have one
+				logger.warn("claim: waiter expired after claiming jobs, releasing them: {}", taskDtos);
+				taskService.releaseJobs(waiter.jobName, waiter.taskName, jobs);
+				return;
+			}
+			// there may be more ready jobs than one batch
+			wakeUp(key);
+
+		} catch (Exception e) {
+			logger.error("claim: can't start tasks for " + key, e);
+			waiter.deferredResult.setErrorResult(e);
+		}
+	}
+
+	/**
+	 * Give tasks claimed for a waiter that expired to the oldest live waiter for key
+	 */
+	private boolean handOver(String key, List<TaskDto> taskDtos) {
+
+		Queue<Waiter> waiters = waitersMap.get(key);
+		if (waiters == null) {
+			return false;
+		}
+		Waiter waiter;
+		while ((waiter = waiters.poll()) != null) {
+			if (waiter.deferredResult.setResult(taskDtos)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Queue<Waiter> getWaiters(String key) {
+		return waitersMap.computeIfAbsent(key, p -> new ConcurrentLinkedQueue<>());
+	}
+
+	private AtomicLong getReadyCount(String key) {
+		return readyCountMap.computeIfAbsent(key, p -> new AtomicLong());
+	}
+
+	private String getKey(String jobName, String taskName) {
+		return jobName + "/" + taskName;
+	}
+
+	private static class Waiter {
+
+		private final String jobName;
+		private final String taskName;
+		private final DeferredResult<List<TaskDto>> deferredResult;
+
+		private Waiter(String jobName, String taskName, DeferredResult<List<TaskDto>> deferredResult) {
+			this.jobName = jobName;
+			this.taskName = taskName;
+			this.deferredResult = deferredResult;
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package gov.nyc.doitt.jobstatemanager.task;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics of the claim/complete lifecycle of tasks per jobName and taskName; the empty claim ratio is the rate of
+ * jsm.tasks.claims with result=empty over all of them
+ */
+@Component
+class TaskMetrics {
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	/**
+	 * Record a claim of claimedCount taskName tasks of jobName that started at startNanos
+	 *
+	 * @param jobName
+	 * @param taskName
+	 * @param startNanos System.nanoTime() at the start of the claim
+	 * @param claimedCount
+	 */
+	void recordStart(String jobName, String taskName, long startNanos, int claimedCount) {
+
+		Timer.builder("jsm.tasks.start").description("Latency of task claims").tag("jobName", jobName)
+				.tag("taskName", taskName).publishPercentileHistogram().register(meterRegistry)
+				.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		DistributionSummary.builder("jsm.tasks.claimed").description("Jobs per task claim").baseUnit("jobs")
+				.tag("jobName", jobName).tag("taskName", taskName).publishPercentileHistogram().register(meterRegistry)
+				.record(claimedCount);
+		Counter.builder("jsm.tasks.claims").description("Task claims, empty or not").tag("jobName", jobName)
+				.tag("taskName", taskName).tag("result", claimedCount == 0 ? "empty" : "jobs").register(meterRegistry)
+				.increment();
+	}
+
+	/**
+	 * Record the results of taskName tasks of jobName sent in a request that started at startNanos
+	 *
+	 * @param jobName
+	 * @param taskName
+	 * @param startNanos System.nanoTime() at the start of the request
+	 * @param writtenCount results written
+	 * @param rejectedCount results that were invalid or conflicted with another request
+	 */
+	void recordEnd(String jobName, String taskName, long startNanos, int writtenCount, int rejectedCount) {
+
+		Timer.builder("jsm.tasks.end").description("Latency of task result writes").tag("jobName", jobName)
+				.tag("taskName", taskName).publishPercentileHistogram().register(meterRegistry)
+				.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+		endedCounter(jobName, taskName, "written").increment(writtenCount);
+		endedCounter(jobName, taskName, "rejected").increment(rejectedCount);
+	}
+
+	private Counter endedCounter(String jobName, String taskName, String result) {
+		return Counter.builder("jsm.tasks.ended").description("Task results by result").baseUnit("tasks")
+				.tag("jobName", jobName).tag("taskName", taskName).tag("result", result).register(meterRegistry);
+	}
+
+}
@@ -1,8 +1,14 @@
 package gov.nyc.doitt.jobstatemanager.task;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -10,17 +16,19 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Component;
 
-import gov.nyc.doitt.jobstatemanager.common.EntityNotFoundException;
 import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+import gov.nyc.doitt.jobstatemanager.common.ValidationException;
 import gov.nyc.doitt.jobstatemanager.job.Job;
-import gov.nyc.doitt.jobstatemanager.job.JobRepository;
+import gov.nyc.doitt.jobstatemanager.job.JobReadyEvent;
 import gov.nyc.doitt.jobstatemanager.job.JobService;
 import gov.nyc.doitt.jobstatemanager.job.JobState;
-import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.job.JobStatsService;
+import gov.nyc.doitt.jobstatemanager.job.JobStore;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigPlan;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
 import gov.nyc.doitt.jobstatemanager.jobconfig.TaskConfig;
 
@@ -29,6 +37,12 @@ class TaskService {
 
 	private Logger logger = LoggerFactory.getLogger(TaskService.class);
 
+	static final String LEASE_EXPIRED_ERROR_REASON = "lease expired";
+
+	static final String CONFIG_NOT_FOUND_ERROR_REASON = "lease expired; config not found, so not retried";
+
+	static final String NOT_DELIVERED_ERROR_REASON = "claimed for a request that expired";
+
 	@Autowired
 	private JobConfigService jobConfigService;
 
@@ -36,11 +50,20 @@ class TaskService {
 	private JobService jobService;
 
 	@Autowired
-	private JobRepository jobRepository;
+	private JobStore jobStore;
 
 	@Autowired
 	private TaskDtoMapper taskDtoMapper;
 
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	@Autowired
+	private JobStatsService jobStatsService;
+
+	@Autowired
+	private TaskMetrics taskMetrics;
+
 	/**
 	 * Start taskName tasks for all qualifying jobs for jobName
 	 * 
@@ -49,28 +72,57 @@ class TaskService {
 	 * @return
 	 */
 	public List<TaskDto> startTasks(String jobName, String taskName) {
+		return toTaskDtos(claimJobs(jobName, taskName));
+	}
 
-		if (!jobConfigService.existsJobConfig(jobName)) {
-			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
-		}
+	// claim jobs for taskName, as startTasks does, for a caller that may not be able to hand them to a worker
+	List<Job> claimJobs(String jobName, String taskName) {
 
-		// get jobs that are available for this task
-		JobConfig jobConfig = jobConfigService.getJobConfigDomain(jobName);
-		TaskConfig taskConfig = jobConfig.getTaskConfig(taskName);
-		PageRequest pageRequest = PageRequest.of(0, taskConfig.getMaxBatchSize(), Sort.by(Sort.Direction.ASC, "createdTimestamp"));
-		List<Job> jobs = jobRepository.findByJobNameAndStateInAndNextTaskName(jobName,
-				Arrays.asList(new JobState[] { JobState.READY }), taskName, pageRequest);
-		logger.info("startTasks: number of jobs found: {}", jobs.size());
+		long startNanos = System.nanoTime();
 
-		// create tasks and update jobs
-		jobs.forEach(p -> startTask(taskName, p));
+		// claim jobs that are available for this task
+		TaskConfig taskConfig = jobConfigService.getJobConfigPlan(jobName).getTaskConfig(taskName);
+		List<Job> jobs = jobStore.claimJobs(jobName, taskName, taskConfig.getMaxBatchSize(),
+				getLeaseExpiresTimestamp(taskConfig));
+		logger.info("startTasks: number of jobs claimed: {}", jobs.size());
+		jobStatsService.move(jobName, taskName, JobState.READY, taskName, JobState.PROCESSING, jobs.size());
+		taskMetrics.recordStart(jobName, taskName, startNanos, jobs.size());
+		return jobs;
+	}
 
-		// return last task for each job in list of TaskDtos
+	// last task for each job in list of TaskDtos
+	List<TaskDto> toTaskDtos(List<Job> jobs) {
 		return jobs.stream().map(p -> taskDtoMapper.toDto(p, p.getLastTask())).collect(Collectors.toList());
 	}
 
 	/**
-	 * Record result (ERROR or COMPLETED) in all taskName tasks in taskDtos; set Job ready for next task
+	 * Put jobs claimed by claimJobs that no worker received back to READY for taskName, under their claim; their task
+	 * is ended and archived, so it doesn't count against maxRetriesForError
+	 * 
+	 * @param jobName
+	 * @param taskName
+	 * @param jobs
+	 * @return jobIds of jobs not released, because their claim was ended by another request
+	 */
+	Set<String> releaseJobs(String jobName, String taskName, List<Job> jobs) {
+
+		for (Job job : jobs) {
+			Task task = job.getLastTask(taskName);
+			task.endWithError(NOT_DELIVERED_ERROR_REASON);
+			task.setArchived(true);
+			job.setState(JobState.READY);
+		}
+		Set<String> failedJobIds = jobStore.saveTaskResults(taskName, jobs, null);
+		countEndedTasks(jobName, taskName, jobs, failedJobIds);
+		publishJobReadyEvents(jobName, jobs, failedJobIds);
+		logger.info("releaseJobs: jobName={}, taskName={}, number of jobs released: {}", jobName, taskName,
+				jobs.size() - failedJobIds.size());
+		return failedJobIds;
+	}
+
+	/**
+	 * Record result (ERROR or COMPLETED) in all taskName tasks in taskDtos; set Job ready for next task. Results are
+	 * written in one batch and reported per item: a TaskDto with resultError set was not recorded
 	 * 
 	 * @param jobName
 	 * @param taskName
@@ -79,49 +131,173 @@ class TaskService {
 	 */
 	public List<TaskDto> endTasks(String jobName, String taskName, List<TaskDto> taskDtos) {
 
-		if (!jobConfigService.existsJobConfig(jobName)) {
-			throw new EntityNotFoundException(String.format("Can't find JobConfig for jobName=%s", jobName));
-		}
+		long startNanos = System.nanoTime();
+		JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
 
 		// get jobs from DB for jobIds in taskDtos
 		List<String> jobIds = taskDtos.stream().map(p -> p.getJobId()).collect(Collectors.toList());
-		List<Job> jobs = jobRepository.findByJobNameAndJobIdInAndStateInAndNextTaskName(jobName, jobIds,
+		List<Job> jobs = jobStore.findByJobNameAndJobIdInAndStateInAndNextTaskName(jobName, jobIds,
 				Arrays.asList(new JobState[] { JobState.PROCESSING }), taskName);
-		if (jobs.size() != jobIds.size()) {
-			List<String> foundJobIds = jobs.stream().map(p -> p.getJobId()).collect(Collectors.toList());
-			throw new EntityNotFoundException(jobIds.stream().filter(p -> !foundJobIds.contains(p)).map(q -> {
-				return "jobId=" + q + " not found or not processing this task=" + taskName;
-			}).collect(Collectors.toList()));
-		}
 		Map<String, Job> jobIdJobMap = jobs.stream().collect(Collectors.toMap(Job::getJobId, Function.identity()));
 
-		// update jobs and tasks with results
-		Pair<TaskConfig, TaskConfig> currentAndNextTaskConfigs = getCurrentAndNextTaskConfigs(jobName, taskName);
-		taskDtos.forEach(p -> endTask(taskName, jobIdJobMap.get(p.getJobId()), p, currentAndNextTaskConfigs.getLeft(),
-				currentAndNextTaskConfigs.getRight()));
+		// update jobs and tasks with results in memory
+		TaskConfig currentTaskConfig = jobConfigPlan.getTaskConfig(taskName);
+		TaskConfig nextTaskConfig = jobConfigPlan.getNextTaskConfig(taskName);
+		TaskDto[] resultTaskDtos = new TaskDto[taskDtos.size()];
+		Map<Integer, Job> endedJobs = new LinkedHashMap<>();
+		for (int i = 0; i < taskDtos.size(); i++) {
+			TaskDto taskDto = taskDtos.get(i);
+			// remove so a jobId given twice is only ended once
+			Job job = jobIdJobMap.remove(taskDto.getJobId());
+			if (job == null) {
+				resultTaskDtos[i] = createResultError(taskDto, taskName,
+						"jobId=" + taskDto.getJobId() + " not found or not processing this task=" + taskName);
+				continue;
+			}
+			try {
+				endTask(taskName, job, taskDto, currentTaskConfig, nextTaskConfig);
+				endedJobs.put(i, job);
+			} catch (JobStateManagerException | IllegalArgumentException e) {
+				resultTaskDtos[i] = createResultError(taskDto, taskName, e.getMessage());
+			}
+		}
+
+		// write all results in one batch
+		Set<String> failedJobIds = jobStore.saveTaskResults(taskName, new ArrayList<>(endedJobs.values()), null);
+		endedJobs.forEach((i, job) -> {
+			resultTaskDtos[i] = failedJobIds.contains(job.getJobId())
+					? createResultError(taskDtos.get(i), taskName,
+							"jobId=" + job.getJobId() + " was changed by another request while processing this task=" + taskName)
+					: taskDtoMapper.toDto(job, job.getLastTask());
+		});
+
+		countEndedTasks(jobName, taskName, endedJobs.values(), failedJobIds);
+		publishJobReadyEvents(jobName, endedJobs.values(), failedJobIds);
+		int writtenCount = endedJobs.size() - failedJobIds.size();
+		taskMetrics.recordEnd(jobName, taskName, startNanos, writtenCount, taskDtos.size() - writtenCount);
 
-		return taskDtoMapper.toDto(jobs, taskName);
+		return Arrays.asList(resultTaskDtos);
 	}
 
-	private void startTask(String taskName, Job job) {
+	/**
+	 * Extend the leases of taskName tasks still being processed for the jobIds in taskDtos. Reported per item: a TaskDto
+	 * with resultError set no longer holds its job
+	 * 
+	 * @param jobName
+	 * @param taskName
+	 * @param taskDtos
+	 * @return
+	 */
+	public List<TaskDto> extendLeases(String jobName, String taskName, List<TaskDto> taskDtos) {
 
-		logger.debug("taskName={}, job={}", taskName, job.toString());
-		job.startTask(new Task(taskName));
-		jobRepository.save(job);
+		TaskConfig taskConfig = jobConfigService.getJobConfigPlan(jobName).getTaskConfig(taskName);
+		Timestamp leaseExpiresTimestamp = getLeaseExpiresTimestamp(taskConfig);
+		if (leaseExpiresTimestamp == null) {
+			throw new ValidationException(String.format("Task %s of jobName=%s has no lease", taskName, jobName));
+		}
 
+		List<String> jobIds = taskDtos.stream().map(p -> p.getJobId()).collect(Collectors.toList());
+		Set<String> extendedJobIds = jobStore.extendLeases(jobName, taskName, jobIds, leaseExpiresTimestamp);
+
+		return taskDtos.stream().map(p -> {
+			if (!extendedJobIds.contains(p.getJobId())) {
+				return createResultError(p, taskName,
+						"jobId=" + p.getJobId() + " not found or not processing this task=" + taskName);
+			}
+			TaskDto resultTaskDto = new TaskDto();
+			resultTaskDto.setJobId(p.getJobId());
+			resultTaskDto.setName(taskName);
+			resultTaskDto.setLeaseExpiresTimestamp(leaseExpiresTimestamp);
+			return resultTaskDto;
+		}).collect(Collectors.toList());
 	}
 
-	private Pair<TaskConfig, TaskConfig> getCurrentAndNextTaskConfigs(String jobName, String taskName) {
+	/**
+	 * End tasks whose lease has expired with an ERROR result; their jobs are retried or put in ERROR according to
+	 * maxRetriesForError. Jobs whose JobConfig or TaskConfig is gone are put in ERROR, so they don't stay expired at the
+	 * head of every batch
+	 * 
+	 * @param maxJobs
+	 * @return number of tasks ended
+	 */
+	public int endExpiredTasks(int maxJobs) {
 
-		JobConfig jobConfig = jobConfigService.getJobConfigDomain(jobName);
-		List<TaskConfig> taskConfigs = jobConfig.getTaskConfigs();
-		for (int i = 0; i < taskConfigs.size(); i++) {
-			TaskConfig taskConfig = taskConfigs.get(i);
-			if (taskConfig.getName().equals(taskName)) {
-				return Pair.of(taskConfig, i < taskConfigs.size() - 1 ? taskConfigs.get(i + 1) : null);
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		List<Job> jobs = jobStore.findByStateAndLeaseExpiresTimestampLessThan(JobState.PROCESSING, now,
+				PageRequest.of(0, maxJobs));
+		if (jobs.isEmpty()) {
+			return 0;
+		}
+
+		// results are written per task, so group by jobName and task
+		Map<Pair<String, String>, List<Job>> jobNameTaskNameJobsMap = jobs.stream()
+				.collect(Collectors.groupingBy(p -> Pair.of(p.getJobName(), p.getNextTaskName())));
+
+		int endedCount = 0;
+		for (Entry<Pair<String, String>, List<Job>> entry : jobNameTaskNameJobsMap.entrySet()) {
+			String jobName = entry.getKey().getLeft();
+			String taskName = entry.getKey().getRight();
+			try {
+				TaskConfig currentTaskConfig = null;
+				TaskConfig nextTaskConfig = null;
+				try {
+					JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+					currentTaskConfig = jobConfigPlan.getTaskConfig(taskName);
+					nextTaskConfig = jobConfigPlan.getNextTaskConfig(taskName);
+				} catch (JobStateManagerException e) {
+					logger.warn("endExpiredTasks: no config for jobName={}, taskName={}, putting its jobs in ERROR: {}",
+							jobName, taskName, e.getMessage());
+				}
+				List<Job> endedJobs = new ArrayList<>();
+				for (Job job : entry.getValue()) {
+					TaskDto taskDto = new TaskDto();
+					taskDto.setJobId(job.getJobId());
+					taskDto.setState(TaskState.ERROR.name());
+					taskDto.setErrorReason(currentTaskConfig != null ? LEASE_EXPIRED_ERROR_REASON : CONFIG_NOT_FOUND_ERROR_REASON);
+					endTask(taskName, job, taskDto, currentTaskConfig, nextTaskConfig);
+					endedJobs.add(job);
+				}
+				Set<String> failedJobIds = jobStore.saveTaskResults(taskName, endedJobs, now);
+				countEndedTasks(jobName, taskName, endedJobs, failedJobIds);
+				publishJobReadyEvents(jobName, endedJobs, failedJobIds);
+				endedCount += endedJobs.size() - failedJobIds.size();
+				logger.info("endExpiredTasks: jobName={}, taskName={}, number of tasks ended: {}", jobName, taskName,
+						endedJobs.size() - failedJobIds.size());
+			} catch (JobStateManagerException | IllegalArgumentException e) {
+				logger.error("endExpiredTasks: can't end expired tasks for jobName={}, taskName={}", jobName, taskName, e);
 			}
 		}
-		throw new JobStateManagerException(String.format("Task name '%s' not found in JobConfig '%s': " + taskName, jobConfig));
+		return endedCount;
+	}
+
+	private Timestamp getLeaseExpiresTimestamp(TaskConfig taskConfig) {
+		return taskConfig.getLeaseSeconds() > 0
+				? new Timestamp(System.currentTimeMillis() + taskConfig.getLeaseSeconds() * 1000L)
+				: null;
+	}
+
+	private void countEndedTasks(String jobName, String taskName, Collection<Job> endedJobs, Set<String> failedJobIds) {
+
+		endedJobs.stream().filter(p -> !failedJobIds.contains(p.getJobId())).forEach(p -> jobStatsService.move(jobName,
+				taskName, JobState.PROCESSING, p.getNextTaskName(), p.getState(), 1));
+	}
+
+	// wake up claimers waiting for jobs that are now ready for their next task
+	private void publishJobReadyEvents(String jobName, Collection<Job> endedJobs, Set<String> failedJobIds) {
+
+		endedJobs.stream().filter(p -> p.getState() == JobState.READY && !failedJobIds.contains(p.getJobId()))
+				.map(Job::getNextTaskName).distinct()
+				.forEach(p -> applicationEventPublisher.publishEvent(new JobReadyEvent(jobName, p)));
+	}
+
+	private TaskDto createResultError(TaskDto taskDto, String taskName, String resultError) {
+
+		logger.error("endTasks: {}", resultError);
+		TaskDto resultTaskDto = new TaskDto();
+		resultTaskDto.setJobId(taskDto.getJobId());
+		resultTaskDto.setName(taskName);
+		resultTaskDto.setResultError(resultError);
+		return resultTaskDto;
 	}
 
 	private void endTask(String taskName, Job job, TaskDto taskDto, TaskConfig currentTaskConfig, TaskConfig nextTaskConfig) {
@@ -132,7 +308,7 @@ class TaskService {
 			throw new JobStateManagerException("Job is not in correct state for updating with result: " + job);
 		}
 		Task task = job.getLastTask(taskName);
-		taskDtoMapper.fromDtoResult(taskDto, task);
+		taskDtoMapper.fromDtoResult(taskDto, job, task);
 
 		if (task.getState() == TaskState.COMPLETED) {
 			if (nextTaskConfig != null) {
@@ -142,13 +318,13 @@ class TaskService {
 				job.setNextTaskName(null);
 				job.setState(JobState.COMPLETED);
 			}
-		} else if (job.getTotalErrorCountForTask(taskName) > currentTaskConfig.getMaxRetriesForError()) {
+		} else if (currentTaskConfig == null
+				|| job.getTotalErrorCountForTask(taskName) > currentTaskConfig.getMaxRetriesForError()) {
+			// without a TaskConfig there is nothing to retry by
 			job.setState(JobState.ERROR);
 		} else {
 			job.setState(JobState.READY);
 		}
-
-		jobRepository.save(job);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+-- JdbcJobStore schema, created by it when jobstore.jdbc.schema.create=true and JOB_FLOW doesn't exist yet;
+-- portable across Oracle, PostgreSQL, MySQL and H2. setup/db/job_flow.sql is the same schema for an Oracle DBA, and
+-- setup/db/job_flow_migration.sql migrates the JOB_FLOW table of earlier versions
+
+-- a job; APP_ID is its jobName, TASK_COUNT the SEQ of its last task
+CREATE TABLE JOB_FLOW (
+	ID VARCHAR(24) NOT NULL,
+	APP_ID VARCHAR(64) NOT NULL,
+	JOB_ID VARCHAR(64) NOT NULL,
+	DESCRIPTION VARCHAR(1024),
+	JOB_CREATED_TIMESTAMP TIMESTAMP NOT NULL,
+	STATUS VARCHAR(32) NOT NULL,
+	NEXT_TASK_NAME VARCHAR(64),
+	TRANSITION_TOKEN VARCHAR(64),
+	LEASE_EXPIRES_TIMESTAMP TIMESTAMP,
+	TASK_COUNT INTEGER DEFAULT 0 NOT NULL,
+	CONSTRAINT JOB_FLOW_PK PRIMARY KEY (ID),
+	-- insert and insertJobs rely on it to reject a job that already exists
+	CONSTRAINT JOB_FLOW_APP_ID_JOB_ID_UK UNIQUE (APP_ID, JOB_ID)
+);
+
+-- claimJobs, findOldestReadyCreatedTimestamp: the oldest READY jobs of a jobName for a task
+CREATE INDEX JOB_FLOW_CLAIM_IX ON JOB_FLOW (APP_ID, NEXT_TASK_NAME, STATUS, JOB_CREATED_TIMESTAMP);
+
+-- findJobs, findJobsAfter, streamJobs, findJobsToReset, countJobs
+CREATE INDEX JOB_FLOW_APP_ID_STATUS_IX ON JOB_FLOW (APP_ID, STATUS, ID);
+
+-- findByStateAndLeaseExpiresTimestampLessThan
+CREATE INDEX JOB_FLOW_LEASE_IX ON JOB_FLOW (STATUS, LEASE_EXPIRES_TIMESTAMP);
+
+-- the tasks of a job, the last one included; error counts per task name are counted from the unarchived ERROR tasks
+CREATE TABLE JOB_FLOW_TASK (
+	JOB_FLOW_ID VARCHAR(24) NOT NULL,
+	SEQ INTEGER NOT NULL,
+	NAME VARCHAR(64) NOT NULL,
+	DESCRIPTION VARCHAR(1024),
+	START_TIMESTAMP TIMESTAMP,
+	END_TIMESTAMP TIMESTAMP,
+	STATUS VARCHAR(32),
+	ERROR_REASON VARCHAR(4000),
+	ARCHIVED SMALLINT DEFAULT 0 NOT NULL,
+	CONSTRAINT JOB_FLOW_TASK_PK PRIMARY KEY (JOB_FLOW_ID, SEQ),
+	CONSTRAINT JOB_FLOW_TASK_JOB_FLOW_FK FOREIGN KEY (JOB_FLOW_ID) REFERENCES JOB_FLOW (ID) ON DELETE CASCADE
+);
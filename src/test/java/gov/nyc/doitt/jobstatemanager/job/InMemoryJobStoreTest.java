@@ -0,0 +1,190 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * InMemoryJobStore needs no MongoDB, so it is tested without an application context
+ */
+public class InMemoryJobStoreTest {
+
+	private JobMockerUpper jobMockerUpper = new JobMockerUpper();
+
+	private InMemoryJobStore jobStore;
+
+	private String taskName = "task0";
+
+	@Before
+	public void setUp() {
+		jobStore = new InMemoryJobStore();
+	}
+
+	@Test
+	public void whenJobsClaimed_thenOldestClaimedFirstAndOnce() throws Exception {
+
+		List<Job> jobs = insertJobs(5);
+
+		assertEquals(jobs.get(0).getCreatedTimestamp(),
+				jobStore.findOldestReadyCreatedTimestamp(jobMockerUpper.jobName, taskName));
+
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null);
+		assertEquals(Arrays.asList("jobId0", "jobId1", "jobId2"),
+				claimedJobs.stream().map(Job::getJobId).collect(Collectors.toList()));
+		for (Job job : claimedJobs) {
+			assertEquals(JobState.PROCESSING, job.getState());
+			assertEquals(1, job.getTaskCount());
+			assertEquals(taskName, job.getLastTask(taskName).getName());
+			assertNotNull(job.getTransitionToken());
+		}
+
+		assertEquals(Arrays.asList("jobId3", "jobId4"), jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null)
+				.stream().map(Job::getJobId).collect(Collectors.toList()));
+		assertTrue(jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null).isEmpty());
+		assertNull(jobStore.findOldestReadyCreatedTimestamp(jobMockerUpper.jobName, taskName));
+
+		List<JobStats> jobStats = jobStore.countJobs();
+		assertEquals(1, jobStats.size());
+		assertEquals(JobState.PROCESSING, jobStats.get(0).getState());
+		assertEquals(5, jobStats.get(0).getCount());
+	}
+
+	@Test
+	public void whenJobsClaimedConcurrently_thenEachJobClaimedOnce() throws Exception {
+
+		int jobCount = 200;
+		insertJobs(jobCount);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		Set<String> claimedJobIds = ConcurrentHashMap.newKeySet();
+		AtomicInteger claimedCount = new AtomicInteger();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executorService.submit(() -> {
+					List<Job> claimedJobs;
+					while (!(claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 7, null)).isEmpty()) {
+						claimedJobs.forEach(p -> claimedJobIds.add(p.getJobId()));
+						claimedCount.addAndGet(claimedJobs.size());
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executorService.shutdown();
+		}
+
+		assertEquals(jobCount, claimedCount.get());
+		assertEquals(jobCount, claimedJobIds.size());
+	}
+
+	@Test
+	public void whenTaskResultsSaved_thenOnlyWrittenOnceUnderClaim() throws Exception {
+
+		insertJobs(2);
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 2, null);
+		for (Job job : claimedJobs) {
+			job.getLastTask(taskName).endWithSuccess();
+			job.setState(JobState.READY);
+			job.setNextTaskName("task1");
+		}
+
+		assertTrue(jobStore.saveTaskResults(taskName, claimedJobs, null).isEmpty());
+		// the claim ended with the first write
+		assertEquals(2, jobStore.saveTaskResults(taskName, claimedJobs, null).size());
+
+		Job job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		assertEquals(JobState.READY, job.getState());
+		assertEquals("task1", job.getNextTaskName());
+		assertNull(job.getLeaseExpiresTimestamp());
+
+		jobStore.loadTaskHistory(Collections.singletonList(job));
+		assertEquals(1, job.getTasks().size());
+		assertEquals(TaskState.COMPLETED, job.getTasks().get(0).getState());
+
+		// claimed again for the next task
+		assertEquals(2, jobStore.claimJobs(jobMockerUpper.jobName, "task1", 2, null).size());
+	}
+
+	@Test
+	public void whenJobInsertedTwice_thenDuplicateKeyException() throws Exception {
+
+		insertJobs(2);
+		Job job = jobMockerUpper.create(0);
+		job.setNextTaskName(taskName);
+		try {
+			jobStore.insert(job);
+			fail("DuplicateKeyException expected");
+		} catch (DuplicateKeyException e) {
+			// expected
+		}
+
+		List<Job> jobs = Arrays.asList(jobMockerUpper.create(1), jobMockerUpper.create(2));
+		assertEquals(Collections.singletonMap("jobId1", "already exists"), jobStore.insertJobs(jobs));
+		assertNotNull(jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId2"));
+	}
+
+	@Test
+	public void whenJobsReset_thenReadyWithTasksArchived() throws Exception {
+
+		insertJobs(3);
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 2, null);
+		for (Job job : claimedJobs) {
+			job.endTaskWithError(job.getLastTask(taskName), "error");
+			job.setState(JobState.ERROR);
+		}
+		assertTrue(jobStore.saveTaskResults(taskName, claimedJobs, null).isEmpty());
+
+		JobReset jobReset = new JobReset(jobMockerUpper.jobName, JobState.ERROR, null, null, null, null);
+		jobReset.setResetTaskName(taskName);
+		List<Job> jobsToReset = jobStore.findJobsToReset(jobReset, null, 10);
+		assertEquals(2, jobsToReset.size());
+		assertEquals(2, jobStore.resetJobs(jobReset, jobsToReset).size());
+
+		List<Job> jobs = jobStore.findJobs(jobMockerUpper.jobName, JobState.READY, Sort.unsorted(), null);
+		assertEquals(3, jobs.size());
+		jobStore.loadTaskHistory(jobs);
+		for (Job job : jobs) {
+			assertEquals(taskName, job.getNextTaskName());
+			assertTrue(job.getTaskErrorCounts().isEmpty());
+			job.getTasks().forEach(p -> assertTrue(p.getArchived()));
+		}
+		assertEquals(3, jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null).size());
+	}
+
+	private List<Job> insertJobs(int jobCount) throws Exception {
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < jobCount; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setNextTaskName(taskName);
+			jobStore.insert(job);
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+}
@@ -0,0 +1,132 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * JdbcJobStore claims by SELECT ... FOR UPDATE SKIP LOCKED, on the PostgreSQL or Oracle database of jdbc.test.url,
+ * jdbc.test.username and jdbc.test.password, with its driver from the postgresql or oracle profile (see pom.xml);
+ * skipped without jdbc.test.url. The tables are created if they don't exist, and only the jobs of the test are removed
+ */
+public class JdbcJobStoreSkipLockedTest {
+
+	private JobMockerUpper jobMockerUpper = new JobMockerUpper();
+
+	private DriverManagerDataSource dataSource;
+
+	private JdbcJobStore jobStore;
+
+	private String taskName = "task0";
+
+	@Before
+	public void setUp() {
+
+		String url = System.getProperty("jdbc.test.url");
+		assumeNotNull(url);
+
+		dataSource = new DriverManagerDataSource(url, System.getProperty("jdbc.test.username"),
+				System.getProperty("jdbc.test.password"));
+		jobStore = new JdbcJobStore();
+		ReflectionTestUtils.setField(jobStore, "dataSource", dataSource);
+		ReflectionTestUtils.setField(jobStore, "claimMode", "skipLocked");
+		ReflectionTestUtils.setField(jobStore, "createSchema", true);
+		jobStore.init();
+
+		// jobs of their own, so runs don't see each other's
+		jobMockerUpper.jobName = "skipLocked" + UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	@After
+	public void tearDown() {
+
+		if (dataSource != null) {
+			new JdbcTemplate(dataSource).update("DELETE FROM JOB_FLOW WHERE APP_ID = ?", jobMockerUpper.jobName);
+		}
+	}
+
+	@Test
+	public void whenJobLockedByAnotherTransaction_thenSkippedWithoutWaiting() throws Exception {
+
+		insertJobs(3);
+
+		Job lockedJob = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		try (Connection connection = dataSource.getConnection()) {
+			connection.setAutoCommit(false);
+			try (PreparedStatement preparedStatement = connection
+					.prepareStatement("SELECT ID FROM JOB_FLOW WHERE ID = ? FOR UPDATE")) {
+				preparedStatement.setString(1, lockedJob.get_id());
+				preparedStatement.executeQuery().close();
+			}
+
+			// the oldest job is locked, so the next ones are claimed, while it is held
+			assertEquals(Arrays.asList("jobId1", "jobId2"), jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null)
+					.stream().map(Job::getJobId).collect(Collectors.toList()));
+			connection.rollback();
+		}
+
+		assertEquals(Arrays.asList("jobId0"), jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null).stream()
+				.map(Job::getJobId).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void whenJobsClaimedConcurrently_thenEachJobClaimedOnce() throws Exception {
+
+		int jobCount = 200;
+		insertJobs(jobCount);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		Set<String> claimedJobIds = ConcurrentHashMap.newKeySet();
+		AtomicInteger claimedCount = new AtomicInteger();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executorService.submit(() -> {
+					List<Job> claimedJobs;
+					while (!(claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 7, null)).isEmpty()) {
+						claimedJobs.forEach(p -> claimedJobIds.add(p.getJobId()));
+						claimedCount.addAndGet(claimedJobs.size());
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executorService.shutdown();
+		}
+
+		assertEquals(jobCount, claimedCount.get());
+		assertEquals(jobCount, claimedJobIds.size());
+	}
+
+	private void insertJobs(int jobCount) throws Exception {
+
+		for (int i = 0; i < jobCount; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setNextTaskName(taskName);
+			jobStore.insert(job);
+		}
+	}
+
+}
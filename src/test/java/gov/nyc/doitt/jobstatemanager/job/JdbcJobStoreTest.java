@@ -0,0 +1,298 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * JdbcJobStore is tested on an embedded H2 database of its own, without an application context; H2 has no SKIP LOCKED,
+ * so claims are by conditional updates
+ */
+public class JdbcJobStoreTest {
+
+	private JobMockerUpper jobMockerUpper = new JobMockerUpper();
+
+	private EmbeddedDatabase database;
+
+	private JdbcJobStore jobStore;
+
+	private String taskName = "task0";
+
+	@Before
+	public void setUp() {
+
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+		jobStore = new JdbcJobStore();
+		ReflectionTestUtils.setField(jobStore, "dataSource", database);
+		ReflectionTestUtils.setField(jobStore, "claimMode", "auto");
+		ReflectionTestUtils.setField(jobStore, "createSchema", true);
+		jobStore.init();
+	}
+
+	@After
+	public void tearDown() {
+		database.shutdown();
+	}
+
+	@Test
+	public void whenJobsClaimed_thenOldestClaimedFirstAndOnce() throws Exception {
+
+		List<Job> jobs = insertJobs(5);
+
+		assertEquals(jobs.get(0).getCreatedTimestamp(),
+				jobStore.findOldestReadyCreatedTimestamp(jobMockerUpper.jobName, taskName));
+
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null);
+		assertEquals(Arrays.asList("jobId0", "jobId1", "jobId2"),
+				claimedJobs.stream().map(Job::getJobId).collect(Collectors.toList()));
+		for (Job job : claimedJobs) {
+			assertEquals(JobState.PROCESSING, job.getState());
+			assertEquals(1, job.getTaskCount());
+			assertEquals(taskName, job.getLastTask(taskName).getName());
+			assertNotNull(job.getTransitionToken());
+		}
+
+		// the started task is stored as the last task
+		Job job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		assertEquals(TaskState.PROCESSING, job.getLastTask(taskName).getState());
+
+		assertEquals(Arrays.asList("jobId3", "jobId4"), jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null)
+				.stream().map(Job::getJobId).collect(Collectors.toList()));
+		assertTrue(jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null).isEmpty());
+		assertNull(jobStore.findOldestReadyCreatedTimestamp(jobMockerUpper.jobName, taskName));
+
+		List<JobStats> jobStats = jobStore.countJobs();
+		assertEquals(1, jobStats.size());
+		assertEquals(JobState.PROCESSING, jobStats.get(0).getState());
+		assertEquals(5, jobStats.get(0).getCount());
+	}
+
+	@Test
+	public void whenJobsClaimedConcurrently_thenEachJobClaimedOnce() throws Exception {
+
+		int jobCount = 200;
+		insertJobs(jobCount);
+
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		Set<String> claimedJobIds = ConcurrentHashMap.newKeySet();
+		AtomicInteger claimedCount = new AtomicInteger();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				futures.add(executorService.submit(() -> {
+					List<Job> claimedJobs;
+					while (!(claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 7, null)).isEmpty()) {
+						claimedJobs.forEach(p -> claimedJobIds.add(p.getJobId()));
+						claimedCount.addAndGet(claimedJobs.size());
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executorService.shutdown();
+		}
+
+		assertEquals(jobCount, claimedCount.get());
+		assertEquals(jobCount, claimedJobIds.size());
+		// one started task each
+		for (Job job : jobStore.findJobs(jobMockerUpper.jobName, JobState.PROCESSING, Sort.unsorted(), null)) {
+			assertEquals(1, job.getTaskCount());
+		}
+	}
+
+	@Test
+	public void whenTaskResultsSaved_thenOnlyWrittenOnceUnderClaim() throws Exception {
+
+		insertJobs(2);
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 2, null);
+		for (Job job : claimedJobs) {
+			job.getLastTask(taskName).endWithSuccess();
+			job.setState(JobState.READY);
+			job.setNextTaskName("task1");
+		}
+		claimedJobs.get(1).endTaskWithError(claimedJobs.get(1).getLastTask(taskName), "error");
+
+		assertTrue(jobStore.saveTaskResults(taskName, claimedJobs, null).isEmpty());
+		assertEquals(Collections.singleton("jobId0"),
+				jobStore.saveTaskResults(taskName, claimedJobs.subList(0, 1), null));
+
+		Job job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId1");
+		assertEquals(JobState.READY, job.getState());
+		assertEquals("task1", job.getNextTaskName());
+		assertEquals(TaskState.ERROR, job.getLastTask(taskName).getState());
+		assertEquals("error", job.getLastTask(taskName).getErrorReason());
+		assertEquals(1, job.getTotalErrorCountForTask(taskName));
+	}
+
+	@Test
+	public void whenJobInsertedTwice_thenDuplicateKeyException() throws Exception {
+
+		insertJobs(2);
+		Job job = jobMockerUpper.create(0);
+		job.setNextTaskName(taskName);
+		try {
+			jobStore.insert(job);
+			fail("DuplicateKeyException expected");
+		} catch (DuplicateKeyException e) {
+			// expected
+		}
+
+		List<Job> jobs = Arrays.asList(jobMockerUpper.create(1), jobMockerUpper.create(2));
+		assertEquals(Collections.singletonMap("jobId1", "already exists"), jobStore.insertJobs(jobs));
+		assertNotNull(jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId2"));
+	}
+
+	@Test
+	public void whenJobsNotStorable_thenReportedPerJob() throws Exception {
+
+		// a job the NOT NULL constraint rejects rolls back the batch; the jobs before and after it are still inserted
+		List<Job> jobs = Arrays.asList(jobMockerUpper.create(0), jobMockerUpper.create(1), jobMockerUpper.create(2));
+		jobs.get(1).setCreatedTimestamp(null);
+		Map<String, String> failedJobIds = jobStore.insertJobs(jobs);
+		assertEquals(Collections.singleton("jobId1"), failedJobIds.keySet());
+		assertTrue(failedJobIds.get("jobId1").startsWith("was not created: "));
+		assertNotNull(jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0"));
+		assertNotNull(jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId2"));
+	}
+
+	@Test
+	public void whenTextTooLongForItsColumn_thenTruncated() throws Exception {
+
+		Job job = jobMockerUpper.create(0);
+		job.setNextTaskName(taskName);
+		job.setDescription(StringUtils.repeat("d", 2000));
+		jobStore.insert(job);
+		assertEquals(1024, jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0").getDescription().length());
+
+		// cut before a character that would go over, as Oracle counts bytes
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 1, null);
+		claimedJobs.get(0).endTaskWithError(claimedJobs.get(0).getLastTask(taskName), StringUtils.repeat("\u00e9", 2001));
+		assertTrue(jobStore.saveTaskResults(taskName, claimedJobs, null).isEmpty());
+		assertEquals(StringUtils.repeat("\u00e9", 2000), jobStore
+				.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0").getLastTask(taskName).getErrorReason());
+	}
+
+	@Test
+	public void whenJobsReset_thenReadyWithTasksArchived() throws Exception {
+
+		insertJobs(3);
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 2, null);
+		for (Job job : claimedJobs) {
+			job.endTaskWithError(job.getLastTask(taskName), "error");
+			job.setState(JobState.ERROR);
+		}
+		assertTrue(jobStore.saveTaskResults(taskName, claimedJobs, null).isEmpty());
+
+		JobReset jobReset = new JobReset(jobMockerUpper.jobName, JobState.ERROR, null, null, null, null);
+		jobReset.setResetTaskName(taskName);
+		List<Job> jobsToReset = jobStore.findJobsToReset(jobReset, null, 10);
+		assertEquals(2, jobsToReset.size());
+		assertEquals(2, jobStore.resetJobs(jobReset, jobsToReset).size());
+
+		List<Job> jobs = jobStore.findJobs(jobMockerUpper.jobName, JobState.READY, Sort.unsorted(), null);
+		assertEquals(3, jobs.size());
+		jobStore.loadTaskHistory(jobs);
+		for (Job job : jobs) {
+			assertEquals(taskName, job.getNextTaskName());
+			assertTrue(job.getTaskErrorCounts().isEmpty());
+			job.getTasks().forEach(p -> assertTrue(p.getArchived()));
+		}
+		assertEquals(3, jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null).size());
+
+		// two tasks each for the reset jobs, only the last kept after the history is deleted
+		Job job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		jobStore.loadTaskHistory(Collections.singletonList(job));
+		assertEquals(2, job.getTasks().size());
+		jobStore.deleteTaskHistory(jobMockerUpper.jobName, "jobId0");
+		jobStore.loadTaskHistory(Collections.singletonList(job));
+		assertEquals(1, job.getTasks().size());
+
+		assertNotNull(jobStore.deleteByJobNameAndJobId(jobMockerUpper.jobName, "jobId0"));
+		assertNull(jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0"));
+	}
+
+	@Test
+	public void whenStateUpdated_thenJobReturnedAsItWas() throws Exception {
+
+		insertJobs(1);
+		jobStore.claimJobs(jobMockerUpper.jobName, taskName, 1, new Timestamp(System.currentTimeMillis() + 60000));
+
+		Job job = jobStore.updateState(jobMockerUpper.jobName, "jobId0", JobState.ERROR);
+		assertEquals(JobState.PROCESSING, job.getState());
+		assertNotNull(job.getLeaseExpiresTimestamp());
+		job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		assertEquals(JobState.ERROR, job.getState());
+		assertNull(job.getLeaseExpiresTimestamp());
+		assertNull(jobStore.updateState(jobMockerUpper.jobName, "jobId9", JobState.ERROR));
+
+		assertEquals(JobState.ERROR, jobStore.deleteByJobNameAndJobId(jobMockerUpper.jobName, "jobId0").getState());
+		assertNull(jobStore.deleteByJobNameAndJobId(jobMockerUpper.jobName, "jobId0"));
+	}
+
+	@Test
+	public void whenJobFlowIsOfAnEarlierVersion_thenInitFails() {
+
+		EmbeddedDatabase legacyDatabase = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2)
+				.generateUniqueName(true).build();
+		try {
+			new JdbcTemplate(legacyDatabase).execute("CREATE TABLE JOB_FLOW (ID VARCHAR(64), APP_ID VARCHAR(64), "
+					+ "JOB_ID VARCHAR(64), STATUS VARCHAR(32), START_TIMESTAMP TIMESTAMP, ERROR_REASON VARCHAR(1024))");
+			JdbcJobStore legacyJobStore = new JdbcJobStore();
+			ReflectionTestUtils.setField(legacyJobStore, "dataSource", legacyDatabase);
+			ReflectionTestUtils.setField(legacyJobStore, "claimMode", "auto");
+			ReflectionTestUtils.setField(legacyJobStore, "createSchema", true);
+			legacyJobStore.init();
+			fail("JobStateManagerException expected");
+		} catch (JobStateManagerException e) {
+			assertTrue(e.getMessage().contains("job_flow_migration.sql"));
+		} finally {
+			legacyDatabase.shutdown();
+		}
+	}
+
+	private List<Job> insertJobs(int jobCount) throws Exception {
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < jobCount; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setNextTaskName(taskName);
+			jobStore.insert(job);
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+}
@@ -1,11 +1,17 @@
 package gov.nyc.doitt.jobstatemanager.job;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
@@ -13,11 +19,14 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -28,9 +37,11 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.domain.Sort.Order;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -45,6 +56,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigDtoMockerUpper;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigMockerUpper;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigPlan;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
 import gov.nyc.doitt.jobstatemanager.security.JobAuthenticationManager;
 import gov.nyc.doitt.jobstatemanager.security.JobAuthorizer;
@@ -83,7 +95,7 @@ public class JobControllerTest extends BaseTest {
 	private JobAuthenticationManager jobAuthenticationManager;
 
 	// mocking/unmocking of this bean is done explicitly below
-	private JobRepository jobRepository;
+	private JobStore jobStore;
 
 	private MockMvc mockMvc;
 
@@ -97,7 +109,7 @@ public class JobControllerTest extends BaseTest {
 	public void setUp() {
 		this.mockMvc = MockMvcBuilders.webAppContextSetup(getWac()).apply(springSecurity()).build();
 
-		jobRepository = mock(JobRepository.class);
+		jobStore = mock(JobStore.class);
 		jobConfigService = mock(JobConfigService.class);
 
 		MockitoAnnotations.initMocks(this);
@@ -108,9 +120,9 @@ public class JobControllerTest extends BaseTest {
 	@After
 	public void tearDown() throws Exception {
 
-		// put back real JobRepository bean into JobService
-		jobRepository = getApplicationContext().getBean(JobRepository.class);
-		ReflectionTestUtils.setField(jobService, "jobRepository", jobRepository);
+		// put back real JobStore bean into JobService
+		jobStore = getApplicationContext().getBean(JobStore.class);
+		ReflectionTestUtils.setField(jobService, "jobStore", jobStore);
 
 		// put back real jobConfigService bean into JobAuthorizer
 		jobConfigService = getApplicationContext().getBean(JobConfigService.class);
@@ -125,8 +137,7 @@ public class JobControllerTest extends BaseTest {
 		JobDto jobDto = jobDtoMockerUpper.create(2);
 		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
 
-		when(jobConfigService.existsJobConfig(jobDto.getJobName())).thenReturn(true);
-		when(jobConfigService.getJobConfigDomain(jobDto.getJobName())).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobDto.getJobName())).thenReturn(new JobConfigPlan(jobConfig));
 
 		mockMvc.perform(post(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName()).headers(httpHeaders)
 				.contentType(MediaType.APPLICATION_JSON).headers(httpHeaders).contextPath(getContextRoot())
@@ -134,7 +145,7 @@ public class JobControllerTest extends BaseTest {
 				.andExpect(jsonPath("$.jobName").value(jobDto.getJobName())).andExpect(jsonPath("$.jobId").value(jobDto.getJobId()))
 				.andExpect(jsonPath("$.state").value(JobState.READY.name()));
 
-		verify(jobRepository).save(any(Job.class));
+		verify(jobStore).insert(any(Job.class));
 	}
 
 	@Test
@@ -145,8 +156,7 @@ public class JobControllerTest extends BaseTest {
 		JobDto jobDto = jobDtoMockerUpper.create(2);
 
 		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
-		when(jobConfigService.existsJobConfig(jobDto.getJobName())).thenReturn(true);
-		when(jobConfigService.getJobConfigDomain(jobDto.getJobName())).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobDto.getJobName())).thenReturn(new JobConfigPlan(jobConfig));
 
 		mockMvc.perform(post(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName()).headers(httpHeaders)
 				.contentType(MediaType.APPLICATION_JSON).headers(httpHeaders).contextPath(getContextRoot())
@@ -154,7 +164,47 @@ public class JobControllerTest extends BaseTest {
 				.andExpect(jsonPath("$.jobName").value(jobDto.getJobName())).andExpect(jsonPath("$.jobId").value(jobDto.getJobId()))
 				.andExpect(jsonPath("$.state").value(JobState.READY.name()));
 
-		verify(jobRepository).save(any(Job.class));
+		verify(jobStore).insert(any(Job.class));
+	}
+
+	@Test
+	public void testCreate_failExistingJob() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		JobDto jobDto = jobDtoMockerUpper.create(2);
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
+
+		when(jobConfigService.getJobConfigPlan(jobDto.getJobName())).thenReturn(new JobConfigPlan(jobConfig));
+		when(jobStore.insert(any(Job.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+
+		mockMvc.perform(post(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName()).headers(httpHeaders)
+				.contentType(MediaType.APPLICATION_JSON).contextPath(getContextRoot()).content(asJsonString(jobDto)))
+				.andDo(print()).andExpect(status().isConflict()).andExpect(jsonPath("$.errors").isNotEmpty());
+
+		verify(jobStore, times(0)).findByJobNameAndJobId(any(), any());
+	}
+
+	@Test
+	public void testCreate_succeedIdempotentExistingJob() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		JobDto jobDto = jobDtoMockerUpper.create(2);
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
+		Job existingJob = jobMockerUpper.create(2);
+		existingJob.setDescription("existing");
+
+		when(jobConfigService.getJobConfigPlan(jobDto.getJobName())).thenReturn(new JobConfigPlan(jobConfig));
+		when(jobStore.insert(any(Job.class))).thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+		when(jobStore.findByJobNameAndJobId(jobDto.getJobName(), jobDto.getJobId())).thenReturn(existingJob);
+
+		// a retried create returns the job created by the first attempt
+		mockMvc.perform(post(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName() + "&idempotent=true")
+				.headers(httpHeaders).contentType(MediaType.APPLICATION_JSON).contextPath(getContextRoot())
+				.content(asJsonString(jobDto))).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$.jobId").value(jobDto.getJobId()))
+				.andExpect(jsonPath("$.description").value("existing"));
 	}
 
 	@Test
@@ -165,8 +215,7 @@ public class JobControllerTest extends BaseTest {
 		JobDto jobDto = jobDtoMockerUpper.create(2);
 		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
 
-		when(jobConfigService.existsJobConfig(jobDto.getJobName())).thenReturn(true);
-		when(jobConfigService.getJobConfigDomain(jobDto.getJobName())).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobDto.getJobName())).thenReturn(new JobConfigPlan(jobConfig));
 
 		ResultActions resultActions = mockMvc
 				.perform(post(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName()).headers(httpHeaders)
@@ -179,6 +228,56 @@ public class JobControllerTest extends BaseTest {
 
 	}
 
+	@Test
+	public void testCreateBatch_succeedNonAdminWithResultPerItem() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<JobDto> jobDtos = jobDtoMockerUpper.createList(4);
+		// given twice in the batch
+		jobDtos.add(jobDtoMockerUpper.create(1));
+		String jobName = jobDtoMockerUpper.jobName;
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+		when(jobStore.findExistingJobIds(eq(jobName), any())).thenReturn(Collections.singleton("jobId0"));
+		// created by another request after it was checked
+		when(jobStore.insertJobs(any())).thenReturn(Collections.singletonMap("jobId3", "already exists"));
+
+		mockMvc.perform(post(getContextRoot() + "/jobs/batch" + "?jobName=" + jobName).headers(httpHeaders)
+				.contentType(MediaType.APPLICATION_JSON).contextPath(getContextRoot()).content(asJsonString(jobDtos)))
+				.andDo(print()).andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(5))
+				.andExpect(jsonPath("$[0].resultError").isNotEmpty())
+				.andExpect(jsonPath("$[1].jobId").value("jobId1")).andExpect(jsonPath("$[1].state").value(JobState.READY.name()))
+				.andExpect(jsonPath("$[1].resultError").doesNotExist())
+				.andExpect(jsonPath("$[2].state").value(JobState.READY.name()))
+				.andExpect(jsonPath("$[3].resultError").isNotEmpty())
+				.andExpect(jsonPath("$[4].jobId").value("jobId1")).andExpect(jsonPath("$[4].resultError").isNotEmpty());
+
+		// one check and one insert for the whole batch, without the jobs already known to exist
+		verify(jobStore, times(1)).findExistingJobIds(eq(jobName), any());
+		verify(jobStore, times(1)).insertJobs(argThat(p -> p.size() == 3));
+	}
+
+	@Test
+	public void testCreateBatch_failMissingJobId() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<JobDto> jobDtos = jobDtoMockerUpper.createList(2);
+		jobDtos.get(1).setJobId(null);
+		String jobName = jobDtoMockerUpper.jobName;
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		mockMvc.perform(post(getContextRoot() + "/jobs/batch" + "?jobName=" + jobName).headers(httpHeaders)
+				.contentType(MediaType.APPLICATION_JSON).contextPath(getContextRoot()).content(asJsonString(jobDtos)))
+				.andDo(print()).andExpect(status().isUnprocessableEntity()).andExpect(jsonPath("$.errors").isNotEmpty());
+
+		verify(jobStore, times(0)).insertJobs(any());
+	}
+
 	@Test
 	public void testGetJobs_succeedAdmin() throws Exception {
 
@@ -188,7 +287,7 @@ public class JobControllerTest extends BaseTest {
 		jobs.get(0).setJobName("newName0");
 		jobs.get(5).setJobName("newName5");
 
-		when(jobRepository.findAll(any(Sort.class))).thenReturn(jobs);
+		when(jobStore.findAll(any(Sort.class))).thenReturn(jobs);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobs").headers(httpHeaders).contextPath(getContextRoot())).andDo(print())
@@ -204,7 +303,7 @@ public class JobControllerTest extends BaseTest {
 			assertEquals(job.getJobId(), jobDto.getJobId());
 		}
 
-		verify(jobRepository).findAll(any(Sort.class));
+		verify(jobStore).findAll(any(Sort.class));
 	}
 
 	@Test
@@ -220,7 +319,7 @@ public class JobControllerTest extends BaseTest {
 			String[] sortParams = { "jobName", "DESC" };
 			Sort sort = Sort.by(Direction.fromString(sortParams[1]), sortParams[0]);
 
-			when(jobRepository.findAll(eq(sort))).thenReturn(jobs);
+			when(jobStore.findAll(eq(sort))).thenReturn(jobs);
 
 			ResultActions resultActions = mockMvc.perform(
 					get(getContextRoot() + "/jobs" + "?sort=jobName,DESC").headers(httpHeaders).contextPath(getContextRoot()))
@@ -235,7 +334,7 @@ public class JobControllerTest extends BaseTest {
 				assertEquals(job.getJobId(), jobDto.getJobId());
 			}
 
-			verify(jobRepository).findAll(eq(sort));
+			verify(jobStore).findAll(eq(sort));
 		}
 
 		{
@@ -247,7 +346,7 @@ public class JobControllerTest extends BaseTest {
 
 			Sort sort = Sort.by(orders);
 
-			when(jobRepository.findAll(eq(sort))).thenReturn(jobs);
+			when(jobStore.findAll(eq(sort))).thenReturn(jobs);
 
 			ResultActions resultActions = mockMvc.perform(get(getContextRoot() + "/jobs" + "?sort=jobName,DESC&sort=jobId,ASC")
 					.headers(httpHeaders).contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk());
@@ -261,7 +360,7 @@ public class JobControllerTest extends BaseTest {
 				assertEquals(job.getJobId(), jobDto.getJobId());
 			}
 
-			verify(jobRepository).findAll(eq(sort));
+			verify(jobStore).findAll(eq(sort));
 		}
 
 	}
@@ -275,7 +374,7 @@ public class JobControllerTest extends BaseTest {
 		jobs.get(0).setJobName("newName0");
 		jobs.get(5).setJobName("newName5");
 
-		when(jobRepository.findAll(any(Sort.class))).thenReturn(jobs);
+		when(jobStore.findAll(any(Sort.class))).thenReturn(jobs);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobs").headers(httpHeaders).contextPath(getContextRoot())).andDo(print())
@@ -284,7 +383,7 @@ public class JobControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobRepository, times(0)).findAll(any(Sort.class));
+		verify(jobStore, times(0)).findAll(any(Sort.class));
 	}
 
 	@Test
@@ -296,7 +395,7 @@ public class JobControllerTest extends BaseTest {
 		Job job0 = jobs.get(0);
 		String jobName = job0.getJobName();
 
-		when(jobRepository.findByJobName(eq(jobName), any(Sort.class))).thenReturn(jobs);
+		when(jobStore.findByJobName(eq(jobName), any(Sort.class))).thenReturn(jobs);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName).headers(httpHeaders).contextPath(getContextRoot()))
@@ -313,7 +412,7 @@ public class JobControllerTest extends BaseTest {
 			assertEquals(job.getJobId(), jobDto.getJobId());
 		}
 
-		verify(jobRepository).findByJobName(eq(jobName), any(Sort.class));
+		verify(jobStore).findByJobName(eq(jobName), any(Sort.class));
 	}
 
 	@Test
@@ -326,9 +425,9 @@ public class JobControllerTest extends BaseTest {
 		String jobName = job0.getJobName();
 
 		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
-		when(jobConfigService.getJobConfigDomain(jobName)).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
 
-		when(jobRepository.findByJobName(eq(jobName), any(Sort.class))).thenReturn(jobs);
+		when(jobStore.findByJobName(eq(jobName), any(Sort.class))).thenReturn(jobs);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName).headers(httpHeaders).contextPath(getContextRoot()))
@@ -345,7 +444,122 @@ public class JobControllerTest extends BaseTest {
 			assertEquals(job.getJobId(), jobDto.getJobId());
 		}
 
-		verify(jobRepository).findByJobName(eq(jobName), any(Sort.class));
+		verify(jobStore).findByJobName(eq(jobName), any(Sort.class));
+	}
+
+	@Test
+	public void testGetByJobNameWithLimit_succeedNonAdminPageAfterPage() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(5);
+		String jobName = jobs.get(0).getJobName();
+		for (int i = 0; i < jobs.size(); i++) {
+			ReflectionTestUtils.setField(jobs.get(i), "_id", "id" + i);
+		}
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		// one more than the limit means there is a next page
+		when(jobStore.findJobsAfter(eq(jobName), isNull(), isNull(), eq(Sort.Direction.ASC), eq(4), isNull()))
+				.thenReturn(new ArrayList<>(jobs.subList(0, 4)));
+		String url = getContextRoot() + "/jobs" + "?jobName=" + jobName + "&sort=createdTimestamp,ASC&limit=3";
+		ResultActions resultActions = mockMvc.perform(get(url).headers(httpHeaders).contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk()).andExpect(header().exists(JobController.NEXT_AFTER_HEADER));
+		assertEquals(3, jobDtosJsonAsObject(resultActions.andReturn().getResponse().getContentAsString()).size());
+
+		// the last page has no next
+		String after = resultActions.andReturn().getResponse().getHeader(JobController.NEXT_AFTER_HEADER);
+		when(jobStore.findJobsAfter(eq(jobName), isNull(), eq("id2"), eq(Sort.Direction.ASC), eq(4), isNull()))
+				.thenReturn(new ArrayList<>(jobs.subList(3, 5)));
+		resultActions = mockMvc.perform(get(url + "&after=" + after).headers(httpHeaders).contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk());
+		assertEquals(2, jobDtosJsonAsObject(resultActions.andReturn().getResponse().getContentAsString()).size());
+		assertNull(resultActions.andReturn().getResponse().getHeader(JobController.NEXT_AFTER_HEADER));
+
+		// only creation order can be paged
+		mockMvc.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName + "&sort=jobId,ASC&limit=3")
+				.headers(httpHeaders).contextPath(getContextRoot())).andDo(print())
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+	@Test
+	public void testGetByJobNameWithView_succeedNonAdminSummaryWithoutTasks() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(5);
+		String jobName = jobs.get(0).getJobName();
+		jobs.forEach(p -> p.startTask(new Task(p.getNextTaskName())));
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		when(jobStore.findJobs(eq(jobName), isNull(), any(Sort.class), any())).thenReturn(jobs);
+
+		mockMvc.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName + "&view=summary").headers(httpHeaders)
+				.contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].jobId").value(jobs.get(0).getJobId()))
+				.andExpect(jsonPath("$[0].state").value(JobState.PROCESSING.name()))
+				.andExpect(jsonPath("$[0].description").doesNotExist()).andExpect(jsonPath("$[0].taskDtos").doesNotExist());
+
+		// the summary is read as a projection without tasks
+		verify(jobStore).findJobs(eq(jobName), isNull(), any(Sort.class),
+				eq(JobView.of("summary", null, null).getDocumentFields()));
+		verify(jobStore, times(0)).findByJobName(eq(jobName), any(Sort.class));
+		verify(jobStore, times(0)).loadTaskHistory(any(), anyInt());
+
+		mockMvc.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName + "&fields=jobId,nextTaskName&tasks=1")
+				.headers(httpHeaders).contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].nextTaskName").value(jobs.get(0).getNextTaskName()))
+				.andExpect(jsonPath("$[0].state").doesNotExist()).andExpect(jsonPath("$[0].taskDtos").isArray());
+		verify(jobStore).loadTaskHistory(any(), eq(1));
+
+		mockMvc.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName + "&fields=jobId,tasks").headers(httpHeaders)
+				.contextPath(getContextRoot())).andDo(print()).andExpect(status().isUnprocessableEntity());
+	}
+
+	@Test
+	public void testGetByJobNameAsNdjson_succeedNonAdmin() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(5);
+		String jobName = jobs.get(0).getJobName();
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		Iterator<Job> jobIterator = jobs.iterator();
+		when(jobStore.streamJobs(eq(jobName), isNull(), eq(Sort.Direction.DESC), isNull()))
+				.thenReturn(new CloseableIterator<Job>() {
+
+			@Override
+			public boolean hasNext() {
+				return jobIterator.hasNext();
+			}
+
+			@Override
+			public Job next() {
+				return jobIterator.next();
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+
+		ResultActions resultActions = mockMvc
+				.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobName).accept(JobController.APPLICATION_NDJSON_VALUE)
+						.headers(httpHeaders).contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk());
+
+		String[] lines = resultActions.andReturn().getResponse().getContentAsString().split("\n");
+		assertEquals(jobs.size(), lines.length);
+		for (int i = 0; i < jobs.size(); i++) {
+			assertEquals(jobs.get(i).getJobId(), new ObjectMapper().readValue(lines[i], JobDto.class).getJobId());
+		}
 	}
 
 	@Test
@@ -356,15 +570,14 @@ public class JobControllerTest extends BaseTest {
 		JobDto jobDto = jobDtoMockerUpper.create(1);
 		Job job = jobMockerUpper.create(1);
 
-		when(jobRepository.existsByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(true);
-		when(jobRepository.findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(job);
+		when(jobStore.findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(job);
 
 		mockMvc.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName() + "&jobId=" + jobDto.getJobId())
 				.headers(httpHeaders).contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk())
 				.andExpect(jsonPath("$.jobName").value(jobDto.getJobName())).andExpect(jsonPath("$.jobId").value(jobDto.getJobId()))
 				.andExpect(jsonPath("$.state").value(JobState.READY.name()));
 
-		verify(jobRepository).findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
+		verify(jobStore).findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
 	}
 
 	@Test
@@ -376,17 +589,16 @@ public class JobControllerTest extends BaseTest {
 		Job job = jobMockerUpper.create(1);
 
 		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
-		when(jobConfigService.getJobConfigDomain(jobDto.getJobName())).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobDto.getJobName())).thenReturn(new JobConfigPlan(jobConfig));
 
-		when(jobRepository.existsByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(true);
-		when(jobRepository.findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(job);
+		when(jobStore.findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(job);
 
 		mockMvc.perform(get(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName() + "&jobId=" + jobDto.getJobId())
 				.headers(httpHeaders).contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk())
 				.andExpect(jsonPath("$.jobName").value(jobDto.getJobName())).andExpect(jsonPath("$.jobId").value(jobDto.getJobId()))
 				.andExpect(jsonPath("$.state").value(JobState.READY.name()));
 
-		verify(jobRepository).findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
+		verify(jobStore).findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
 	}
 
 	@Test
@@ -402,7 +614,8 @@ public class JobControllerTest extends BaseTest {
 		JobConfig jobConfig = jobConfigMockerUpper.create(jobDto.getJobName());
 //		when(jobConfigService.getJobConfigDomain(jobDto.getJobName())).thenReturn(jobConfig);
 
-		when(jobRepository.findByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(job);
+		// the repository returns the job as it was before the update
+		when(jobStore.updateState(eq(jobDto.getJobName()), eq(jobDto.getJobId()), eq(JobState.COMPLETED))).thenReturn(job);
 
 		ResultActions resultActions = mockMvc
 				.perform(patch(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName() + "&jobId=" + jobDto.getJobId()).headers(httpHeaders).contextPath(getContextRoot())
@@ -410,7 +623,46 @@ public class JobControllerTest extends BaseTest {
 				.andDo(print()).andExpect(status().isOk()).andExpect(jsonPath("$.jobName").value(jobDto.getJobName()))
 				.andExpect(jsonPath("$.jobId").value(jobDto.getJobId())).andExpect(jsonPath("$.state").value(JobState.COMPLETED.name()));
 
-		verify(jobRepository).save(eq(job));
+		verify(jobStore).updateState(eq(jobDto.getJobName()), eq(jobDto.getJobId()), eq(JobState.COMPLETED));
+	}
+
+	@Test
+	public void testPatchJobsReset_succeedAdminWithProgress() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(2);
+		// batches are read after the _id of the last job of the previous batch
+		ReflectionTestUtils.setField(jobs.get(0), "_id", "id0");
+		ReflectionTestUtils.setField(jobs.get(1), "_id", "id1");
+		String jobName = jobs.get(0).getJobName();
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		String firstTaskName = jobConfig.getTaskConfigs().get(0).getName();
+
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+		when(jobStore.findJobsToReset(any(JobReset.class), isNull(), anyInt())).thenReturn(jobs);
+		when(jobStore.findJobsToReset(any(JobReset.class), eq(jobs.get(1).get_id()), anyInt()))
+				.thenReturn(new ArrayList<>());
+		when(jobStore.resetJobs(any(JobReset.class), eq(jobs)))
+				.thenReturn(jobs.stream().map(Job::getJobId).collect(Collectors.toSet()));
+
+		String[] lines = mockMvc
+				.perform(patch(getContextRoot() + "/jobs" + "?jobName=" + jobName + "&patchOp=RESET&state=ERROR"
+						+ "&createdFrom=2019-01-01T00:00:00.000Z").headers(httpHeaders).contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString().split("\n");
+
+		// a progress line per batch, then the end
+		assertEquals(2, lines.length);
+		JobReset jobReset = new ObjectMapper().readValue(lines[1], JobReset.class);
+		assertTrue(jobReset.isDone());
+		assertEquals(2, jobReset.getResetCount());
+		assertEquals(JobState.ERROR, jobReset.getState());
+		assertEquals(firstTaskName, jobReset.getResetTaskName());
+		assertNull(jobReset.getTaskNames());
+
+		mockMvc.perform(patch(getContextRoot() + "/jobs" + "?jobName=" + jobName + "&patchOp=RESET&taskNames=noSuchTask")
+				.headers(httpHeaders).contextPath(getContextRoot())).andDo(print())
+				.andExpect(status().isUnprocessableEntity());
 	}
 
 	@Test
@@ -428,7 +680,7 @@ public class JobControllerTest extends BaseTest {
 						+ "&patchOp=" + JobPatchOp.RESET).headers(httpHeaders).contextPath(getContextRoot()))
 				.andDo(print()).andExpect(status().isForbidden()).andExpect(jsonPath("$.errors").isNotEmpty());
 
-		verify(jobRepository, times(0)).save(eq(job));
+		verifyZeroInteractions(jobStore);
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 	}
@@ -440,12 +692,13 @@ public class JobControllerTest extends BaseTest {
 
 		JobDto jobDto = jobDtoMockerUpper.create();
 
-		when(jobRepository.existsByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(true);
+		when(jobStore.deleteByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId())))
+				.thenReturn(jobMockerUpper.create());
 
 		mockMvc.perform(delete(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName() + "&jobId=" + jobDto.getJobId())
 				.headers(httpHeaders).contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk());
 
-		verify(jobRepository).deleteByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
+		verify(jobStore).deleteByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
 	}
 
 	@Test
@@ -455,8 +708,6 @@ public class JobControllerTest extends BaseTest {
 
 		JobDto jobDto = jobDtoMockerUpper.create();
 
-		when(jobRepository.existsByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()))).thenReturn(true);
-
 		ResultActions resultActions = mockMvc
 				.perform(delete(getContextRoot() + "/jobs" + "?jobName=" + jobDto.getJobName() + "&jobId=" + jobDto.getJobId())
 						.headers(httpHeaders).contextPath(getContextRoot()))
@@ -465,7 +716,7 @@ public class JobControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobRepository, times(0)).deleteByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
+		verify(jobStore, times(0)).deleteByJobNameAndJobId(eq(jobDto.getJobName()), eq(jobDto.getJobId()));
 	}
 
 	private List<JobDto> jobDtosJsonAsObject(String json) {
@@ -0,0 +1,132 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskDto;
+import gov.nyc.doitt.jobstatemanager.task.TaskDtoMapper;
+
+/**
+ * JobDtoMapper needs no MongoDB, so it is tested without an application context
+ */
+public class JobDtoMapperTest {
+
+	private JobMockerUpper jobMockerUpper = new JobMockerUpper();
+
+	private JobDtoMockerUpper jobDtoMockerUpper = new JobDtoMockerUpper();
+
+	private JobDtoMapper jobDtoMapper;
+
+	@Before
+	public void setUp() {
+		jobDtoMapper = new JobDtoMapper();
+		ReflectionTestUtils.setField(jobDtoMapper, "taskDtoMapper", new TaskDtoMapper());
+	}
+
+	@Test
+	public void whenJobDtoMappedToJobAndBack_thenItsPropertiesAreKept() throws Exception {
+
+		JobDto jobDto = jobDtoMockerUpper.create(1);
+		jobDto.setNextTaskName("task0");
+
+		Job job = jobDtoMapper.fromDto("otherJob", jobDto);
+		assertEquals("otherJob", job.getJobName());
+		assertEquals(JobState.READY, job.getState());
+
+		JobDto mappedJobDto = jobDtoMapper.toDto(job);
+		assertEquals("otherJob", mappedJobDto.getJobName());
+		assertEquals(jobDto.getJobId(), mappedJobDto.getJobId());
+		assertEquals(jobDto.getDescription(), mappedJobDto.getDescription());
+		assertEquals(jobDto.getNextTaskName(), mappedJobDto.getNextTaskName());
+		assertEquals(JobState.READY.name(), mappedJobDto.getState());
+		// createdTimestamp is the job's own, not the dto's
+		assertEquals(job.getCreatedTimestamp(), mappedJobDto.getCreatedTimestamp());
+		assertTrue(mappedJobDto.getTaskDtos().isEmpty());
+	}
+
+	@Test
+	public void whenJobDtoMappedOntoJob_thenOnlyItsEditablePropertiesChange() throws Exception {
+
+		Job job = jobMockerUpper.create(1);
+		job.startTask(createTask("task0"));
+
+		Job mappedJob = jobDtoMapper.fromDto(jobDtoMockerUpper.create(2), job);
+		assertEquals(jobMockerUpper.jobName, mappedJob.getJobName());
+		assertEquals("jobId2", mappedJob.getJobId());
+		assertEquals("description2", mappedJob.getDescription());
+		assertNull(mappedJob.getNextTaskName());
+		assertEquals(JobState.PROCESSING, mappedJob.getState());
+		assertEquals(1, mappedJob.getTasks().size());
+	}
+
+	@Test
+	public void whenJobWithTasksMappedToDto_thenTasksCarryErrorCountsAndLease() throws Exception {
+
+		Job job = jobMockerUpper.create(1);
+		Task erroredTask = createTask("task0");
+		job.startTask(erroredTask);
+		job.endTaskWithError(erroredTask, "failed");
+		job.startTask(createTask("task0"));
+		job.setLeaseExpiresTimestamp(new Timestamp(System.currentTimeMillis() + 60000));
+
+		JobDto jobDto = jobDtoMapper.toDto(job);
+		assertEquals(JobState.PROCESSING.name(), jobDto.getState());
+		List<TaskDto> taskDtos = jobDto.getTaskDtos();
+		assertEquals(2, taskDtos.size());
+
+		TaskDto erroredTaskDto = taskDtos.get(0);
+		assertEquals("ERROR", erroredTaskDto.getState());
+		assertEquals("failed", erroredTaskDto.getErrorReason());
+		assertEquals(job.getJobId(), erroredTaskDto.getJobId());
+		// the attempts of the task, the one processing included
+		assertEquals(2, erroredTaskDto.getErrorCount());
+		assertNull(erroredTaskDto.getLeaseExpiresTimestamp());
+
+		TaskDto processingTaskDto = taskDtos.get(1);
+		assertEquals("PROCESSING", processingTaskDto.getState());
+		assertEquals(2, processingTaskDto.getErrorCount());
+		assertEquals(job.getLeaseExpiresTimestamp(), processingTaskDto.getLeaseExpiresTimestamp());
+	}
+
+	@Test
+	public void whenJobMappedWithView_thenOnlyItsPropertiesAreSet() throws Exception {
+
+		Job job = jobMockerUpper.create(1);
+		job.startTask(createTask("task0"));
+
+		JobDto jobDto = jobDtoMapper.toDto(job, JobView.of(null, new String[] { "jobId", "state" }, null));
+		assertEquals(job.getJobId(), jobDto.getJobId());
+		assertEquals(JobState.PROCESSING.name(), jobDto.getState());
+		assertNull(jobDto.getJobName());
+		assertNull(jobDto.getDescription());
+		assertNull(jobDto.getCreatedTimestamp());
+		assertNull(jobDto.getNextTaskName());
+		assertNull(jobDto.getTaskDtos());
+
+		jobDto = jobDtoMapper.toDto(job, JobView.of("summary", null, 1));
+		assertEquals(job.getJobName(), jobDto.getJobName());
+		assertNull(jobDto.getDescription());
+		assertEquals(1, jobDto.getTaskDtos().size());
+
+		assertEquals(jobDtoMapper.toDto(job).getDescription(), jobDtoMapper.toDto(job, JobView.FULL).getDescription());
+		assertTrue(jobDtoMapper.toDto(Collections.emptyList(), JobView.FULL).isEmpty());
+	}
+
+	private Task createTask(String taskName) {
+
+		Task task = new Task(taskName);
+		task.setArchived(false);
+		return task;
+	}
+
+}
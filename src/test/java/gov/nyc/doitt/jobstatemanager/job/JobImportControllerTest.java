@@ -0,0 +1,178 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.MockitoAnnotations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigMockerUpper;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigPlan;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
+import gov.nyc.doitt.jobstatemanager.test.BaseTest;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+public class JobImportControllerTest extends BaseTest {
+
+	// mocking/unmocking of this bean is done explicitly below
+	private JobConfigService jobConfigService;
+
+	@Autowired
+	private JobConfigMockerUpper jobConfigMockerUpper;
+
+	@Autowired
+	@InjectMocks
+	private JobService jobService;
+
+	@Autowired
+	@InjectMocks
+	private JobImportService jobImportService;
+
+	@Autowired
+	private JobRepository jobRepository;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	private MockMvc mockMvc;
+
+	private HttpHeaders httpHeaders;
+
+	private ObjectMapper objectMapper = new ObjectMapper();
+
+	private String jobName = "importTestJob";
+
+	private static final String ADMIN_AUTH_TOKEN = "G0Ts6!yeH^uJuLIaa`J2=W#+t~p-faEgw=~Fyp0qXY778IyJAUs+^PU)=OZBiayn";
+
+	@Before
+	public void setUp() throws Exception {
+		this.mockMvc = MockMvcBuilders.webAppContextSetup(getWac()).apply(springSecurity()).build();
+
+		jobConfigService = mock(JobConfigService.class);
+
+		MockitoAnnotations.initMocks(this);
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		// several chunks for a few lines
+		ReflectionTestUtils.setField(jobImportService, "chunkSize", 2);
+
+		httpHeaders = new HttpHeaders();
+		httpHeaders.add("Authorization", "Bearer " + ADMIN_AUTH_TOKEN);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+
+		// put back real jobConfigService bean into JobService and JobImportService
+		jobConfigService = getApplicationContext().getBean(JobConfigService.class);
+		ReflectionTestUtils.setField(jobService, "jobConfigService", jobConfigService);
+		ReflectionTestUtils.setField(jobImportService, "jobConfigService", jobConfigService);
+		ReflectionTestUtils.setField(jobImportService, "chunkSize", 1000);
+
+		mongoTemplate.remove(query(where("jobName").is(jobName)), Job.class);
+		mongoTemplate.remove(query(where("jobName").is(jobName)), JobImport.class);
+	}
+
+	@Test
+	public void testImportNdjson_succeedAdminWithErrorFile() throws Exception {
+
+		String content = String.join("\n", Arrays.asList( //
+				"{\"jobId\":\"importJobId0\",\"description\":\"description0\"}", //
+				"{\"jobId\":\"importJobId1\"}", //
+				"", //
+				"{\"jobId\":", //
+				"{\"description\":\"no jobId\"}", //
+				"{\"jobId\":\"importJobId2\"}", //
+				"{\"jobId\":\"importJobId0\"}"));
+
+		String[] progressLines = mockMvc
+				.perform(post(getContextRoot() + "/jobs/import" + "?jobName=" + jobName).headers(httpHeaders)
+						.contentType(JobController.APPLICATION_NDJSON_VALUE).contextPath(getContextRoot()).content(content))
+				.andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString().split("\n");
+
+		JobImport firstJobImport = objectMapper.readValue(progressLines[0], JobImport.class);
+		JobImport lastJobImport = objectMapper.readValue(progressLines[progressLines.length - 1], JobImport.class);
+		assertEquals(JobImport.State.RUNNING, firstJobImport.getState());
+		assertEquals(JobImport.State.COMPLETED, lastJobImport.getState());
+		assertEquals(7, lastJobImport.getLineCount());
+		assertEquals(3, lastJobImport.getCreatedCount());
+		assertEquals(3, lastJobImport.getErrorCount());
+		assertEquals("description0", jobRepository.findByJobNameAndJobId(jobName, "importJobId0").getDescription());
+
+		String importId = lastJobImport.getImportId();
+		mockMvc.perform(get(getContextRoot() + "/jobs/import" + "?importId=" + importId).headers(httpHeaders)
+				.contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk());
+
+		// the error file has the lines that were not imported, in line order
+		String[] errorLines = mockMvc
+				.perform(get(getContextRoot() + "/jobs/import/errors" + "?importId=" + importId)
+						.accept(JobController.APPLICATION_NDJSON_VALUE).headers(httpHeaders).contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString().split("\n");
+		assertEquals(3, errorLines.length);
+		assertEquals(4, objectMapper.readValue(errorLines[0], JobImportError.class).getLine());
+		JobImportError validationError = objectMapper.readValue(errorLines[1], JobImportError.class);
+		assertEquals(5, validationError.getLine());
+		assertEquals("line 5: jobId must be specified", validationError.getError());
+		assertNotNull(validationError.getCreatedTimestamp());
+		JobImportError duplicateError = objectMapper.readValue(errorLines[2], JobImportError.class);
+		assertEquals(7, duplicateError.getLine());
+		assertEquals("importJobId0", duplicateError.getJobId());
+
+		mongoTemplate.remove(query(where("importId").is(importId)), JobImportError.class);
+	}
+
+	@Test
+	public void testImportCsv_succeedAdmin() throws Exception {
+
+		String content = "jobId,description\nimportJobId0,\"description0, with comma\"\nimportJobId1,description1\n";
+
+		String[] progressLines = mockMvc
+				.perform(post(getContextRoot() + "/jobs/import" + "?jobName=" + jobName).headers(httpHeaders)
+						.contentType(JobImportController.TEXT_CSV_VALUE).contextPath(getContextRoot()).content(content))
+				.andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getContentAsString().split("\n");
+
+		JobImport lastJobImport = objectMapper.readValue(progressLines[progressLines.length - 1], JobImport.class);
+		assertEquals(JobImport.State.COMPLETED, lastJobImport.getState());
+		assertEquals(2, lastJobImport.getCreatedCount());
+		assertEquals(0, lastJobImport.getErrorCount());
+		assertEquals("description0, with comma",
+				jobRepository.findByJobNameAndJobId(jobName, "importJobId0").getDescription());
+	}
+
+	@Test
+	public void testImportCsv_failUnknownColumn() throws Exception {
+
+		mockMvc.perform(post(getContextRoot() + "/jobs/import" + "?jobName=" + jobName).headers(httpHeaders)
+				.contentType(JobImportController.TEXT_CSV_VALUE).contextPath(getContextRoot())
+				.content("jobId,state\nimportJobId0,COMPLETED\n")).andDo(print())
+				.andExpect(status().isUnprocessableEntity());
+	}
+
+}
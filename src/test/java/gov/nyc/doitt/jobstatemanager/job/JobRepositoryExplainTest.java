@@ -0,0 +1,264 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.mongodb.event.CommandStartedEvent;
+
+import gov.nyc.doitt.jobstatemanager.common.IndexProvisioner;
+import gov.nyc.doitt.jobstatemanager.common.MongoCommandMetrics;
+import gov.nyc.doitt.jobstatemanager.test.BaseTest;
+
+/**
+ * Calls each JobRepository method, captures the commands it sends to MongoDB and fails if explaining any of them shows a
+ * collection scan
+ */
+@RunWith(SpringRunner.class)
+public class JobRepositoryExplainTest extends BaseTest {
+
+	// commands with a query; aggregate is left out as countJobs groups the whole collection by design
+	private static final List<String> QUERY_COMMANDS = Arrays.asList("find", "count", "distinct", "update", "delete",
+			"findAndModify");
+
+	@Autowired
+	private JobRepository jobRepository;
+
+	@Autowired
+	private JobMockerUpper jobMockerUpper;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Autowired
+	private IndexProvisioner indexProvisioner;
+
+	@Autowired
+	private TaskHistoryMigration taskHistoryMigration;
+
+	// the command listener of the MongoClient
+	@SpyBean
+	private MongoCommandMetrics mongoCommandMetrics;
+
+	private List<BsonDocument> commands = Collections.synchronizedList(new ArrayList<>());
+
+	private volatile Thread capturingThread;
+
+	private String jobName = "explainTestJob";
+
+	private String taskName = "task0";
+
+	@Before
+	public void setUp() throws Exception {
+
+		indexProvisioner.provisionIndexes();
+
+		// only commands sent by the test, not by scheduled tasks
+		doAnswer(p -> {
+			if (Thread.currentThread() == capturingThread) {
+				commands.add(((CommandStartedEvent) p.getArgument(0)).getCommand().clone());
+			}
+			return p.callRealMethod();
+		}).when(mongoCommandMetrics).commandStarted(any());
+
+		for (int i = 0; i < 3; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			job.setNextTaskName(taskName);
+			jobRepository.insert(job);
+		}
+	}
+
+	@After
+	public void tearDown() {
+
+		capturingThread = null;
+		mongoTemplate.remove(query(where("jobName").is(jobName)), Job.class);
+		mongoTemplate.remove(query(where("jobName").is(jobName)), TaskHistory.class);
+	}
+
+	@Test
+	public void testFindByJobNameAndStateInAndNextTaskName() {
+		assertNoCollectionScan(() -> jobRepository.findByJobNameAndStateInAndNextTaskName(jobName,
+				Arrays.asList(JobState.READY), taskName, PageRequest.of(0, 10, Sort.by("createdTimestamp"))));
+	}
+
+	@Test
+	public void testFindByJobNameAndJobIdInAndStateInAndNextTaskName() {
+		assertNoCollectionScan(() -> jobRepository.findByJobNameAndJobIdInAndStateInAndNextTaskName(jobName,
+				Arrays.asList("jobId0", "jobId1"), Arrays.asList(JobState.PROCESSING), taskName));
+	}
+
+	@Test
+	public void testExistsFindAndDeleteByJobNameAndJobId() {
+		assertNoCollectionScan(() -> {
+			jobRepository.existsByJobNameAndJobId(jobName, "jobId0");
+			jobRepository.findByJobNameAndJobId(jobName, "jobId0");
+			jobRepository.deleteByJobNameAndJobId(jobName, "jobId0");
+		});
+	}
+
+	@Test
+	public void testFindByJobNameAndState() {
+		assertNoCollectionScan(() -> {
+			jobRepository.findByJobName(jobName, Sort.by("createdTimestamp"));
+			jobRepository.findByJobNameAndState(jobName, JobState.ERROR.name(), Sort.by("createdTimestamp"));
+			jobRepository.findByJobNameAndJobIdIn(jobName, Arrays.asList("jobId0", "jobId1"));
+		});
+	}
+
+	@Test
+	public void testFindByStateAndLeaseExpiresTimestampLessThan() {
+		assertNoCollectionScan(() -> jobRepository.findByStateAndLeaseExpiresTimestampLessThan(JobState.PROCESSING,
+				new Timestamp(System.currentTimeMillis()), PageRequest.of(0, 500)));
+	}
+
+	@Test
+	public void testClaimAndEndJobs() {
+		assertNoCollectionScan(() -> {
+			jobRepository.findOldestReadyCreatedTimestamp(jobName, taskName);
+			List<Job> jobs = jobRepository.claimJobs(jobName, taskName, 2,
+					new Timestamp(System.currentTimeMillis() + 60000));
+			jobRepository.extendLeases(jobName, taskName, Arrays.asList("jobId0", "jobId1"),
+					new Timestamp(System.currentTimeMillis() + 120000));
+			jobs.forEach(p -> {
+				p.getLastTask(taskName).endWithSuccess();
+				p.setState(JobState.COMPLETED);
+			});
+			jobRepository.saveTaskResults(taskName, jobs, null);
+			jobRepository.loadTaskHistory(jobs);
+			jobRepository.deleteTaskHistory(jobName, "jobId0");
+		});
+	}
+
+	@Test
+	public void testCreateJobs() {
+		assertNoCollectionScan(() -> jobRepository.findExistingJobIds(jobName, Arrays.asList("jobId0", "jobId9")));
+	}
+
+	@Test
+	public void testFindJobsAfter() {
+		assertNoCollectionScan(() -> {
+			List<Job> jobs = jobRepository.findJobsAfter(jobName, null, null, Sort.Direction.DESC, 2, null);
+			jobRepository.findJobsAfter(jobName, null, jobs.get(1).get_id(), Sort.Direction.DESC, 2, null);
+			jobRepository.findJobsAfter(jobName, JobState.READY, jobs.get(1).get_id(), Sort.Direction.ASC, 2, null);
+		});
+	}
+
+	@Test
+	public void testUpdateStateAndResetJobs() {
+		assertNoCollectionScan(() -> {
+			jobRepository.updateState(jobName, "jobId0", JobState.ERROR);
+			JobReset jobReset = new JobReset(jobName, JobState.ERROR, null, null, null, null);
+			jobReset.setResetTaskName(taskName);
+			jobRepository.resetJobs(jobReset, jobRepository.findJobsToReset(jobReset, null, 10));
+		});
+	}
+
+	@Test
+	public void testTaskHistoryMigration() {
+		mongoTemplate.updateFirst(query(where("jobName").is(jobName).and("jobId").is("jobId0")),
+				new Update().set("tasks", Collections.emptyList()), Job.class);
+		assertNoCollectionScan(() -> taskHistoryMigration.migrate());
+	}
+
+	// findAll(Sort) and countJobs have no filter, so they scan by design
+
+	private void assertNoCollectionScan(Runnable repositoryCall) {
+
+		commands.clear();
+		capturingThread = Thread.currentThread();
+		try {
+			repositoryCall.run();
+		} finally {
+			capturingThread = null;
+		}
+
+		List<BsonDocument> queryCommands = new ArrayList<>();
+		for (BsonDocument command : commands) {
+			if (QUERY_COMMANDS.contains(command.getFirstKey())) {
+				queryCommands.addAll(explainableCommands(command));
+			}
+		}
+		assertFalse("no queries captured", queryCommands.isEmpty());
+
+		for (BsonDocument command : queryCommands) {
+			Document explain = mongoTemplate.getDb()
+					.runCommand(new BsonDocument("explain", command).append("verbosity", new BsonString("queryPlanner")));
+			Document winningPlan = (Document) ((Document) explain.get("queryPlanner")).get("winningPlan");
+
+			assertFalse("COLLSCAN for " + command.toJson() + ": " + winningPlan.toJson(), hasStage(winningPlan, "COLLSCAN"));
+			assertTrue("no index used for " + command.toJson() + ": " + winningPlan.toJson(),
+					hasStage(winningPlan, "IXSCAN") || hasStage(winningPlan, "IDHACK"));
+		}
+	}
+
+	// the command without its session fields, one per statement as explain takes a single update or delete
+	private List<BsonDocument> explainableCommands(BsonDocument command) {
+
+		BsonDocument explainable = new BsonDocument();
+		command.forEach((key, value) -> {
+			if (!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+				explainable.append(key, value);
+			}
+		});
+
+		String statementsKey = explainable.containsKey("updates") ? "updates"
+				: explainable.containsKey("deletes") ? "deletes" : null;
+		if (statementsKey == null) {
+			return Collections.singletonList(explainable);
+		}
+		List<BsonDocument> explainables = new ArrayList<>();
+		for (BsonValue statement : explainable.getArray(statementsKey)) {
+			explainables.add(explainable.clone().append(statementsKey, new BsonArray(Collections.singletonList(statement))));
+		}
+		return explainables;
+	}
+
+	private boolean hasStage(Document plan, String stage) {
+
+		if (stage.equals(plan.getString("stage"))) {
+			return true;
+		}
+		Object inputStage = plan.get("inputStage");
+		if (inputStage instanceof Document && hasStage((Document) inputStage, stage)) {
+			return true;
+		}
+		Object inputStages = plan.get("inputStages");
+		if (inputStages instanceof Iterable) {
+			for (Object p : (Iterable<?>) inputStages) {
+				if (p instanceof Document && hasStage((Document) p, stage)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
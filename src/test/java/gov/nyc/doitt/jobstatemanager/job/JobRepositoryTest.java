@@ -2,19 +2,40 @@ package gov.nyc.doitt.jobstatemanager.job;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+import org.bson.Document;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
 import gov.nyc.doitt.jobstatemanager.test.BaseTest;
 
 @RunWith(SpringRunner.class)
@@ -26,6 +47,12 @@ public class JobRepositoryTest extends BaseTest {
 	@Autowired
 	private JobMockerUpper jobMockerUpper;
 
+	@Autowired
+	private TaskHistoryMigration taskHistoryMigration;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
 	private int maxBatchSize = 3;
 
 	@Test
@@ -77,4 +104,434 @@ public class JobRepositoryTest extends BaseTest {
 		}
 	}
 
+	@Test
+	public void whenManyWorkersClaimConcurrently_thenNoJobShouldBeClaimedTwice() throws Exception {
+
+		String jobName = "claimTestJob";
+		String taskName = "claimTestTask";
+		int numJobs = 200;
+		int numWorkers = 24;
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < numJobs; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			job.setNextTaskName(taskName);
+			jobs.add(job);
+		}
+		jobRepository.saveAll(jobs);
+
+		try {
+			Set<String> claimedJobIds = ConcurrentHashMap.newKeySet();
+			AtomicInteger duplicateClaims = new AtomicInteger();
+
+			ExecutorService executorService = Executors.newFixedThreadPool(numWorkers);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < numWorkers; i++) {
+				futures.add(executorService.submit(() -> {
+					List<Job> claimedJobs;
+					do {
+						claimedJobs = jobRepository.claimJobs(jobName, taskName, maxBatchSize, null);
+						claimedJobs.forEach(p -> {
+							if (!claimedJobIds.add(p.getJobId())) {
+								duplicateClaims.incrementAndGet();
+							}
+						});
+					} while (!claimedJobs.isEmpty());
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			executorService.shutdown();
+
+			assertEquals(0, duplicateClaims.get());
+			assertEquals(numJobs, claimedJobIds.size());
+
+			Job job = jobRepository.findByJobNameAndJobId(jobName, jobs.get(0).getJobId());
+			assertEquals(JobState.PROCESSING, job.getState());
+			assertEquals(1, job.getTaskCount());
+			assertEquals(taskName, job.getLastTask().getName());
+		} finally {
+			jobRepository.deleteAll(jobs);
+		}
+	}
+
+	@Test
+	public void whenLeaseIsExtended_thenExpiredResultShouldNotBeWritten() throws Exception {
+
+		String jobName = "leaseTestJob";
+		String taskName = "leaseTestTask";
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			job.setNextTaskName(taskName);
+			jobs.add(job);
+		}
+		jobRepository.saveAll(jobs);
+
+		try {
+			long now = System.currentTimeMillis();
+			List<Job> claimedJobs = jobRepository.claimJobs(jobName, taskName, jobs.size(), new Timestamp(now - 1000));
+			assertEquals(jobs.size(), claimedJobs.size());
+
+			// first worker is still alive
+			Set<String> extendedJobIds = jobRepository.extendLeases(jobName, taskName,
+					Arrays.asList(claimedJobs.get(0).getJobId()), new Timestamp(now + 60000));
+			assertEquals(1, extendedJobIds.size());
+
+			List<Job> expiredJobs = jobRepository.findByStateAndLeaseExpiresTimestampLessThan(JobState.PROCESSING,
+					new Timestamp(now), PageRequest.of(0, 100)).stream().filter(p -> p.getJobName().equals(jobName))
+					.collect(Collectors.toList());
+			assertEquals(1, expiredJobs.size());
+			assertEquals(claimedJobs.get(1).getJobId(), expiredJobs.get(0).getJobId());
+
+			// end both as expired, as if the heartbeat came after the sweeper read them
+			claimedJobs.forEach(p -> {
+				p.endTaskWithError(p.getLastTask(), "lease expired");
+				p.setState(JobState.READY);
+			});
+			Set<String> failedJobIds = jobRepository.saveTaskResults(taskName, claimedJobs, new Timestamp(now));
+			assertEquals(1, failedJobIds.size());
+			assertTrue(failedJobIds.contains(claimedJobs.get(0).getJobId()));
+
+			Job extendedJob = jobRepository.findByJobNameAndJobId(jobName, claimedJobs.get(0).getJobId());
+			assertEquals(JobState.PROCESSING, extendedJob.getState());
+			Job expiredJob = jobRepository.findByJobNameAndJobId(jobName, claimedJobs.get(1).getJobId());
+			assertEquals(JobState.READY, expiredJob.getState());
+			assertEquals(Integer.valueOf(1), expiredJob.getTaskErrorCounts().get(taskName));
+			assertNull(expiredJob.getLeaseExpiresTimestamp());
+		} finally {
+			jobRepository.deleteAll(jobs);
+		}
+	}
+
+	@Test
+	public void whenJobIsInsertedTwice_thenSecondInsertShouldFail() throws Exception {
+
+		String jobName = "insertTwiceTestJob";
+
+		Job job = jobMockerUpper.create(0);
+		job.setJobName(jobName);
+		Job sameJob = jobMockerUpper.create(0);
+		sameJob.setJobName(jobName);
+
+		try {
+			jobRepository.insert(job);
+			try {
+				jobRepository.insert(sameJob);
+				fail("second insert of jobName=" + jobName + ", jobId=" + job.getJobId() + " should fail");
+			} catch (DuplicateKeyException e) {
+				// expected, the unique jobName_jobId index rejects it
+			}
+		} finally {
+			jobRepository.deleteByJobNameAndJobId(jobName, job.getJobId());
+		}
+	}
+
+	@Test
+	public void whenJobsAreInserted_thenExistingJobsShouldBeReportedAndOthersInserted() throws Exception {
+
+		String jobName = "insertTestJob";
+
+		Job existingJob = jobMockerUpper.create(0);
+		existingJob.setJobName(jobName);
+		existingJob.setDescription("existing");
+		jobRepository.save(existingJob);
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			jobs.add(job);
+		}
+
+		try {
+			List<String> jobIds = jobs.stream().map(Job::getJobId).collect(Collectors.toList());
+			assertEquals(Collections.singleton(existingJob.getJobId()), jobRepository.findExistingJobIds(jobName, jobIds));
+
+			// the existing job is rejected by the unique index, the others are inserted
+			assertEquals(Collections.singletonMap(existingJob.getJobId(), "already exists"), jobRepository.insertJobs(jobs));
+			assertEquals(new HashSet<>(jobIds), jobRepository.findExistingJobIds(jobName, jobIds));
+			assertEquals("existing",
+					jobRepository.findByJobNameAndJobId(jobName, existingJob.getJobId()).getDescription());
+			assertEquals(JobState.READY, jobRepository.findByJobNameAndJobId(jobName, jobIds.get(3)).getState());
+		} finally {
+			jobs.forEach(p -> jobRepository.deleteByJobNameAndJobId(jobName, p.getJobId()));
+		}
+	}
+
+	@Test
+	public void whenStateIsUpdated_thenClaimShouldEnd() throws Exception {
+
+		String jobName = "updateStateTestJob";
+		String taskName = "updateStateTestTask";
+
+		Job job = jobMockerUpper.create(0);
+		job.setJobName(jobName);
+		job.setNextTaskName(taskName);
+		jobRepository.save(job);
+
+		try {
+			Job claimedJob = jobRepository.claimJobs(jobName, taskName, 1, new Timestamp(System.currentTimeMillis() + 60000))
+					.get(0);
+
+			// the job is returned as it was before the update
+			Job previousJob = jobRepository.updateState(jobName, job.getJobId(), JobState.READY);
+			assertEquals(JobState.PROCESSING, previousJob.getState());
+			assertEquals(job.getDescription(), previousJob.getDescription());
+			Job updatedJob = jobRepository.findByJobNameAndJobId(jobName, job.getJobId());
+			assertEquals(JobState.READY, updatedJob.getState());
+			assertNull(updatedJob.getLeaseExpiresTimestamp());
+			assertEquals(TaskState.PROCESSING, updatedJob.getLastTask().getState());
+
+			// the worker's result arrives after the job was reset by hand
+			claimedJob.getLastTask().endWithSuccess();
+			claimedJob.setState(JobState.COMPLETED);
+			assertEquals(1, jobRepository.saveTaskResults(taskName, Arrays.asList(claimedJob), null).size());
+			assertEquals(JobState.READY, jobRepository.findByJobNameAndJobId(jobName, job.getJobId()).getState());
+
+			assertNull(jobRepository.updateState(jobName, "noSuchJobId", JobState.READY));
+		} finally {
+			jobRepository.delete(job);
+			jobRepository.deleteTaskHistory(jobName, job.getJobId());
+		}
+	}
+
+	@Test
+	public void whenJobsArePagedAndStreamed_thenEachJobShouldComeOnceInCreationOrder() throws Exception {
+
+		String jobName = "pageTestJob";
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			jobs.add(jobRepository.save(job));
+		}
+
+		try {
+			for (Sort.Direction direction : Sort.Direction.values()) {
+				List<String> jobIds = new ArrayList<>();
+				String afterId = null;
+				List<Job> page;
+				do {
+					page = jobRepository.findJobsAfter(jobName, null, afterId, direction, 2, null);
+					page.forEach(p -> jobIds.add(p.getJobId()));
+					afterId = page.isEmpty() ? null : page.get(page.size() - 1).get_id();
+				} while (page.size() == 2);
+
+				List<String> expectedJobIds = jobs.stream().map(Job::getJobId).collect(Collectors.toList());
+				if (direction == Sort.Direction.DESC) {
+					Collections.reverse(expectedJobIds);
+				}
+				assertEquals(expectedJobIds, jobIds);
+			}
+
+			assertEquals(0, jobRepository.findJobsAfter(jobName, JobState.ERROR, null, Sort.Direction.ASC, 10, null).size());
+
+			List<String> streamedJobIds = new ArrayList<>();
+			try (CloseableIterator<Job> jobIterator = jobRepository.streamJobs(jobName, JobState.READY, Sort.Direction.ASC,
+					null)) {
+				jobIterator.forEachRemaining(p -> streamedJobIds.add(p.getJobId()));
+			}
+			assertEquals(jobs.stream().map(Job::getJobId).collect(Collectors.toList()), streamedJobIds);
+		} finally {
+			jobRepository.deleteAll(jobs);
+		}
+	}
+
+	@Test
+	public void whenTasksAreClaimedAndEnded_thenTaskHistoryShouldKeepEveryTask() throws Exception {
+
+		String jobName = "taskHistoryTestJob";
+		String taskName = "taskHistoryTestTask";
+
+		Job job = jobMockerUpper.create(0);
+		job.setJobName(jobName);
+		job.setNextTaskName(taskName);
+		jobRepository.save(job);
+
+		try {
+			// fail once, then complete
+			for (int i = 0; i < 2; i++) {
+				Job claimedJob = jobRepository.claimJobs(jobName, taskName, 1, null).get(0);
+				assertEquals(i + 1, claimedJob.getTaskCount());
+				if (i == 0) {
+					claimedJob.endTaskWithError(claimedJob.getLastTask(), "error");
+					claimedJob.setState(JobState.READY);
+				} else {
+					claimedJob.getLastTask().endWithSuccess();
+					claimedJob.setState(JobState.COMPLETED);
+				}
+				assertTrue(jobRepository.saveTaskResults(taskName, Arrays.asList(claimedJob), null).isEmpty());
+			}
+
+			// the job document only embeds its last task
+			Document document = mongoTemplate.findOne(query(where("_id").is(job.get_id())), Document.class, "job");
+			assertNull(document.get("tasks"));
+			assertEquals(TaskState.COMPLETED.name(), ((Document) document.get("lastTask")).get("state"));
+
+			Job savedJob = jobRepository.findByJobNameAndJobId(jobName, job.getJobId());
+			assertEquals(1, savedJob.getTotalErrorCountForTask(taskName));
+			jobRepository.loadTaskHistory(Arrays.asList(savedJob));
+			assertEquals(2, savedJob.getTasks().size());
+			assertEquals(TaskState.ERROR, savedJob.getTasks().get(0).getState());
+			assertEquals("error", savedJob.getTasks().get(0).getErrorReason());
+			assertEquals(TaskState.COMPLETED, savedJob.getTasks().get(1).getState());
+
+			// a view with the last task reads it from the job document only
+			Job projectedJob = jobRepository
+					.findJobs(jobName, null, Sort.by("_id"), JobView.of("summary", null, 1).getDocumentFields()).get(0);
+			assertNull(projectedJob.getDescription());
+			jobRepository.loadTaskHistory(Arrays.asList(projectedJob), 1);
+			assertEquals(1, projectedJob.getTasks().size());
+			assertEquals(TaskState.COMPLETED, projectedJob.getTasks().get(0).getState());
+			jobRepository.loadTaskHistory(Arrays.asList(projectedJob), 0);
+			assertTrue(projectedJob.getTasks().isEmpty());
+		} finally {
+			jobRepository.delete(job);
+			jobRepository.deleteTaskHistory(jobName, job.getJobId());
+		}
+	}
+
+	@Test
+	public void whenTaskEndWasNotWrittenToTaskHistory_thenNextClaimShouldWriteIt() throws Exception {
+
+		String jobName = "taskHistoryRepairTestJob";
+		String taskName = "taskHistoryRepairTestTask";
+
+		Job job = jobMockerUpper.create(0);
+		job.setJobName(jobName);
+		job.setNextTaskName(taskName);
+		jobRepository.save(job);
+
+		try {
+			Job claimedJob = jobRepository.claimJobs(jobName, taskName, 1, null).get(0);
+			claimedJob.endTaskWithError(claimedJob.getLastTask(), "error");
+			claimedJob.setState(JobState.READY);
+			assertTrue(jobRepository.saveTaskResults(taskName, Arrays.asList(claimedJob), null).isEmpty());
+
+			// as if the write of the task history entry had failed
+			mongoTemplate.updateFirst(query(where("jobName").is(jobName).and("jobId").is(job.getJobId()).and("seq").is(1)),
+					new Update().set("task.state", TaskState.PROCESSING.name()).unset("task.endTimestamp")
+							.unset("task.errorReason"),
+					TaskHistory.class);
+
+			claimedJob = jobRepository.claimJobs(jobName, taskName, 1, null).get(0);
+			assertEquals(2, claimedJob.getTaskCount());
+			jobRepository.loadTaskHistory(Arrays.asList(claimedJob));
+			assertEquals(2, claimedJob.getTasks().size());
+			assertEquals(TaskState.ERROR, claimedJob.getTasks().get(0).getState());
+			assertEquals("error", claimedJob.getTasks().get(0).getErrorReason());
+			assertNotNull(claimedJob.getTasks().get(0).getEndTimestamp());
+			assertEquals(TaskState.PROCESSING, claimedJob.getTasks().get(1).getState());
+		} finally {
+			jobRepository.delete(job);
+			jobRepository.deleteTaskHistory(jobName, job.getJobId());
+		}
+	}
+
+	@Test
+	public void whenJobsAreReset_thenTasksOfSelectedJobsShouldBeArchived() throws Exception {
+
+		String jobName = "resetTestJob";
+		String taskName = "resetTestTask";
+
+		List<Job> jobs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			job.setNextTaskName(taskName);
+			jobRepository.save(job);
+			jobs.add(job);
+		}
+
+		try {
+			// all fail, the last one is still READY to be retried
+			for (int i = 0; i < 3; i++) {
+				Job claimedJob = jobRepository.claimJobs(jobName, taskName, 1, null).get(0);
+				claimedJob.endTaskWithError(claimedJob.getLastTask(), "error");
+				claimedJob.setState(i < 2 ? JobState.ERROR : JobState.READY);
+				assertTrue(jobRepository.saveTaskResults(taskName, Arrays.asList(claimedJob), null).isEmpty());
+			}
+
+			JobReset jobReset = new JobReset(jobName, JobState.ERROR, null, null, null, Arrays.asList(taskName));
+			jobReset.setResetTaskName(taskName);
+			List<Job> selectedJobs = jobRepository.findJobsToReset(jobReset, null, 1);
+			assertEquals(1, selectedJobs.size());
+			// only _id, jobId, state and nextTaskName are read
+			assertEquals(JobState.ERROR, selectedJobs.get(0).getState());
+			assertNull(selectedJobs.get(0).getDescription());
+			selectedJobs.addAll(jobRepository.findJobsToReset(jobReset, selectedJobs.get(0).get_id(), 10));
+			assertEquals(2, selectedJobs.size());
+
+			Set<String> resetJobIds = jobRepository.resetJobs(jobReset, selectedJobs);
+			assertEquals(2, resetJobIds.size());
+			assertTrue(!resetJobIds.contains(jobs.get(2).getJobId()));
+			for (Job job : jobs) {
+				Job savedJob = jobRepository.findByJobNameAndJobId(jobName, job.getJobId());
+				jobRepository.loadTaskHistory(Arrays.asList(savedJob));
+				boolean reset = resetJobIds.contains(job.getJobId());
+				assertEquals(JobState.READY, savedJob.getState());
+				assertEquals(reset, savedJob.getLastTask().getArchived());
+				assertEquals(reset, savedJob.getTasks().get(0).getArchived());
+				assertEquals(reset ? 0 : 1, savedJob.getTotalErrorCountForTask(taskName));
+			}
+
+			// reset jobs no longer match
+			assertTrue(jobRepository.findJobsToReset(jobReset, null, 10).isEmpty());
+		} finally {
+			for (Job job : jobs) {
+				jobRepository.delete(job);
+				jobRepository.deleteTaskHistory(jobName, job.getJobId());
+			}
+		}
+	}
+
+	@Test
+	public void whenTasksAreEmbedded_thenMigrationShouldMoveThemToTaskHistory() throws Exception {
+
+		String taskName = "taskName0";
+		List<Job> jobs = jobMockerUpper.createList(2);
+		jobs.forEach(p -> p.setState(JobState.READY));
+		jobRepository.saveAll(jobs);
+
+		try {
+			// as written before the task history: all tasks embedded and no counters
+			for (int i = 0; i < jobs.size(); i++) {
+				List<Task> tasks = new ArrayList<>();
+				tasks.add(new Task(taskName));
+				tasks.get(0).endWithError("error");
+				tasks.add(new Task(taskName));
+				tasks.get(1).setArchived(i == 1);
+				tasks.get(0).setArchived(i == 1);
+				mongoTemplate.updateFirst(query(where("_id").is(jobs.get(i).get_id())),
+						new Update().set("tasks", tasks).unset("lastTask").unset("taskCount").unset("taskErrorCounts"), Job.class);
+			}
+
+			// not claimed until migrated, as the claimed task would be missing from the embedded ones
+			assertTrue(jobRepository.claimJobs(jobs.get(0).getJobName(), jobs.get(0).getNextTaskName(), 1, null).isEmpty());
+
+			assertTrue(taskHistoryMigration.migrate() >= 2);
+
+			Document document = mongoTemplate.findOne(query(where("_id").is(jobs.get(0).get_id())), Document.class, "job");
+			assertNull(document.get("tasks"));
+			assertEquals(2, document.get("taskCount"));
+			assertEquals(1, ((Document) document.get("taskErrorCounts")).get(taskName));
+			document = mongoTemplate.findOne(query(where("_id").is(jobs.get(1).get_id())), Document.class, "job");
+			assertTrue(((Document) document.get("taskErrorCounts")).isEmpty());
+
+			Job job = jobRepository.findByJobNameAndJobId(jobs.get(0).getJobName(), jobs.get(0).getJobId());
+			assertEquals(TaskState.PROCESSING, job.getLastTask().getState());
+			jobRepository.loadTaskHistory(Arrays.asList(job));
+			assertEquals(2, job.getTasks().size());
+			assertEquals(TaskState.ERROR, job.getTasks().get(0).getState());
+		} finally {
+			jobRepository.deleteAll(jobs);
+			jobs.forEach(p -> jobRepository.deleteTaskHistory(p.getJobName(), p.getJobId()));
+		}
+	}
+
 }
@@ -22,7 +22,7 @@ public class JobServiceTest extends BaseTest {
 	private JobMockerUpper JobMockerUpper;
 
 	@Mock
-	private JobRepository jobRepository;
+	private JobStore jobStore;
 
 	@Mock
 	private JobConfigService jobConfigService;
@@ -0,0 +1,114 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import gov.nyc.doitt.jobstatemanager.test.BaseTest;
+
+@RunWith(SpringRunner.class)
+public class JobStatsServiceTest extends BaseTest {
+
+	@Autowired
+	private JobStatsService jobStatsService;
+
+	@Autowired
+	private JobRepository jobRepository;
+
+	@Autowired
+	private JobMockerUpper jobMockerUpper;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Test
+	public void whenJobsAreCountedAndReconciled_thenStatsShouldMatchJobs() throws Exception {
+
+		String jobName = "statsTestJob";
+		String taskName = "statsTestTask";
+
+		for (int i = 0; i < 3; i++) {
+			Job job = jobMockerUpper.create(i);
+			job.setJobName(jobName);
+			job.setNextTaskName(taskName);
+			jobRepository.save(job);
+		}
+
+		try {
+			// jobs saved directly are only counted by reconcile
+			jobStatsService.reconcile();
+			assertEquals(Long.valueOf(3), getCounts(jobName).get(JobState.READY));
+
+			// transitions are counted before they are flushed
+			jobStatsService.move(jobName, taskName, JobState.READY, taskName, JobState.PROCESSING, 1);
+			Map<JobState, Long> counts = getCounts(jobName);
+			assertEquals(Long.valueOf(2), counts.get(JobState.READY));
+			assertEquals(Long.valueOf(1), counts.get(JobState.PROCESSING));
+
+			jobStatsService.flush();
+			assertEquals(1, mongoTemplate
+					.findOne(query(where("jobName").is(jobName).and("state").is(JobState.PROCESSING)), JobStats.class)
+					.getCount());
+			assertEquals(counts, getCounts(jobName));
+
+			// the jobs were not claimed, so reconcile corrects the counts
+			jobStatsService.reconcile();
+			counts = getCounts(jobName);
+			assertEquals(1, counts.size());
+			assertEquals(Long.valueOf(3), counts.get(JobState.READY));
+
+		} finally {
+			mongoTemplate.remove(query(where("jobName").is(jobName)), Job.class);
+			jobStatsService.reconcile();
+		}
+		assertTrue(jobStatsService.getStats(jobName).isEmpty());
+	}
+
+	@Test
+	public void whenAnotherInstanceHoldsTheLock_thenReconciledOnceItExpires() throws Exception {
+
+		String jobName = "statsLockTestJob";
+		Job job = jobMockerUpper.create(0);
+		job.setJobName(jobName);
+		jobRepository.save(job);
+
+		mongoTemplate.upsert(query(where("_id").is("reconcile")), new Update().set("owner", "otherInstance")
+				.set("lockedUntil", new Date(System.currentTimeMillis() + 60000)), "jobStatsLock");
+		try {
+			jobStatsService.reconcile();
+			assertTrue(jobStatsService.getStats(jobName).isEmpty());
+
+			mongoTemplate.updateFirst(query(where("_id").is("reconcile")),
+					new Update().set("lockedUntil", new Date(System.currentTimeMillis() - 1000)), "jobStatsLock");
+			jobStatsService.reconcile();
+			assertEquals(Long.valueOf(1), getCounts(jobName).get(JobState.READY));
+			assertNull(mongoTemplate.findById("reconcile", Document.class, "jobStatsLock").get("barrier"));
+
+		} finally {
+			mongoTemplate.remove(query(where("jobName").is(jobName)), Job.class);
+			jobStatsService.reconcile();
+		}
+	}
+
+	private Map<JobState, Long> getCounts(String jobName) {
+
+		List<JobStats> jobStats = jobStatsService.getStats(jobName);
+		return jobStats.stream().collect(Collectors.toMap(JobStats::getState, JobStats::getCount));
+	}
+
+}
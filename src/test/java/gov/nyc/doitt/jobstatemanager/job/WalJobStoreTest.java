@@ -0,0 +1,271 @@
+package gov.nyc.doitt.jobstatemanager.job;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigMockerUpper;
+import gov.nyc.doitt.jobstatemanager.task.Task;
+import gov.nyc.doitt.jobstatemanager.task.TaskState;
+
+/**
+ * WalJobStore keeps its jobs in a directory, so it is tested without an application context, reopening it on the same
+ * directory
+ */
+public class WalJobStoreTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private JobMockerUpper jobMockerUpper = new JobMockerUpper();
+
+	private WalJobStore jobStore;
+
+	private String taskName = "task0";
+
+	@Before
+	public void setUp() throws Exception {
+		jobStore = open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		jobStore.close();
+	}
+
+	@Test
+	public void whenReopened_thenJobsAndTaskHistoryRecovered() throws Exception {
+
+		insertJobs(3);
+		List<Job> claimedJobs = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 2, null);
+		Job job = claimedJobs.get(0);
+		job.getLastTask(taskName).endWithSuccess();
+		job.setState(JobState.READY);
+		job.setNextTaskName("task1");
+		assertTrue(jobStore.saveTaskResults(taskName, Collections.singletonList(job), null).isEmpty());
+		jobStore.deleteByJobNameAndJobId(jobMockerUpper.jobName, "jobId2");
+
+		reopen();
+
+		job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		assertEquals(JobState.READY, job.getState());
+		assertEquals("task1", job.getNextTaskName());
+		jobStore.loadTaskHistory(Collections.singletonList(job));
+		assertEquals(1, job.getTasks().size());
+		assertEquals(TaskState.COMPLETED, job.getTasks().get(0).getState());
+
+		// still claimed, under the same token
+		Job claimedJob = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId1");
+		assertEquals(JobState.PROCESSING, claimedJob.getState());
+		assertEquals(claimedJobs.get(1).getTransitionToken(), claimedJob.getTransitionToken());
+
+		assertNull(jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId2"));
+
+		// _ids go on from the recovered ones
+		Job newJob = jobMockerUpper.create(3);
+		newJob.setNextTaskName(taskName);
+		jobStore.insert(newJob);
+		assertTrue(newJob.get_id().compareTo(claimedJob.get_id()) > 0);
+	}
+
+	@Test
+	public void whenSnapshotted_thenRecoveredFromSnapshotAndLaterLog() throws Exception {
+
+		insertJobs(3);
+		jobStore.snapshot();
+		assertTrue(new File(temporaryFolder.getRoot(), WalSnapshot.FILE_NAME).exists());
+
+		assertEquals(1, jobStore.claimJobs(jobMockerUpper.jobName, taskName, 1, null).size());
+		jobStore.deleteByJobNameAndJobId(jobMockerUpper.jobName, "jobId2");
+
+		reopen();
+
+		List<Job> jobs = jobStore.findAll(Sort.by("jobId"));
+		assertEquals(Arrays.asList("jobId0", "jobId1"), jobs.stream().map(Job::getJobId).collect(Collectors.toList()));
+		assertEquals(JobState.PROCESSING, jobs.get(0).getState());
+		assertEquals(JobState.READY, jobs.get(1).getState());
+
+		// the log before the snapshot is deleted by the next one
+		jobStore.snapshot();
+		reopen();
+		assertEquals(2, jobStore.findAll(Sort.unsorted()).size());
+		assertEquals(1, temporaryFolder.getRoot().list((dir, name) -> name.endsWith(".log")).length);
+	}
+
+	@Test
+	public void whenTaskHistorySnapshotted_thenArchivedTasksRecovered() throws Exception {
+
+		insertJobs(1);
+		Job job = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 1, null).get(0);
+		job.endTaskWithError(job.getLastTask(taskName), "error");
+		job.setState(JobState.ERROR);
+		assertTrue(jobStore.saveTaskResults(taskName, Collections.singletonList(job), null).isEmpty());
+
+		JobReset jobReset = new JobReset(jobMockerUpper.jobName, JobState.ERROR, null, null, null, null);
+		jobReset.setResetTaskName(taskName);
+		assertEquals(1, jobStore.resetJobs(jobReset, jobStore.findJobsToReset(jobReset, null, 10)).size());
+
+		job = jobStore.claimJobs(jobMockerUpper.jobName, taskName, 1, null).get(0);
+		job.getLastTask(taskName).endWithSuccess();
+		job.setState(JobState.COMPLETED);
+		assertTrue(jobStore.saveTaskResults(taskName, Collections.singletonList(job), null).isEmpty());
+
+		jobStore.snapshot();
+		reopen();
+
+		job = jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+		jobStore.loadTaskHistory(Collections.singletonList(job));
+		assertEquals(2, job.getTasks().size());
+		assertEquals(TaskState.ERROR, job.getTasks().get(0).getState());
+		assertTrue(job.getTasks().get(0).getArchived());
+		assertEquals(TaskState.COMPLETED, job.getTasks().get(1).getState());
+		assertFalse(job.getTasks().get(1).getArchived());
+
+		jobStore.loadTaskHistory(Collections.singletonList(job), 1);
+		assertEquals(Collections.singletonList(TaskState.COMPLETED),
+				job.getTasks().stream().map(Task::getState).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void whenJobConfigsSaved_thenRecoveredWithTheJobs() throws Exception {
+
+		JobConfigMockerUpper jobConfigMockerUpper = new JobConfigMockerUpper();
+		jobStore.save(jobConfigMockerUpper.create("job0"));
+		jobStore.save(jobConfigMockerUpper.create("job1"));
+		jobStore.deleteByJobName("job1");
+		jobStore.snapshot();
+
+		// changed through a copy, so only by the save
+		JobConfig jobConfig = jobStore.findByJobName("job0");
+		jobConfig.setDescription("changed");
+		jobConfig.getTaskConfigs().get(0).setLeaseSeconds(60);
+		assertEquals("descriptionjob0", jobStore.findByJobName("job0").getDescription());
+		jobStore.save(jobConfig);
+		jobStore.save(jobConfigMockerUpper.create("job2"));
+
+		reopen();
+
+		assertEquals(Arrays.asList("job0", "job2"), jobStore.findAllByOrderByJobNameAsc().stream()
+				.map(JobConfig::getJobName).collect(Collectors.toList()));
+		jobConfig = jobStore.findByJobName("job0");
+		assertEquals("changed", jobConfig.getDescription());
+		assertEquals(3, jobConfig.getTaskConfigs().size());
+		assertEquals(60, jobConfig.getTaskConfigs().get(0).getLeaseSeconds());
+		assertEquals(JobConfigMockerUpper.NON_ADMIN_AUTH_TOKEN, jobConfig.getAuthToken());
+		assertFalse(jobStore.existsByJobName("job1"));
+	}
+
+	@Test
+	public void whenAuthTokenDigestUpdated_thenOnlyForTheCheckedAuthToken() throws Exception {
+
+		jobStore.save(new JobConfigMockerUpper().create("job0"));
+
+		assertTrue(jobStore.updateAuthTokenDigest("job0", JobConfigMockerUpper.NON_ADMIN_AUTH_TOKEN, "digest"));
+		assertFalse(jobStore.updateAuthTokenDigest("job0", "changedAuthToken", "otherDigest"));
+		assertFalse(jobStore.updateAuthTokenDigest("job1", JobConfigMockerUpper.NON_ADMIN_AUTH_TOKEN, "otherDigest"));
+
+		reopen();
+
+		JobConfig jobConfig = jobStore.findByJobName("job0");
+		assertEquals("digest", jobConfig.getAuthTokenDigest());
+		assertEquals(JobConfigMockerUpper.NON_ADMIN_AUTH_TOKEN, jobConfig.getAuthToken());
+	}
+
+	@Test
+	public void whenLogEndsWithTornRecord_thenRecordDropped() throws Exception {
+
+		insertJobs(2);
+		jobStore.close();
+
+		// a frame cut short by a crash
+		File[] segments = temporaryFolder.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+		assertEquals(1, segments.length);
+		Files.write(segments[0].toPath(), ByteBuffer.allocate(6).putInt(100).array(), StandardOpenOption.APPEND);
+
+		jobStore = open();
+		assertEquals(2, jobStore.findAll(Sort.unsorted()).size());
+
+		insertJobs(3);
+		reopen();
+		assertEquals(3, jobStore.findAll(Sort.unsorted()).size());
+		assertFalse(jobStore.claimJobs(jobMockerUpper.jobName, taskName, 3, null).isEmpty());
+	}
+
+	@Test
+	public void whenLogWriteFails_thenEveryOperationFailsUntilReopened() throws Exception {
+
+		insertJobs(1);
+
+		// the segment closed under the log fails its next write
+		Object writeAheadLog = ReflectionTestUtils.getField(jobStore, "writeAheadLog");
+		((FileChannel) ReflectionTestUtils.getField(writeAheadLog, "channel")).close();
+		try {
+			jobStore.claimJobs(jobMockerUpper.jobName, taskName, 1, null);
+			fail("JobStateManagerException expected");
+		} catch (JobStateManagerException e) {
+			// expected
+		}
+
+		// the claim is in memory, but not in the log, so it can't be read
+		try {
+			jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0");
+			fail("JobStateManagerException expected");
+		} catch (JobStateManagerException e) {
+			// expected
+		}
+
+		reopen();
+		assertEquals(JobState.READY, jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId0").getState());
+	}
+
+	private WalJobStore open() throws Exception {
+
+		WalJobStore walJobStore = new WalJobStore();
+		ReflectionTestUtils.setField(walJobStore, "dir", temporaryFolder.getRoot().getPath());
+		ReflectionTestUtils.setField(walJobStore, "fsync", true);
+		walJobStore.open();
+		return walJobStore;
+	}
+
+	private void reopen() throws Exception {
+
+		jobStore.close();
+		jobStore = open();
+	}
+
+	// jobs after those already inserted, up to jobCount
+	private void insertJobs(int jobCount) throws Exception {
+
+		for (int i = 0; i < jobCount; i++) {
+			if (jobStore.findByJobNameAndJobId(jobMockerUpper.jobName, "jobId" + i) != null) {
+				continue;
+			}
+			Job job = jobMockerUpper.create(i);
+			job.setNextTaskName(taskName);
+			jobStore.insert(job);
+		}
+	}
+
+}
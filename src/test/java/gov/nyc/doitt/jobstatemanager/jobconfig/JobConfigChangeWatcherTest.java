@@ -0,0 +1,98 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assume.assumeTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import gov.nyc.doitt.jobstatemanager.test.BaseTest;
+
+/**
+ * Writes JobConfigs behind JobConfigService's back, as another instance would, and waits for the cached plan to be
+ * evicted. The change stream test needs a replica set, e.g. a local single node one started with --replSet
+ */
+@RunWith(SpringRunner.class)
+public class JobConfigChangeWatcherTest extends BaseTest {
+
+	private static final long MAX_WAIT_MS = 20000;
+
+	@Autowired
+	private JobConfigService jobConfigService;
+
+	@Autowired
+	private JobConfigChangeWatcher jobConfigChangeWatcher;
+
+	@Autowired
+	private JobConfigRepository jobConfigRepository;
+
+	@Autowired
+	private JobConfigMockerUpper jobConfigMockerUpper;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	private String jobName = "changeWatcherTestJob";
+
+	@Before
+	public void setUp() throws Exception {
+		jobConfigRepository.save(jobConfigMockerUpper.create(jobName));
+	}
+
+	@After
+	public void tearDown() {
+		jobConfigService.deleteJobConfig(jobName);
+	}
+
+	@Test
+	public void whenPeerUpdatesJobConfig_thenPlanShouldBeEvicted() throws Exception {
+
+		JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+
+		// what JobConfigService on another instance does
+		mongoTemplate.updateFirst(query(where("jobName").is(jobName)), new Update().set("taskConfigs.0.maxBatchSize", 7),
+				JobConfig.class);
+		jobConfigChangeWatcher.incrementVersion();
+
+		JobConfigPlan newJobConfigPlan = waitForNewPlan(jobConfigPlan);
+		assertEquals(7, newJobConfigPlan.getFirstTaskConfig().getMaxBatchSize());
+	}
+
+	@Test
+	public void whenJobConfigChangesWithoutVersion_thenChangeStreamShouldEvictPlan() throws Exception {
+
+		Document isMaster = mongoTemplate.getDb().runCommand(new Document("isMaster", 1));
+		assumeTrue("change streams need a replica set", isMaster.containsKey("setName"));
+
+		JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+
+		mongoTemplate.updateFirst(query(where("jobName").is(jobName)), new Update().set("taskConfigs.0.maxBatchSize", 8),
+				JobConfig.class);
+
+		JobConfigPlan newJobConfigPlan = waitForNewPlan(jobConfigPlan);
+		assertEquals(8, newJobConfigPlan.getFirstTaskConfig().getMaxBatchSize());
+	}
+
+	private JobConfigPlan waitForNewPlan(JobConfigPlan jobConfigPlan) throws InterruptedException {
+
+		long endMs = System.currentTimeMillis() + MAX_WAIT_MS;
+		JobConfigPlan newJobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+		while (newJobConfigPlan == jobConfigPlan && System.currentTimeMillis() < endMs) {
+			Thread.sleep(100);
+			newJobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+		}
+		assertNotSame("plan not evicted within " + MAX_WAIT_MS + " ms", jobConfigPlan, newJobConfigPlan);
+		return newJobConfigPlan;
+	}
+
+}
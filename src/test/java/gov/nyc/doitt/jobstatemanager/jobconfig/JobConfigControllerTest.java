@@ -1,6 +1,9 @@
 package gov.nyc.doitt.jobstatemanager.jobconfig;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
@@ -57,7 +60,7 @@ public class JobConfigControllerTest extends BaseTest {
 	private JobAuthorizer jobAuthorizer;
 
 	// mocking/unmocking of this bean is done explicitly below
-	private JobConfigRepository jobConfigRepository;
+	private JobConfigStore jobConfigStore;
 
 	private MockMvc mockMvc;
 
@@ -71,7 +74,7 @@ public class JobConfigControllerTest extends BaseTest {
 	public void setUp() {
 		this.mockMvc = MockMvcBuilders.webAppContextSetup(getWac()).apply(springSecurity()).build();
 
-		jobConfigRepository = mock(JobConfigRepository.class);
+		jobConfigStore = mock(JobConfigStore.class);
 		MockitoAnnotations.initMocks(this);
 
 		httpHeaders = new HttpHeaders();
@@ -80,9 +83,9 @@ public class JobConfigControllerTest extends BaseTest {
 	@After
 	public void tearDown() throws Exception {
 
-		// put back real JobConfigRepository bean into JobConfigService
-		jobConfigRepository = getApplicationContext().getBean(JobConfigRepository.class);
-		ReflectionTestUtils.setField(jobConfigService, "jobConfigRepository", jobConfigRepository);
+		// put back real JobConfigStore bean into JobConfigService
+		jobConfigStore = getApplicationContext().getBean(JobConfigStore.class);
+		ReflectionTestUtils.setField(jobConfigService, "jobConfigStore", jobConfigStore);
 	}
 
 	@Test
@@ -92,13 +95,13 @@ public class JobConfigControllerTest extends BaseTest {
 
 		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
 
-		when(jobConfigRepository.existsByJobName(jobConfigDto.getJobName())).thenReturn(false);
+		when(jobConfigStore.existsByJobName(jobConfigDto.getJobName())).thenReturn(false);
 
 		mockMvc.perform(post(getContextRoot() + "/jobConfigs").headers(httpHeaders).contextPath(getContextRoot())
 				.contentType(MediaType.APPLICATION_JSON).content(asJsonString(jobConfigDto))).andDo(print())
 				.andExpect(status().isOk()).andExpect(jsonPath("$.jobName").value(jobConfigDto.getJobName()));
 
-		verify(jobConfigRepository).save(any(JobConfig.class));
+		verify(jobConfigStore).save(any(JobConfig.class));
 	}
 
 	@Test
@@ -108,7 +111,7 @@ public class JobConfigControllerTest extends BaseTest {
 
 		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
 
-		when(jobConfigRepository.existsByJobName(jobConfigDto.getJobName())).thenReturn(false);
+		when(jobConfigStore.existsByJobName(jobConfigDto.getJobName())).thenReturn(false);
 
 		ResultActions resultActions = mockMvc
 				.perform(post(getContextRoot() + "/jobConfigs").headers(httpHeaders).contextPath(getContextRoot())
@@ -118,7 +121,7 @@ public class JobConfigControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobConfigRepository, times(0)).save(any(JobConfig.class));
+		verify(jobConfigStore, times(0)).save(any(JobConfig.class));
 	}
 
 	@Test
@@ -128,7 +131,7 @@ public class JobConfigControllerTest extends BaseTest {
 
 		List<JobConfig> jobConfigs = jobConfigMockerUpper.createList(5);
 
-		when(jobConfigRepository.findAllByOrderByJobNameAsc()).thenReturn(jobConfigs);
+		when(jobConfigStore.findAllByOrderByJobNameAsc()).thenReturn(jobConfigs);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobConfigs").headers(httpHeaders).contextPath(getContextRoot())).andDo(print())
@@ -145,7 +148,7 @@ public class JobConfigControllerTest extends BaseTest {
 			assertEquals(jobConfig.getJobName(), jobConfigDto.getJobName());
 		}
 
-		verify(jobConfigRepository).findAllByOrderByJobNameAsc();
+		verify(jobConfigStore).findAllByOrderByJobNameAsc();
 	}
 
 	@Test
@@ -155,7 +158,7 @@ public class JobConfigControllerTest extends BaseTest {
 
 		List<JobConfig> jobConfigs = jobConfigMockerUpper.createList(5);
 
-		when(jobConfigRepository.findAllByOrderByJobNameAsc()).thenReturn(jobConfigs);
+		when(jobConfigStore.findAllByOrderByJobNameAsc()).thenReturn(jobConfigs);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobConfigs").headers(httpHeaders).contextPath(getContextRoot())).andDo(print())
@@ -164,7 +167,7 @@ public class JobConfigControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobConfigRepository, times(0)).findAllByOrderByJobNameAsc();
+		verify(jobConfigStore, times(0)).findAllByOrderByJobNameAsc();
 	}
 
 	@Test
@@ -175,8 +178,8 @@ public class JobConfigControllerTest extends BaseTest {
 		JobConfig jobConfig = jobConfigMockerUpper.create("myJob1");
 		String jobName = jobConfig.getJobName();
 
-		when(jobConfigRepository.existsByJobName(eq(jobName))).thenReturn(true);
-		when(jobConfigRepository.findByJobName(eq(jobName))).thenReturn(jobConfig);
+		when(jobConfigStore.existsByJobName(eq(jobName))).thenReturn(true);
+		when(jobConfigStore.findByJobName(eq(jobName))).thenReturn(jobConfig);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobConfigs/" + jobName).headers(httpHeaders).contextPath(getContextRoot()))
@@ -185,7 +188,7 @@ public class JobConfigControllerTest extends BaseTest {
 		String content = resultActions.andReturn().getResponse().getContentAsString();
 		JobConfigDto jobConfigDto = jobConfigDtoJsonAsObject(content);
 		assertEquals(jobConfig.getJobName(), jobConfigDto.getJobName());
-		verify(jobConfigRepository).findByJobName(eq(jobName));
+		verify(jobConfigStore).findByJobName(eq(jobName));
 	}
 
 	@Test
@@ -196,8 +199,8 @@ public class JobConfigControllerTest extends BaseTest {
 		JobConfig jobConfig = jobConfigMockerUpper.create("myJob1");
 		String jobName = jobConfig.getJobName();
 
-		when(jobConfigRepository.existsByJobName(eq(jobName))).thenReturn(true);
-		when(jobConfigRepository.findByJobName(eq(jobName))).thenReturn(jobConfig);
+		when(jobConfigStore.existsByJobName(eq(jobName))).thenReturn(true);
+		when(jobConfigStore.findByJobName(eq(jobName))).thenReturn(jobConfig);
 
 		ResultActions resultActions = mockMvc
 				.perform(get(getContextRoot() + "/jobConfigs/" + jobName).headers(httpHeaders).contextPath(getContextRoot()))
@@ -206,7 +209,7 @@ public class JobConfigControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobConfigRepository, times(0)).findByJobName(eq(jobName));
+		verify(jobConfigStore, times(0)).findByJobName(eq(jobName));
 	}
 
 	@Test
@@ -217,14 +220,41 @@ public class JobConfigControllerTest extends BaseTest {
 		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
 		JobConfig jobConfig = jobConfigMockerUpper.create();
 
-		when(jobConfigRepository.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
-		when(jobConfigRepository.findByJobName(eq(jobConfigDto.getJobName()))).thenReturn(jobConfig);
+		when(jobConfigStore.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
+		when(jobConfigStore.findByJobName(eq(jobConfigDto.getJobName()))).thenReturn(jobConfig);
 
 		mockMvc.perform(put(getContextRoot() + "/jobConfigs/" + jobConfigDto.getJobName()).headers(httpHeaders)
 				.contextPath(getContextRoot()).contentType(MediaType.APPLICATION_JSON).content(asJsonString(jobConfigDto)))
 				.andDo(print()).andExpect(status().isOk()).andExpect(jsonPath("$.jobName").value(jobConfigDto.getJobName()));
 
-		verify(jobConfigRepository).save(any(JobConfig.class));
+		verify(jobConfigStore).save(any(JobConfig.class));
+	}
+
+	@Test
+	public void testUpdate_succeedAdminRecompilesJobConfigPlan() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + ADMIN_AUTH_TOKEN);
+
+		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
+		String jobName = "planTestJob";
+		jobConfigDto.setJobName(jobName);
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+
+		when(jobConfigStore.existsByJobName(eq(jobName))).thenReturn(true);
+		when(jobConfigStore.findByJobName(eq(jobName))).thenReturn(jobConfig);
+
+		// compiled once, then served from memory
+		JobConfigPlan jobConfigPlan = jobConfigService.getJobConfigPlan(jobName);
+		assertEquals(jobConfig.getTaskConfigs().get(1).getName(),
+				jobConfigPlan.getNextTaskConfig(jobConfig.getTaskConfigs().get(0).getName()).getName());
+		assertNull(jobConfigPlan.getNextTaskConfig(jobConfig.getTaskConfigs().get(2).getName()));
+		assertSame(jobConfigPlan, jobConfigService.getJobConfigPlan(jobName));
+		verify(jobConfigStore, times(1)).findByJobName(eq(jobName));
+
+		mockMvc.perform(put(getContextRoot() + "/jobConfigs/" + jobName).headers(httpHeaders).contextPath(getContextRoot())
+				.contentType(MediaType.APPLICATION_JSON).content(asJsonString(jobConfigDto))).andExpect(status().isOk());
+
+		assertNotSame(jobConfigPlan, jobConfigService.getJobConfigPlan(jobName));
 	}
 
 	@Test
@@ -235,8 +265,8 @@ public class JobConfigControllerTest extends BaseTest {
 		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
 		JobConfig jobConfig = jobConfigMockerUpper.create();
 
-		when(jobConfigRepository.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
-		when(jobConfigRepository.findByJobName(eq(jobConfigDto.getJobName()))).thenReturn(jobConfig);
+		when(jobConfigStore.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
+		when(jobConfigStore.findByJobName(eq(jobConfigDto.getJobName()))).thenReturn(jobConfig);
 
 		ResultActions resultActions = mockMvc
 				.perform(put(getContextRoot() + "/jobConfigs/" + jobConfigDto.getJobName()).headers(httpHeaders)
@@ -246,7 +276,7 @@ public class JobConfigControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobConfigRepository, times(0)).save(any(JobConfig.class));
+		verify(jobConfigStore, times(0)).save(any(JobConfig.class));
 	}
 
 	@Test
@@ -256,12 +286,12 @@ public class JobConfigControllerTest extends BaseTest {
 
 		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
 
-		when(jobConfigRepository.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
+		when(jobConfigStore.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
 
 		mockMvc.perform(delete(getContextRoot() + "/jobConfigs/" + jobConfigDto.getJobName()).headers(httpHeaders)
 				.contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk());
 
-		verify(jobConfigRepository).deleteByJobName(eq(jobConfigDto.getJobName()));
+		verify(jobConfigStore).deleteByJobName(eq(jobConfigDto.getJobName()));
 	}
 
 	@Test
@@ -271,7 +301,7 @@ public class JobConfigControllerTest extends BaseTest {
 
 		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create();
 
-		when(jobConfigRepository.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
+		when(jobConfigStore.existsByJobName(eq(jobConfigDto.getJobName()))).thenReturn(true);
 
 		ResultActions resultActions = mockMvc
 				.perform(delete(getContextRoot() + "/jobConfigs/" + jobConfigDto.getJobName()).headers(httpHeaders)
@@ -281,7 +311,7 @@ public class JobConfigControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobConfigRepository, times(0)).deleteByJobName(eq(jobConfigDto.getJobName()));
+		verify(jobConfigStore, times(0)).deleteByJobName(eq(jobConfigDto.getJobName()));
 	}
 
 	private List<JobConfigDto> jobConfigDtosJsonAsObject(String json) {
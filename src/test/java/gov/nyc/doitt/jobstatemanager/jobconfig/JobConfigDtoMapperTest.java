@@ -0,0 +1,97 @@
+package gov.nyc.doitt.jobstatemanager.jobconfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import gov.nyc.doitt.jobstatemanager.security.Encryptor;
+
+/**
+ * JobConfigDtoMapper needs no MongoDB, so it is tested without an application context
+ */
+public class JobConfigDtoMapperTest {
+
+	private JobConfigDtoMockerUpper jobConfigDtoMockerUpper = new JobConfigDtoMockerUpper();
+
+	private Encryptor encryptor;
+
+	private JobConfigDtoMapper jobConfigDtoMapper;
+
+	@Before
+	public void setUp() {
+
+		StandardPBEStringEncryptor standardPBEStringEncryptor = new StandardPBEStringEncryptor();
+		standardPBEStringEncryptor.setPassword("jasypt");
+		encryptor = new Encryptor();
+		ReflectionTestUtils.setField(encryptor, "standardPBEStringEncryptor", standardPBEStringEncryptor);
+		ReflectionTestUtils.setField(encryptor, "digestKey", "digestKey");
+
+		jobConfigDtoMapper = new JobConfigDtoMapper();
+		ReflectionTestUtils.setField(jobConfigDtoMapper, "taskConfigDtoMapper", new TaskConfigDtoMapper());
+		ReflectionTestUtils.setField(jobConfigDtoMapper, "encryptor", encryptor);
+	}
+
+	@Test
+	public void whenJobConfigDtoMappedToJobConfigAndBack_thenItsPropertiesAreKept() throws Exception {
+
+		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create("myJob");
+		jobConfigDto.setAuthToken("authToken");
+		for (TaskConfigDto taskConfigDto : jobConfigDto.getTaskConfigDtos()) {
+			taskConfigDto.setLeaseSeconds(taskConfigDto.getMaxBatchSize() * 10);
+		}
+
+		JobConfig jobConfig = jobConfigDtoMapper.fromDto(jobConfigDto);
+		assertNotEquals("authToken", jobConfig.getAuthToken());
+		assertEquals("authToken", encryptor.decrypt(jobConfig.getAuthToken()));
+		assertTrue(encryptor.matchesDigest("authToken", jobConfig.getAuthTokenDigest()));
+
+		JobConfigDto mappedJobConfigDto = jobConfigDtoMapper.toDto(jobConfig);
+		assertEquals(jobConfigDto.getJobName(), mappedJobConfigDto.getJobName());
+		assertEquals(jobConfigDto.getDescription(), mappedJobConfigDto.getDescription());
+		assertEquals(jobConfigDto.getNotifyEmail(), mappedJobConfigDto.getNotifyEmail());
+		assertEquals(jobConfig.getCreatedTimestamp(), mappedJobConfigDto.getCreatedTimestamp());
+		// stays encrypted
+		assertEquals(jobConfig.getAuthToken(), mappedJobConfigDto.getAuthToken());
+
+		List<TaskConfigDto> taskConfigDtos = jobConfigDto.getTaskConfigDtos();
+		List<TaskConfigDto> mappedTaskConfigDtos = mappedJobConfigDto.getTaskConfigDtos();
+		assertEquals(taskConfigDtos.size(), mappedTaskConfigDtos.size());
+		for (int i = 0; i < taskConfigDtos.size(); i++) {
+			TaskConfigDto taskConfigDto = taskConfigDtos.get(i);
+			TaskConfigDto mappedTaskConfigDto = mappedTaskConfigDtos.get(i);
+			assertEquals(taskConfigDto.getName(), mappedTaskConfigDto.getName());
+			assertEquals(taskConfigDto.getDescription(), mappedTaskConfigDto.getDescription());
+			assertEquals(taskConfigDto.getMaxBatchSize(), mappedTaskConfigDto.getMaxBatchSize());
+			assertEquals(taskConfigDto.getMaxRetriesForError(), mappedTaskConfigDto.getMaxRetriesForError());
+			assertEquals(taskConfigDto.getLeaseSeconds(), mappedTaskConfigDto.getLeaseSeconds());
+		}
+	}
+
+	@Test
+	public void whenJobConfigDtoMappedOntoJobConfig_thenTaskConfigsAreKept() throws Exception {
+
+		JobConfig jobConfig = jobConfigDtoMapper.fromDto(jobConfigDtoMockerUpper.create("myJob"));
+		List<TaskConfig> taskConfigs = jobConfig.getTaskConfigs();
+
+		JobConfigDto jobConfigDto = jobConfigDtoMockerUpper.create("myJob");
+		jobConfigDto.setDescription("changed");
+		jobConfigDto.setTaskConfigDtos(new ArrayList<>());
+		JobConfig mappedJobConfig = jobConfigDtoMapper.fromDto(jobConfigDto, jobConfig);
+
+		assertEquals("changed", mappedJobConfig.getDescription());
+		assertEquals(taskConfigs, mappedJobConfig.getTaskConfigs());
+		assertEquals(3, mappedJobConfig.getTaskConfigs().size());
+		assertNull(mappedJobConfig.getAuthToken());
+		assertNull(mappedJobConfig.getAuthTokenDigest());
+	}
+
+}
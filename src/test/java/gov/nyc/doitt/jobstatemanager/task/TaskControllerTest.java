@@ -1,53 +1,76 @@
 package gov.nyc.doitt.jobstatemanager.task;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.ArgumentMatchers;
 import org.mockito.InjectMocks;
 import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import gov.nyc.doitt.jobstatemanager.common.EntityNotFoundException;
 import gov.nyc.doitt.jobstatemanager.job.Job;
 import gov.nyc.doitt.jobstatemanager.job.JobDtoMockerUpper;
 import gov.nyc.doitt.jobstatemanager.job.JobMockerUpper;
-import gov.nyc.doitt.jobstatemanager.job.JobRepository;
+import gov.nyc.doitt.jobstatemanager.job.JobReadyEvent;
 import gov.nyc.doitt.jobstatemanager.job.JobState;
+import gov.nyc.doitt.jobstatemanager.job.JobStore;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfig;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigChangedEvent;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigDtoMockerUpper;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigMockerUpper;
+import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigPlan;
 import gov.nyc.doitt.jobstatemanager.jobconfig.JobConfigService;
 import gov.nyc.doitt.jobstatemanager.jobconfig.TaskConfig;
+import gov.nyc.doitt.jobstatemanager.security.Encryptor;
 import gov.nyc.doitt.jobstatemanager.security.JobAuthenticationManager;
 import gov.nyc.doitt.jobstatemanager.security.JobAuthorizer;
 import gov.nyc.doitt.jobstatemanager.test.BaseTest;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 public class TaskControllerTest extends BaseTest {
@@ -67,6 +90,12 @@ public class TaskControllerTest extends BaseTest {
 	@Autowired
 	private JobConfigDtoMockerUpper jobConfigDtoMockerUpper;
 
+	@Autowired
+	private Encryptor encryptor;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
 	@Autowired
 	@InjectMocks
 	private TaskService taskService;
@@ -80,7 +109,7 @@ public class TaskControllerTest extends BaseTest {
 	private JobAuthenticationManager jobAuthenticationManager;
 
 	// mocking/unmocking of this bean is done explicitly below
-	private JobRepository jobRepository;
+	private JobStore jobStore;
 
 	private MockMvc mockMvc;
 
@@ -94,7 +123,7 @@ public class TaskControllerTest extends BaseTest {
 	public void setUp() {
 		this.mockMvc = MockMvcBuilders.webAppContextSetup(getWac()).apply(springSecurity()).build();
 
-		jobRepository = mock(JobRepository.class);
+		jobStore = mock(JobStore.class);
 		jobConfigService = mock(JobConfigService.class);
 
 		MockitoAnnotations.initMocks(this);
@@ -105,9 +134,9 @@ public class TaskControllerTest extends BaseTest {
 	@After
 	public void tearDown() throws Exception {
 
-		// put back real JobRepository bean into TaskService
-		jobRepository = getApplicationContext().getBean(JobRepository.class);
-		ReflectionTestUtils.setField(taskService, "jobRepository", jobRepository);
+		// put back real JobStore bean into TaskService
+		jobStore = getApplicationContext().getBean(JobStore.class);
+		ReflectionTestUtils.setField(taskService, "jobStore", jobStore);
 
 		// put back real jobConfigService bean into JobAuthorizer
 		jobConfigService = getApplicationContext().getBean(JobConfigService.class);
@@ -126,11 +155,11 @@ public class TaskControllerTest extends BaseTest {
 		TaskConfig taskConfig = jobConfig.getTaskConfigs().get(0);
 		String taskName = taskConfig.getName();
 
-		when(jobRepository.findByJobNameAndStateInAndNextTaskName(eq(jobName), ArgumentMatchers.anyList(), eq(taskName),
-				any(PageRequest.class))).thenReturn(jobs);
+		// claimed jobs come back from the repository already started
+		jobs.forEach(p -> p.startTask(new Task(taskName)));
+		when(jobStore.claimJobs(eq(jobName), eq(taskName), eq(taskConfig.getMaxBatchSize()), isNull())).thenReturn(jobs);
 
-		when(jobConfigService.existsJobConfig(jobName)).thenReturn(true);
-		when(jobConfigService.getJobConfigDomain(jobName)).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
 
 		ResultActions resultActions = mockMvc
 				.perform(post(getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName).headers(httpHeaders)
@@ -149,9 +178,54 @@ public class TaskControllerTest extends BaseTest {
 		taskDtos.forEach(p -> {
 			assertEquals(TaskState.PROCESSING.toString(), p.getState());
 		});
+		assertEquals(jobs.size(), taskDtos.size());
+
+		verify(jobStore).claimJobs(eq(jobName), eq(taskName), eq(taskConfig.getMaxBatchSize()), isNull());
+	}
+	@Test
+	public void testStartTasks_succeedRecordsClaimMetrics() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(3);
+		String jobName = jobs.get(0).getJobName();
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		TaskConfig taskConfig = jobConfig.getTaskConfigs().get(0);
+		String taskName = taskConfig.getName();
+
+		jobs.forEach(p -> p.startTask(new Task(taskName)));
+		when(jobStore.claimJobs(eq(jobName), eq(taskName), eq(taskConfig.getMaxBatchSize()), isNull())).thenReturn(jobs)
+				.thenReturn(Collections.emptyList());
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		double emptyClaims = getClaimCount(jobName, taskName, "empty");
+		double claims = getClaimCount(jobName, taskName, "jobs");
 
-		verify(jobRepository, times(jobs.size())).save(any(Job.class));
+		// one claim with jobs, then an empty one
+		for (int i = 0; i < 2; i++) {
+			mockMvc.perform(post(getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName)
+					.headers(httpHeaders).contextPath(getContextRoot())).andDo(print()).andExpect(status().isOk());
+		}
+
+		assertEquals(claims + 1, getClaimCount(jobName, taskName, "jobs"), 0);
+		assertEquals(emptyClaims + 1, getClaimCount(jobName, taskName, "empty"), 0);
+		assertTrue(meterRegistry.find("jsm.tasks.claimed").tag("jobName", jobName).tag("taskName", taskName).summary()
+				.totalAmount() >= jobs.size());
+		assertTrue(meterRegistry.find("jsm.tasks.start").tag("jobName", jobName).tag("taskName", taskName).timer()
+				.count() >= 2);
+
+		String scrape = mockMvc.perform(get(getContextRoot() + "/actuator/prometheus").headers(httpHeaders)
+				.contextPath(getContextRoot())).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		assertTrue(scrape.contains("jsm_tasks_claims_total"));
+		assertTrue(scrape.contains("jsm_mongo_commands_seconds_bucket"));
+	}
+
+	private double getClaimCount(String jobName, String taskName, String result) {
+		return meterRegistry.find("jsm.tasks.claims").tag("jobName", jobName).tag("taskName", taskName)
+				.tag("result", result).counters().stream().mapToDouble(p -> p.count()).sum();
 	}
+
 	@Test
 	public void testStartTasks_failNoMatchAuthToken() throws Exception {
 
@@ -164,11 +238,9 @@ public class TaskControllerTest extends BaseTest {
 		TaskConfig taskConfig = jobConfig.getTaskConfigs().get(0);
 		String taskName = taskConfig.getName();
 
-		when(jobRepository.findByJobNameAndStateInAndNextTaskName(eq(jobName), ArgumentMatchers.anyList(), eq(taskName),
-				any(PageRequest.class))).thenReturn(jobs);
+		when(jobStore.claimJobs(eq(jobName), eq(taskName), anyInt(), any())).thenReturn(jobs);
 
-		when(jobConfigService.existsJobConfig(jobName)).thenReturn(true);
-		when(jobConfigService.getJobConfigDomain(jobName)).thenReturn(jobConfig);
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
 
 		ResultActions resultActions = mockMvc
 				.perform(post(getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName).headers(httpHeaders)
@@ -178,7 +250,256 @@ public class TaskControllerTest extends BaseTest {
 		String s = resultActions.andReturn().getResponse().getContentAsString();
 		assertEquals("{\"errors\":{\"accessDenied\":\"Access is denied\"}}", s);
 
-		verify(jobRepository, times(0)).save(any(Job.class));
+		verify(jobStore, times(0)).claimJobs(any(), any(), anyInt(), any());
+	}
+
+	@Test
+	public void testStartTasks_authorizedByDigestUntilJobConfigChanged() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		// own jobName so no grant is cached by other tests
+		String jobName = "authCacheTestJob";
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		String taskName = jobConfig.getTaskConfigs().get(0).getName();
+
+		// can't be decrypted, so only the digest can authorize
+		jobConfig.setAuthToken("notEncrypted");
+		jobConfig.setAuthTokenDigest(encryptor.digest(NON_ADMIN_AUTH_TOKEN));
+
+		when(jobStore.claimJobs(eq(jobName), eq(taskName), anyInt(), any())).thenReturn(Collections.emptyList());
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		String url = getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName;
+		mockMvc.perform(post(url).headers(httpHeaders).contextPath(getContextRoot())).andExpect(status().isOk());
+
+		// token no longer matches, but the grant is cached
+		jobConfig.setAuthTokenDigest(encryptor.digest("anotherToken"));
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+		mockMvc.perform(post(url).headers(httpHeaders).contextPath(getContextRoot())).andExpect(status().isOk());
+
+		getApplicationContext().publishEvent(new JobConfigChangedEvent(jobName));
+		mockMvc.perform(post(url).headers(httpHeaders).contextPath(getContextRoot())).andExpect(status().isForbidden());
+	}
+
+	@Test
+	public void testStartTasksWaiting_succeedWhenJobBecomesReady() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(3);
+		String jobName = jobs.get(0).getJobName();
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		TaskConfig taskConfig = jobConfig.getTaskConfigs().get(0);
+		String taskName = taskConfig.getName();
+		jobs.forEach(p -> p.startTask(new Task(taskName)));
+
+		// nothing ready at first, then ready jobs after JobReadyEvent
+		when(jobStore.claimJobs(eq(jobName), eq(taskName), anyInt(), any())).thenReturn(Collections.emptyList())
+				.thenReturn(jobs);
+
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		MvcResult mvcResult = mockMvc
+				.perform(post(getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName + "&waitMs=10000")
+						.headers(httpHeaders).contentType(MediaType.APPLICATION_JSON).contextPath(getContextRoot()))
+				.andExpect(request().asyncStarted()).andReturn();
+
+		getApplicationContext().publishEvent(new JobReadyEvent(jobName, taskName));
+
+		ResultActions resultActions = mockMvc.perform(asyncDispatch(mvcResult)).andDo(print()).andExpect(status().isOk());
+
+		List<TaskDto> taskDtos = taskDtosJsonAsObject(resultActions.andReturn().getResponse().getContentAsString());
+		assertEquals(jobs.size(), taskDtos.size());
+
+		verify(jobStore, times(2)).claimJobs(eq(jobName), eq(taskName), anyInt(), any());
+	}
+
+	@Test
+	public void testReleaseJobs_succeedReadyWithoutCountingError() throws Exception {
+
+		List<Job> jobs = jobMockerUpper.createList(2);
+		String jobName = jobs.get(0).getJobName();
+		String taskName = jobConfigMockerUpper.create(jobName).getTaskConfigs().get(0).getName();
+		jobs.forEach(p -> {
+			p.setNextTaskName(taskName);
+			p.startTask(new Task(taskName));
+		});
+		when(jobStore.saveTaskResults(eq(taskName), anyList(), isNull())).thenReturn(Collections.emptySet());
+
+		// claimed for a long-poll request that expired before it got them
+		assertTrue(taskService.releaseJobs(jobName, taskName, jobs).isEmpty());
+
+		verify(jobStore, times(1)).saveTaskResults(eq(taskName), eq(jobs), isNull());
+		for (Job job : jobs) {
+			assertEquals(JobState.READY, job.getState());
+			assertEquals(taskName, job.getNextTaskName());
+			assertEquals(TaskState.ERROR, job.getLastTask().getState());
+			assertTrue(job.getLastTask().getArchived());
+			assertEquals(0, job.getTotalErrorCountForTask(taskName));
+		}
+	}
+
+	@Test
+	public void testEndTasks_succeedWithPerItemResults() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(3);
+		String jobName = jobs.get(0).getJobName();
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		String taskName = jobConfig.getTaskConfigs().get(0).getName();
+		String nextTaskName = jobConfig.getTaskConfigs().get(1).getName();
+		jobs.forEach(p -> {
+			p.setNextTaskName(taskName);
+			p.startTask(new Task(taskName));
+		});
+
+		List<TaskDto> taskDtos = jobs.stream().map(p -> {
+			TaskDto taskDto = new TaskDto();
+			taskDto.setJobId(p.getJobId());
+			taskDto.setState(TaskState.COMPLETED.toString());
+			return taskDto;
+		}).collect(Collectors.toList());
+
+		// last job is not processing this task any more
+		List<Job> foundJobs = jobs.subList(0, 2);
+		when(jobStore.findByJobNameAndJobIdInAndStateInAndNextTaskName(eq(jobName), anyList(), anyList(), eq(taskName)))
+				.thenReturn(foundJobs);
+		when(jobStore.saveTaskResults(eq(taskName), anyList(), isNull())).thenReturn(Collections.emptySet());
+
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		ResultActions resultActions = mockMvc
+				.perform(put(getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName).headers(httpHeaders)
+						.contentType(MediaType.APPLICATION_JSON).content(asJsonString(taskDtos)).contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk());
+
+		String content = resultActions.andReturn().getResponse().getContentAsString();
+		List<TaskDto> resultTaskDtos = taskDtosJsonAsObject(content);
+
+		assertEquals(taskDtos.size(), resultTaskDtos.size());
+		for (int i = 0; i < foundJobs.size(); i++) {
+			assertEquals(TaskState.COMPLETED.toString(), resultTaskDtos.get(i).getState());
+			assertNull(resultTaskDtos.get(i).getResultError());
+			assertEquals(JobState.READY, foundJobs.get(i).getState());
+			assertEquals(nextTaskName, foundJobs.get(i).getNextTaskName());
+		}
+		assertEquals(jobs.get(2).getJobId(), resultTaskDtos.get(2).getJobId());
+		assertNotNull(resultTaskDtos.get(2).getResultError());
+
+		verify(jobStore).saveTaskResults(eq(taskName), eq(foundJobs), isNull());
+	}
+
+	@Test
+	public void testExtendLeases_succeedWithPerItemResults() throws Exception {
+
+		httpHeaders.add("Authorization", "Bearer " + NON_ADMIN_AUTH_TOKEN);
+
+		List<Job> jobs = jobMockerUpper.createList(3);
+		String jobName = jobs.get(0).getJobName();
+
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		TaskConfig taskConfig = jobConfig.getTaskConfigs().get(0);
+		taskConfig.setLeaseSeconds(60);
+		String taskName = taskConfig.getName();
+
+		List<TaskDto> taskDtos = jobs.stream().map(p -> {
+			TaskDto taskDto = new TaskDto();
+			taskDto.setJobId(p.getJobId());
+			return taskDto;
+		}).collect(Collectors.toList());
+
+		// last job's lease has already been reclaimed
+		Set<String> extendedJobIds = new HashSet<>(Arrays.asList(jobs.get(0).getJobId(), jobs.get(1).getJobId()));
+		when(jobStore.extendLeases(eq(jobName), eq(taskName), anyList(), any(Timestamp.class))).thenReturn(extendedJobIds);
+
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		long now = System.currentTimeMillis();
+		ResultActions resultActions = mockMvc
+				.perform(patch(getContextRoot() + "/tasks" + "?jobName=" + jobName + "&taskName=" + taskName)
+						.headers(httpHeaders).contentType(MediaType.APPLICATION_JSON).content(asJsonString(taskDtos))
+						.contextPath(getContextRoot()))
+				.andDo(print()).andExpect(status().isOk());
+
+		String content = resultActions.andReturn().getResponse().getContentAsString();
+		List<TaskDto> resultTaskDtos = taskDtosJsonAsObject(content);
+
+		assertEquals(taskDtos.size(), resultTaskDtos.size());
+		for (int i = 0; i < 2; i++) {
+			assertNull(resultTaskDtos.get(i).getResultError());
+			assertTrue(resultTaskDtos.get(i).getLeaseExpiresTimestamp().getTime() >= now + 60000);
+		}
+		assertNotNull(resultTaskDtos.get(2).getResultError());
+		assertNull(resultTaskDtos.get(2).getLeaseExpiresTimestamp());
+	}
+
+	@Test
+	public void testEndExpiredTasks_succeedRetryOrError() throws Exception {
+
+		List<Job> jobs = jobMockerUpper.createList(2);
+		String jobName = jobs.get(0).getJobName();
+
+		// a task that allows one retry
+		JobConfig jobConfig = jobConfigMockerUpper.create(jobName);
+		TaskConfig taskConfig = jobConfig.getTaskConfigs().get(1);
+		String taskName = taskConfig.getName();
+		jobs.forEach(p -> p.setNextTaskName(taskName));
+
+		// first job can be retried, second has used up its retries
+		jobs.get(0).startTask(new Task(taskName));
+		for (int i = 0; i <= taskConfig.getMaxRetriesForError(); i++) {
+			if (i > 0) {
+				jobs.get(1).endTaskWithError(jobs.get(1).getLastTask(), "error" + i);
+			}
+			jobs.get(1).startTask(new Task(taskName));
+		}
+
+		when(jobStore.findByStateAndLeaseExpiresTimestampLessThan(eq(JobState.PROCESSING), any(Timestamp.class),
+				any(Pageable.class))).thenReturn(jobs);
+		when(jobStore.saveTaskResults(eq(taskName), anyList(), any(Timestamp.class))).thenReturn(Collections.emptySet());
+		when(jobConfigService.getJobConfigPlan(jobName)).thenReturn(new JobConfigPlan(jobConfig));
+
+		assertEquals(2, taskService.endExpiredTasks(100));
+
+		assertEquals(JobState.READY, jobs.get(0).getState());
+		assertEquals(JobState.ERROR, jobs.get(1).getState());
+		jobs.forEach(p -> {
+			assertEquals(TaskState.ERROR, p.getLastTask().getState());
+			assertEquals(TaskService.LEASE_EXPIRED_ERROR_REASON, p.getLastTask().getErrorReason());
+		});
+		verify(jobStore).saveTaskResults(eq(taskName), eq(jobs), any(Timestamp.class));
+	}
+
+	@Test
+	public void testEndExpiredTasks_errorWhenJobConfigGone() throws Exception {
+
+		List<Job> jobs = jobMockerUpper.createList(2);
+		String jobName = jobs.get(0).getJobName();
+		String taskName = "deletedTask";
+		jobs.forEach(p -> {
+			p.setNextTaskName(taskName);
+			p.startTask(new Task(taskName));
+		});
+
+		when(jobStore.findByStateAndLeaseExpiresTimestampLessThan(eq(JobState.PROCESSING), any(Timestamp.class),
+				any(Pageable.class))).thenReturn(jobs);
+		when(jobStore.saveTaskResults(eq(taskName), anyList(), any(Timestamp.class))).thenReturn(Collections.emptySet());
+		when(jobConfigService.getJobConfigPlan(jobName))
+				.thenThrow(new EntityNotFoundException("Can't find JobConfig for jobName=" + jobName));
+
+		// ended, so they don't come back at the head of the next batch
+		assertEquals(2, taskService.endExpiredTasks(100));
+
+		jobs.forEach(p -> {
+			assertEquals(JobState.ERROR, p.getState());
+			assertEquals(TaskState.ERROR, p.getLastTask().getState());
+			assertEquals(TaskService.CONFIG_NOT_FOUND_ERROR_REASON, p.getLastTask().getErrorReason());
+		});
+		verify(jobStore).saveTaskResults(eq(taskName), eq(jobs), any(Timestamp.class));
 	}
 
 	private List<TaskDto> taskDtosJsonAsObject(String json) {
@@ -0,0 +1,127 @@
+package gov.nyc.doitt.jobstatemanager.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.nyc.doitt.jobstatemanager.common.JobStateManagerException;
+import gov.nyc.doitt.jobstatemanager.job.Job;
+
+/**
+ * TaskDtoMapper needs no MongoDB, so it is tested without an application context
+ */
+public class TaskDtoMapperTest {
+
+	private TaskDtoMapper taskDtoMapper = new TaskDtoMapper();
+
+	private String taskName = "task0";
+
+	@Test
+	public void whenTaskMappedToDtoAndBack_thenItsPropertiesAreKept() {
+
+		Job job = createJob("jobId0");
+		Task task = startTask(job);
+		task.setErrorReason("reason");
+
+		TaskDto taskDto = taskDtoMapper.toDto(job, task);
+		assertEquals(taskName, taskDto.getName());
+		assertEquals("jobId0", taskDto.getJobId());
+		assertEquals(TaskState.PROCESSING.name(), taskDto.getState());
+		assertEquals(task.getStartTimestamp(), taskDto.getStartTimestamp());
+		assertNull(taskDto.getEndTimestamp());
+
+		Task mappedTask = taskDtoMapper.fromDto(taskDto);
+		assertEquals(task.getName(), mappedTask.getName());
+		assertEquals(task.getErrorReason(), mappedTask.getErrorReason());
+		assertEquals(task.getArchived(), mappedTask.getArchived());
+		// state and timestamps are only changed by Task itself
+		assertNull(mappedTask.getState());
+		assertNull(mappedTask.getStartTimestamp());
+	}
+
+	@Test
+	public void whenJobsMappedForTask_thenTheirLastTasksAreMapped() {
+
+		Job job0 = createJob("jobId0");
+		startTask(job0);
+		Job job1 = createJob("jobId1");
+		startTask(job1);
+
+		List<TaskDto> taskDtos = taskDtoMapper.toDto(Arrays.asList(job0, job1), taskName);
+		assertEquals(2, taskDtos.size());
+		assertEquals("jobId0", taskDtos.get(0).getJobId());
+		assertEquals("jobId1", taskDtos.get(1).getJobId());
+	}
+
+	@Test
+	public void whenResultMapped_thenTaskEnded() {
+
+		Job job = createJob("jobId0");
+		Task task = startTask(job);
+		taskDtoMapper.fromDtoResult(createResult(TaskState.COMPLETED, null), job, task);
+		assertEquals(TaskState.COMPLETED, task.getState());
+		assertNotNull(task.getEndTimestamp());
+		assertEquals(0, job.getTotalErrorCountForTask(taskName));
+
+		task = startTask(job);
+		taskDtoMapper.fromDtoResult(createResult(TaskState.ERROR, "failed"), job, task);
+		assertEquals(TaskState.ERROR, task.getState());
+		assertEquals("failed", task.getErrorReason());
+		assertEquals(1, job.getTotalErrorCountForTask(taskName));
+		assertEquals(1, taskDtoMapper.toDto(job, task).getErrorCount());
+	}
+
+	@Test
+	public void whenResultNotMappable_thenFails() {
+
+		Job job = createJob("jobId0");
+		Task task = startTask(job);
+		try {
+			taskDtoMapper.fromDtoResult(createResult(TaskState.PROCESSING, null), job, task);
+			fail("PROCESSING is not a result");
+		} catch (JobStateManagerException e) {
+			assertEquals(TaskState.PROCESSING, task.getState());
+		}
+
+		task.endWithSuccess();
+		try {
+			taskDtoMapper.fromDtoResult(createResult(TaskState.ERROR, "failed"), job, task);
+			fail("task already ended");
+		} catch (JobStateManagerException e) {
+			assertEquals(TaskState.COMPLETED, task.getState());
+			assertEquals(0, job.getTotalErrorCountForTask(taskName));
+		}
+	}
+
+	private Job createJob(String jobId) {
+
+		Job job = new Job();
+		job.setJobName("myJob");
+		job.setJobId(jobId);
+		return job;
+	}
+
+	private Task startTask(Job job) {
+
+		Task task = new Task(taskName);
+		task.setArchived(false);
+		job.startTask(task);
+		return task;
+	}
+
+	private TaskDto createResult(TaskState state, String errorReason) {
+
+		TaskDto taskDto = new TaskDto();
+		taskDto.setName(taskName);
+		taskDto.setState(state.name());
+		taskDto.setErrorReason(errorReason);
+		return taskDto;
+	}
+
+}
@@ -27,7 +27,7 @@ import gov.nyc.doitt.jobstatemanager.security.Role;
 @PropertySource("classpath:application.properties")
 @ContextConfiguration(classes = { AppConfig.class })
 @WebAppConfiguration
-@SpringBootTest(classes = JobStateManagerSpringBootApplication.class)
+@SpringBootTest(classes = JobStateManagerSpringBootApplication.class, properties = "auth.token.digest.key=testDigestKey")
 public abstract class BaseTest {
 
 	@Value("${server.servlet.context-path}")